@@ -0,0 +1,37 @@
+/*
+ * Copyright 2016 Netflix, Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.netflix.hystrix.contrib.collapserprocessor;
+
+import java.lang.annotation.ElementType;
+import java.lang.annotation.Retention;
+import java.lang.annotation.RetentionPolicy;
+import java.lang.annotation.Target;
+
+/**
+ * Marks a single-key method, such as <code>V get(K key)</code>, to get a generated HystrixCollapser that collapses its calls into calls of a {@link Batch} method.
+ * <p>
+ * For a method <code>get</code> of <code>UserService</code> the class <code>UserServiceGetCollapser</code> is generated in the same package.
+ * See {@link CollapsedProcessor}.
+ */
+@Retention(RetentionPolicy.SOURCE)
+@Target(ElementType.METHOD)
+public @interface Collapsed {
+
+    /**
+     * @return name of the {@link Batch} method to collapse into, may be left empty if the type has only one {@link Batch} method with matching key and value types
+     */
+    String batchMethod() default "";
+}
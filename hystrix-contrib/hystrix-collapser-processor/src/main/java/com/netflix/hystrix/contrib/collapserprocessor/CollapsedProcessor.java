@@ -0,0 +1,289 @@
+/*
+ * Copyright 2016 Netflix, Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.netflix.hystrix.contrib.collapserprocessor;
+
+import javax.annotation.processing.AbstractProcessor;
+import javax.annotation.processing.RoundEnvironment;
+import javax.annotation.processing.SupportedAnnotationTypes;
+import javax.lang.model.SourceVersion;
+import javax.lang.model.element.Element;
+import javax.lang.model.element.ExecutableElement;
+import javax.lang.model.element.Modifier;
+import javax.lang.model.element.TypeElement;
+import javax.lang.model.type.DeclaredType;
+import javax.lang.model.type.TypeKind;
+import javax.lang.model.type.TypeMirror;
+import javax.lang.model.util.ElementFilter;
+import javax.lang.model.util.Elements;
+import javax.lang.model.util.Types;
+import javax.tools.Diagnostic;
+import java.io.IOException;
+import java.io.Writer;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Set;
+
+/**
+ * Generates a HystrixCollapser and its batch HystrixCommand for each {@link Collapsed} method, collapsing into the paired {@link Batch} method.
+ * <p>
+ * For
+ * <pre> {@code
+ * public interface UserService {
+ *     @Collapsed User get(long id);
+ *     @Batch Map<Long, User> getAll(Collection<Long> ids);
+ * }
+ * } </pre>
+ * the class <code>UserServiceGetCollapser</code> is generated with the collapser key <code>UserService.get</code>, the command group key
+ * <code>UserService</code> and the command key <code>UserService.getAll</code>:
+ * <pre> {@code
+ * User user = new UserServiceGetCollapser(userService, 42L).execute();
+ * } </pre>
+ * The generated <code>mapResponseToRequests</code> does one lookup in the returned Map per request and allocates nothing, so mapping a batch is linear
+ * in its size. The generated code only depends on collapserx1-core, no reflection is used at runtime.
+ */
+@SupportedAnnotationTypes({ "com.netflix.hystrix.contrib.collapserprocessor.Collapsed", "com.netflix.hystrix.contrib.collapserprocessor.Batch" })
+public class CollapsedProcessor extends AbstractProcessor {
+
+    @Override
+    public SourceVersion getSupportedSourceVersion() {
+        return SourceVersion.latestSupported();
+    }
+
+    @Override
+    public boolean process(Set<? extends TypeElement> annotations, RoundEnvironment roundEnv) {
+        for (Element element : roundEnv.getElementsAnnotatedWith(Batch.class)) {
+            ExecutableElement batchMethod = (ExecutableElement) element;
+            String invalid = validateBatchMethod(batchMethod);
+            if (invalid != null) {
+                error(batchMethod, invalid);
+            }
+        }
+        for (Element element : roundEnv.getElementsAnnotatedWith(Collapsed.class)) {
+            ExecutableElement collapsedMethod = (ExecutableElement) element;
+            try {
+                generate(collapsedMethod);
+            } catch (IOException e) {
+                error(collapsedMethod, "Could not write the collapser: " + e);
+            }
+        }
+        // other processors may use the annotations as well
+        return false;
+    }
+
+    private void generate(ExecutableElement collapsedMethod) throws IOException {
+        Types types = processingEnv.getTypeUtils();
+        Elements elements = processingEnv.getElementUtils();
+        TypeElement service = (TypeElement) collapsedMethod.getEnclosingElement();
+
+        if (!service.getTypeParameters().isEmpty()) {
+            error(collapsedMethod, "@Collapsed is not supported on generic types");
+            return;
+        }
+        if (collapsedMethod.getModifiers().contains(Modifier.STATIC) || collapsedMethod.getModifiers().contains(Modifier.PRIVATE)) {
+            error(collapsedMethod, "@Collapsed method must not be static or private");
+            return;
+        }
+        if (collapsedMethod.getParameters().size() != 1 || collapsedMethod.getReturnType().getKind() == TypeKind.VOID) {
+            error(collapsedMethod, "@Collapsed method must take a single key and return a value");
+            return;
+        }
+        TypeMirror keyType = boxed(collapsedMethod.getParameters().get(0).asType());
+        TypeMirror valueType = boxed(collapsedMethod.getReturnType());
+
+        String batchMethodName = collapsedMethod.getAnnotation(Collapsed.class).batchMethod();
+        List<ExecutableElement> candidates = new ArrayList<>();
+        for (ExecutableElement method : ElementFilter.methodsIn(elements.getAllMembers(service))) {
+            if (method.getAnnotation(Batch.class) != null && validateBatchMethod(method) == null
+                    && (batchMethodName.isEmpty() || method.getSimpleName().contentEquals(batchMethodName))
+                    && types.isSameType(keyType, typeArgument(method.getParameters().get(0).asType(), 0))
+                    && types.isSameType(keyType, typeArgument(method.getReturnType(), 0))
+                    && types.isSameType(valueType, typeArgument(method.getReturnType(), 1))) {
+                candidates.add(method);
+            }
+        }
+        if (candidates.size() != 1) {
+            error(collapsedMethod, (candidates.isEmpty() ? "No" : "More than one") + " @Batch method"
+                    + (batchMethodName.isEmpty() ? "" : " named " + batchMethodName) + " taking a Collection, List or Set of " + keyType + " and returning a Map<" + keyType + ", " + valueType + ">");
+            return;
+        }
+        ExecutableElement batchMethod = candidates.get(0);
+
+        String packageName = elements.getPackageOf(service).getQualifiedName().toString();
+        String serviceName = flatName(service);
+        String className = serviceName + capitalize(collapsedMethod.getSimpleName().toString()) + "Collapser";
+        String serviceType = service.getQualifiedName().toString();
+        String batchType = "java.util.Map<" + keyType + ", " + valueType + ">";
+        String requestType = "com.netflix.hystrix.HystrixCollapser.CollapsedRequest<" + valueType + ", " + keyType + ">";
+        String keysType = types.erasure(batchMethod.getParameters().get(0).asType()).toString() + "<" + keyType + ">";
+        String keysImplementation = types.isSameType(types.erasure(batchMethod.getParameters().get(0).asType()), types.erasure(elements.getTypeElement(Set.class.getName()).asType()))
+                ? "java.util.LinkedHashSet" : "java.util.ArrayList";
+        String batchLink = serviceType + "#" + batchMethod.getSimpleName();
+        String generatedType = generatedAnnotationType(elements);
+
+        try (Writer w = processingEnv.getFiler().createSourceFile(packageName.isEmpty() ? className : packageName + "." + className, collapsedMethod, batchMethod).openWriter()) {
+            if (!packageName.isEmpty()) {
+                w.write("package " + packageName + ";\n\n");
+            }
+            w.write("/**\n"
+                    + " * Collapses {@link " + serviceType + "#" + collapsedMethod.getSimpleName() + "} into {@link " + batchLink + "}.\n"
+                    + " * <p>\n"
+                    + " * Generated by " + CollapsedProcessor.class.getName() + ", do not edit.\n"
+                    + " */\n"
+                    + (generatedType != null ? "@" + generatedType + "(\"" + CollapsedProcessor.class.getName() + "\")\n" : "")
+                    + "public class " + className + " extends com.netflix.hystrix.HystrixCollapser<" + batchType + ", " + valueType + ", " + keyType + "> {\n"
+                    + "    public static final com.netflix.hystrix.HystrixCollapserKey COLLAPSER_KEY = com.netflix.hystrix.HystrixCollapserKey.Factory.asKey(\"" + serviceName + "." + collapsedMethod.getSimpleName() + "\");\n"
+                    + "    public static final com.netflix.hystrix.HystrixCommandGroupKey GROUP_KEY = com.netflix.hystrix.HystrixCommandGroupKey.Factory.asKey(\"" + serviceName + "\");\n"
+                    + "    public static final com.netflix.hystrix.HystrixCommandKey COMMAND_KEY = com.netflix.hystrix.HystrixCommandKey.Factory.asKey(\"" + serviceName + "." + batchMethod.getSimpleName() + "\");\n"
+                    + "\n"
+                    + "    private final com.netflix.hystrix.HystrixCommand.Setter commandSetter;\n"
+                    + "    private final " + serviceType + " service;\n"
+                    + "    private final " + keyType + " key;\n"
+                    + "\n"
+                    + "    public " + className + "(" + serviceType + " service, " + keyType + " key) {\n"
+                    + "        this(com.netflix.hystrix.HystrixCollapser.Setter.withCollapserKey(COLLAPSER_KEY), com.netflix.hystrix.HystrixCommand.Setter.withGroupKey(GROUP_KEY).andCommandKey(COMMAND_KEY), service, key);\n"
+                    + "    }\n"
+                    + "\n"
+                    + "    public " + className + "(com.netflix.hystrix.HystrixCollapser.Setter collapserSetter, com.netflix.hystrix.HystrixCommand.Setter commandSetter, " + serviceType + " service, " + keyType + " key) {\n"
+                    + "        super(collapserSetter);\n"
+                    + "        this.commandSetter = commandSetter;\n"
+                    + "        this.service = service;\n"
+                    + "        this.key = key;\n"
+                    + "    }\n"
+                    + "\n"
+                    + "    @Override\n"
+                    + "    public " + keyType + " getRequestArgument() {\n"
+                    + "        return key;\n"
+                    + "    }\n"
+                    + "\n"
+                    + "    @Override\n"
+                    + "    protected com.netflix.hystrix.HystrixCommand<" + batchType + "> createCommand(java.util.Collection<" + requestType + "> requests) {\n"
+                    + "        " + keysType + " keys = new " + keysImplementation + "<" + keyType + ">(requests.size());\n"
+                    + "        for (" + requestType + " request : requests) {\n"
+                    + "            keys.add(request.getArgument());\n"
+                    + "        }\n"
+                    + "        return new BatchCommand(commandSetter, service, keys);\n"
+                    + "    }\n"
+                    + "\n"
+                    + "    @Override\n"
+                    + "    protected void mapResponseToRequests(" + batchType + " batchResponse, java.util.Collection<" + requestType + "> requests) {\n"
+                    + "        if (batchResponse == null) {\n"
+                    + "            NullPointerException e = new NullPointerException(\"" + serviceType + "." + batchMethod.getSimpleName() + " returned null\");\n"
+                    + "            for (" + requestType + " request : requests) {\n"
+                    + "                request.setException(e);\n"
+                    + "            }\n"
+                    + "            return;\n"
+                    + "        }\n"
+                    + "        for (" + requestType + " request : requests) {\n"
+                    + "            request.setResponse(batchResponse.get(request.getArgument()));\n"
+                    + "        }\n"
+                    + "    }\n"
+                    + "\n"
+                    + "    /**\n"
+                    + "     * Calls {@link " + batchLink + "} with the keys of a batch.\n"
+                    + "     */\n"
+                    + "    public static class BatchCommand extends com.netflix.hystrix.HystrixCommand<" + batchType + "> {\n"
+                    + "        private final " + serviceType + " service;\n"
+                    + "        private final " + keysType + " keys;\n"
+                    + "\n"
+                    + "        public BatchCommand(com.netflix.hystrix.HystrixCommand.Setter setter, " + serviceType + " service, " + keysType + " keys) {\n"
+                    + "            super(setter);\n"
+                    + "            this.service = service;\n"
+                    + "            this.keys = keys;\n"
+                    + "        }\n"
+                    + "\n"
+                    + "        @Override\n"
+                    + "        protected " + batchType + " run() throws Exception {\n"
+                    + "            return service." + batchMethod.getSimpleName() + "(keys);\n"
+                    + "        }\n"
+                    + "    }\n"
+                    + "}\n");
+        }
+    }
+
+    /**
+     * @return null if the method is a valid {@link Batch} method, otherwise why it is not
+     */
+    private String validateBatchMethod(ExecutableElement method) {
+        if (method.getModifiers().contains(Modifier.STATIC) || method.getModifiers().contains(Modifier.PRIVATE)) {
+            return "@Batch method must not be static or private";
+        }
+        if (method.getParameters().size() != 1 || !isCollectionOfKeys(method.getParameters().get(0).asType())) {
+            return "@Batch method must take a single Collection, List or Set of keys";
+        }
+        if (!isErasureOf(method.getReturnType(), "java.util.Map") || ((DeclaredType) method.getReturnType()).getTypeArguments().size() != 2) {
+            return "@Batch method must return a Map from key to value";
+        }
+        return null;
+    }
+
+    private boolean isCollectionOfKeys(TypeMirror type) {
+        return (isErasureOf(type, "java.util.Collection") || isErasureOf(type, "java.util.List") || isErasureOf(type, "java.util.Set"))
+                && ((DeclaredType) type).getTypeArguments().size() == 1;
+    }
+
+    private boolean isErasureOf(TypeMirror type, String className) {
+        if (type.getKind() != TypeKind.DECLARED) {
+            return false;
+        }
+        Types types = processingEnv.getTypeUtils();
+        return types.isSameType(types.erasure(type), types.erasure(processingEnv.getElementUtils().getTypeElement(className).asType()));
+    }
+
+    private static TypeMirror typeArgument(TypeMirror type, int index) {
+        return ((DeclaredType) type).getTypeArguments().get(index);
+    }
+
+    private TypeMirror boxed(TypeMirror type) {
+        if (type.getKind().isPrimitive()) {
+            return processingEnv.getTypeUtils().boxedClass(processingEnv.getTypeUtils().getPrimitiveType(type.getKind())).asType();
+        }
+        return type;
+    }
+
+    /*
+     * javax.annotation.Generated is not in the JDK since 9 unless compiling with --release 8, javax.annotation.processing.Generated replaces it since 9.
+     * Null if neither is available, the generated source is then not annotated.
+     */
+    private static String generatedAnnotationType(Elements elements) {
+        for (String name : new String[] { "javax.annotation.processing.Generated", "javax.annotation.Generated" }) {
+            if (elements.getTypeElement(name) != null) {
+                return name;
+            }
+        }
+        return null;
+    }
+
+    /*
+     * Simple names of a nested type and the types it is nested in, so the generated class does not clash with the collapsers of another type.
+     */
+    private static String flatName(TypeElement type) {
+        String name = type.getSimpleName().toString();
+        Element enclosing = type.getEnclosingElement();
+        while (enclosing.getKind().isClass() || enclosing.getKind().isInterface()) {
+            name = enclosing.getSimpleName() + name;
+            enclosing = enclosing.getEnclosingElement();
+        }
+        return name;
+    }
+
+    private static String capitalize(String name) {
+        return Character.toUpperCase(name.charAt(0)) + name.substring(1);
+    }
+
+    private void error(Element element, String message) {
+        processingEnv.getMessager().printMessage(Diagnostic.Kind.ERROR, message, element);
+    }
+}
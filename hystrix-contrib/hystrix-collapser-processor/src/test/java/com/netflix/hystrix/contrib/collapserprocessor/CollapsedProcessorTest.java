@@ -0,0 +1,153 @@
+/*
+ * Copyright 2016 Netflix, Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.netflix.hystrix.contrib.collapserprocessor;
+
+import com.netflix.hystrix.HystrixCollapser;
+import com.netflix.hystrix.HystrixCollapserKey;
+import com.netflix.hystrix.HystrixCollapserProperties;
+import com.netflix.hystrix.HystrixCommand;
+import com.netflix.hystrix.HystrixCommandGroupKey;
+import com.netflix.hystrix.strategy.concurrency.HystrixRequestContext;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+import javax.tools.Diagnostic;
+import javax.tools.DiagnosticCollector;
+import javax.tools.JavaCompiler;
+import javax.tools.JavaFileObject;
+import javax.tools.SimpleJavaFileObject;
+import javax.tools.ToolProvider;
+import java.lang.reflect.Proxy;
+import java.net.URI;
+import java.net.URL;
+import java.net.URLClassLoader;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collection;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
+
+import static org.junit.Assert.*;
+
+public class CollapsedProcessorTest {
+    @Rule
+    public TemporaryFolder output = new TemporaryFolder();
+
+    private final DiagnosticCollector<JavaFileObject> diagnostics = new DiagnosticCollector<>();
+
+    @Test
+    public void testGeneratedCollapserBatchesCalls() throws Exception {
+        assertTrue(diagnostics.getDiagnostics().toString(), compile("test.UserService", "package test;\n"
+                + "import com.netflix.hystrix.contrib.collapserprocessor.*;\n"
+                + "import java.util.*;\n"
+                + "public interface UserService {\n"
+                + "    @Collapsed String get(long id);\n"
+                + "    @Batch Map<Long, String> getAll(Collection<Long> ids);\n"
+                + "}\n"));
+
+        URLClassLoader classLoader = new URLClassLoader(new URL[] { output.getRoot().toURI().toURL() }, getClass().getClassLoader());
+        Class<?> serviceType = classLoader.loadClass("test.UserService");
+        Class<?> collapserType = classLoader.loadClass("test.UserServiceGetCollapser");
+        final ConcurrentLinkedQueue<Collection<?>> batches = new ConcurrentLinkedQueue<>();
+        Object service = Proxy.newProxyInstance(classLoader, new Class<?>[] { serviceType }, (proxy, method, args) -> {
+            Collection<?> ids = (Collection<?>) args[0];
+            batches.add(ids);
+            Map<Long, String> users = new HashMap<>();
+            for (Object id : ids) {
+                // 3 is missing
+                if (!id.equals(3L)) {
+                    users.put((Long) id, "user" + id);
+                }
+            }
+            return users;
+        });
+
+        HystrixRequestContext context = HystrixRequestContext.initializeContext();
+        try {
+            // a long window so all requests end up in the same batch
+            HystrixCollapser.Setter collapserSetter = HystrixCollapser.Setter.withCollapserKey(HystrixCollapserKey.Factory.asKey("CollapsedProcessorTest"))
+                    .andCollapserPropertiesDefaults(HystrixCollapserProperties.Setter().withTimerDelayInMilliseconds(200));
+            HystrixCommand.Setter commandSetter = HystrixCommand.Setter.withGroupKey(HystrixCommandGroupKey.Factory.asKey("CollapsedProcessorTest"));
+            List<Future<String>> responses = new ArrayList<>();
+            for (long id = 1; id <= 3; id++) {
+                @SuppressWarnings("unchecked")
+                HystrixCollapser<?, String, Long> collapser = (HystrixCollapser<?, String, Long>) collapserType.getConstructor(HystrixCollapser.Setter.class, HystrixCommand.Setter.class, serviceType, Long.class)
+                        .newInstance(collapserSetter, commandSetter, service, id);
+                responses.add(collapser.queue());
+            }
+
+            assertEquals("user1", responses.get(0).get(1000, TimeUnit.MILLISECONDS));
+            assertEquals("user2", responses.get(1).get(1000, TimeUnit.MILLISECONDS));
+            assertNull(responses.get(2).get(1000, TimeUnit.MILLISECONDS));
+            assertEquals(1, batches.size());
+            assertEquals(Arrays.asList(1L, 2L, 3L), new ArrayList<>(batches.peek()));
+        } finally {
+            context.shutdown();
+        }
+    }
+
+    @Test
+    public void testReportsMissingBatchMethod() throws Exception {
+        assertFalse(compile("test.MissingBatch", "package test;\n"
+                + "import com.netflix.hystrix.contrib.collapserprocessor.*;\n"
+                + "import java.util.*;\n"
+                + "public interface MissingBatch {\n"
+                + "    @Collapsed String get(long id);\n"
+                + "    @Batch Map<String, String> getAll(Collection<String> ids);\n"
+                + "}\n"));
+        assertTrue(errors().contains("No @Batch method taking a Collection, List or Set of java.lang.Long and returning a Map<java.lang.Long, java.lang.String>"));
+    }
+
+    @Test
+    public void testReportsInvalidBatchMethod() throws Exception {
+        assertFalse(compile("test.InvalidBatch", "package test;\n"
+                + "import com.netflix.hystrix.contrib.collapserprocessor.*;\n"
+                + "import java.util.*;\n"
+                + "public interface InvalidBatch {\n"
+                + "    @Batch List<String> getAll(Collection<String> ids);\n"
+                + "}\n"));
+        assertTrue(errors().contains("@Batch method must return a Map from key to value"));
+    }
+
+    private boolean compile(String className, String source) {
+        JavaCompiler compiler = ToolProvider.getSystemJavaCompiler();
+        JavaFileObject file = new SimpleJavaFileObject(URI.create("string:///" + className.replace('.', '/') + ".java"), JavaFileObject.Kind.SOURCE) {
+            @Override
+            public CharSequence getCharContent(boolean ignoreEncodingErrors) {
+                return source;
+            }
+        };
+        List<String> options = Arrays.asList("-d", output.getRoot().getPath(), "-s", output.getRoot().getPath(), "-classpath", System.getProperty("java.class.path"));
+        JavaCompiler.CompilationTask task = compiler.getTask(null, null, diagnostics, options, null, Arrays.asList(file));
+        task.setProcessors(Arrays.asList(new CollapsedProcessor()));
+        return task.call();
+    }
+
+    private String errors() {
+        StringBuilder errors = new StringBuilder();
+        for (Diagnostic<? extends JavaFileObject> diagnostic : diagnostics.getDiagnostics()) {
+            if (diagnostic.getKind() == Diagnostic.Kind.ERROR) {
+                errors.append(diagnostic.getMessage(null)).append('\n');
+            }
+        }
+        return errors.toString();
+    }
+}
@@ -0,0 +1,102 @@
+/*
+ * Copyright 2016 Netflix, Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.netflix.hystrix.contrib.requestservlet;
+
+import com.netflix.hystrix.collapser.RequestCollapserFactory;
+import com.netflix.hystrix.collapser.RequestCollapserSnapshot;
+
+import javax.servlet.http.HttpServlet;
+import javax.servlet.http.HttpServletRequest;
+import javax.servlet.http.HttpServletResponse;
+import java.io.IOException;
+import java.util.List;
+
+/**
+ * Dumps the {@link RequestCollapserSnapshot}s of the GLOBAL and HYBRID scoped collapsers as JSON so the collapsers can be inspected during an incident.
+ * <p>
+ * REQUEST scoped collapsers belong to other user requests and are not visible from here.
+ * <p>
+ * Install by adding the following lines to your project web.xml:
+ * <p>
+ *
+ * <pre>
+ * {@code
+ *   <servlet>
+ *     <display-name>HystrixCollapserSnapshotServlet</display-name>
+ *     <servlet-name>HystrixCollapserSnapshotServlet</servlet-name>
+ *     <servlet-class>com.netflix.hystrix.contrib.requestservlet.HystrixCollapserSnapshotServlet</servlet-class>
+ *   </servlet>
+ *   <servlet-mapping>
+ *     <servlet-name>HystrixCollapserSnapshotServlet</servlet-name>
+ *     <url-pattern>/hystrix/collapsers</url-pattern>
+ *   </servlet-mapping>
+ * }
+ * </pre>
+ */
+public class HystrixCollapserSnapshotServlet extends HttpServlet {
+    private static final long serialVersionUID = 1L;
+
+    @Override
+    protected void doGet(HttpServletRequest request, HttpServletResponse response) throws IOException {
+        response.setContentType("application/json");
+        response.setCharacterEncoding("UTF-8");
+        response.setHeader("Cache-Control", "no-cache, no-store, max-age=0, must-revalidate");
+        response.getWriter().write(toJson(RequestCollapserFactory.getSnapshots()));
+    }
+
+    /* package */static String toJson(List<RequestCollapserSnapshot> snapshots) {
+        StringBuilder json = new StringBuilder("{\"collapsers\":[");
+        for (int i = 0; i < snapshots.size(); i++) {
+            RequestCollapserSnapshot snapshot = snapshots.get(i);
+            if (i > 0) {
+                json.append(',');
+            }
+            json.append("{\"collapserKey\":");
+            appendString(json, snapshot.getCollapserKey());
+            json.append(",\"scope\":");
+            appendString(json, snapshot.getScope());
+            json.append(",\"currentBatchSize\":").append(snapshot.getCurrentBatchSize());
+            json.append(",\"oldestPendingRequestAgeInMilliseconds\":").append(snapshot.getOldestPendingRequestAgeInMilliseconds());
+            json.append(",\"inFlightBatchCount\":").append(snapshot.getInFlightBatchCount());
+            json.append(",\"inFlightBatchDurationsInMilliseconds\":[");
+            List<Long> durations = snapshot.getInFlightBatchDurationsInMilliseconds();
+            for (int j = 0; j < durations.size(); j++) {
+                if (j > 0) {
+                    json.append(',');
+                }
+                json.append(durations.get(j));
+            }
+            json.append("],\"timerListenerRegistered\":").append(snapshot.isTimerListenerRegistered());
+            json.append('}');
+        }
+        return json.append("]}").toString();
+    }
+
+    private static void appendString(StringBuilder json, String value) {
+        json.append('"');
+        for (int i = 0; i < value.length(); i++) {
+            char c = value.charAt(i);
+            if (c == '"' || c == '\\') {
+                json.append('\\').append(c);
+            } else if (c < 0x20) {
+                json.append(String.format("\\u%04x", (int) c));
+            } else {
+                json.append(c);
+            }
+        }
+        json.append('"');
+    }
+}
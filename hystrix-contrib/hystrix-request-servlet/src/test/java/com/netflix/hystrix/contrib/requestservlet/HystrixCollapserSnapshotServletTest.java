@@ -0,0 +1,97 @@
+/*
+ * Copyright 2016 Netflix, Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.netflix.hystrix.contrib.requestservlet;
+
+import com.netflix.hystrix.Hystrix;
+import com.netflix.hystrix.HystrixCollapser;
+import com.netflix.hystrix.HystrixCollapserKey;
+import com.netflix.hystrix.HystrixCollapserProperties;
+import com.netflix.hystrix.HystrixCommand;
+import com.netflix.hystrix.collapser.RequestCollapserFactory;
+import com.netflix.hystrix.collapser.RequestCollapserSnapshot;
+import org.junit.After;
+import org.junit.Test;
+
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.List;
+
+import static org.junit.Assert.*;
+
+public class HystrixCollapserSnapshotServletTest {
+
+    @After
+    public void cleanup() {
+        Hystrix.reset();
+    }
+
+    @Test
+    public void testEmpty() {
+        assertEquals("{\"collapsers\":[]}", HystrixCollapserSnapshotServlet.toJson(Collections.<RequestCollapserSnapshot>emptyList()));
+    }
+
+    @Test
+    public void testFieldsAndEscaping() {
+        HystrixCollapserKey key = HystrixCollapserKey.Factory.asKey("Snapshot\"Servlet\\\u0001");
+        // the batch stays pending as its timer does not fire during the test
+        new PendingCollapser(key).observe();
+
+        List<RequestCollapserSnapshot> snapshots = new ArrayList<>();
+        for (RequestCollapserSnapshot snapshot : RequestCollapserFactory.getSnapshots()) {
+            if (snapshot.getCollapserKey().equals(key.name())) {
+                snapshots.add(snapshot);
+            }
+        }
+        assertEquals(1, snapshots.size());
+
+        String json = HystrixCollapserSnapshotServlet.toJson(snapshots);
+        String expected = "\\{\"collapsers\":\\[\\{"
+                + "\"collapserKey\":\"Snapshot\\\\\"Servlet\\\\\\\\\\\\u0001\","
+                + "\"scope\":\"GLOBAL\","
+                + "\"currentBatchSize\":1,"
+                + "\"oldestPendingRequestAgeInMilliseconds\":\\d+,"
+                + "\"inFlightBatchCount\":0,"
+                + "\"inFlightBatchDurationsInMilliseconds\":\\[\\],"
+                + "\"timerListenerRegistered\":true"
+                + "\\}\\]\\}";
+        assertTrue(json, json.matches(expected));
+    }
+
+    private static class PendingCollapser extends HystrixCollapser<List<String>, String, String> {
+
+        PendingCollapser(HystrixCollapserKey key) {
+            super(Setter.withCollapserKey(key)
+                    .andScope(Scope.GLOBAL)
+                    .andCollapserPropertiesDefaults(HystrixCollapserProperties.Setter().withTimerDelayInMilliseconds(60000)));
+        }
+
+        @Override
+        public String getRequestArgument() {
+            return "A";
+        }
+
+        @Override
+        protected HystrixCommand<List<String>> createCommand(Collection<CollapsedRequest<String, String>> requests) {
+            throw new AssertionError("the batch is not expected to execute");
+        }
+
+        @Override
+        protected void mapResponseToRequests(List<String> batchResponse, Collection<CollapsedRequest<String, String>> requests) {
+            throw new AssertionError("the batch is not expected to execute");
+        }
+    }
+}
@@ -0,0 +1,41 @@
+/*
+ * Copyright 2016 Netflix, Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.netflix.hystrix.contrib.sharedmemory;
+
+/**
+ * Converts the request arguments and responses of a {@link HystrixSharedMemoryCollapser} to and from the bytes written to the shared rings.
+ * <p>
+ * Implementations must be thread-safe and all processes sharing a collapser must use compatible implementations.
+ *
+ * @param <T>
+ *            type converted
+ */
+public interface HystrixCollapserSerializer<T> {
+
+    /**
+     * @param value
+     *            argument or response, never <code>null</code>
+     * @return bytes to write to the ring
+     */
+    byte[] serialize(T value);
+
+    /**
+     * @param bytes
+     *            bytes returned by {@link #serialize(Object)} in this or another process
+     * @return argument or response
+     */
+    T deserialize(byte[] bytes);
+}
@@ -0,0 +1,565 @@
+/*
+ * Copyright 2016 Netflix, Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.netflix.hystrix.contrib.sharedmemory;
+
+import com.netflix.hystrix.HystrixCollapser;
+import com.netflix.hystrix.HystrixCollapser.Scope;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import rx.Observable;
+import rx.Subscriber;
+import rx.functions.Func1;
+import rx.subjects.AsyncSubject;
+
+import java.io.Closeable;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.channels.FileLock;
+import java.nio.channels.OverlappingFileLockException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.DirectoryStream;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.nio.file.StandardOpenOption;
+import java.util.Iterator;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.Future;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.TimeoutException;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.locks.LockSupport;
+
+/**
+ * Collapses requests of several processes on the same host into the batches of a single {@link Scope#GLOBAL} {@link HystrixCollapser}.
+ * <p>
+ * All processes sharing a name append their serialized request arguments to a memory-mapped request ring. The process holding the leader lock
+ * drains the ring, submits the arguments to collapsers created by the given factory in its own JVM and writes each response back to the
+ * memory-mapped response ring of the process that submitted it. Requests of the leader itself go to its collapsers directly. When the leader exits
+ * another process takes over the lock; requests the old leader had drained but not answered fail after the request timeout.
+ * <p>
+ * Each process holds a lock on its response ring file while it is open. The leader unmaps response rings it has not written to for a while or
+ * whose process is gone, and the leader as well as every newly started process delete the response ring files of processes that exited without
+ * closing.
+ * <p>
+ * Instances are meant to be long-lived and shared, one per name and process; {@link #close()} them on shutdown.
+ *
+ * @param <ResponseType>
+ *            The type returned to the caller.
+ * @param <RequestArgumentType>
+ *            The type of the request argument.
+ */
+public class HystrixSharedMemoryCollapser<ResponseType, RequestArgumentType> implements Closeable {
+
+    private static final Logger logger = LoggerFactory.getLogger(HystrixSharedMemoryCollapser.class);
+
+    private static final byte STATUS_SUCCESS = 0;
+    private static final byte STATUS_NULL = 1;
+    private static final byte STATUS_ERROR = 2;
+    // instance id and request id
+    private static final int REQUEST_HEADER_SIZE = 16;
+    // request id and status
+    private static final int RESPONSE_HEADER_SIZE = 9;
+    private static final String RESPONSE_RING_SUFFIX = ".responses";
+
+    private final Setter setter;
+    private final HystrixCollapserSerializer<RequestArgumentType> argumentSerializer;
+    private final HystrixCollapserSerializer<ResponseType> responseSerializer;
+    private final Func1<RequestArgumentType, HystrixCollapser<?, ResponseType, RequestArgumentType>> collapserFactory;
+
+    private final long instanceId = ThreadLocalRandom.current().nextLong();
+    private final AtomicLong requestIds = new AtomicLong();
+    private final ConcurrentMap<Long, PendingRequest<ResponseType>> pendingRequests = new ConcurrentHashMap<>();
+    // response rings of the other processes, written to by the batch commands while leader
+    private final ConcurrentMap<Long, PeerResponseRing> responseRings = new ConcurrentHashMap<>();
+    // only accessed by the poller
+    private long lastResponseRingCleanup;
+
+    private final SharedMemoryRing requestRing;
+    private final SharedMemoryRing responseRing;
+    private final FileChannel leaderChannel;
+    private volatile FileLock leaderLock;
+    private final Thread poller;
+    private volatile boolean closed;
+
+    /**
+     * @param setter
+     *            name, location and tuning of the rings
+     * @param argumentSerializer
+     *            converts request arguments to and from the request ring
+     * @param responseSerializer
+     *            converts responses to and from the response rings
+     * @param collapserFactory
+     *            creates the {@link Scope#GLOBAL} collapser for an argument; only called in the leader process
+     */
+    public HystrixSharedMemoryCollapser(Setter setter, HystrixCollapserSerializer<RequestArgumentType> argumentSerializer, HystrixCollapserSerializer<ResponseType> responseSerializer,
+            Func1<RequestArgumentType, HystrixCollapser<?, ResponseType, RequestArgumentType>> collapserFactory) throws IOException {
+        if (setter.name == null || setter.name.isEmpty()) {
+            throw new IllegalArgumentException("A name is required");
+        }
+        this.setter = setter;
+        this.argumentSerializer = argumentSerializer;
+        this.responseSerializer = responseSerializer;
+        this.collapserFactory = collapserFactory;
+
+        Files.createDirectories(setter.directory);
+        removeStaleResponseRings();
+        this.requestRing = SharedMemoryRing.open(setter.directory.resolve(setter.name + ".requests"), setter.ringCapacityInBytes);
+        this.responseRing = SharedMemoryRing.openOwned(responseRingFile(instanceId), setter.ringCapacityInBytes);
+        this.leaderChannel = FileChannel.open(setter.directory.resolve(setter.name + ".leader"), StandardOpenOption.CREATE, StandardOpenOption.WRITE);
+        tryToBecomeLeader();
+
+        this.poller = new Thread(this::poll, "HystrixSharedMemoryCollapser-" + setter.name);
+        this.poller.setDaemon(true);
+        this.poller.start();
+    }
+
+    /**
+     * @return true if this process currently drains the request ring and executes the batches
+     */
+    public boolean isLeader() {
+        return leaderLock != null;
+    }
+
+    /* package for tests */ int getMappedResponseRingCount() {
+        return responseRings.size();
+    }
+
+    /**
+     * Used for synchronous execution.
+     *
+     * @param argument
+     *            request argument
+     * @return ResponseType
+     */
+    public ResponseType execute(RequestArgumentType argument) {
+        return toObservable(argument).toBlocking().single();
+    }
+
+    /**
+     * Used for asynchronous execution.
+     *
+     * @param argument
+     *            request argument
+     * @return {@code Future<ResponseType>} that will return the response when the batch it was collapsed into completes
+     */
+    public Future<ResponseType> queue(RequestArgumentType argument) {
+        return toObservable(argument).toBlocking().toFuture();
+    }
+
+    /**
+     * Submits the request when subscribed to.
+     * <p>
+     * Fails with {@link RejectedExecutionException} if the request ring is full and with {@link TimeoutException} if the leader does not respond in time.
+     *
+     * @param argument
+     *            request argument
+     * @return {@code Observable<ResponseType>} emitting the response of the request
+     */
+    public Observable<ResponseType> toObservable(final RequestArgumentType argument) {
+        return Observable.defer(() -> {
+            if (closed) {
+                return Observable.error(new IllegalStateException("HystrixSharedMemoryCollapser " + setter.name + " is closed"));
+            }
+            if (isLeader()) {
+                return collapse(argument);
+            }
+            long requestId = requestIds.incrementAndGet();
+            PendingRequest<ResponseType> pending = new PendingRequest<>(System.currentTimeMillis());
+            pendingRequests.put(requestId, pending);
+            byte[] serialized = argumentSerializer.serialize(argument);
+            ByteBuffer record = ByteBuffer.allocate(REQUEST_HEADER_SIZE + serialized.length);
+            record.putLong(instanceId).putLong(requestId).put(serialized);
+            try {
+                if (!requestRing.offer(record.array())) {
+                    pendingRequests.remove(requestId);
+                    return Observable.error(new RejectedExecutionException("Request ring of HystrixSharedMemoryCollapser " + setter.name + " is full"));
+                }
+            } catch (IOException | RuntimeException e) {
+                pendingRequests.remove(requestId);
+                return Observable.error(e);
+            }
+            return pending.subject;
+        });
+    }
+
+    private Observable<ResponseType> collapse(RequestArgumentType argument) {
+        HystrixCollapser<?, ResponseType, RequestArgumentType> collapser = collapserFactory.call(argument);
+        if (collapser.getScope() != Scope.GLOBAL) {
+            return Observable.error(new IllegalArgumentException("HystrixSharedMemoryCollapser requires a collapser with Scope.GLOBAL but got " + collapser.getScope()));
+        }
+        return collapser.toObservable();
+    }
+
+    private void poll() {
+        long pollIntervalNanos = TimeUnit.MICROSECONDS.toNanos(setter.pollIntervalInMicroseconds);
+        while (!closed) {
+            try {
+                if (!isLeader()) {
+                    tryToBecomeLeader();
+                }
+                if (isLeader()) {
+                    drainRequests();
+                    long now = System.currentTimeMillis();
+                    if (now - lastResponseRingCleanup >= setter.requestTimeoutInMilliseconds) {
+                        lastResponseRingCleanup = now;
+                        removeStaleResponseRings();
+                    }
+                }
+                drainResponses();
+                failTimedOutRequests();
+            } catch (Exception e) {
+                logger.error("Failed while polling the rings of HystrixSharedMemoryCollapser " + setter.name, e);
+            }
+            LockSupport.parkNanos(this, pollIntervalNanos);
+        }
+    }
+
+    private void tryToBecomeLeader() throws IOException {
+        try {
+            leaderLock = leaderChannel.tryLock();
+        } catch (OverlappingFileLockException e) {
+            // another instance with this name in this JVM is the leader
+        }
+        if (leaderLock != null) {
+            logger.info("HystrixSharedMemoryCollapser {} is now executing the batches of all processes", setter.name);
+        }
+    }
+
+    private void drainRequests() throws IOException {
+        for (byte[] bytes : requestRing.poll()) {
+            ByteBuffer record = ByteBuffer.wrap(bytes);
+            final long requesterId = record.getLong();
+            final long requestId = record.getLong();
+            byte[] argument = new byte[record.remaining()];
+            record.get(argument);
+
+            Observable<ResponseType> response;
+            try {
+                response = collapse(argumentSerializer.deserialize(argument));
+            } catch (Exception e) {
+                response = Observable.error(e);
+            }
+            if (requesterId == instanceId) {
+                // submitted by this process before it became the leader
+                PendingRequest<ResponseType> pending = pendingRequests.remove(requestId);
+                if (pending != null) {
+                    response.subscribe(pending.subject);
+                }
+            } else {
+                response.subscribe(new Subscriber<ResponseType>() {
+                    @Override
+                    public void onCompleted() {
+                    }
+
+                    @Override
+                    public void onError(Throwable e) {
+                        String message = String.valueOf(e);
+                        respond(requesterId, requestId, STATUS_ERROR, message.getBytes(StandardCharsets.UTF_8));
+                    }
+
+                    @Override
+                    public void onNext(ResponseType value) {
+                        if (value == null) {
+                            respond(requesterId, requestId, STATUS_NULL, new byte[0]);
+                        } else {
+                            respond(requesterId, requestId, STATUS_SUCCESS, responseSerializer.serialize(value));
+                        }
+                    }
+                });
+            }
+        }
+    }
+
+    private void respond(long requesterId, long requestId, byte status, byte[] payload) {
+        ByteBuffer record = ByteBuffer.allocate(RESPONSE_HEADER_SIZE + payload.length);
+        record.putLong(requestId).put(status).put(payload);
+        try {
+            Path file = responseRingFile(requesterId);
+            SharedMemoryRing ownRing = SharedMemoryRing.getOwned(file);
+            if (ownRing != null) {
+                // another instance in this JVM, whose file must not be opened twice
+                offerResponse(ownRing, record);
+                return;
+            }
+            while (true) {
+                PeerResponseRing peer = responseRings.get(requesterId);
+                if (peer == null) {
+                    synchronized (responseRings) {
+                        peer = responseRings.get(requesterId);
+                        if (peer == null) {
+                            if (!SharedMemoryRing.isOwned(file)) {
+                                logger.debug("Process of response ring {} is gone, dropping its response", file);
+                                return;
+                            }
+                            peer = new PeerResponseRing(SharedMemoryRing.open(file, setter.ringCapacityInBytes));
+                            responseRings.put(requesterId, peer);
+                        }
+                    }
+                }
+                synchronized (peer) {
+                    if (!peer.closed) {
+                        peer.lastUsed = System.currentTimeMillis();
+                        offerResponse(peer.ring, record);
+                        return;
+                    }
+                }
+                // unmapped by the cleanup meanwhile
+            }
+        } catch (Exception e) {
+            logger.error("Failed to write a response of HystrixSharedMemoryCollapser " + setter.name, e);
+        }
+    }
+
+    private static void offerResponse(SharedMemoryRing ring, ByteBuffer record) throws IOException {
+        if (!ring.offer(record.array())) {
+            logger.warn("Response ring {} is full, the request will time out", ring.getFile());
+        }
+    }
+
+    /**
+     * Unmaps the response rings not written to within the idle timeout or whose process is gone and deletes the files of processes that exited
+     * without closing. Files younger than the request timeout are kept as their process may not have locked them yet.
+     */
+    private void removeStaleResponseRings() throws IOException {
+        long now = System.currentTimeMillis();
+        synchronized (responseRings) {
+            Iterator<PeerResponseRing> iterator = responseRings.values().iterator();
+            while (iterator.hasNext()) {
+                PeerResponseRing peer = iterator.next();
+                if (peer.lastUsed < now - setter.responseRingIdleTimeoutInMilliseconds || !peer.ring.isOwned()) {
+                    iterator.remove();
+                    synchronized (peer) {
+                        peer.closed = true;
+                        peer.ring.close();
+                    }
+                }
+            }
+            try (DirectoryStream<Path> files = Files.newDirectoryStream(setter.directory, file -> responseRingId(file) != null)) {
+                for (Path file : files) {
+                    try {
+                        if (!responseRings.containsKey(responseRingId(file)) && Files.getLastModifiedTime(file).toMillis() < now - setter.requestTimeoutInMilliseconds
+                                && SharedMemoryRing.deleteIfNotOwned(file)) {
+                            logger.info("Deleted response ring {} of a process that exited without closing HystrixSharedMemoryCollapser {}", file, setter.name);
+                        }
+                    } catch (IOException e) {
+                        logger.warn("Failed to check response ring " + file + " of HystrixSharedMemoryCollapser " + setter.name, e);
+                    }
+                }
+            }
+        }
+    }
+
+    private void drainResponses() throws IOException {
+        for (byte[] bytes : responseRing.poll()) {
+            ByteBuffer record = ByteBuffer.wrap(bytes);
+            long requestId = record.getLong();
+            byte status = record.get();
+            byte[] payload = new byte[record.remaining()];
+            record.get(payload);
+
+            PendingRequest<ResponseType> pending = pendingRequests.remove(requestId);
+            if (pending == null) {
+                // timed out already
+                continue;
+            }
+            if (status == STATUS_ERROR) {
+                pending.subject.onError(new RuntimeException("Batch failed in the leader process: " + new String(payload, StandardCharsets.UTF_8)));
+                continue;
+            }
+            try {
+                pending.subject.onNext(status == STATUS_NULL ? null : responseSerializer.deserialize(payload));
+                pending.subject.onCompleted();
+            } catch (Exception e) {
+                pending.subject.onError(e);
+            }
+        }
+    }
+
+    private void failTimedOutRequests() {
+        long timeoutStart = System.currentTimeMillis() - setter.requestTimeoutInMilliseconds;
+        Iterator<Map.Entry<Long, PendingRequest<ResponseType>>> iterator = pendingRequests.entrySet().iterator();
+        while (iterator.hasNext()) {
+            Map.Entry<Long, PendingRequest<ResponseType>> entry = iterator.next();
+            if (entry.getValue().submitTime < timeoutStart && pendingRequests.remove(entry.getKey(), entry.getValue())) {
+                entry.getValue().subject.onError(new TimeoutException("No response from the leader of HystrixSharedMemoryCollapser " + setter.name + " within "
+                        + setter.requestTimeoutInMilliseconds + "ms"));
+            }
+        }
+    }
+
+    private Path responseRingFile(long id) {
+        return setter.directory.resolve(setter.name + "-" + Long.toHexString(id) + RESPONSE_RING_SUFFIX);
+    }
+
+    /**
+     * @return the instance id of a response ring file of this name, null for any other file
+     */
+    private Long responseRingId(Path file) {
+        String fileName = file.getFileName().toString();
+        String prefix = setter.name + "-";
+        if (!fileName.startsWith(prefix) || !fileName.endsWith(RESPONSE_RING_SUFFIX) || fileName.length() <= prefix.length() + RESPONSE_RING_SUFFIX.length()) {
+            return null;
+        }
+        try {
+            return Long.parseUnsignedLong(fileName.substring(prefix.length(), fileName.length() - RESPONSE_RING_SUFFIX.length()), 16);
+        } catch (NumberFormatException e) {
+            return null;
+        }
+    }
+
+    /**
+     * Stops polling, gives up the leadership and fails the requests still waiting for a response.
+     */
+    @Override
+    public void close() throws IOException {
+        closed = true;
+        LockSupport.unpark(poller);
+        try {
+            poller.join(1000);
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+        for (Long requestId : pendingRequests.keySet()) {
+            PendingRequest<ResponseType> pending = pendingRequests.remove(requestId);
+            if (pending != null) {
+                pending.subject.onError(new IllegalStateException("HystrixSharedMemoryCollapser " + setter.name + " is closed"));
+            }
+        }
+        // closing the channel releases the leader lock
+        leaderLock = null;
+        leaderChannel.close();
+        requestRing.close();
+        responseRing.close();
+        synchronized (responseRings) {
+            for (PeerResponseRing peer : responseRings.values()) {
+                synchronized (peer) {
+                    peer.closed = true;
+                    peer.ring.close();
+                }
+            }
+            responseRings.clear();
+        }
+        Files.deleteIfExists(responseRingFile(instanceId));
+    }
+
+    private static class PeerResponseRing {
+        private final SharedMemoryRing ring;
+        private volatile long lastUsed = System.currentTimeMillis();
+        // guarded by this
+        private boolean closed;
+
+        private PeerResponseRing(SharedMemoryRing ring) {
+            this.ring = ring;
+        }
+    }
+
+    private static class PendingRequest<ResponseType> {
+        private final long submitTime;
+        private final AsyncSubject<ResponseType> subject = AsyncSubject.create();
+
+        private PendingRequest(long submitTime) {
+            this.submitTime = submitTime;
+        }
+    }
+
+    /**
+     * Fluent interface for constructor arguments of {@link HystrixSharedMemoryCollapser}.
+     * <p>
+     * All processes sharing a collapser must use the same name and directory.
+     */
+    public static class Setter {
+        private final String name;
+        private Path directory = defaultDirectory();
+        private int ringCapacityInBytes = 1024 * 1024;
+        private int pollIntervalInMicroseconds = 100;
+        private int requestTimeoutInMilliseconds = 1000;
+        private int responseRingIdleTimeoutInMilliseconds = 60000;
+
+        private Setter(String name) {
+            this.name = name;
+        }
+
+        /**
+         * @param name
+         *            name of the shared collapser, used for the names of the ring files
+         * @return Setter for fluent interface via method chaining
+         */
+        public static Setter withName(String name) {
+            return new Setter(name);
+        }
+
+        /**
+         * @param directory
+         *            directory of the ring files, by default /dev/shm if it exists and the temporary directory otherwise
+         * @return Setter for fluent interface via method chaining
+         */
+        public Setter andDirectory(Path directory) {
+            this.directory = directory;
+            return this;
+        }
+
+        /**
+         * @param ringCapacityInBytes
+         *            capacity of the request ring and of each response ring, 1MB by default
+         * @return Setter for fluent interface via method chaining
+         */
+        public Setter andRingCapacityInBytes(int ringCapacityInBytes) {
+            this.ringCapacityInBytes = ringCapacityInBytes;
+            return this;
+        }
+
+        /**
+         * @param pollIntervalInMicroseconds
+         *            how often the rings are polled, 100us by default
+         * @return Setter for fluent interface via method chaining
+         */
+        public Setter andPollIntervalInMicroseconds(int pollIntervalInMicroseconds) {
+            this.pollIntervalInMicroseconds = pollIntervalInMicroseconds;
+            return this;
+        }
+
+        /**
+         * @param requestTimeoutInMilliseconds
+         *            how long a process waits for the response to a request it submitted through the ring, 1000ms by default
+         * @return Setter for fluent interface via method chaining
+         */
+        public Setter andRequestTimeoutInMilliseconds(int requestTimeoutInMilliseconds) {
+            this.requestTimeoutInMilliseconds = requestTimeoutInMilliseconds;
+            return this;
+        }
+
+        /**
+         * @param responseRingIdleTimeoutInMilliseconds
+         *            how long the leader keeps the response ring of another process mapped after writing to it last, 60000ms by default
+         * @return Setter for fluent interface via method chaining
+         */
+        public Setter andResponseRingIdleTimeoutInMilliseconds(int responseRingIdleTimeoutInMilliseconds) {
+            this.responseRingIdleTimeoutInMilliseconds = responseRingIdleTimeoutInMilliseconds;
+            return this;
+        }
+
+        private static Path defaultDirectory() {
+            Path shm = Paths.get("/dev/shm");
+            return Files.isDirectory(shm) ? shm : Paths.get(System.getProperty("java.io.tmpdir"));
+        }
+    }
+}
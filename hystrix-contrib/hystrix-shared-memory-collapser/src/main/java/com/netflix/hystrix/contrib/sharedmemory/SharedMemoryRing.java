@@ -0,0 +1,323 @@
+/*
+ * Copyright 2016 Netflix, Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.netflix.hystrix.contrib.sharedmemory;
+
+import java.io.Closeable;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.channels.FileLock;
+import java.nio.channels.OverlappingFileLockException;
+import java.nio.file.Files;
+import java.nio.file.NoSuchFileException;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+
+/**
+ * Ring of length-prefixed records in a memory-mapped file that can be offered to by any number of threads and processes and polled by one.
+ * <p>
+ * The file starts with a header holding the write position, the read position and the capacity, followed by the records. Positions only ever increase
+ * and are taken modulo the capacity; a record that does not fit before the end of the file is preceded by a padding marker and written at the start.
+ * <p>
+ * Java 8 offers no atomic operations on mapped memory, so every access to the ring holds an exclusive {@link FileLock} on the header. Besides excluding
+ * other processes the lock system calls order the reads and writes of the mapped pages. As a {@link FileLock} is held by the whole JVM, threads and
+ * rings of the same file within a JVM are serialized on a monitor shared per file first.
+ * <p>
+ * A ring opened with {@link #openOwned(Path, int)} additionally locks a byte far beyond the ring until it is closed, so other processes can tell
+ * whether the owner of the file is still alive. The lock is released by the operating system when the owner exits in any way.
+ */
+final class SharedMemoryRing implements Closeable {
+
+    private static final int WRITE_POSITION_OFFSET = 0;
+    private static final int READ_POSITION_OFFSET = 8;
+    private static final int CAPACITY_OFFSET = 16;
+    private static final int HEADER_SIZE = 64;
+    private static final int LENGTH_SIZE = 4;
+    private static final int PADDING = -1;
+    private static final long OWNER_LOCK_POSITION = Long.MAX_VALUE - 1;
+
+    // FileLocks are held per JVM so all rings of a file in this JVM take turns on the same monitor
+    private static final ConcurrentMap<Path, Object> jvmLocks = new ConcurrentHashMap<>();
+    // closing any channel of a file drops all locks of the process on it, so files owned in this JVM are never probed or opened twice
+    private static final ConcurrentMap<Path, SharedMemoryRing> ownedRings = new ConcurrentHashMap<>();
+
+    private final Path file;
+    private final FileChannel channel;
+    private final MappedByteBuffer buffer;
+    private final int capacity;
+    private final Object jvmLock;
+    private volatile boolean owned;
+
+    private SharedMemoryRing(Path file, FileChannel channel, MappedByteBuffer buffer, int capacity, Object jvmLock) {
+        this.file = file;
+        this.channel = channel;
+        this.buffer = buffer;
+        this.capacity = capacity;
+        this.jvmLock = jvmLock;
+    }
+
+    /**
+     * Opens the ring in the given file, creating it with the given capacity if it does not exist yet. An existing ring keeps its capacity.
+     */
+    static SharedMemoryRing open(Path file, int capacity) throws IOException {
+        if (capacity < LENGTH_SIZE * 2) {
+            throw new IllegalArgumentException("Ring capacity must be at least " + LENGTH_SIZE * 2 + " bytes: " + capacity);
+        }
+        Path key = file.toAbsolutePath().normalize();
+        Object jvmLock = jvmLocks.computeIfAbsent(key, k -> new Object());
+        FileChannel channel = FileChannel.open(key, StandardOpenOption.CREATE, StandardOpenOption.READ, StandardOpenOption.WRITE);
+        try {
+            int ringCapacity;
+            synchronized (jvmLock) {
+                FileLock lock = channel.lock(0, HEADER_SIZE, false);
+                try {
+                    ByteBuffer header = ByteBuffer.allocate(HEADER_SIZE);
+                    if (channel.size() >= HEADER_SIZE) {
+                        channel.read(header, 0);
+                    }
+                    ringCapacity = header.getInt(CAPACITY_OFFSET);
+                    if (ringCapacity == 0) {
+                        // first to open the file, extend it before mapping so the pages exist for every process
+                        ringCapacity = capacity;
+                        header.clear();
+                        header.putInt(CAPACITY_OFFSET, ringCapacity);
+                        channel.write(header, 0);
+                        channel.write(ByteBuffer.allocate(1), HEADER_SIZE + ringCapacity - 1);
+                    }
+                } finally {
+                    lock.release();
+                }
+            }
+            MappedByteBuffer buffer = channel.map(FileChannel.MapMode.READ_WRITE, 0, HEADER_SIZE + ringCapacity);
+            return new SharedMemoryRing(key, channel, buffer, ringCapacity, jvmLock);
+        } catch (IOException | RuntimeException e) {
+            channel.close();
+            throw e;
+        }
+    }
+
+    /**
+     * Opens the ring like {@link #open(Path, int)} and holds the owner lock of the file until the ring is closed.
+     *
+     * @throws IOException
+     *             if the file is owned already
+     */
+    static SharedMemoryRing openOwned(Path file, int capacity) throws IOException {
+        if (getOwned(file) != null) {
+            throw new IOException("Ring " + file + " is owned already");
+        }
+        SharedMemoryRing ring = open(file, capacity);
+        try {
+            if (tryLockOwner(ring.channel) == null) {
+                throw new IOException("Ring " + ring.file + " is owned already");
+            }
+            ring.owned = true;
+            ownedRings.put(ring.file, ring);
+            return ring;
+        } catch (IOException | RuntimeException e) {
+            ring.close();
+            throw e;
+        }
+    }
+
+    /**
+     * @return the ring of the file if it is owned by this JVM, for writing to it without opening the file another time
+     */
+    static SharedMemoryRing getOwned(Path file) {
+        return ownedRings.get(file.toAbsolutePath().normalize());
+    }
+
+    /**
+     * Probes the owner lock of a file that is not open in this JVM.
+     *
+     * @return false if the file does not exist or its owner has closed it or exited
+     */
+    static boolean isOwned(Path file) throws IOException {
+        Path key = file.toAbsolutePath().normalize();
+        if (ownedRings.containsKey(key)) {
+            return true;
+        }
+        synchronized (jvmLocks.computeIfAbsent(key, k -> new Object())) {
+            try (FileChannel channel = FileChannel.open(key, StandardOpenOption.READ, StandardOpenOption.WRITE)) {
+                FileLock lock = tryLockOwner(channel);
+                if (lock == null) {
+                    return true;
+                }
+                lock.release();
+                return false;
+            } catch (NoSuchFileException e) {
+                return false;
+            }
+        }
+    }
+
+    /**
+     * Deletes a file that is not open in this JVM unless it is owned. The owner lock is held while deleting so the owner cannot have opened it meanwhile.
+     *
+     * @return true if the file was deleted
+     */
+    static boolean deleteIfNotOwned(Path file) throws IOException {
+        Path key = file.toAbsolutePath().normalize();
+        if (ownedRings.containsKey(key)) {
+            return false;
+        }
+        synchronized (jvmLocks.computeIfAbsent(key, k -> new Object())) {
+            try (FileChannel channel = FileChannel.open(key, StandardOpenOption.READ, StandardOpenOption.WRITE)) {
+                FileLock lock = tryLockOwner(channel);
+                if (lock == null) {
+                    return false;
+                }
+                try {
+                    return Files.deleteIfExists(key);
+                } finally {
+                    lock.release();
+                }
+            } catch (NoSuchFileException e) {
+                return false;
+            }
+        }
+    }
+
+    /**
+     * Probes the owner lock of the file through this ring.
+     *
+     * @return false if the owner of the file has closed it or exited
+     */
+    boolean isOwned() throws IOException {
+        if (owned || ownedRings.containsKey(file)) {
+            return true;
+        }
+        synchronized (jvmLock) {
+            FileLock lock = tryLockOwner(channel);
+            if (lock == null) {
+                return true;
+            }
+            lock.release();
+            return false;
+        }
+    }
+
+    private static FileLock tryLockOwner(FileChannel channel) throws IOException {
+        try {
+            return channel.tryLock(OWNER_LOCK_POSITION, 1, false);
+        } catch (OverlappingFileLockException e) {
+            // held by another ring of this JVM, which only an owner does for longer than a probe
+            return null;
+        }
+    }
+
+    Path getFile() {
+        return file;
+    }
+
+    int getCapacity() {
+        return capacity;
+    }
+
+    /**
+     * Appends a record.
+     *
+     * @return false if the ring does not have room for the record until the consumer catches up
+     * @throws IllegalArgumentException
+     *             if the record could never fit into the ring
+     */
+    boolean offer(byte[] record) throws IOException {
+        int needed = LENGTH_SIZE + record.length;
+        if (needed > capacity) {
+            throw new IllegalArgumentException("Record of " + record.length + " bytes does not fit into a ring of " + capacity + " bytes");
+        }
+        synchronized (jvmLock) {
+            FileLock lock = channel.lock(0, HEADER_SIZE, false);
+            try {
+                long write = buffer.getLong(WRITE_POSITION_OFFSET);
+                long read = buffer.getLong(READ_POSITION_OFFSET);
+                int index = (int) (write % capacity);
+                int tail = capacity - index;
+                int padding = tail < needed ? tail : 0;
+                if (write + padding + needed - read > capacity) {
+                    return false;
+                }
+                if (padding > 0) {
+                    if (tail >= LENGTH_SIZE) {
+                        buffer.putInt(HEADER_SIZE + index, PADDING);
+                    }
+                    write += padding;
+                    index = 0;
+                }
+                buffer.putInt(HEADER_SIZE + index, record.length);
+                ByteBuffer data = buffer.duplicate();
+                data.position(HEADER_SIZE + index + LENGTH_SIZE);
+                data.put(record);
+                buffer.putLong(WRITE_POSITION_OFFSET, write + needed);
+                return true;
+            } finally {
+                lock.release();
+            }
+        }
+    }
+
+    /**
+     * Removes all records in the ring. Must only be called by the one consumer of the ring.
+     *
+     * @return records in the order they were offered
+     */
+    List<byte[]> poll() throws IOException {
+        synchronized (jvmLock) {
+            FileLock lock = channel.lock(0, HEADER_SIZE, false);
+            try {
+                long write = buffer.getLong(WRITE_POSITION_OFFSET);
+                long read = buffer.getLong(READ_POSITION_OFFSET);
+                if (read == write) {
+                    return Collections.emptyList();
+                }
+                List<byte[]> records = new ArrayList<>();
+                while (read < write) {
+                    int index = (int) (read % capacity);
+                    int tail = capacity - index;
+                    int length = tail < LENGTH_SIZE ? PADDING : buffer.getInt(HEADER_SIZE + index);
+                    if (length == PADDING) {
+                        read += tail;
+                        continue;
+                    }
+                    byte[] record = new byte[length];
+                    ByteBuffer data = buffer.duplicate();
+                    data.position(HEADER_SIZE + index + LENGTH_SIZE);
+                    data.get(record);
+                    records.add(record);
+                    read += LENGTH_SIZE + length;
+                }
+                buffer.putLong(READ_POSITION_OFFSET, read);
+                return records;
+            } finally {
+                lock.release();
+            }
+        }
+    }
+
+    @Override
+    public void close() throws IOException {
+        if (owned) {
+            ownedRings.remove(file, this);
+        }
+        channel.close();
+    }
+}
@@ -0,0 +1,329 @@
+/*
+ * Copyright 2016 Netflix, Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.netflix.hystrix.contrib.sharedmemory;
+
+import com.netflix.hystrix.HystrixCollapser;
+import com.netflix.hystrix.HystrixCollapserKey;
+import com.netflix.hystrix.HystrixCollapserProperties;
+import com.netflix.hystrix.HystrixCommand;
+import com.netflix.hystrix.HystrixCommandGroupKey;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+import java.io.BufferedReader;
+import java.io.File;
+import java.io.InputStreamReader;
+import java.io.OutputStream;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.DirectoryStream;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.attribute.FileTime;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collection;
+import java.util.List;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
+
+import static org.junit.Assert.*;
+
+public class HystrixSharedMemoryCollapserTest {
+    @Rule
+    public TemporaryFolder folder = new TemporaryFolder();
+
+    private static final ConcurrentLinkedQueue<List<String>> batches = new ConcurrentLinkedQueue<>();
+
+    @Test
+    public void testRequestsOfFollowerAreCollapsedByLeader() throws Exception {
+        batches.clear();
+        HystrixSharedMemoryCollapser.Setter setter = HystrixSharedMemoryCollapser.Setter.withName("testFollower").andDirectory(folder.getRoot().toPath());
+        try (HystrixSharedMemoryCollapser<String, String> leader = newCollapser(setter, "testFollower");
+             HystrixSharedMemoryCollapser<String, String> follower = newCollapser(setter, "testFollower")) {
+            assertTrue(leader.isLeader());
+            assertFalse(follower.isLeader());
+
+            Future<String> a = follower.queue("a");
+            Future<String> b = follower.queue("b");
+            Future<String> c = leader.queue("c");
+
+            assertEquals("A", a.get(1000, TimeUnit.MILLISECONDS));
+            assertEquals("B", b.get(1000, TimeUnit.MILLISECONDS));
+            assertEquals("C", c.get(1000, TimeUnit.MILLISECONDS));
+            assertEquals(1, batches.size());
+            assertEquals(3, batches.peek().size());
+        }
+    }
+
+    @Test
+    public void testFollowerTakesOverWhenLeaderCloses() throws Exception {
+        batches.clear();
+        HystrixSharedMemoryCollapser.Setter setter = HystrixSharedMemoryCollapser.Setter.withName("testTakeOver").andDirectory(folder.getRoot().toPath());
+        HystrixSharedMemoryCollapser<String, String> leader = newCollapser(setter, "testTakeOver");
+        try (HystrixSharedMemoryCollapser<String, String> follower = newCollapser(setter, "testTakeOver")) {
+            assertFalse(follower.isLeader());
+            leader.close();
+
+            assertEquals("D", follower.execute("d"));
+            long start = System.currentTimeMillis();
+            while (!follower.isLeader() && System.currentTimeMillis() - start < 1000) {
+                Thread.sleep(1);
+            }
+            assertTrue(follower.isLeader());
+        }
+    }
+
+    @Test
+    public void testFailedBatchFailsFollowerRequest() throws Exception {
+        HystrixSharedMemoryCollapser.Setter setter = HystrixSharedMemoryCollapser.Setter.withName("testFailure").andDirectory(folder.getRoot().toPath());
+        try (HystrixSharedMemoryCollapser<String, String> leader = newCollapser(setter, "testFailure");
+             HystrixSharedMemoryCollapser<String, String> follower = newCollapser(setter, "testFailure")) {
+            try {
+                follower.execute("fail");
+                fail("expected the batch failure");
+            } catch (RuntimeException e) {
+                assertTrue(e.getMessage(), e.getMessage().startsWith("Batch failed in the leader process"));
+            }
+        }
+    }
+
+    @Test
+    public void testRequestsOfAnotherProcessAreCollapsedByLeader() throws Exception {
+        batches.clear();
+        Path directory = folder.getRoot().toPath();
+        HystrixSharedMemoryCollapser.Setter setter = HystrixSharedMemoryCollapser.Setter.withName("testProcess").andDirectory(directory);
+        try (HystrixSharedMemoryCollapser<String, String> leader = newCollapser(setter, "testProcess")) {
+            assertTrue(leader.isLeader());
+
+            Process child = startChildProcess(directory, "testProcess");
+            List<String> output = new ArrayList<>();
+            try (BufferedReader reader = new BufferedReader(new InputStreamReader(child.getInputStream(), StandardCharsets.UTF_8))) {
+                String line;
+                while ((line = reader.readLine()) != null) {
+                    output.add(line);
+                }
+            }
+            assertTrue(child.waitFor(30, TimeUnit.SECONDS));
+            assertEquals(output.toString(), 0, child.exitValue());
+            assertTrue(output.toString(), output.contains("responses: [X, Y, Z]"));
+
+            // the child submitted all its requests through the ring, the batches executed in this process
+            List<String> collapsed = new ArrayList<>();
+            for (List<String> batch : batches) {
+                collapsed.addAll(batch);
+            }
+            collapsed.sort(null);
+            assertEquals(Arrays.asList("x", "y", "z"), collapsed);
+        }
+    }
+
+    @Test
+    public void testStartingProcessDeletesResponseRingsOfExitedProcesses() throws Exception {
+        Path directory = folder.getRoot().toPath();
+        long stale = System.currentTimeMillis() - 60000;
+        Path exited = directory.resolve("testExited-1a.responses");
+        SharedMemoryRing.open(exited, 64).close();
+        Files.setLastModifiedTime(exited, FileTime.fromMillis(stale));
+        Path other = directory.resolve("testExited-other-1b.responses");
+        SharedMemoryRing.open(other, 64).close();
+        Files.setLastModifiedTime(other, FileTime.fromMillis(stale));
+        Path alive = directory.resolve("testExited-1c.responses");
+        try (SharedMemoryRing owned = SharedMemoryRing.openOwned(alive, 64)) {
+            Files.setLastModifiedTime(alive, FileTime.fromMillis(stale));
+
+            HystrixSharedMemoryCollapser.Setter setter = HystrixSharedMemoryCollapser.Setter.withName("testExited").andDirectory(directory);
+            try (HystrixSharedMemoryCollapser<String, String> collapser = newCollapser(setter, "testExited")) {
+                assertFalse(Files.exists(exited));
+                // not a response ring of this name
+                assertTrue(Files.exists(other));
+                assertTrue(Files.exists(alive));
+                assertEquals(2, responseRingFiles(directory, "testExited"));
+            }
+            // its own file is deleted on close
+            assertEquals(1, responseRingFiles(directory, "testExited"));
+        }
+    }
+
+    @Test
+    public void testLeaderRemovesResponseRingsOfIdleAndCrashedProcesses() throws Exception {
+        Path directory = folder.getRoot().toPath();
+        HystrixSharedMemoryCollapser.Setter setter = HystrixSharedMemoryCollapser.Setter.withName("testCrash").andDirectory(directory)
+                .andRequestTimeoutInMilliseconds(200).andResponseRingIdleTimeoutInMilliseconds(200);
+        try (HystrixSharedMemoryCollapser<String, String> leader = newCollapser(setter, "testCrash")) {
+            assertTrue(leader.isLeader());
+
+            Process child = startChildProcess(directory, "testCrash", "crash");
+            try {
+                BufferedReader reader = new BufferedReader(new InputStreamReader(child.getInputStream(), StandardCharsets.UTF_8));
+                List<String> output = new ArrayList<>();
+                String line;
+                while ((line = reader.readLine()) != null && !line.startsWith("responses: ")) {
+                    output.add(line);
+                }
+                assertEquals(output.toString(), "responses: [X, Y, Z]", line);
+                assertEquals(2, responseRingFiles(directory, "testCrash"));
+
+                // the child is alive but idle, its ring is unmapped and its file kept
+                waitFor(() -> leader.getMappedResponseRingCount() == 0);
+                assertEquals(2, responseRingFiles(directory, "testCrash"));
+
+                // the child exits without closing its collapser
+                OutputStream input = child.getOutputStream();
+                input.write('\n');
+                input.flush();
+                assertTrue(child.waitFor(30, TimeUnit.SECONDS));
+                assertEquals(3, child.exitValue());
+                waitFor(() -> responseRingFiles(directory, "testCrash") == 1);
+            } finally {
+                child.destroy();
+            }
+        }
+    }
+
+    private static Process startChildProcess(Path directory, String... args) throws Exception {
+        List<String> command = new ArrayList<>();
+        command.add(System.getProperty("java.home") + File.separator + "bin" + File.separator + "java");
+        command.add("-cp");
+        command.add(System.getProperty("java.class.path"));
+        command.add(ChildProcess.class.getName());
+        command.add(directory.toString());
+        command.addAll(Arrays.asList(args));
+        return new ProcessBuilder(command).redirectErrorStream(true).start();
+    }
+
+    private static int responseRingFiles(Path directory, String name) throws Exception {
+        int count = 0;
+        try (DirectoryStream<Path> files = Files.newDirectoryStream(directory, name + "-*.responses")) {
+            for (Path file : files) {
+                if (file.getFileName().toString().matches(name + "-[0-9a-f]+\\.responses")) {
+                    count++;
+                }
+            }
+        }
+        return count;
+    }
+
+    private static void waitFor(Condition condition) throws Exception {
+        long start = System.currentTimeMillis();
+        while (!condition.isMet()) {
+            if (System.currentTimeMillis() - start > 5000) {
+                fail("condition not met within 5000ms");
+            }
+            Thread.sleep(10);
+        }
+    }
+
+    private interface Condition {
+        boolean isMet() throws Exception;
+    }
+
+    private static HystrixSharedMemoryCollapser<String, String> newCollapser(HystrixSharedMemoryCollapser.Setter setter, String key) throws Exception {
+        return new HystrixSharedMemoryCollapser<>(setter, StringSerializer.INSTANCE, StringSerializer.INSTANCE, argument -> new UpperCaseCollapser(key, argument));
+    }
+
+    /**
+     * Follower process of {@link #testRequestsOfAnotherProcessAreCollapsedByLeader()}. With a third argument "crash" it waits for a line on its input
+     * after printing the responses and then exits without closing the collapser.
+     */
+    public static class ChildProcess {
+        public static void main(String[] args) throws Exception {
+            HystrixSharedMemoryCollapser.Setter setter = HystrixSharedMemoryCollapser.Setter.withName(args[1]).andDirectory(new File(args[0]).toPath());
+            boolean crash = args.length > 2 && args[2].equals("crash");
+            try (HystrixSharedMemoryCollapser<String, String> collapser = newCollapser(setter, args[1])) {
+                if (collapser.isLeader()) {
+                    System.out.println("unexpectedly the leader");
+                    System.exit(1);
+                }
+                List<Future<String>> responses = new ArrayList<>();
+                for (String argument : Arrays.asList("x", "y", "z")) {
+                    responses.add(collapser.queue(argument));
+                }
+                List<String> values = new ArrayList<>();
+                for (Future<String> response : responses) {
+                    values.add(response.get(5000, TimeUnit.MILLISECONDS));
+                }
+                System.out.println("responses: " + values);
+                if (crash) {
+                    System.out.flush();
+                    System.in.read();
+                    Runtime.getRuntime().halt(3);
+                }
+            }
+            System.exit(0);
+        }
+    }
+
+    private enum StringSerializer implements HystrixCollapserSerializer<String> {
+        INSTANCE;
+
+        @Override
+        public byte[] serialize(String value) {
+            return value.getBytes(StandardCharsets.UTF_8);
+        }
+
+        @Override
+        public String deserialize(byte[] bytes) {
+            return new String(bytes, StandardCharsets.UTF_8);
+        }
+    }
+
+    private static class UpperCaseCollapser extends HystrixCollapser<List<String>, String, String> {
+        private final String argument;
+
+        UpperCaseCollapser(String key, String argument) {
+            super(Setter.withCollapserKey(HystrixCollapserKey.Factory.asKey(key)).andScope(Scope.GLOBAL)
+                    .andCollapserPropertiesDefaults(HystrixCollapserProperties.Setter().withTimerDelayInMilliseconds(100)));
+            this.argument = argument;
+        }
+
+        @Override
+        public String getRequestArgument() {
+            return argument;
+        }
+
+        @Override
+        protected HystrixCommand<List<String>> createCommand(Collection<CollapsedRequest<String, String>> requests) {
+            final List<String> arguments = new ArrayList<>();
+            for (CollapsedRequest<String, String> request : requests) {
+                arguments.add(request.getArgument());
+            }
+            batches.add(arguments);
+            return new HystrixCommand<List<String>>(HystrixCommandGroupKey.Factory.asKey("SharedMemory")) {
+                @Override
+                protected List<String> run() {
+                    List<String> responses = new ArrayList<>();
+                    for (String argument : arguments) {
+                        if (argument.equals("fail")) {
+                            throw new IllegalStateException("failing batch");
+                        }
+                        responses.add(argument.toUpperCase());
+                    }
+                    return responses;
+                }
+            };
+        }
+
+        @Override
+        protected void mapResponseToRequests(List<String> batchResponse, Collection<CollapsedRequest<String, String>> requests) {
+            int i = 0;
+            for (CollapsedRequest<String, String> request : requests) {
+                request.setResponse(batchResponse.get(i++));
+            }
+        }
+    }
+}
@@ -0,0 +1,109 @@
+/*
+ * Copyright 2016 Netflix, Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.netflix.hystrix.contrib.sharedmemory;
+
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.List;
+
+import static org.junit.Assert.*;
+
+public class SharedMemoryRingTest {
+    @Rule
+    public TemporaryFolder folder = new TemporaryFolder();
+
+    @Test
+    public void testRecordsWrapAroundInOrder() throws Exception {
+        Path file = folder.getRoot().toPath().resolve("ring");
+        try (SharedMemoryRing producer = SharedMemoryRing.open(file, 64); SharedMemoryRing consumer = SharedMemoryRing.open(file, 64)) {
+            int next = 0;
+            for (int round = 0; round < 20; round++) {
+                // 3 records of 4 + 10 bytes fit, their positions shift in every round so all wrap cases are hit
+                for (int i = 0; i < 3; i++) {
+                    assertTrue(producer.offer(record(next + i)));
+                }
+                List<byte[]> records = consumer.poll();
+                assertEquals(3, records.size());
+                for (byte[] record : records) {
+                    assertEquals("record-" + String.format("%03d", next++), new String(record, StandardCharsets.UTF_8));
+                }
+            }
+        }
+    }
+
+    @Test
+    public void testOfferFailsWhenFull() throws Exception {
+        Path file = folder.getRoot().toPath().resolve("ring");
+        try (SharedMemoryRing ring = SharedMemoryRing.open(file, 64)) {
+            for (int i = 0; i < 4; i++) {
+                assertTrue(ring.offer(record(i)));
+            }
+            assertFalse(ring.offer(record(4)));
+            assertEquals(4, ring.poll().size());
+            assertTrue(ring.offer(record(4)));
+            assertEquals(1, ring.poll().size());
+        }
+    }
+
+    @Test
+    public void testExistingRingKeepsCapacity() throws Exception {
+        Path file = folder.getRoot().toPath().resolve("ring");
+        try (SharedMemoryRing first = SharedMemoryRing.open(file, 64); SharedMemoryRing second = SharedMemoryRing.open(file, 1024)) {
+            assertEquals(64, second.getCapacity());
+        }
+    }
+
+    @Test(expected = IllegalArgumentException.class)
+    public void testRecordLargerThanRingIsRejected() throws Exception {
+        try (SharedMemoryRing ring = SharedMemoryRing.open(folder.getRoot().toPath().resolve("ring"), 64)) {
+            ring.offer(new byte[61]);
+        }
+    }
+
+    @Test
+    public void testOwnedFileIsNotDeleted() throws Exception {
+        Path file = folder.getRoot().toPath().resolve("ring");
+        try (SharedMemoryRing owned = SharedMemoryRing.openOwned(file, 64)) {
+            assertTrue(SharedMemoryRing.isOwned(file));
+            assertSame(owned, SharedMemoryRing.getOwned(file));
+            assertFalse(SharedMemoryRing.deleteIfNotOwned(file));
+            try {
+                SharedMemoryRing.openOwned(file, 64).close();
+                fail("expected the file to be owned already");
+            } catch (IOException e) {
+                // expected
+            }
+        }
+        assertFalse(SharedMemoryRing.isOwned(file));
+        assertNull(SharedMemoryRing.getOwned(file));
+        try (SharedMemoryRing ring = SharedMemoryRing.open(file, 64)) {
+            assertFalse(ring.isOwned());
+        }
+        assertTrue(SharedMemoryRing.deleteIfNotOwned(file));
+        assertFalse(Files.exists(file));
+        assertFalse(SharedMemoryRing.isOwned(file));
+    }
+
+    private static byte[] record(int i) {
+        return ("record-" + String.format("%03d", i)).getBytes(StandardCharsets.UTF_8);
+    }
+}
@@ -16,6 +16,7 @@
 package com.netflix.hystrix.perf;
 
 import com.netflix.hystrix.HystrixCollapser;
+import com.netflix.hystrix.HystrixCollapserDefinition;
 import com.netflix.hystrix.HystrixCollapserKey;
 import com.netflix.hystrix.HystrixCollapserProperties;
 import com.netflix.hystrix.HystrixCommand;
@@ -92,6 +93,41 @@ public class CollapserPerfTest {
 
     }
 
+    @State(Scope.Thread)
+    public static class CollapserDefinitionState {
+        @Param({"1", "10", "100", "1000"})
+        int numToCollapse;
+
+        @Param({"1", "1000", "1000000"})
+        int blackholeConsumption;
+
+        IdentityCollapserDefinition definition;
+        List<String> args;
+
+        HystrixRequestContext reqContext;
+        Observable<String> executionHandle;
+
+        @Setup(Level.Trial)
+        public void setUpDefinition() {
+            definition = new IdentityCollapserDefinition(blackholeConsumption);
+            args = new ArrayList<>();
+            for (int i = 0; i < numToCollapse; i++) {
+                args.add(i + "");
+            }
+        }
+
+        @Setup(Level.Invocation)
+        public void setUp() {
+            reqContext = HystrixRequestContext.initializeContext();
+            executionHandle = Observable.merge(definition.submitAll(args).values());
+        }
+
+        @TearDown(Level.Invocation)
+        public void tearDown() {
+            reqContext.shutdown();
+        }
+    }
+
     private static class IdentityCollapser extends HystrixCollapser<List<String>, String, String> {
 
         private final int arg;
@@ -133,6 +169,33 @@ public class CollapserPerfTest {
         }
     }
 
+    private static class IdentityCollapserDefinition extends HystrixCollapserDefinition<List<String>, String, String> {
+
+        private final int blackholeConsumption;
+
+        IdentityCollapserDefinition(int blackholeConsumption) {
+            super(HystrixCollapser.Setter.withCollapserKey(HystrixCollapserKey.Factory.asKey("COLLAPSER_DEFINITION")).andCollapserPropertiesDefaults(HystrixCollapserProperties.Setter().withMaxRequestsInBatch(1000).withTimerDelayInMilliseconds(1)));
+            this.blackholeConsumption = blackholeConsumption;
+        }
+
+        @Override
+        protected HystrixCommand<List<String>> createCommand(Collection<HystrixCollapser.CollapsedRequest<String, String>> collapsedRequests) {
+            List<String> args = new ArrayList<>();
+            for (HystrixCollapser.CollapsedRequest<String, String> collapsedReq: collapsedRequests) {
+                args.add(collapsedReq.getArgument());
+            }
+            return new BatchCommand(args, blackholeConsumption);
+        }
+
+        @Override
+        protected void mapResponseToRequests(List<String> batchResponse, Collection<HystrixCollapser.CollapsedRequest<String, String>> collapsedRequests) {
+            int i = 0;
+            for (HystrixCollapser.CollapsedRequest<String, String> collapsedReq: collapsedRequests) {
+                collapsedReq.setResponse(batchResponse.get(i++));
+            }
+        }
+    }
+
     private static class BatchCommand extends HystrixCommand<List<String>> {
         private final List<String> inputArgs;
         private final int blackholeConsumption;
@@ -160,4 +223,11 @@ public class CollapserPerfTest {
     public List<String> observeCollapsedAndWait(CollapserState collapserState, ThreadPoolState threadPoolState) {
         return collapserState.executionHandle.toList().toBlocking().single();
     }
+
+    @Benchmark
+    @BenchmarkMode({Mode.Throughput})
+    @OutputTimeUnit(TimeUnit.SECONDS)
+    public List<String> submitAllFromDefinitionAndWait(CollapserDefinitionState collapserDefinitionState, ThreadPoolState threadPoolState) {
+        return collapserDefinitionState.executionHandle.toList().toBlocking().single();
+    }
 }
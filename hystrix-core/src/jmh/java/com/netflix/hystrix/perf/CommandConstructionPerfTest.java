@@ -17,6 +17,8 @@ package com.netflix.hystrix.perf;
 
 import com.netflix.hystrix.HystrixCommand;
 import com.netflix.hystrix.HystrixCommandGroupKey;
+import com.netflix.hystrix.HystrixCommandProperties;
+import com.netflix.hystrix.HystrixCommandPrototype;
 import org.openjdk.jmh.annotations.Benchmark;
 import org.openjdk.jmh.annotations.BenchmarkMode;
 import org.openjdk.jmh.annotations.Mode;
@@ -28,6 +30,24 @@ public class CommandConstructionPerfTest {
 
     static HystrixCommandGroupKey groupKey = HystrixCommandGroupKey.Factory.asKey("Group");
 
+    static HystrixCommand.Setter semaphoreSetter = HystrixCommand.Setter.withGroupKey(groupKey)
+            .andCommandPropertiesDefaults(HystrixCommandProperties.Setter()
+                    .withExecutionIsolationStrategy(HystrixCommandProperties.ExecutionIsolationStrategy.SEMAPHORE)
+                    .withRequestCacheEnabled(false));
+
+    static HystrixCommandPrototype prototype = HystrixCommandPrototype.from(PrototypeCommand.class, semaphoreSetter);
+
+    static class PrototypeCommand extends HystrixCommand<Integer> {
+        PrototypeCommand() {
+            super(prototype);
+        }
+
+        @Override
+        protected Integer run() {
+            return 1;
+        }
+    }
+
     @Benchmark
     @BenchmarkMode({Mode.SingleShotTime})
     @OutputTimeUnit(TimeUnit.MICROSECONDS)
@@ -39,4 +59,45 @@ public class CommandConstructionPerfTest {
             }
         };
     }
+
+    @Benchmark
+    @BenchmarkMode({Mode.SingleShotTime})
+    @OutputTimeUnit(TimeUnit.MICROSECONDS)
+    public HystrixCommand constructHystrixCommandBySetter() {
+        return new HystrixCommand<Integer>(semaphoreSetter) {
+            @Override
+            protected Integer run() {
+                return 1;
+            }
+        };
+    }
+
+    @Benchmark
+    @BenchmarkMode({Mode.SingleShotTime})
+    @OutputTimeUnit(TimeUnit.MICROSECONDS)
+    public HystrixCommand constructHystrixCommandByPrototype() {
+        return new PrototypeCommand();
+    }
+
+    /**
+     * Construction and execution together, run with -prof gc to see the allocation per command.
+     */
+    @Benchmark
+    @BenchmarkMode({Mode.Throughput})
+    @OutputTimeUnit(TimeUnit.SECONDS)
+    public Integer constructAndExecuteSemaphoreIsolatedHystrixCommand() {
+        return new HystrixCommand<Integer>(semaphoreSetter) {
+            @Override
+            protected Integer run() {
+                return 1;
+            }
+        }.execute();
+    }
+
+    @Benchmark
+    @BenchmarkMode({Mode.Throughput})
+    @OutputTimeUnit(TimeUnit.SECONDS)
+    public Integer constructByPrototypeAndExecuteSemaphoreIsolatedHystrixCommand() {
+        return new PrototypeCommand().execute();
+    }
 }
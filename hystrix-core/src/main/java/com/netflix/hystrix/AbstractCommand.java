@@ -20,31 +20,47 @@ import com.netflix.hystrix.exception.ExceptionNotWrappedByHystrix;
 import com.netflix.hystrix.exception.HystrixBadRequestException;
 import com.netflix.hystrix.exception.HystrixRuntimeException;
 import com.netflix.hystrix.exception.HystrixRuntimeException.FailureType;
+import com.netflix.hystrix.exception.HystrixTimeoutException;
 import com.netflix.hystrix.strategy.HystrixPlugins;
 import com.netflix.hystrix.strategy.concurrency.HystrixConcurrencyStrategy;
+import com.netflix.hystrix.strategy.concurrency.HystrixContextRunnable;
 import com.netflix.hystrix.strategy.concurrency.HystrixRequestContext;
 import com.netflix.hystrix.strategy.executionhook.HystrixCommandExecutionHook;
 import com.netflix.hystrix.strategy.properties.HystrixPropertiesFactory;
 import com.netflix.hystrix.strategy.properties.HystrixPropertiesStrategy;
 import com.netflix.hystrix.strategy.properties.HystrixProperty;
+import com.netflix.hystrix.util.HystrixTimer;
+import com.netflix.hystrix.util.HystrixTimer.TimerListener;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
-import rx.Notification;
 import rx.Observable;
 import rx.Observable.Operator;
+import rx.Scheduler;
 import rx.Subscriber;
 import rx.Subscription;
 import rx.functions.Action0;
-import rx.functions.Action1;
 import rx.functions.Func0;
-import rx.functions.Func1;
+import rx.subscriptions.Subscriptions;
 import rx.subjects.ReplaySubject;
 
+import java.lang.ref.Reference;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.IdentityHashMap;
 import java.util.List;
+import java.util.Map;
+import java.util.NoSuchElementException;
+import java.util.concurrent.Callable;
+import java.util.concurrent.CompletableFuture;
 import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ExecutionException;
 import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.TimeoutException;
 import java.util.concurrent.atomic.AtomicBoolean;
 import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicIntegerFieldUpdater;
 import java.util.concurrent.atomic.AtomicReference;
 
 /* package */abstract class AbstractCommand<R> implements HystrixInvokableInfo, HystrixObservable<R> {
@@ -54,13 +70,17 @@ import java.util.concurrent.atomic.AtomicReference;
     protected final HystrixCommandProperties properties;
 
     protected enum CommandState {
-        NOT_STARTED, OBSERVABLE_CHAIN_CREATED, USER_CODE_EXECUTED, UNSUBSCRIBED, TERMINAL
+        NOT_STARTED, OBSERVABLE_CHAIN_CREATED, USER_CODE_EXECUTED, UNSUBSCRIBED, TERMINAL, RELEASED
     }
 
     protected enum ThreadState {
         NOT_USING_THREAD, STARTED, UNSUBSCRIBED, TERMINAL
     }
 
+    protected enum TimedOutStatus {
+        NOT_EXECUTED, COMPLETED, TIMED_OUT
+    }
+
     protected final HystrixCommandKey commandKey;
     protected final HystrixCommandGroupKey commandGroup;
 
@@ -76,20 +96,37 @@ import java.util.concurrent.atomic.AtomicReference;
     protected static final ConcurrentHashMap<String, TryableSemaphore> executionSemaphorePerCircuit = new ConcurrentHashMap<>();
     /* END EXECUTION Semaphore */
 
-    protected AtomicReference<CommandState> commandState = new AtomicReference<>(CommandState.NOT_STARTED);
-    protected AtomicReference<ThreadState> threadState = new AtomicReference<>(ThreadState.NOT_USING_THREAD);
+    private static final CommandState[] COMMAND_STATES = CommandState.values();
+    private static final Func0<Boolean> NEVER_INTERRUPT = () -> false;
+    @SuppressWarnings("rawtypes")
+    private static final AtomicIntegerFieldUpdater<AbstractCommand> COMMAND_STATE = AtomicIntegerFieldUpdater.newUpdater(AbstractCommand.class, "commandState");
+    @SuppressWarnings("rawtypes")
+    private static final AtomicIntegerFieldUpdater<AbstractCommand> THREAD_STATE = AtomicIntegerFieldUpdater.newUpdater(AbstractCommand.class, "threadState");
+    @SuppressWarnings("rawtypes")
+    private static final AtomicIntegerFieldUpdater<AbstractCommand> TIMED_OUT_STATUS = AtomicIntegerFieldUpdater.newUpdater(AbstractCommand.class, "timedOutStatus");
+
+    // ordinals of CommandState, ThreadState and TimedOutStatus, updated in place so a command does not carry an AtomicReference per state machine
+    private volatile int commandState = CommandState.NOT_STARTED.ordinal();
+    private volatile int threadState = ThreadState.NOT_USING_THREAD.ordinal();
+    private volatile int timedOutStatus = TimedOutStatus.NOT_EXECUTED.ordinal();
+    // incremented each time a pooled command is released, so late callbacks of an execution do not act on the next one
+    private volatile int generation;
+    // permit of the primary execution, which tells a release whether its user code is still running
+    private volatile UserCodePermit executionPermit;
+    // set by observeAll while this command is subscribed, so its thread-pool execution is scheduled with the other commands of the batch
+    private ThreadPoolBatch threadPoolBatch;
 
     /*
-     * {@link ExecutionResult} refers to what happened as the user-provided code ran.  If request-caching is used,
-     * then multiple command instances will have a reference to the same {@link ExecutionResult}.  So all values there
-     * should be the same, even in the presence of request-caching.
+     * {@link ExecutionRecord} records what happened as the user-provided code ran, it is frozen into an {@link ExecutionResult}
+     * when read.  If request-caching is used, then multiple command instances copy the same {@link ExecutionResult} into their
+     * record.  So all values there should be the same, even in the presence of request-caching.
      *
      * If some values are not properly shareable, then they belong on the command instance, so they are not visible to
      * other commands.
      *
      * Examples: RESPONSE_FROM_CACHE, CANCELLED HystrixEventTypes
      */
-    protected volatile ExecutionResult executionResult = ExecutionResult.EMPTY; //state on shared execution
+    /* package */ final ExecutionRecord executionRecord = new ExecutionRecord(); //state on shared execution
 
     protected volatile boolean isResponseFromCache = false;
     protected volatile ExecutionResult executionResultAtTimeOfCancellation;
@@ -145,7 +182,22 @@ import java.util.concurrent.atomic.AtomicReference;
         this.executionSemaphoreOverride = executionSemaphore;
     }
 
-    private static HystrixCommandGroupKey initGroupKey(final HystrixCommandGroupKey fromConstructor) {
+    /**
+     * Constructs a command from a definition that was resolved once, see {@link HystrixCommandPrototype}.
+     */
+    protected AbstractCommand(HystrixCommandPrototype prototype) {
+        this.commandGroup = prototype.commandGroup;
+        this.commandKey = prototype.commandKey;
+        this.properties = prototype.properties;
+        this.threadPoolKey = prototype.threadPoolKey;
+        this.threadPool = prototype.threadPool;
+        this.concurrencyStrategy = prototype.concurrencyStrategy;
+        this.executionHook = prototype.executionHook;
+        this.requestCache = prototype.requestCache;
+        this.executionSemaphoreOverride = null;
+    }
+
+    /* package */ static HystrixCommandGroupKey initGroupKey(final HystrixCommandGroupKey fromConstructor) {
         if (fromConstructor == null) {
             throw new IllegalStateException("HystrixCommandGroup can not be NULL");
         } else {
@@ -153,7 +205,7 @@ import java.util.concurrent.atomic.AtomicReference;
         }
     }
 
-    private static HystrixCommandKey initCommandKey(final HystrixCommandKey fromConstructor, Class<?> clazz) {
+    /* package */ static HystrixCommandKey initCommandKey(final HystrixCommandKey fromConstructor, Class<?> clazz) {
         if (fromConstructor == null || fromConstructor.name().trim().equals("")) {
             final String keyName = getDefaultNameFromClass(clazz);
             return HystrixCommandKey.Factory.asKey(keyName);
@@ -162,7 +214,7 @@ import java.util.concurrent.atomic.AtomicReference;
         }
     }
 
-    private static HystrixCommandProperties initCommandProperties(HystrixCommandKey commandKey, HystrixPropertiesStrategy propertiesStrategy, HystrixCommandProperties.Setter commandPropertiesDefaults) {
+    /* package */ static HystrixCommandProperties initCommandProperties(HystrixCommandKey commandKey, HystrixPropertiesStrategy propertiesStrategy, HystrixCommandProperties.Setter commandPropertiesDefaults) {
         if (propertiesStrategy == null) {
             return HystrixPropertiesFactory.getCommandProperties(commandKey, commandPropertiesDefaults);
         } else {
@@ -180,7 +232,7 @@ import java.util.concurrent.atomic.AtomicReference;
      *
      * It can then be overridden by a property if defined so it can be changed at runtime.
      */
-    private static HystrixThreadPoolKey initThreadPoolKey(HystrixThreadPoolKey threadPoolKey, HystrixCommandGroupKey groupKey, String threadPoolKeyOverride) {
+    /* package */ static HystrixThreadPoolKey initThreadPoolKey(HystrixThreadPoolKey threadPoolKey, HystrixCommandGroupKey groupKey, String threadPoolKeyOverride) {
         if (threadPoolKeyOverride == null) {
             // we don't have a property overriding the value so use either HystrixThreadPoolKey or HystrixCommandGroup
             if (threadPoolKey == null) {
@@ -195,7 +247,7 @@ import java.util.concurrent.atomic.AtomicReference;
         }
     }
 
-    private static HystrixThreadPool initThreadPool(HystrixThreadPool fromConstructor, HystrixThreadPoolKey threadPoolKey, HystrixThreadPoolProperties.Setter threadPoolPropertiesDefaults) {
+    /* package */ static HystrixThreadPool initThreadPool(HystrixThreadPool fromConstructor, HystrixThreadPoolKey threadPoolKey, HystrixThreadPoolProperties.Setter threadPoolPropertiesDefaults) {
         if (fromConstructor == null) {
             // get the default implementation of HystrixThreadPool
             return HystrixThreadPool.Factory.getInstance(threadPoolKey, threadPoolPropertiesDefaults);
@@ -210,7 +262,70 @@ import java.util.concurrent.atomic.AtomicReference;
      * @param sizeOfBatch number of commands in request batch
      */
     /* package */void markAsCollapsedCommand(HystrixCollapserKey collapserKey, int sizeOfBatch) {
-        executionResult = executionResult.markCollapsed(collapserKey, sizeOfBatch);
+        executionRecord.markCollapsed(collapserKey, sizeOfBatch);
+    }
+
+    /**
+     * Marks the command as released to a {@link HystrixCommandPool} and clears its state for the next execution.
+     * <p>
+     * Only a command whose execution is over and left nothing running or referring to it behind can be reused: it must not have been
+     * started or be TERMINAL, not have timed out or still be running its user code, which a timeout does not stop, not have run a hedge that
+     * may still be executing and not have shared its execution through the request cache.
+     *
+     * @return false if the command can not be reused
+     * @throws IllegalStateException if the command has already been released
+     */
+    /* package */ boolean release() {
+        if (getCommandState() == CommandState.RELEASED) {
+            throw new IllegalStateException("This instance has already been released to its HystrixCommandPool.");
+        }
+        UserCodePermit permit = executionPermit;
+        if (threadState == ThreadState.STARTED.ordinal()
+                || timedOutStatus == TimedOutStatus.TIMED_OUT.ordinal()
+                || (permit != null && permit.isRunning())
+                || executionRecord.freeze().getEventCounts().contains(HystrixEventType.HEDGED)
+                || isRequestCachingEnabled()) {
+            return false;
+        }
+        if (!compareAndSetCommandState(CommandState.TERMINAL, CommandState.RELEASED)
+                && !compareAndSetCommandState(CommandState.NOT_STARTED, CommandState.RELEASED)) {
+            return false;
+        }
+        resetForReuse();
+        return true;
+    }
+
+    /**
+     * Makes a released command executable again, it must have been reset by {@link #release()}.
+     */
+    /* package */ void reacquire() {
+        if (!compareAndSetCommandState(CommandState.RELEASED, CommandState.NOT_STARTED)) {
+            throw new IllegalStateException("This instance has not been released to a HystrixCommandPool: " + getCommandState());
+        }
+    }
+
+    /* package */ void resetForReuse() {
+        generation++;
+        executionRecord.reset();
+        isResponseFromCache = false;
+        executionResultAtTimeOfCancellation = null;
+        commandStartTimestamp = -1L;
+        endCurrentThreadExecutingCommand = null;
+        threadState = ThreadState.NOT_USING_THREAD.ordinal();
+        timedOutStatus = TimedOutStatus.NOT_EXECUTED.ordinal();
+        executionPermit = null;
+    }
+
+    private CommandState getCommandState() {
+        return COMMAND_STATES[commandState];
+    }
+
+    private boolean compareAndSetCommandState(CommandState expect, CommandState update) {
+        return COMMAND_STATE.compareAndSet(this, expect.ordinal(), update.ordinal());
+    }
+
+    private boolean compareAndSetThreadState(ThreadState expect, ThreadState update) {
+        return THREAD_STATE.compareAndSet(this, expect.ordinal(), update.ordinal());
     }
 
     /**
@@ -239,6 +354,124 @@ import java.util.concurrent.atomic.AtomicReference;
         return subject.doOnUnsubscribe(sourceSubscription::unsubscribe);
     }
 
+    /**
+     * Eagerly subscribes to the given commands, as {@link #observe()} on each of them would, while scheduling the THREAD-isolated ones
+     * that share a thread-pool as one {@link ThreadPoolBatch}.
+     *
+     * @return the {@link Observable} of each command, in the iteration order of the commands
+     */
+    /* package */ static <R> List<Observable<R>> observeAllBatched(Collection<? extends AbstractCommand<R>> commands) {
+        Map<HystrixThreadPool, Integer> sizes = new IdentityHashMap<>();
+        for (AbstractCommand<R> command : commands) {
+            if (command.properties.executionIsolationStrategy().get() == ExecutionIsolationStrategy.THREAD) {
+                sizes.merge(command.threadPool, 1, Integer::sum);
+            }
+        }
+
+        Map<HystrixThreadPool, ThreadPoolBatch> batches = new IdentityHashMap<>();
+        HystrixConcurrencyStrategy concurrencyStrategy = HystrixPlugins.getInstance().getConcurrencyStrategy();
+        for (Map.Entry<HystrixThreadPool, Integer> size : sizes.entrySet()) {
+            // a single command gains nothing from a batch
+            if (size.getValue() > 1) {
+                ThreadPoolBatch batch = ThreadPoolBatch.create(size.getKey(), concurrencyStrategy, size.getValue());
+                if (batch != null) {
+                    batches.put(size.getKey(), batch);
+                }
+            }
+        }
+
+        List<Observable<R>> observables = new ArrayList<>(Collections.nCopies(commands.size(), null));
+        try {
+            int i = 0;
+            for (AbstractCommand<R> command : commands) {
+                ThreadPoolBatch batch = batches.get(command.threadPool);
+                if (batch != null && command.properties.executionIsolationStrategy().get() == ExecutionIsolationStrategy.THREAD) {
+                    command.threadPoolBatch = batch;
+                    try {
+                        observables.set(i, command.observe());
+                    } finally {
+                        command.threadPoolBatch = null;
+                    }
+                }
+                i++;
+            }
+        } finally {
+            // the lanes wait for the commands of their batch, so close them before starting commands that may run on this thread
+            for (ThreadPoolBatch batch : batches.values()) {
+                batch.close();
+            }
+        }
+
+        int i = 0;
+        for (AbstractCommand<R> command : commands) {
+            if (observables.get(i) == null) {
+                observables.set(i, command.observe());
+            }
+            i++;
+        }
+        return observables;
+    }
+
+    /**
+     * Subscribes the given future to {@link #toObservable()}, so it is completed by the terminal event of the execution.
+     *
+     * @return the future
+     */
+    /* package */ <F extends CommandFuture> F completeFromExecution(final F future) {
+        final Subscriber<R> subscriber = new Subscriber<R>() {
+            private R value;
+            private boolean hasValue;
+
+            @Override
+            public void onNext(R r) {
+                value = r;
+                hasValue = true;
+            }
+
+            @Override
+            public void onError(Throwable e) {
+                future.completeExceptionally(e);
+            }
+
+            @Override
+            public void onCompleted() {
+                if (hasValue) {
+                    future.complete(value);
+                } else {
+                    // as the Future of HystrixCommand.queue() does
+                    future.completeExceptionally(new NoSuchElementException("Sequence contains no elements"));
+                }
+            }
+        };
+        // set before subscribing, a THREAD isolated execution can be cancelled from another thread while subscribe() has not returned yet
+        future.subscription = subscriber;
+        if (future.isCancelled()) {
+            // cancelled before the subscription was set
+            subscriber.unsubscribe();
+        } else {
+            toObservable().subscribe(subscriber);
+        }
+        return future;
+    }
+
+    /**
+     * {@link CompletableFuture} of the execution of this command, cancelling it unsubscribes from the execution.
+     */
+    /* package */ class CommandFuture extends CompletableFuture<R> {
+        /* package */ volatile Subscription subscription;
+
+        @Override
+        public boolean cancel(boolean mayInterruptIfRunning) {
+            // completes first so the unsubscribed execution can not complete the future anymore
+            final boolean res = super.cancel(mayInterruptIfRunning);
+            final Subscription s = subscription;
+            if (s != null) {
+                s.unsubscribe();
+            }
+            return res;
+        }
+    }
+
     protected abstract Observable<R> getExecutionObservable();
 
     /**
@@ -260,75 +493,10 @@ import java.util.concurrent.atomic.AtomicReference;
      * @throws IllegalStateException      if invoked more than once
      */
     public Observable<R> toObservable() {
-        final AbstractCommand<R> _cmd = this;
-
-        //doOnCompleted handler already did all of the SUCCESS work
-        //doOnError handler already did all of the FAILURE/REJECTION/BAD_REQUEST work
-        final Action0 terminateCommandCleanup = () -> {
-            if (_cmd.commandState.compareAndSet(CommandState.OBSERVABLE_CHAIN_CREATED, CommandState.TERMINAL)) {
-                handleCommandEnd(); //user code never ran
-            } else if (_cmd.commandState.compareAndSet(CommandState.USER_CODE_EXECUTED, CommandState.TERMINAL)) {
-                handleCommandEnd(); //user code did run
-            }
-        };
-
-        //mark the command as CANCELLED and store the latency (in addition to standard cleanup)
-        final Action0 unsubscribeCommandCleanup = () -> {
-            if (_cmd.commandState.compareAndSet(CommandState.OBSERVABLE_CHAIN_CREATED, CommandState.UNSUBSCRIBED)) {
-                if (!_cmd.executionResult.containsTerminalEvent()) {
-                    try {
-                        executionHook.onUnsubscribe(_cmd);
-                    } catch (Throwable hookEx) {
-                        logger.warn("Error calling HystrixCommandExecutionHook.onUnsubscribe", hookEx);
-                    }
-                    _cmd.executionResultAtTimeOfCancellation = _cmd.executionResult
-                            .addEvent((int) (System.currentTimeMillis() - _cmd.commandStartTimestamp), HystrixEventType.CANCELLED);
-                }
-                handleCommandEnd(); //user code never ran
-            } else if (_cmd.commandState.compareAndSet(CommandState.USER_CODE_EXECUTED, CommandState.UNSUBSCRIBED)) {
-                if (!_cmd.executionResult.containsTerminalEvent()) {
-                    try {
-                        executionHook.onUnsubscribe(_cmd);
-                    } catch (Throwable hookEx) {
-                        logger.warn("Error calling HystrixCommandExecutionHook.onUnsubscribe", hookEx);
-                    }
-                    _cmd.executionResultAtTimeOfCancellation = _cmd.executionResult
-                            .addEvent((int) (System.currentTimeMillis() - _cmd.commandStartTimestamp), HystrixEventType.CANCELLED);
-                }
-                handleCommandEnd(); //user code did run
-            }
-        };
-
-        final Func0<Observable<R>> applyHystrixSemantics = () -> {
-            if (commandState.get().equals(CommandState.UNSUBSCRIBED)) {
-                return Observable.never();
-            }
-            return applyHystrixSemantics(_cmd);
-        };
-
-        final Func1<R, R> wrapWithAllOnNextHooks = afterFirstApplication -> {
-            try {
-                return executionHook.onEmit(_cmd, afterFirstApplication);
-            } catch (Throwable hookEx) {
-                logger.warn("Error calling HystrixCommandExecutionHook.onEmit", hookEx);
-                return afterFirstApplication;
-            }
-        };
-
-        final Action0 fireOnCompletedHook = () -> {
-            try {
-                executionHook.onSuccess(_cmd);
-            } catch (Throwable hookEx) {
-                logger.warn("Error calling HystrixCommandExecutionHook.onSuccess", hookEx);
-            }
-        };
-
         return Observable.defer(() -> {
             /* this is a stateful object so can only be used once */
-            if (!commandState.compareAndSet(CommandState.NOT_STARTED, CommandState.OBSERVABLE_CHAIN_CREATED)) {
-                IllegalStateException ex = new IllegalStateException("This instance can only be executed once. Please instantiate a new instance.");
-                //TODO make a new error type for this
-                throw new HystrixRuntimeException(FailureType.BAD_REQUEST_EXCEPTION, _cmd.getClass(), getLogMessagePrefix() + " command executed multiple times - this is not permitted.", ex);
+            if (!compareAndSetCommandState(CommandState.NOT_STARTED, CommandState.OBSERVABLE_CHAIN_CREATED)) {
+                throw executedMultipleTimes();
             }
 
             commandStartTimestamp = System.currentTimeMillis();
@@ -345,16 +513,14 @@ import java.util.concurrent.atomic.AtomicReference;
                 }
             }
 
-            Observable<R> hystrixObservable =
-                    Observable.defer(applyHystrixSemantics)
-                            .map(wrapWithAllOnNextHooks);
+            Observable<R> hystrixObservable = Observable.defer(this::applyHystrixSemanticsUnlessUnsubscribed);
 
             Observable<R> afterCache;
 
             // put in cache
             if (requestCacheEnabled && cacheKey != null) {
                 // wrap it for caching
-                HystrixCachedObservable<R> toCache = HystrixCachedObservable.from(hystrixObservable, _cmd);
+                HystrixCachedObservable<R> toCache = HystrixCachedObservable.from(hystrixObservable, this);
                 HystrixCommandResponseFromCache<R> fromCache = (HystrixCommandResponseFromCache<R>) requestCache.putIfAbsent(cacheKey, toCache);
                 if (fromCache != null) {
                     // another thread beat us so we'll use the cached value instead
@@ -369,43 +535,238 @@ import java.util.concurrent.atomic.AtomicReference;
                 afterCache = hystrixObservable;
             }
 
-            return afterCache
-                    .doOnTerminate(terminateCommandCleanup)     // perform cleanup once (either on normal terminal state (this line), or unsubscribe (next line))
-                    .doOnUnsubscribe(unsubscribeCommandCleanup) // perform cleanup once
-                    .doOnCompleted(fireOnCompletedHook);
+            return afterCache.lift(new CommandLifecycle());
         });
     }
 
-    private Observable<R> applyHystrixSemantics(final AbstractCommand<R> _cmd) {
+    private HystrixRuntimeException executedMultipleTimes() {
+        if (getCommandState() == CommandState.RELEASED) {
+            IllegalStateException ex = new IllegalStateException("This instance was released to its HystrixCommandPool. Please acquire an instance from the pool.");
+            return new HystrixRuntimeException(FailureType.BAD_REQUEST_EXCEPTION, getClass(), getLogMessagePrefix() + " command used after it was released - this is not permitted.", ex);
+        }
+        IllegalStateException ex = new IllegalStateException("This instance can only be executed once. Please instantiate a new instance.");
+        //TODO make a new error type for this
+        return new HystrixRuntimeException(FailureType.BAD_REQUEST_EXCEPTION, getClass(), getLogMessagePrefix() + " command executed multiple times - this is not permitted.", ex);
+    }
+
+    /**
+     * @return true if a synchronous execution can use {@link #executeInline(Callable)}: the command runs on the calling thread and there is
+     * no response to share through the request cache, no hedge to race against and no timeout to emit
+     */
+    /* package */ boolean canExecuteInline() {
+        return properties.executionIsolationStrategy().get() == ExecutionIsolationStrategy.SEMAPHORE
+                && !properties.executionHedgingEnabled().get()
+                && !properties.executionTimeoutEnabled().get()
+                && !isRequestCachingEnabled();
+    }
+
+    /**
+     * Executes a scalar command on the calling thread without the Observable chain of {@link #toObservable()} and the Future of
+     * {@link HystrixCommand#queue()}.
+     * <p>
+     * The state transitions, events and hooks are the ones the Observable chain applies to a SEMAPHORE-isolated execution, in the same order.
+     *
+     * @param userCode invokes the user-provided code
+     * @return the value of the execution, after the onExecutionEmit and onEmit hooks
+     * @throws ExecutionException wrapping the error the Observable chain would have emitted, just as {@link java.util.concurrent.Future#get()} does
+     */
+    /* package */ R executeInline(Callable<R> userCode) throws ExecutionException {
+        /* this is a stateful object so can only be used once */
+        if (!compareAndSetCommandState(CommandState.NOT_STARTED, CommandState.OBSERVABLE_CHAIN_CREATED)) {
+            throw new ExecutionException(executedMultipleTimes());
+        }
+
+        commandStartTimestamp = System.currentTimeMillis();
+
+        R value;
+        try {
+            value = applyHystrixSemanticsInline(userCode);
+        } catch (Throwable t) {
+            terminateCommandCleanup();
+            throw new ExecutionException(t);
+        }
+        terminateCommandCleanup();
+        try {
+            executionHook.onSuccess(this);
+        } catch (Throwable hookEx) {
+            logger.warn("Error calling HystrixCommandExecutionHook.onSuccess", hookEx);
+        }
+        return value;
+    }
+
+    private R applyHystrixSemanticsInline(Callable<R> userCode) throws Throwable {
         // mark that we're starting execution on the ExecutionHook
         // if this hook throws an exception, then a fast-fail occurs.  No state is left inconsistent
-        executionHook.onStart(_cmd);
+        executionHook.onStart(this);
 
         /* determine if we're allowed to execute */
         final TryableSemaphore executionSemaphore = getExecutionSemaphore();
-        final AtomicBoolean semaphoreHasBeenReleased = new AtomicBoolean(false);
-        final Action0 singleSemaphoreRelease = () -> {
-            if (semaphoreHasBeenReleased.compareAndSet(false, true)) {
-                executionSemaphore.release();
+        if (!executionSemaphore.tryAcquire()) {
+            throw handleSemaphoreRejection();
+        }
+
+        final HystrixRequestContext requestContext = HystrixRequestContext.getContextForCurrentThread();
+        try {
+            /* used to track userThreadExecutionTime */
+            executionRecord.setInvocationStartTime(System.currentTimeMillis());
+
+            R value;
+            try {
+                value = executeUserCodeInline(userCode);
+            } catch (Throwable t) {
+                Throwable toEmit;
+                try {
+                    toEmit = handleExecutionFailure(t);
+                } catch (Throwable ex) {
+                    toEmit = ex;
+                }
+                setRequestContextIfNeeded(requestContext);
+                throw toEmit;
             }
-        };
 
-        final Action1<Throwable> markExceptionThrown = t -> {
-        };
+            if (shouldOutputOnNextEvents()) {
+                executionRecord.addEvent(HystrixEventType.EMIT);
+            }
+            long latency = System.currentTimeMillis() - executionRecord.getStartTimestamp();
+            executionRecord.addEvent((int) latency, HystrixEventType.SUCCESS);
+            setRequestContextIfNeeded(requestContext);
+            value = wrapWithAllOnNextHooks(value);
+
+            try {
+                executionHook.onExecutionSuccess(this);
+            } catch (Throwable hookEx) {
+                logger.warn("Error calling HystrixCommandExecutionHook.onExecutionSuccess", hookEx);
+            }
+            setRequestContextIfNeeded(requestContext);
+            return value;
+        } finally {
+            executionSemaphore.release();
+        }
+    }
+
+    private R executeUserCodeInline(Callable<R> userCode) throws Exception {
+        executionRecord.setExecutionOccurred();
+        if (!compareAndSetCommandState(CommandState.OBSERVABLE_CHAIN_CREATED, CommandState.USER_CODE_EXECUTED)) {
+            throw new IllegalStateException("execution attempted while in state : " + getCommandState().name());
+        }
+
+        // store the command that is being run
+        endCurrentThreadExecutingCommand = Hystrix.startCurrentThreadExecutingCommand(getCommandKey());
+        //If this hook throws, then use that as the result of the run method
+        executionHook.onExecutionStart(this);
+
+        R value;
+        try {
+            value = userCode.call();
+        } catch (Throwable ex) {
+            throw wrapWithOnExecutionErrorHook(ex);
+        }
+        return wrapWithOnExecutionEmitHook(value);
+    }
+
+    /**
+     * Performs the cleanup of the command once, either on its terminal event or when unsubscribed, and invokes the onSuccess hook.
+     * <p>
+     * This replaces a chain of doOnTerminate, doOnUnsubscribe and doOnCompleted so an execution allocates one operator instead of an operator,
+     * a subscriber and a closure per callback.
+     */
+    private final class CommandLifecycle implements Operator<R, R> {
+        private final int generation = AbstractCommand.this.generation;
+
+        @Override
+        public Subscriber<? super R> call(final Subscriber<? super R> child) {
+            child.add(Subscriptions.create(() -> {
+                // a pooled command may already run its next execution when this one is unsubscribed
+                if (generation == AbstractCommand.this.generation) {
+                    unsubscribeCommandCleanup();
+                }
+            }));
+            return new Subscriber<R>(child) {
+                @Override
+                public void onNext(R r) {
+                    child.onNext(r);
+                }
+
+                @Override
+                public void onError(Throwable e) {
+                    terminateCommandCleanup();
+                    child.onError(e);
+                }
+
+                @Override
+                public void onCompleted() {
+                    terminateCommandCleanup();
+                    try {
+                        executionHook.onSuccess(AbstractCommand.this);
+                    } catch (Throwable hookEx) {
+                        logger.warn("Error calling HystrixCommandExecutionHook.onSuccess", hookEx);
+                    }
+                    child.onCompleted();
+                }
+            };
+        }
+    }
+
+    //the terminal event handlers already did all of the SUCCESS/FAILURE/REJECTION/BAD_REQUEST work
+    private void terminateCommandCleanup() {
+        if (compareAndSetCommandState(CommandState.OBSERVABLE_CHAIN_CREATED, CommandState.TERMINAL)) {
+            handleCommandEnd(); //user code never ran
+        } else if (compareAndSetCommandState(CommandState.USER_CODE_EXECUTED, CommandState.TERMINAL)) {
+            handleCommandEnd(); //user code did run
+        }
+    }
+
+    //mark the command as CANCELLED and store the latency (in addition to standard cleanup)
+    private void unsubscribeCommandCleanup() {
+        if (compareAndSetCommandState(CommandState.OBSERVABLE_CHAIN_CREATED, CommandState.UNSUBSCRIBED)) {
+            markCancelledIfNotTerminated();
+            handleCommandEnd(); //user code never ran
+        } else if (compareAndSetCommandState(CommandState.USER_CODE_EXECUTED, CommandState.UNSUBSCRIBED)) {
+            markCancelledIfNotTerminated();
+            handleCommandEnd(); //user code did run
+        }
+    }
+
+    private void markCancelledIfNotTerminated() {
+        if (!executionRecord.containsTerminalEvent()) {
+            try {
+                executionHook.onUnsubscribe(this);
+            } catch (Throwable hookEx) {
+                logger.warn("Error calling HystrixCommandExecutionHook.onUnsubscribe", hookEx);
+            }
+            executionResultAtTimeOfCancellation = executionRecord.freeze()
+                    .addEvent((int) (System.currentTimeMillis() - commandStartTimestamp), HystrixEventType.CANCELLED);
+        }
+    }
+
+    private Observable<R> applyHystrixSemanticsUnlessUnsubscribed() {
+        if (getCommandState().equals(CommandState.UNSUBSCRIBED)) {
+            return Observable.never();
+        }
+        return applyHystrixSemantics(this);
+    }
+
+    private Observable<R> applyHystrixSemantics(final AbstractCommand<R> _cmd) {
+        // mark that we're starting execution on the ExecutionHook
+        // if this hook throws an exception, then a fast-fail occurs.  No state is left inconsistent
+        executionHook.onStart(_cmd);
+
+        /* determine if we're allowed to execute */
+        final TryableSemaphore executionSemaphore = getExecutionSemaphore();
 
         if (executionSemaphore.tryAcquire()) {
+            final UserCodePermit permit = new UserCodePermit(executionSemaphore);
+            executionPermit = permit;
             try {
                 /* used to track userThreadExecutionTime */
-                executionResult = executionResult.setInvocationStartTime(System.currentTimeMillis());
-                return executeCommandAndObserve(_cmd)
-                        .doOnError(markExceptionThrown)
-                        .doOnTerminate(singleSemaphoreRelease)
-                        .doOnUnsubscribe(singleSemaphoreRelease);
+                executionRecord.setInvocationStartTime(System.currentTimeMillis());
+                return executeCommandAndObserve(_cmd, permit);
             } catch (RuntimeException e) {
+                permit.abandon();
                 return Observable.error(e);
             }
         } else {
-            return handleSemaphoreRejection();
+            return Observable.error(handleSemaphoreRejection());
         }
     }
 
@@ -416,78 +777,235 @@ import java.util.concurrent.atomic.AtomicReference;
      *
      * @return R
      */
-    private Observable<R> executeCommandAndObserve(final AbstractCommand<R> _cmd) {
-        final HystrixRequestContext currentRequestContext = HystrixRequestContext.getContextForCurrentThread();
+    private Observable<R> executeCommandAndObserve(final AbstractCommand<R> _cmd, final UserCodePermit permit) {
+        final HystrixRequestContext requestContext = HystrixRequestContext.getContextForCurrentThread();
+        Observable<R> execution = executeCommandWithSpecifiedIsolation(_cmd, permit);
+        if (properties.executionTimeoutEnabled().get()) {
+            execution = execution.lift(new TimeoutLifecycle(requestContext));
+        }
+        return execution.lift(new ExecutionLifecycle(requestContext, permit));
+    }
 
-        final Action1<R> markEmits = r -> {
-            if (shouldOutputOnNextEvents()) {
-                executionResult = executionResult.addEvent(HystrixEventType.EMIT);
+    /**
+     * Emits a {@link HystrixTimeoutException} and unsubscribes from the execution if it did not emit or terminate within
+     * {@link HystrixCommandProperties#executionTimeoutInMilliseconds()}.
+     * <p>
+     * Each execution adds a single listener to the {@link HystrixTimer}, cleared as soon as the execution emits, terminates or is unsubscribed
+     * from. Unsubscribing from a THREAD-isolated execution interrupts its thread if
+     * {@link HystrixCommandProperties#executionIsolationThreadInterruptOnTimeout()} is set.
+     * <p>
+     * The timeout does not end the user code itself, so the execution semaphore stays acquired by its {@link UserCodePermit} until
+     * {@link HystrixCommand#run()} returns or the stage of {@link HystrixAsyncCommand#runAsync()} completes.
+     */
+    private final class TimeoutLifecycle implements Operator<R, R> {
+        private final int generation = AbstractCommand.this.generation;
+        private final HystrixRequestContext requestContext;
+
+        private TimeoutLifecycle(HystrixRequestContext requestContext) {
+            this.requestContext = requestContext;
+        }
+
+        @Override
+        public Subscriber<? super R> call(final Subscriber<? super R> child) {
+            final TimeoutSubscriber parent = new TimeoutSubscriber(child);
+            // not chained to the child, unsubscribing from the execution on timeout must not unsubscribe the child before it gets the error
+            child.add(parent);
+            parent.add(Subscriptions.create(parent::clearTimer));
+            parent.timer = HystrixTimer.getInstance().addTimerListener(parent);
+            return parent;
+        }
+
+        private final class TimeoutSubscriber extends Subscriber<R> implements TimerListener {
+            private final Subscriber<? super R> child;
+            private final int timeoutInMilliseconds = properties.executionTimeoutInMilliseconds().get();
+            private volatile Reference<TimerListener> timer;
+
+            private TimeoutSubscriber(Subscriber<? super R> child) {
+                this.child = child;
             }
-            if (commandIsScalar()) {
-                long latency = System.currentTimeMillis() - executionResult.getStartTimestamp();
-                executionResult = executionResult.addEvent((int) latency, HystrixEventType.SUCCESS);
+
+            private boolean completedBeforeTimeout() {
+                if (timedOutStatus == TimedOutStatus.COMPLETED.ordinal()) {
+                    return true;
+                }
+                if (compareAndSetTimedOutStatus(TimedOutStatus.NOT_EXECUTED, TimedOutStatus.COMPLETED)) {
+                    clearTimer();
+                    return true;
+                }
+                return false;
             }
-        };
 
-        final Action0 markOnCompleted = () -> {
-            if (!commandIsScalar()) {
-                long latency = System.currentTimeMillis() - executionResult.getStartTimestamp();
-                executionResult = executionResult.addEvent((int) latency, HystrixEventType.SUCCESS);
+            private void clearTimer() {
+                Reference<TimerListener> t = timer;
+                if (t != null) {
+                    t.clear();
+                }
             }
-        };
 
-        final Func1<Throwable, Observable<R>> handleFailure = t -> {
-            Exception e = getExceptionFromThrowable(t);
-            executionResult = executionResult.setExecutionException(e);
-            if (e instanceof RejectedExecutionException) {
-                return handleThreadPoolRejection(e);
-            } else if (t instanceof HystrixBadRequestException) {
-                return handleBadRequestByEmittingError(e);
-            } else {
-                /*
-                 * Treat HystrixBadRequestException from ExecutionHook like a plain HystrixBadRequestException.
-                 */
-                if (e instanceof HystrixBadRequestException) {
-                    return Observable.error(e);
+            @Override
+            public void tick() {
+                if (generation == AbstractCommand.this.generation && compareAndSetTimedOutStatus(TimedOutStatus.NOT_EXECUTED, TimedOutStatus.TIMED_OUT)) {
+                    // stop the execution, the scheduler reads the TIMED_OUT status to decide whether to interrupt its thread
+                    unsubscribe();
+                    new HystrixContextRunnable(concurrencyStrategy, requestContext, () -> child.onError(new HystrixTimeoutException())).run();
                 }
+                // the listener is cleared by the execution otherwise, this only stops it from ticking again
+                clearTimer();
+            }
 
-                return handleFailure(e);
+            @Override
+            public int getIntervalTimeInMilliseconds() {
+                return timeoutInMilliseconds;
             }
-        };
 
-        final Action1<Notification<? super R>> setRequestContext = rNotification -> setRequestContextIfNeeded(currentRequestContext);
+            @Override
+            public void onNext(R r) {
+                if (completedBeforeTimeout()) {
+                    child.onNext(r);
+                }
+            }
 
-        Observable<R> execution = executeCommandWithSpecifiedIsolation(_cmd);
+            @Override
+            public void onError(Throwable e) {
+                if (completedBeforeTimeout()) {
+                    child.onError(e);
+                }
+            }
+
+            @Override
+            public void onCompleted() {
+                if (completedBeforeTimeout()) {
+                    child.onCompleted();
+                }
+            }
+        }
+    }
 
-        return execution.doOnNext(markEmits)
-                .doOnCompleted(markOnCompleted)
-                .onErrorResumeNext(handleFailure)
-                .doOnEach(setRequestContext);
+    private boolean compareAndSetTimedOutStatus(TimedOutStatus expect, TimedOutStatus update) {
+        return TIMED_OUT_STATUS.compareAndSet(this, expect.ordinal(), update.ordinal());
     }
 
-    private Observable<R> executeCommandWithSpecifiedIsolation(final AbstractCommand<R> _cmd) {
+    /**
+     * @return true if the execution timed out and its thread should be interrupted
+     */
+    private boolean shouldInterruptOnTimeout() {
+        return timedOutStatus == TimedOutStatus.TIMED_OUT.ordinal() && properties.executionIsolationThreadInterruptOnTimeout().get();
+    }
+
+    /**
+     * Marks the emissions and the outcome of the execution, turns failures into the errors emitted to the caller, restores the request context
+     * of the calling thread, releases the execution semaphore if the user code never started and invokes the onEmit hook.
+     * <p>
+     * This replaces a chain of doOnNext, doOnCompleted, onErrorResumeNext, doOnEach, doOnTerminate, doOnUnsubscribe and map so an execution
+     * allocates one operator instead of an operator, a subscriber and a closure per callback.
+     */
+    private final class ExecutionLifecycle implements Operator<R, R> {
+        private final HystrixRequestContext requestContext;
+        // released by the user code once it has finished, here only if the execution ends before the user code started
+        private final UserCodePermit permit;
+
+        private ExecutionLifecycle(HystrixRequestContext requestContext, UserCodePermit permit) {
+            this.requestContext = requestContext;
+            this.permit = permit;
+        }
+
+        @Override
+        public Subscriber<? super R> call(final Subscriber<? super R> child) {
+            child.add(Subscriptions.create(permit::abandon));
+            return new Subscriber<R>(child) {
+                @Override
+                public void onNext(R r) {
+                    if (shouldOutputOnNextEvents()) {
+                        executionRecord.addEvent(HystrixEventType.EMIT);
+                    }
+                    if (commandIsScalar()) {
+                        long latency = System.currentTimeMillis() - executionRecord.getStartTimestamp();
+                        executionRecord.addEvent((int) latency, HystrixEventType.SUCCESS);
+                    }
+                    setRequestContextIfNeeded(requestContext);
+                    child.onNext(wrapWithAllOnNextHooks(r));
+                }
+
+                @Override
+                public void onError(Throwable t) {
+                    Throwable toEmit;
+                    try {
+                        toEmit = handleExecutionFailure(t);
+                    } catch (Throwable ex) {
+                        toEmit = ex;
+                    }
+                    setRequestContextIfNeeded(requestContext);
+                    permit.abandon();
+                    child.onError(toEmit);
+                }
+
+                @Override
+                public void onCompleted() {
+                    if (!commandIsScalar()) {
+                        long latency = System.currentTimeMillis() - executionRecord.getStartTimestamp();
+                        executionRecord.addEvent((int) latency, HystrixEventType.SUCCESS);
+                    }
+                    setRequestContextIfNeeded(requestContext);
+                    permit.abandon();
+                    child.onCompleted();
+                }
+            };
+        }
+    }
+
+    private R wrapWithAllOnNextHooks(R r) {
+        try {
+            return executionHook.onEmit(this, r);
+        } catch (Throwable hookEx) {
+            logger.warn("Error calling HystrixCommandExecutionHook.onEmit", hookEx);
+            return r;
+        }
+    }
+
+    private Exception handleExecutionFailure(Throwable t) {
+        Exception e = getExceptionFromThrowable(t);
+        executionRecord.setExecutionException(e);
+        if (e instanceof RejectedExecutionException) {
+            return handleThreadPoolRejection(e);
+        } else if (t instanceof HystrixTimeoutException) {
+            return handleTimeout();
+        } else if (t instanceof HystrixBadRequestException) {
+            return handleBadRequestByEmittingError(e);
+        } else {
+            /*
+             * Treat HystrixBadRequestException from ExecutionHook like a plain HystrixBadRequestException.
+             */
+            if (e instanceof HystrixBadRequestException) {
+                return e;
+            }
+
+            return handleFailure(e);
+        }
+    }
+
+    private Observable<R> executeCommandWithSpecifiedIsolation(final AbstractCommand<R> _cmd, final UserCodePermit permit) {
         if (properties.executionIsolationStrategy().get() == ExecutionIsolationStrategy.THREAD) {
             // mark that we are executing in a thread (even if we end up being rejected we still were a THREAD execution and not SEMAPHORE)
             return Observable.defer(() -> {
-                executionResult = executionResult.setExecutionOccurred();
-                if (!commandState.compareAndSet(CommandState.OBSERVABLE_CHAIN_CREATED, CommandState.USER_CODE_EXECUTED)) {
-                    return Observable.error(new IllegalStateException("execution attempted while in state : " + commandState.get().name()));
+                executionRecord.setExecutionOccurred();
+                if (!compareAndSetCommandState(CommandState.OBSERVABLE_CHAIN_CREATED, CommandState.USER_CODE_EXECUTED)) {
+                    return Observable.error(new IllegalStateException("execution attempted while in state : " + getCommandState().name()));
                 }
 
-                if (threadState.compareAndSet(ThreadState.NOT_USING_THREAD, ThreadState.STARTED)) {
+                if (compareAndSetThreadState(ThreadState.NOT_USING_THREAD, ThreadState.STARTED)) {
                     //we have not been unsubscribed, so should proceed
                     HystrixCounters.incrementGlobalConcurrentThreads();
                     threadPool.markThreadExecution();
                     // store the command that is being run
                     endCurrentThreadExecutingCommand = Hystrix.startCurrentThreadExecutingCommand(getCommandKey());
-                    executionResult = executionResult.setExecutedInThread();
+                    executionRecord.setExecutedInThread();
                     /*
                      * If any of these hooks throw an exception, then it appears as if the actual execution threw an error
                      */
                     try {
                         executionHook.onThreadStart(_cmd);
                         executionHook.onExecutionStart(_cmd);
-                        return getUserExecutionObservable(_cmd);
+                        return getUserExecutionObservable(_cmd, permit);
                     } catch (Throwable ex) {
                         return Observable.error(ex);
                     }
@@ -495,26 +1013,12 @@ import java.util.concurrent.atomic.AtomicReference;
                     //command has already been unsubscribed, so return immediately
                     return Observable.empty();
                 }
-            }).doOnTerminate(() -> {
-                if (threadState.compareAndSet(ThreadState.STARTED, ThreadState.TERMINAL)) {
-                    handleThreadEnd(_cmd);
-                }
-                //if it was never started and received terminal, then no need to clean up (I don't think this is possible)
-                threadState.compareAndSet(ThreadState.NOT_USING_THREAD, ThreadState.TERMINAL);
-                //if it was unsubscribed, then other cleanup handled it
-            }).doOnUnsubscribe(() -> {
-                if (threadState.compareAndSet(ThreadState.STARTED, ThreadState.UNSUBSCRIBED)) {
-                    handleThreadEnd(_cmd);
-                }
-                //if it was never started and was cancelled, then no need to clean up
-                threadState.compareAndSet(ThreadState.NOT_USING_THREAD, ThreadState.UNSUBSCRIBED);
-                //if it was terminal, then other cleanup handled it
-            }).subscribeOn(threadPool.getScheduler(() -> false));
+            }).lift(new ThreadLifecycle()).subscribeOn(getExecutionScheduler());
         } else {
             return Observable.defer(() -> {
-                executionResult = executionResult.setExecutionOccurred();
-                if (!commandState.compareAndSet(CommandState.OBSERVABLE_CHAIN_CREATED, CommandState.USER_CODE_EXECUTED)) {
-                    return Observable.error(new IllegalStateException("execution attempted while in state : " + commandState.get().name()));
+                executionRecord.setExecutionOccurred();
+                if (!compareAndSetCommandState(CommandState.OBSERVABLE_CHAIN_CREATED, CommandState.USER_CODE_EXECUTED)) {
+                    return Observable.error(new IllegalStateException("execution attempted while in state : " + getCommandState().name()));
                 }
 
                 // semaphore isolated
@@ -522,7 +1026,7 @@ import java.util.concurrent.atomic.AtomicReference;
                 endCurrentThreadExecutingCommand = Hystrix.startCurrentThreadExecutingCommand(getCommandKey());
                 try {
                     executionHook.onExecutionStart(_cmd);
-                    return getUserExecutionObservable(_cmd);  //the getUserExecutionObservable method already wraps sync exceptions, so this shouldn't throw
+                    return getUserExecutionObservable(_cmd, permit);  //the getUserExecutionObservable method already wraps sync exceptions, so this shouldn't throw
                 } catch (Throwable ex) {
                     //If the above hooks throw, then use that as the result of the run method
                     return Observable.error(ex);
@@ -531,45 +1035,261 @@ import java.util.concurrent.atomic.AtomicReference;
         }
     }
 
-    private Observable<R> throwException(final HystrixEventType eventType, final FailureType failureType, final String message, final Exception originalException) {
-        long latency = System.currentTimeMillis() - executionResult.getStartTimestamp();
-        // record the executionResult
-        executionResult = executionResult.addEvent((int) latency, eventType);
+    /**
+     * @return the scheduler of a THREAD-isolated execution, which only interrupts the thread of an execution that timed out
+     */
+    private Scheduler getExecutionScheduler() {
+        Func0<Boolean> shouldInterruptThread = properties.executionTimeoutEnabled().get() ? this::shouldInterruptOnTimeout : NEVER_INTERRUPT;
+        return threadPoolBatch != null ? threadPoolBatch.getScheduler(shouldInterruptThread) : threadPool.getScheduler(shouldInterruptThread);
+    }
+
+    /**
+     * Ends the thread execution once, either on its terminal event or when unsubscribed, in place of a doOnTerminate and doOnUnsubscribe pair.
+     */
+    private final class ThreadLifecycle implements Operator<R, R> {
+        private final int generation = AbstractCommand.this.generation;
+
+        @Override
+        public Subscriber<? super R> call(final Subscriber<? super R> child) {
+            child.add(Subscriptions.create(() -> {
+                if (generation == AbstractCommand.this.generation) {
+                    threadUnsubscribed();
+                }
+            }));
+            return new Subscriber<R>(child) {
+                @Override
+                public void onNext(R r) {
+                    child.onNext(r);
+                }
+
+                @Override
+                public void onError(Throwable e) {
+                    threadTerminated();
+                    child.onError(e);
+                }
+
+                @Override
+                public void onCompleted() {
+                    threadTerminated();
+                    child.onCompleted();
+                }
+            };
+        }
+    }
+
+    private void threadTerminated() {
+        if (compareAndSetThreadState(ThreadState.STARTED, ThreadState.TERMINAL)) {
+            handleThreadEnd(this);
+        }
+        //if it was never started and received terminal, then no need to clean up (I don't think this is possible)
+        compareAndSetThreadState(ThreadState.NOT_USING_THREAD, ThreadState.TERMINAL);
+        //if it was unsubscribed, then other cleanup handled it
+    }
+
+    private void threadUnsubscribed() {
+        if (compareAndSetThreadState(ThreadState.STARTED, ThreadState.UNSUBSCRIBED)) {
+            handleThreadEnd(this);
+        }
+        //if it was never started and was cancelled, then no need to clean up
+        compareAndSetThreadState(ThreadState.NOT_USING_THREAD, ThreadState.UNSUBSCRIBED);
+        //if it was terminal, then other cleanup handled it
+    }
+
+    private Exception throwException(final HystrixEventType eventType, final FailureType failureType, final String message, final Exception originalException) {
+        long latency = System.currentTimeMillis() - executionRecord.getStartTimestamp();
+        // record the execution
+        executionRecord.addEvent((int) latency, eventType);
 
         if (isUnrecoverable(originalException)) {
             logger.error("Unrecoverable Error for HystrixCommand so will throw HystrixRuntimeException.", originalException);
 
             /* executionHook for all errors */
             Exception e = wrapWithOnErrorHook(failureType, originalException);
-            return Observable.error(new HystrixRuntimeException(failureType, this.getClass(), getLogMessagePrefix() + " " + message + " and encountered unrecoverable error.", e));
+            return new HystrixRuntimeException(failureType, this.getClass(), getLogMessagePrefix() + " " + message + " and encountered unrecoverable error.", e);
         } else {
             if (isRecoverableError(originalException)) {
                 logger.warn("Recovered from java.lang.Error by emitting error", originalException);
             }
 
             if (shouldNotBeWrapped(originalException)) {
-                return Observable.error(originalException);
+                return originalException;
             }
 
             return emitError(originalException, failureType, message);
         }
     }
 
-    private Observable<R> getUserExecutionObservable(final AbstractCommand<R> _cmd) {
+    private Observable<R> getUserExecutionObservable(final AbstractCommand<R> _cmd, final UserCodePermit permit) {
         Observable<R> userObservable;
 
         try {
-            userObservable = getExecutionObservable();
+            userObservable = getExecutionObservable(permit);
         } catch (Throwable ex) {
             // the run() method is a user provided implementation so can throw instead of using Observable.onError
             // so we catch it here and turn it into Observable.error
             userObservable = Observable.error(ex);
         }
 
+        if (properties.executionHedgingEnabled().get() && !isExecutedOnCallingThread()) {
+            userObservable = hedge(userObservable);
+        }
+
         return userObservable
                 .lift(new ExecutionHookApplication(_cmd));
     }
 
+    /**
+     * Races the given execution against a second one launched on the thread-pool once the execution took longer than the hedging percentile.
+     * <p>
+     * The hooks are applied to the winner only, a hedge that fails does not win so the error of the primary execution is the one reported.
+     * <p>
+     * Only the latency of the primary execution is recorded. When it is abandoned, because the hedge won or the execution was unsubscribed, the time
+     * until then is recorded as a lower bound of it, so hedging cannot pull the percentile, and with it the hedge delay, down.
+     */
+    private Observable<R> hedge(final Observable<R> primary) {
+        final HedgeController controller = HedgeController.getInstance(commandKey);
+        controller.onExecution(properties.executionHedgingBudgetPercentage().get());
+        final int delay = controller.getHedgeDelayInMilliseconds(properties.executionHedgingPercentile().get());
+        final long start = System.currentTimeMillis();
+        final AtomicBoolean recorded = new AtomicBoolean();
+        final Action0 recordLatency = () -> {
+            if (recorded.compareAndSet(false, true)) {
+                controller.recordLatency((int) (System.currentTimeMillis() - start));
+            }
+        };
+
+        Observable<R> execution = primary
+                .doOnCompleted(recordLatency)
+                .doOnError(e -> recorded.set(true))
+                .doOnUnsubscribe(recordLatency);
+        if (delay >= 0) {
+            Observable<R> secondary = Observable.timer(delay, TimeUnit.MILLISECONDS).flatMap(tick -> startHedge(controller));
+            execution = race(secondary, execution);
+        }
+        return execution;
+    }
+
+    /**
+     * The hedge takes an isolation permit of its own, a semaphore permit or room in the thread-pool, and is skipped if there is none.
+     * <p>
+     * It runs on the same instance as the primary execution, so it must not touch the state the primary execution keeps in this command.
+     */
+    private Observable<R> startHedge(HedgeController controller) {
+        final TryableSemaphore executionSemaphore = getExecutionSemaphore();
+        if (!threadPool.isQueueSpaceAvailable() || !executionSemaphore.tryAcquire()) {
+            return Observable.never();
+        }
+        if (!controller.tryAcquireHedge()) {
+            executionSemaphore.release();
+            return Observable.never();
+        }
+        executionRecord.addEvent(HystrixEventType.HEDGED);
+
+        final UserCodePermit permit = new UserCodePermit(executionSemaphore);
+        return getHedgeExecutionObservable(permit)
+                .subscribeOn(threadPool.getScheduler(NEVER_INTERRUPT))
+                .doOnTerminate(permit::abandon)
+                .doOnUnsubscribe(permit::abandon)
+                // a rejected or failed hedge does not win
+                .onErrorResumeNext(Observable.never());
+    }
+
+    /**
+     * @return true if the user code of the primary execution runs on the calling thread, which then waits for it to return even if a hedge won
+     * meanwhile, so hedging is skipped. User code returning an Observable or a stage is assumed to emit asynchronously.
+     */
+    /* package */boolean isExecutedOnCallingThread() {
+        return false;
+    }
+
+    /**
+     * The user code of the execution. By default it has finished once it terminates or is unsubscribed, which does not hold for blocking or
+     * uncancellable user code.
+     *
+     * @param permit
+     *            started before the user code runs, which must then be skipped if it was abandoned, and ended once the user code has finished
+     */
+    /* package */Observable<R> getExecutionObservable(final UserCodePermit permit) {
+        return Observable.defer(() -> permit.start() ? getExecutionObservable() : Observable.<R>empty())
+                .doOnTerminate(permit::end)
+                .doOnUnsubscribe(permit::end);
+    }
+
+    /**
+     * The user code of a hedge, which runs next to the primary execution of this instance.
+     *
+     * @see #getExecutionObservable(UserCodePermit)
+     */
+    /* package */Observable<R> getHedgeExecutionObservable(final UserCodePermit permit) {
+        return getExecutionObservable(permit);
+    }
+
+    /**
+     * Like {@link Observable#amb} the first Observable to emit wins and the other one is unsubscribed, but without waiting for all of them to be
+     * subscribed to before requesting. The hedge is subscribed to first: with {@link ExecutionIsolationStrategy#THREAD} the primary execution
+     * runs on the thread-pool thread subscribing to the race and only returns from subscribe once it has completed, so the hedge has to be
+     * scheduled already to win meanwhile. Where that thread would be the caller's the caller waits for the primary execution anyway, so such
+     * executions are not hedged at all, see {@link #isExecutedOnCallingThread()}.
+     */
+    private static <R> Observable<R> race(final Observable<R> first, final Observable<R> second) {
+        return Observable.unsafeCreate((Subscriber<? super R> subscriber) -> {
+            AtomicReference<RaceSubscriber<R>> winner = new AtomicReference<>();
+            RaceSubscriber<R> firstSubscriber = new RaceSubscriber<>(subscriber, winner);
+            RaceSubscriber<R> secondSubscriber = new RaceSubscriber<>(subscriber, winner);
+            firstSubscriber.other = secondSubscriber;
+            secondSubscriber.other = firstSubscriber;
+            subscriber.add(firstSubscriber);
+            subscriber.add(secondSubscriber);
+            first.unsafeSubscribe(firstSubscriber);
+            if (!subscriber.isUnsubscribed()) {
+                second.unsafeSubscribe(secondSubscriber);
+            }
+        });
+    }
+
+    private static final class RaceSubscriber<R> extends Subscriber<R> {
+        private final Subscriber<? super R> child;
+        private final AtomicReference<RaceSubscriber<R>> winner;
+        private volatile RaceSubscriber<R> other;
+
+        private RaceSubscriber(Subscriber<? super R> child, AtomicReference<RaceSubscriber<R>> winner) {
+            this.child = child;
+            this.winner = winner;
+        }
+
+        private boolean won() {
+            if (winner.get() == this) {
+                return true;
+            }
+            if (winner.compareAndSet(null, this)) {
+                other.unsubscribe();
+                return true;
+            }
+            return false;
+        }
+
+        @Override
+        public void onNext(R r) {
+            if (won()) {
+                child.onNext(r);
+            }
+        }
+
+        @Override
+        public void onError(Throwable e) {
+            if (won()) {
+                child.onError(e);
+            }
+        }
+
+        @Override
+        public void onCompleted() {
+            if (won()) {
+                child.onCompleted();
+            }
+        }
+    }
+
     private Observable<R> handleRequestCacheHitAndEmitValues(final HystrixCommandResponseFromCache<R> fromCache) {
         try {
             executionHook.onCacheHit(this);
@@ -579,16 +1299,16 @@ import java.util.concurrent.atomic.AtomicReference;
 
         return fromCache.toObservableWithStateCopiedInto(this)
                 .doOnTerminate(() -> {
-                    if (commandState.compareAndSet(CommandState.OBSERVABLE_CHAIN_CREATED, CommandState.TERMINAL)) {
+                    if (compareAndSetCommandState(CommandState.OBSERVABLE_CHAIN_CREATED, CommandState.TERMINAL)) {
                         cleanUpAfterResponseFromCache(); //user code never ran
-                    } else if (commandState.compareAndSet(CommandState.USER_CODE_EXECUTED, CommandState.TERMINAL)) {
+                    } else if (compareAndSetCommandState(CommandState.USER_CODE_EXECUTED, CommandState.TERMINAL)) {
                         cleanUpAfterResponseFromCache(); //user code did run
                     }
                 })
                 .doOnUnsubscribe(() -> {
-                    if (commandState.compareAndSet(CommandState.OBSERVABLE_CHAIN_CREATED, CommandState.UNSUBSCRIBED)) {
+                    if (compareAndSetCommandState(CommandState.OBSERVABLE_CHAIN_CREATED, CommandState.UNSUBSCRIBED)) {
                         cleanUpAfterResponseFromCache(); //user code never ran
-                    } else if (commandState.compareAndSet(CommandState.USER_CODE_EXECUTED, CommandState.UNSUBSCRIBED)) {
+                    } else if (compareAndSetCommandState(CommandState.USER_CODE_EXECUTED, CommandState.UNSUBSCRIBED)) {
                         cleanUpAfterResponseFromCache(); //user code did run
                     }
                 });
@@ -596,40 +1316,43 @@ import java.util.concurrent.atomic.AtomicReference;
 
     private void cleanUpAfterResponseFromCache() {
         final long latency = System.currentTimeMillis() - commandStartTimestamp;
-        executionResult = executionResult
-                .addEvent(-1, HystrixEventType.RESPONSE_FROM_CACHE)
-                .markUserThreadCompletion(latency)
-                .setNotExecutedInThread();
+        executionRecord.addEvent(-1, HystrixEventType.RESPONSE_FROM_CACHE);
+        executionRecord.markUserThreadCompletion(latency);
+        executionRecord.setNotExecutedInThread();
     }
 
     private void handleCommandEnd() {
         long userThreadLatency = System.currentTimeMillis() - commandStartTimestamp;
-        executionResult = executionResult.markUserThreadCompletion((int) userThreadLatency);
+        executionRecord.markUserThreadCompletion((int) userThreadLatency);
 
         if (endCurrentThreadExecutingCommand != null) {
             endCurrentThreadExecutingCommand.call();
         }
     }
 
-    private Observable<R> handleSemaphoreRejection() {
+    private Exception handleSemaphoreRejection() {
         Exception semaphoreRejectionException = new RuntimeException("could not acquire a semaphore for execution");
-        executionResult = executionResult.setExecutionException(semaphoreRejectionException);
+        executionRecord.setExecutionException(semaphoreRejectionException);
         logger.debug("HystrixCommand Execution Rejection by Semaphore."); // debug only since we're throwing the exception and someone higher will do something with it
         return throwException(HystrixEventType.SEMAPHORE_REJECTED, FailureType.REJECTED_SEMAPHORE_EXECUTION,
                 "could not acquire a semaphore for execution", semaphoreRejectionException);
     }
 
-    private Observable<R> handleThreadPoolRejection(Exception underlying) {
+    private Exception handleThreadPoolRejection(Exception underlying) {
         threadPool.markThreadRejection();
         return throwException(HystrixEventType.THREAD_POOL_REJECTED, FailureType.REJECTED_THREAD_EXECUTION, "could not be queued for execution", underlying);
     }
 
-    private Observable<R> handleBadRequestByEmittingError(Exception underlying) {
+    private Exception handleTimeout() {
+        return throwException(HystrixEventType.TIMEOUT, FailureType.TIMEOUT, "timed-out", new TimeoutException());
+    }
+
+    private Exception handleBadRequestByEmittingError(Exception underlying) {
         Exception toEmit = underlying;
 
         try {
-            long executionLatency = System.currentTimeMillis() - executionResult.getStartTimestamp();
-            executionResult = executionResult.addEvent((int) executionLatency, HystrixEventType.BAD_REQUEST);
+            long executionLatency = System.currentTimeMillis() - executionRecord.getStartTimestamp();
+            executionRecord.addEvent((int) executionLatency, HystrixEventType.BAD_REQUEST);
             Exception decorated = executionHook.onError(this, FailureType.BAD_REQUEST_EXCEPTION, underlying);
 
             if (decorated instanceof HystrixBadRequestException) {
@@ -643,26 +1366,26 @@ import java.util.concurrent.atomic.AtomicReference;
         /*
          * HystrixBadRequestException is treated differently and allowed to propagate without any stats tracking
          */
-        return Observable.error(toEmit);
+        return toEmit;
     }
 
-    private Observable<R> handleFailure(Exception underlying) {
+    private Exception handleFailure(Exception underlying) {
         /*
          * All other error handling
          */
         logger.debug("Error executing HystrixCommand.run().", underlying);
 
         // record the exception
-        executionResult = executionResult.setException(underlying);
+        executionRecord.setException(underlying);
         return throwException(HystrixEventType.FAILURE, FailureType.COMMAND_EXCEPTION, "failed", underlying);
     }
 
-    private Observable<R> emitError(Exception underlying, FailureType failureType, String message) {
+    private Exception emitError(Exception underlying, FailureType failureType, String message) {
         logger.debug("Throwing HystrixRuntimeException. ", underlying); // debug only since we're throwing the exception and someone higher will do something with it
 
         /* executionHook for all errors */
         Exception wrapped = wrapWithOnErrorHook(failureType, underlying);
-        return Observable.error(new HystrixRuntimeException(failureType, this.getClass(), getLogMessagePrefix() + " " + message, wrapped));
+        return new HystrixRuntimeException(failureType, this.getClass(), getLogMessagePrefix() + " " + message, wrapped);
     }
 
     protected boolean shouldNotBeWrapped(Throwable underlying) {
@@ -1014,6 +1737,63 @@ import java.util.concurrent.atomic.AtomicReference;
 
     }
 
+    /**
+     * An isolation permit held for the user code of an execution.
+     * <p>
+     * Blocking or uncancellable user code keeps running after its execution was unsubscribed, so the permit is released once the user code has
+     * finished, or right away if the execution was abandoned before its user code started.
+     */
+    /* package */static final class UserCodePermit {
+        private static final int NOT_STARTED = 0;
+        private static final int RUNNING = 1;
+        private static final int RELEASED = 2;
+        private static final AtomicIntegerFieldUpdater<UserCodePermit> STATE = AtomicIntegerFieldUpdater.newUpdater(UserCodePermit.class, "state");
+
+        private final TryableSemaphore semaphore;
+        // not private so STATE can reach it
+        volatile int state = NOT_STARTED;
+
+        /**
+         * @param semaphore
+         *            semaphore the permit was acquired from
+         */
+        /* package */UserCodePermit(TryableSemaphore semaphore) {
+            this.semaphore = semaphore;
+        }
+
+        /**
+         * @return false if the execution was abandoned already, the user code must then not be started
+         */
+        /* package */boolean start() {
+            return STATE.compareAndSet(this, NOT_STARTED, RUNNING);
+        }
+
+        /**
+         * @return true from the start of the user code until it has finished
+         */
+        /* package */boolean isRunning() {
+            return state == RUNNING;
+        }
+
+        /**
+         * The user code has finished.
+         */
+        /* package */void end() {
+            if (STATE.getAndSet(this, RELEASED) != RELEASED) {
+                semaphore.release();
+            }
+        }
+
+        /**
+         * The execution was unsubscribed or terminated, which only releases the permit if the user code never started.
+         */
+        /* package */void abandon() {
+            if (STATE.compareAndSet(this, NOT_STARTED, RELEASED)) {
+                semaphore.release();
+            }
+        }
+    }
+
     /* ******************************************************************************** */
     /* ******************************************************************************** */
     /* RequestCache */
@@ -1053,7 +1833,7 @@ import java.util.concurrent.atomic.AtomicReference;
      * @return boolean
      */
     public boolean isExecutionComplete() {
-        return commandState.get() == CommandState.TERMINAL;
+        return getCommandState() == CommandState.TERMINAL;
     }
 
     /**
@@ -1097,7 +1877,7 @@ import java.util.concurrent.atomic.AtomicReference;
      * @return Throwable or null
      */
     public Throwable getFailedExecutionException() {
-        return executionResult.getException();
+        return executionRecord.freeze().getException();
     }
 
     /**
@@ -1112,7 +1892,7 @@ import java.util.concurrent.atomic.AtomicReference;
      * @return Throwable or null
      */
     public Throwable getExecutionException() {
-        return executionResult.getExecutionException();
+        return executionRecord.freeze().getExecutionException();
     }
 
     /**
@@ -1124,6 +1904,15 @@ import java.util.concurrent.atomic.AtomicReference;
         return isResponseFromCache;
     }
 
+    /**
+     * Whether the response received was the result of the execution timing out
+     *
+     * @return boolean
+     */
+    public boolean isResponseTimedOut() {
+        return getCommandResult().isResponseTimedOut();
+    }
+
     /**
      * Whether the response received was a of being rejected via semaphore
      *
@@ -1165,7 +1954,7 @@ import java.util.concurrent.atomic.AtomicReference;
     private ExecutionResult getCommandResult() {
         ExecutionResult resultToReturn;
         if (executionResultAtTimeOfCancellation == null) {
-            resultToReturn = executionResult;
+            resultToReturn = executionRecord.freeze();
         } else {
             resultToReturn = executionResultAtTimeOfCancellation;
         }
@@ -1194,7 +1983,7 @@ import java.util.concurrent.atomic.AtomicReference;
 
     @Override
     public HystrixCollapserKey getOriginatingCollapserKey() {
-        return executionResult.getCollapserKey();
+        return executionRecord.freeze().getCollapserKey();
     }
 
     /**
@@ -1213,7 +2002,7 @@ import java.util.concurrent.atomic.AtomicReference;
      * @return long
      */
     public long getCommandRunStartTimeInNanos() {
-        return executionResult.getCommandRunStartTimeInNanos();
+        return executionRecord.freeze().getCommandRunStartTimeInNanos();
     }
 
     @Override
@@ -0,0 +1,163 @@
+/*
+ * Copyright 2016 Netflix, Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.netflix.hystrix;
+
+/**
+ * Mutable record of what happened as the user-provided code of a command ran.
+ * <p>
+ * Events are kept in an int bitmask next to primitive counters and timestamps, so recording an event - including every emission of a
+ * streaming command - does not allocate. The record is owned by one command instance. The execution moves between the caller, the
+ * thread pool and timer threads, but records one thing at a time, so the monitor guarding the record is uncontended and only publishes
+ * the writes to the next reader.
+ * <p>
+ * Readers get an immutable {@link ExecutionResult} from {@link #freeze()}, which is kept until the next mutation.
+ */
+/* package */ final class ExecutionRecord {
+    private int events;
+    private int numEmissions;
+    private int numCollapsed;
+    private long startTimestamp = -1L;
+    private int executionLatency = -1; //time spent in run() method
+    private int userThreadLatency = -1; //time elapsed between caller thread submitting request and response being visible to it
+    private Exception failedExecutionException;
+    private Exception executionException;
+    private boolean executionOccurred;
+    private boolean isExecutedInThread;
+    private HystrixCollapserKey collapserKey;
+
+    // immutable view of the current state, null once a mutation made it stale
+    private ExecutionResult frozen = ExecutionResult.EMPTY;
+
+    /* package */ synchronized ExecutionResult freeze() {
+        ExecutionResult result = frozen;
+        if (result == null) {
+            result = new ExecutionResult(new ExecutionResult.EventCounts(events, numEmissions, numCollapsed), startTimestamp, executionLatency,
+                    userThreadLatency, failedExecutionException, executionException, executionOccurred, isExecutedInThread, collapserKey);
+            frozen = result;
+        }
+        return result;
+    }
+
+    /**
+     * Replaces the whole record with the given result, used when a command takes over the execution of another one.
+     */
+    /* package */ synchronized void copyFrom(ExecutionResult result) {
+        ExecutionResult.EventCounts eventCounts = result.getEventCounts();
+        events = eventCounts.getEvents();
+        numEmissions = eventCounts.getCount(HystrixEventType.EMIT);
+        numCollapsed = eventCounts.getCount(HystrixEventType.COLLAPSED);
+        startTimestamp = result.getStartTimestamp();
+        executionLatency = result.getExecutionLatency();
+        userThreadLatency = result.getUserThreadLatency();
+        failedExecutionException = result.getException();
+        executionException = result.getExecutionException();
+        executionOccurred = result.executionOccurred();
+        isExecutedInThread = result.isExecutedInThread();
+        collapserKey = result.getCollapserKey();
+        frozen = result;
+    }
+
+    /**
+     * Clears the record for another execution of a pooled command.
+     */
+    /* package */ synchronized void reset() {
+        copyFrom(ExecutionResult.EMPTY);
+    }
+
+    /* package */ synchronized void setExecutionOccurred() {
+        executionOccurred = true;
+        frozen = null;
+    }
+
+    /* package */ synchronized void setExecutionLatency(int executionLatency) {
+        this.executionLatency = executionLatency;
+        frozen = null;
+    }
+
+    /* package */ synchronized void setException(Exception e) {
+        failedExecutionException = e;
+        frozen = null;
+    }
+
+    /* package */ synchronized void setExecutionException(Exception executionException) {
+        this.executionException = executionException;
+        frozen = null;
+    }
+
+    /* package */ synchronized void setInvocationStartTime(long startTimestamp) {
+        this.startTimestamp = startTimestamp;
+        frozen = null;
+    }
+
+    /* package */ synchronized void setExecutedInThread() {
+        isExecutedInThread = true;
+        frozen = null;
+    }
+
+    /* package */ synchronized void setNotExecutedInThread() {
+        isExecutedInThread = false;
+        frozen = null;
+    }
+
+    /* package */ synchronized void markCollapsed(HystrixCollapserKey collapserKey, int sizeOfBatch) {
+        events |= ExecutionResult.maskOf(HystrixEventType.COLLAPSED);
+        numCollapsed += sizeOfBatch;
+        this.collapserKey = collapserKey;
+        frozen = null;
+    }
+
+    /* package */ synchronized void markUserThreadCompletion(long userThreadLatency) {
+        if (startTimestamp > 0 && !isResponseRejected()) {
+            /* execution time (must occur before terminal state otherwise a race condition can occur if requested by client) */
+            this.userThreadLatency = (int) userThreadLatency;
+            frozen = null;
+        }
+    }
+
+    /* package */ synchronized void addEvent(HystrixEventType eventType) {
+        events |= ExecutionResult.maskOf(eventType);
+        switch (eventType) {
+            case EMIT:
+                numEmissions++;
+                break;
+            case COLLAPSED:
+                numCollapsed++;
+                break;
+            default:
+                break;
+        }
+        frozen = null;
+    }
+
+    /* package */ synchronized void addEvent(int executionLatency, HystrixEventType eventType) {
+        if (startTimestamp >= 0 && !isResponseRejected()) {
+            this.executionLatency = executionLatency;
+        }
+        addEvent(eventType);
+    }
+
+    /* package */ synchronized long getStartTimestamp() {
+        return startTimestamp;
+    }
+
+    /* package */ synchronized boolean containsTerminalEvent() {
+        return (events & ExecutionResult.TERMINAL_EVENT_MASK) != 0;
+    }
+
+    private boolean isResponseRejected() {
+        return (events & ExecutionResult.REJECTED_EVENT_MASK) != 0;
+    }
+}
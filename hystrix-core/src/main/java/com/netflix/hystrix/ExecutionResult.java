@@ -28,6 +28,8 @@ import java.util.List;
  * <p>
  * This being immutable forces and ensure thread-safety instead of using AtomicInteger/ConcurrentLinkedQueue and determining
  * when it's safe to mutate the object directly versus needing to deep-copy clone to a new instance.
+ * <p>
+ * A running command records into a mutable {@link ExecutionRecord} instead, which is frozen into an ExecutionResult only when it is read.
  */
 public class ExecutionResult {
     private final EventCounts eventCounts;
@@ -42,50 +44,62 @@ public class ExecutionResult {
 
     private static final HystrixEventType[] ALL_EVENT_TYPES = HystrixEventType.values();
     private static final int NUM_EVENT_TYPES = ALL_EVENT_TYPES.length;
-    private static final BitSet EXCEPTION_PRODUCING_EVENTS = new BitSet(NUM_EVENT_TYPES);
-    private static final BitSet TERMINAL_EVENTS = new BitSet(NUM_EVENT_TYPES);
+    /* package */ static final int EXCEPTION_PRODUCING_EVENT_MASK;
+    /* package */ static final int TERMINAL_EVENT_MASK;
+    /* package */ static final int REJECTED_EVENT_MASK = maskOf(HystrixEventType.SEMAPHORE_REJECTED) | maskOf(HystrixEventType.THREAD_POOL_REJECTED);
 
     static {
+        if (NUM_EVENT_TYPES > Integer.SIZE) {
+            throw new IllegalStateException("Events are kept in an int bitmask, which cannot hold " + NUM_EVENT_TYPES + " event types");
+        }
+
+        int exceptionProducingEvents = 0;
         for (HystrixEventType eventType: HystrixEventType.EXCEPTION_PRODUCING_EVENT_TYPES) {
-            EXCEPTION_PRODUCING_EVENTS.set(eventType.ordinal());
+            exceptionProducingEvents |= maskOf(eventType);
         }
+        EXCEPTION_PRODUCING_EVENT_MASK = exceptionProducingEvents;
 
+        int terminalEvents = 0;
         for (HystrixEventType eventType: HystrixEventType.TERMINAL_EVENT_TYPES) {
-            TERMINAL_EVENTS.set(eventType.ordinal());
+            terminalEvents |= maskOf(eventType);
         }
+        TERMINAL_EVENT_MASK = terminalEvents;
+    }
+
+    /* package */ static int maskOf(HystrixEventType eventType) {
+        return 1 << eventType.ordinal();
     }
 
     public static class EventCounts {
-        private final BitSet events;
+        // bit i is set if the event type with ordinal i occurred
+        private final int events;
         private final int numEmissions;
         private final int numCollapsed;
 
-        EventCounts(BitSet events, int numEmissions, int numCollapsed) {
+        EventCounts(int events, int numEmissions, int numCollapsed) {
             this.events = events;
             this.numEmissions = numEmissions;
             this.numCollapsed = numCollapsed;
         }
 
         EventCounts(HystrixEventType... eventTypes) {
-            BitSet newBitSet = new BitSet(NUM_EVENT_TYPES);
+            int localEvents = 0;
             int localNumEmits = 0;
             int localNumCollapsed = 0;
             for (HystrixEventType eventType: eventTypes) {
+                localEvents |= maskOf(eventType);
                 switch (eventType) {
                     case EMIT:
-                        newBitSet.set(HystrixEventType.EMIT.ordinal());
                         localNumEmits++;
                         break;
                     case COLLAPSED:
-                        newBitSet.set(HystrixEventType.COLLAPSED.ordinal());
                         localNumCollapsed++;
                         break;
                     default:
-                        newBitSet.set(eventType.ordinal());
                         break;
                 }
             }
-            this.events = newBitSet;
+            this.events = localEvents;
             this.numEmissions = localNumEmits;
             this.numCollapsed = localNumCollapsed;
         }
@@ -95,37 +109,41 @@ public class ExecutionResult {
         }
 
         EventCounts plus(HystrixEventType eventType, int count) {
-            BitSet newBitSet = (BitSet) events.clone();
             int localNumEmits = numEmissions;
             int localNumCollapsed = numCollapsed;
             switch (eventType) {
                 case EMIT:
-                    newBitSet.set(HystrixEventType.EMIT.ordinal());
                     localNumEmits += count;
                     break;
                 case COLLAPSED:
-                    newBitSet.set(HystrixEventType.COLLAPSED.ordinal());
                     localNumCollapsed += count;
                     break;
                 default:
-                    newBitSet.set(eventType.ordinal());
                     break;
             }
-            return new EventCounts(newBitSet, localNumEmits, localNumCollapsed);
+            return new EventCounts(events | maskOf(eventType), localNumEmits, localNumCollapsed);
         }
 
         public boolean contains(HystrixEventType eventType) {
-            return events.get(eventType.ordinal());
+            return (events & maskOf(eventType)) != 0;
         }
 
         public boolean containsAnyOf(BitSet other) {
-            return events.intersects(other);
+            return BitSet.valueOf(new long[] { events & 0xFFFFFFFFL }).intersects(other);
+        }
+
+        /* package */ boolean containsAnyOf(int mask) {
+            return (events & mask) != 0;
+        }
+
+        /* package */ int getEvents() {
+            return events;
         }
 
         public int getCount(HystrixEventType eventType) {
             switch (eventType) {
                 case EMIT: return numEmissions;
-                case EXCEPTION_THROWN: return containsAnyOf(EXCEPTION_PRODUCING_EVENTS) ? 1 : 0;
+                case EXCEPTION_THROWN: return containsAnyOf(EXCEPTION_PRODUCING_EVENT_MASK) ? 1 : 0;
                 case COLLAPSED: return numCollapsed;
                 default: return contains(eventType) ? 1 : 0;
             }
@@ -140,13 +158,13 @@ public class ExecutionResult {
 
             if (numEmissions != that.numEmissions) return false;
             if (numCollapsed != that.numCollapsed) return false;
-            return events.equals(that.events);
+            return events == that.events;
 
         }
 
         @Override
         public int hashCode() {
-            int result = events.hashCode();
+            int result = events;
             result = 31 * result + numEmissions;
             result = 31 * result + numCollapsed;
             return result;
@@ -155,14 +173,14 @@ public class ExecutionResult {
         @Override
         public String toString() {
             return "EventCounts{" +
-                    "events=" + events +
+                    "events=" + BitSet.valueOf(new long[] { events & 0xFFFFFFFFL }) +
                     ", numEmissions=" + numEmissions +
                     ", numCollapsed=" + numCollapsed +
                     '}';
         }
     }
 
-    private ExecutionResult(EventCounts eventCounts, long startTimestamp, int executionLatency,
+    /* package */ ExecutionResult(EventCounts eventCounts, long startTimestamp, int executionLatency,
                             int userThreadLatency, Exception failedExecutionException, Exception executionException,
                             boolean executionOccurred, boolean isExecutedInThread, HystrixCollapserKey collapserKey) {
         this.eventCounts = eventCounts;
@@ -303,6 +321,10 @@ public class ExecutionResult {
         return collapserKey;
     }
 
+    public boolean isResponseTimedOut() {
+        return eventCounts.contains(HystrixEventType.TIMEOUT);
+    }
+
     public boolean isResponseSemaphoreRejected() {
         return eventCounts.contains(HystrixEventType.SEMAPHORE_REJECTED);
     }
@@ -334,7 +356,7 @@ public class ExecutionResult {
     }
 
     public boolean containsTerminalEvent() {
-        return eventCounts.containsAnyOf(TERMINAL_EVENTS);
+        return eventCounts.containsAnyOf(TERMINAL_EVENT_MASK);
     }
 
     @Override
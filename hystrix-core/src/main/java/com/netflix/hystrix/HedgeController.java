@@ -0,0 +1,132 @@
+/*
+ * Copyright 2016 Netflix, Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.netflix.hystrix;
+
+import java.util.Arrays;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicIntegerArray;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Per {@link HystrixCommandKey} state of hedged executions: the recent execution latencies the hedge delay is derived from and the budget
+ * that limits how many hedges may be launched.
+ * <p>
+ * The budget is a token bucket: every execution adds {@link HystrixCommandProperties#executionHedgingBudgetPercentage()} percent of a token and
+ * every hedge takes a whole one, so hedges never add more than that share of load, even when the backend slows down for everyone.
+ */
+/* package */ final class HedgeController {
+
+    // String is HystrixCommandKey.name() (we can't use HystrixCommandKey directly as we can't guarantee it implements hashcode/equals correctly)
+    private static final ConcurrentHashMap<String, HedgeController> controllers = new ConcurrentHashMap<>();
+
+    /* package for tests */ static final int MINIMUM_SAMPLES = 20;
+    private static final int SAMPLE_SIZE = 256;
+    // the percentile is recomputed from the samples every this many executions
+    private static final int RECOMPUTE_INTERVAL = 16;
+    // the budget is kept in thousandths of a hedge
+    private static final int HEDGE_COST = 1000;
+    // bounds the burst of hedges after a long quiet period
+    private static final int MAX_BUDGET = 10 * HEDGE_COST;
+
+    private final AtomicIntegerArray latencies = new AtomicIntegerArray(SAMPLE_SIZE);
+    private final AtomicLong numberOfSamples = new AtomicLong();
+    private final AtomicInteger budget = new AtomicInteger();
+    private volatile int delayPercentile = -1;
+    private volatile int delayInMilliseconds = -1;
+
+    private HedgeController() {
+    }
+
+    /* package */ static HedgeController getInstance(HystrixCommandKey key) {
+        HedgeController controller = controllers.get(key.name());
+        if (controller == null) {
+            HedgeController newController = new HedgeController();
+            controller = controllers.putIfAbsent(key.name(), newController);
+            if (controller == null) {
+                controller = newController;
+            }
+        }
+        return controller;
+    }
+
+    /* package */ static void reset() {
+        controllers.clear();
+    }
+
+    /**
+     * Called once per execution to grow the hedge budget.
+     */
+    /* package */ void onExecution(int budgetPercentage) {
+        int increment = budgetPercentage * HEDGE_COST / 100;
+        if (increment <= 0) {
+            return;
+        }
+        int current;
+        do {
+            current = budget.get();
+            if (current >= MAX_BUDGET) {
+                return;
+            }
+        } while (!budget.compareAndSet(current, Math.min(MAX_BUDGET, current + increment)));
+    }
+
+    /**
+     * @return true if the budget allows another hedge, which has then been paid for
+     */
+    /* package */ boolean tryAcquireHedge() {
+        int current;
+        do {
+            current = budget.get();
+            if (current < HEDGE_COST) {
+                return false;
+            }
+        } while (!budget.compareAndSet(current, current - HEDGE_COST));
+        return true;
+    }
+
+    /* package */ void recordLatency(int latencyInMilliseconds) {
+        long sample = numberOfSamples.getAndIncrement();
+        latencies.set((int) (sample % SAMPLE_SIZE), latencyInMilliseconds);
+        if ((sample + 1) % RECOMPUTE_INTERVAL == 0) {
+            // force recomputation on the next read
+            delayPercentile = -1;
+        }
+    }
+
+    /**
+     * @return how long to wait for the primary execution before hedging, or -1 if there are too few samples to tell
+     */
+    /* package */ int getHedgeDelayInMilliseconds(int percentile) {
+        if (percentile != delayPercentile) {
+            long samples = numberOfSamples.get();
+            if (samples < MINIMUM_SAMPLES) {
+                return -1;
+            }
+            int n = (int) Math.min(samples, SAMPLE_SIZE);
+            int[] sorted = new int[n];
+            for (int i = 0; i < n; i++) {
+                sorted[i] = latencies.get(i);
+            }
+            Arrays.sort(sorted);
+            int index = Math.max(0, Math.min(n - 1, (int) Math.ceil(percentile / 100.0 * n) - 1));
+            // at least 1ms so a fast key does not hedge every execution
+            delayInMilliseconds = Math.max(1, sorted[index]);
+            delayPercentile = percentile;
+        }
+        return delayInMilliseconds;
+    }
+}
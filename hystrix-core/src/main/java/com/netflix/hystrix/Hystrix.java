@@ -69,6 +69,7 @@ public class Hystrix {
         HystrixCollapser.reset();
         HystrixPlugins.reset();
         HystrixPropertiesFactory.reset();
+        HedgeController.reset();
         currentCommand.set(new ConcurrentStack<>());
     }
 
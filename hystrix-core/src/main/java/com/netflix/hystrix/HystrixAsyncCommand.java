@@ -0,0 +1,248 @@
+/*
+ * Copyright 2016 Netflix, Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.netflix.hystrix;
+
+import com.netflix.hystrix.HystrixCommandProperties.ExecutionIsolationStrategy;
+import com.netflix.hystrix.exception.HystrixBadRequestException;
+import com.netflix.hystrix.exception.HystrixRuntimeException;
+import rx.Observable;
+import rx.Subscriber;
+import rx.functions.Action0;
+import rx.functions.Actions;
+import rx.subscriptions.Subscriptions;
+
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionException;
+import java.util.concurrent.CompletionStage;
+import java.util.concurrent.Future;
+
+/**
+ * Used to wrap code that will execute potentially risky functionality (typically meaning a service call over the network)
+ * with fault and latency tolerance functionality.
+ * This command should be used for an asynchronous client returning a {@link CompletionStage}: no thread waits for the call to complete.
+ * <p>
+ * It defaults to {@link ExecutionIsolationStrategy#SEMAPHORE}. The permit is taken when {@link #runAsync()} is invoked and released when its
+ * {@link CompletionStage} completes, so the semaphore bounds the number of calls in flight rather than the number of blocked threads.
+ *
+ * @param <R>
+ *            the return type
+ *
+ * @ThreadSafe
+ */
+public abstract class HystrixAsyncCommand<R> extends AbstractCommand<R> implements HystrixObservable<R>, HystrixInvokableInfo {
+
+    /**
+     * Construct a {@link HystrixAsyncCommand} with defined {@link HystrixCommandGroupKey}.
+     * <p>
+     * The {@link HystrixCommandKey} will be derived from the implementing class name.
+     *
+     * @param group
+     *            {@link HystrixCommandGroupKey} used to group together multiple {@link HystrixAsyncCommand} objects.
+     *            <p>
+     *            The {@link HystrixCommandGroupKey} is used to represent a common relationship between commands. For example, a library or team name, the system all related commands interface with,
+     *            common business purpose etc.
+     */
+    protected HystrixAsyncCommand(HystrixCommandGroupKey group) {
+        this(new Setter(group));
+    }
+
+    /**
+     * Construct a {@link HystrixAsyncCommand} with defined {@link Setter} that allows injecting property and strategy overrides and other optional arguments.
+     * <p>
+     * NOTE: The {@link HystrixCommandKey} is used to associate a {@link HystrixAsyncCommand} with other objects.
+     * <p>
+     * Do not create multiple {@link HystrixAsyncCommand} implementations with the same {@link HystrixCommandKey} but different injected default properties as the first instantiated will win.
+     *
+     * @param setter
+     *            Fluent interface for constructor arguments
+     */
+    protected HystrixAsyncCommand(Setter setter) {
+        // use 'null' to specify use the default
+        super(setter.groupKey, setter.commandKey, setter.threadPoolKey, null, setter.commandPropertiesDefaults, setter.threadPoolPropertiesDefaults, null, null, null);
+    }
+
+    /**
+     * Construct a {@link HystrixAsyncCommand} from a {@link HystrixCommandPrototype} that resolved its keys, properties, thread-pool, plugins and
+     * request cache once for all commands of the same definition.
+     *
+     * @param prototype
+     *            resolved definition shared by the commands, see {@link HystrixCommandPrototype#from(Class, Setter)}
+     */
+    protected HystrixAsyncCommand(HystrixCommandPrototype prototype) {
+        super(prototype);
+    }
+
+    /**
+     * Fluent interface for arguments to the {@link HystrixAsyncCommand} constructor.
+     * <p>
+     * The required arguments are set via the 'with' factory method and optional arguments via the 'and' chained methods.
+     * <p>
+     * Example:
+     * <pre> {@code
+     *  Setter.withGroupKey(HystrixCommandGroupKey.Factory.asKey("GroupName"))
+                .andCommandKey(HystrixCommandKey.Factory.asKey("CommandName"));
+     * } </pre>
+     *
+     * @NotThreadSafe
+     */
+    final public static class Setter {
+
+        protected final HystrixCommandGroupKey groupKey;
+        protected HystrixCommandKey commandKey;
+        protected HystrixThreadPoolKey threadPoolKey;
+        protected HystrixCommandProperties.Setter commandPropertiesDefaults;
+        protected HystrixThreadPoolProperties.Setter threadPoolPropertiesDefaults;
+
+        /**
+         * Setter factory method containing required values.
+         * <p>
+         * All optional arguments can be set via the chained methods.
+         *
+         * @param groupKey
+         *            {@link HystrixCommandGroupKey} used to group together multiple {@link HystrixAsyncCommand} objects.
+         */
+        protected Setter(HystrixCommandGroupKey groupKey) {
+            this.groupKey = groupKey;
+
+            // default to using SEMAPHORE for AsyncCommand
+            commandPropertiesDefaults = setDefaults(HystrixCommandProperties.Setter());
+        }
+
+        /**
+         * Setter factory method with required values.
+         * <p>
+         * All optional arguments can be set via the chained methods.
+         *
+         * @param groupKey
+         *            {@link HystrixCommandGroupKey} used to group together multiple {@link HystrixAsyncCommand} objects.
+         */
+        public static Setter withGroupKey(HystrixCommandGroupKey groupKey) {
+            return new Setter(groupKey);
+        }
+
+        /**
+         * @param commandKey
+         *            {@link HystrixCommandKey} used to identify a {@link HystrixAsyncCommand} instance for statistics, circuit-breaker, properties, etc.
+         *            <p>
+         *            By default this will be derived from the instance class name.
+         * @return Setter for fluent interface via method chaining
+         */
+        public Setter andCommandKey(HystrixCommandKey commandKey) {
+            this.commandKey = commandKey;
+            return this;
+        }
+
+        /**
+         * Optional
+         *
+         * @param commandPropertiesDefaults
+         *            {@link HystrixCommandProperties.Setter} with property overrides for this specific instance of {@link HystrixAsyncCommand}.
+         * @return Setter for fluent interface via method chaining
+         */
+        public Setter andCommandPropertiesDefaults(HystrixCommandProperties.Setter commandPropertiesDefaults) {
+            this.commandPropertiesDefaults = setDefaults(commandPropertiesDefaults);
+            return this;
+        }
+
+        private HystrixCommandProperties.Setter setDefaults(HystrixCommandProperties.Setter commandPropertiesDefaults) {
+            if (commandPropertiesDefaults.getExecutionIsolationStrategy() == null) {
+                // default to using SEMAPHORE for AsyncCommand if the user didn't set it
+                commandPropertiesDefaults.withExecutionIsolationStrategy(ExecutionIsolationStrategy.SEMAPHORE);
+            }
+            return commandPropertiesDefaults;
+        }
+
+    }
+
+    /**
+     * Implement this method with code to be executed when {@link #toCompletableFuture()}, {@link #observe()} or {@link #toObservable()} is invoked.
+     * <p>
+     * It should start the call and return without waiting for it. If the returned {@link CompletionStage} is also a {@link Future}, it is
+     * cancelled when the execution is unsubscribed from.
+     *
+     * @return stage completed with the response of the call, or exceptionally if it failed
+     * @throws Exception
+     *             if the call could not be started
+     */
+    protected abstract CompletionStage<R> runAsync() throws Exception;
+
+    @Override
+    final protected Observable<R> getExecutionObservable() {
+        return Observable.unsafeCreate((Subscriber<? super R> subscriber) -> subscribeToStage(subscriber, Actions.empty()));
+    }
+
+    @Override
+    /* package */ Observable<R> getExecutionObservable(final UserCodePermit permit) {
+        // a stage that can not be cancelled keeps running after the execution timed out or was unsubscribed, so the permit is held until it completes
+        return Observable.unsafeCreate((Subscriber<? super R> subscriber) -> {
+            if (permit.start()) {
+                subscribeToStage(subscriber, permit::end);
+            } else {
+                subscriber.onCompleted();
+            }
+        });
+    }
+
+    private void subscribeToStage(final Subscriber<? super R> subscriber, final Action0 onStageEnd) {
+        final CompletionStage<R> stage;
+        try {
+            stage = runAsync();
+        } catch (Throwable ex) {
+            onStageEnd.call();
+            subscriber.onError(ex);
+            return;
+        }
+        if (stage == null) {
+            onStageEnd.call();
+            subscriber.onError(new NullPointerException("runAsync() returned null"));
+            return;
+        }
+        if (stage instanceof Future) {
+            subscriber.add(Subscriptions.create(() -> ((Future<?>) stage).cancel(false)));
+        }
+        stage.whenComplete((value, ex) -> {
+            onStageEnd.call();
+            if (subscriber.isUnsubscribed()) {
+                return;
+            }
+            if (ex != null) {
+                // dependent stages wrap the failure of the stage they depend on
+                subscriber.onError(ex instanceof CompletionException && ex.getCause() != null ? ex.getCause() : ex);
+            } else {
+                subscriber.onNext(value);
+                subscriber.onCompleted();
+            }
+        });
+    }
+
+    /**
+     * Used for asynchronous execution of command without blocking a thread to get its result.
+     * <p>
+     * The returned {@link CompletableFuture} is completed by the thread that completes the {@link CompletionStage} of {@link #runAsync()}, so
+     * dependent stages that are not async run on that thread. Cancelling it unsubscribes from the execution.
+     *
+     * @return {@code CompletableFuture<R>} Result of {@link #runAsync()}, or completed exceptionally with a {@link HystrixRuntimeException} or
+     *         {@link HystrixBadRequestException}
+     */
+    public CompletableFuture<R> toCompletableFuture() {
+        return completeFromExecution(new CommandFuture());
+    }
+
+    @Override
+    protected boolean commandIsScalar() {
+        return true;
+    }
+}
@@ -18,9 +18,7 @@ package com.netflix.hystrix;
 import com.netflix.hystrix.HystrixCommandProperties.ExecutionIsolationStrategy;
 import com.netflix.hystrix.collapser.*;
 import com.netflix.hystrix.exception.HystrixRuntimeException;
-import com.netflix.hystrix.strategy.HystrixPlugins;
 import com.netflix.hystrix.strategy.concurrency.HystrixRequestContext;
-import com.netflix.hystrix.strategy.properties.HystrixPropertiesFactory;
 import com.netflix.hystrix.strategy.properties.HystrixPropertiesStrategy;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
@@ -32,7 +30,7 @@ import rx.subjects.ReplaySubject;
 
 import java.util.Collection;
 import java.util.Collections;
-import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.CompletableFuture;
 import java.util.concurrent.Future;
 
 /**
@@ -58,9 +56,7 @@ public abstract class HystrixCollapser<BatchReturnType, ResponseType, RequestArg
 
     static final Logger logger = LoggerFactory.getLogger(HystrixCollapser.class);
 
-    private final RequestCollapserFactory<BatchReturnType, ResponseType, RequestArgumentType> collapserFactory;
-    private final HystrixRequestCache requestCache;
-    private final HystrixCollapserBridge<BatchReturnType, ResponseType, RequestArgumentType> collapserInstanceWrapper;
+    private final HystrixCollapserSupport<BatchReturnType, ResponseType, RequestArgumentType> collapserSupport;
 
     /**
      * The scope of request collapsing.
@@ -70,10 +66,14 @@ public abstract class HystrixCollapser<BatchReturnType, ResponseType, RequestArg
      * Typically this means that requests within a single user-request (ie. HTTP request) are collapsed. No interaction with other user requests. 1 queue per user request.
      * </li>
      * <li>GLOBAL: Requests from any thread (ie. all HTTP requests) within the JVM will be collapsed. 1 queue for entire app.</li>
+     * <li>HYBRID: Requests from any thread (ie. all HTTP requests) within the JVM will be collapsed. 1 queue for entire app.
+     * <p>
+     * Request caching and cleanup stay scoped to the {@link HystrixRequestContext}: when it is shut down, requests it submitted that are not executed yet are failed.
+     * </li>
      * </ul>
      */
     public enum Scope implements RequestCollapserFactory.Scope {
-        REQUEST, GLOBAL
+        REQUEST, GLOBAL, HYBRID
     }
 
     /**
@@ -107,54 +107,48 @@ public abstract class HystrixCollapser<BatchReturnType, ResponseType, RequestArg
     }
 
     /* package for tests */ HystrixCollapser(HystrixCollapserKey collapserKey, Scope scope, CollapserTimer timer, HystrixCollapserProperties.Setter propertiesBuilder) {
-        if (collapserKey == null || collapserKey.name().trim().equals("")) {
-            String defaultKeyName = getDefaultNameFromClass(getClass());
-            collapserKey = HystrixCollapserKey.Factory.asKey(defaultKeyName);
-        }
-
-        HystrixCollapserProperties properties = HystrixPropertiesFactory.getCollapserProperties(collapserKey, propertiesBuilder);
-        this.collapserFactory = new RequestCollapserFactory<>(collapserKey, scope, timer, properties);
-        this.requestCache = HystrixRequestCache.getInstance(collapserKey, HystrixPlugins.getInstance().getConcurrencyStrategy());
-
         final HystrixCollapser<BatchReturnType, ResponseType, RequestArgumentType> self = this;
 
         /*
          * Used to pass public method invocation to the underlying implementation in a separate package while leaving the methods 'protected' in this class.
          */
-        collapserInstanceWrapper = new HystrixCollapserBridge<BatchReturnType, ResponseType, RequestArgumentType>() {
+        collapserSupport = new HystrixCollapserSupport<BatchReturnType, ResponseType, RequestArgumentType>(getClass(), collapserKey, scope, timer, propertiesBuilder) {
 
             @Override
-            public Collection<Collection<CollapsedRequest<ResponseType, RequestArgumentType>>> shardRequests(Collection<CollapsedRequest<ResponseType, RequestArgumentType>> requests) {
-                return self.shardRequests(requests);
+            protected HystrixCommand<BatchReturnType> createCommand(Collection<CollapsedRequest<ResponseType, RequestArgumentType>> requests) {
+                return self.createCommand(requests);
             }
 
             @Override
-            public Observable<BatchReturnType> createObservableCommand(Collection<CollapsedRequest<ResponseType, RequestArgumentType>> requests) {
-                final HystrixCommand<BatchReturnType> command = self.createCommand(requests);
+            protected void mapBatchResponseToRequests(BatchReturnType batchResponse, Collection<CollapsedRequest<ResponseType, RequestArgumentType>> requests) {
+                self.mapResponseToRequests(batchResponse, requests);
+            }
 
-                command.markAsCollapsedCommand(this.getCollapserKey(), requests.size());
+            @Override
+            public Collection<Collection<CollapsedRequest<ResponseType, RequestArgumentType>>> shardRequests(Collection<CollapsedRequest<ResponseType, RequestArgumentType>> requests) {
+                return self.shardRequests(requests);
+            }
 
-                return command.toObservable();
+            @Override
+            public RequestArgumentType mergeRequestArguments(RequestArgumentType existing, RequestArgumentType update) {
+                return self.mergeRequestArguments(existing, update);
             }
 
             @Override
-            public Observable<Void> mapResponseToRequests(Observable<BatchReturnType> batchResponse, final Collection<CollapsedRequest<ResponseType, RequestArgumentType>> requests) {
-                return batchResponse.single().doOnNext(batchReturnType -> {
-                    // this is a blocking call in HystrixCollapser
-                    self.mapResponseToRequests(batchReturnType, requests);
-                }).ignoreElements().cast(Void.class);
+            public Object getTenantKey(RequestArgumentType requestArgument) {
+                return self.getTenantKey(requestArgument);
             }
 
             @Override
-            public HystrixCollapserKey getCollapserKey() {
-                return self.getCollapserKey();
+            public int getTenantWeight(Object tenantKey) {
+                return self.getTenantWeight(tenantKey);
             }
 
         };
     }
 
     private HystrixCollapserProperties getProperties() {
-        return collapserFactory.getProperties();
+        return collapserSupport.getProperties();
     }
 
     /**
@@ -163,7 +157,7 @@ public abstract class HystrixCollapser<BatchReturnType, ResponseType, RequestArg
      * @return {@link HystrixCollapserKey} identifying this {@link HystrixCollapser} instance
      */
     public HystrixCollapserKey getCollapserKey() {
-        return collapserFactory.getCollapserKey();
+        return collapserSupport.getCollapserKey();
     }
 
     /**
@@ -175,6 +169,10 @@ public abstract class HystrixCollapser<BatchReturnType, ResponseType, RequestArg
      * Typically this means that requests within a single user-request (ie. HTTP request) are collapsed. No interaction with other user requests. 1 queue per user request.
      * </li>
      * <li>GLOBAL: Requests from any thread (ie. all HTTP requests) within the JVM will be collapsed. 1 queue for entire app.</li>
+     * <li>HYBRID: Requests from any thread (ie. all HTTP requests) within the JVM will be collapsed. 1 queue for entire app.
+     * <p>
+     * Request caching and cleanup stay scoped to the {@link HystrixRequestContext}: when it is shut down, requests it submitted that are not executed yet are failed.
+     * </li>
      * </ul>
      * <p>
      * Default: {@link Scope#REQUEST} (defined via constructor)
@@ -182,7 +180,7 @@ public abstract class HystrixCollapser<BatchReturnType, ResponseType, RequestArg
      * @return {@link Scope} that collapsing should be performed within.
      */
     public Scope getScope() {
-        return Scope.valueOf(collapserFactory.getScope().name());
+        return collapserSupport.getScope();
     }
 
     /**
@@ -232,6 +230,55 @@ public abstract class HystrixCollapser<BatchReturnType, ResponseType, RequestArg
         return Collections.singletonList(requests);
     }
 
+    /**
+     * Override to fold a request argument into an equal argument that is already waiting in the open batch, instead of
+     * sharing its response (request caching on) or failing (request caching off).
+     * <p>
+     * All requests that contributed to the merged argument receive the response set for it.
+     * <p>
+     * By default this returns null which means "do not merge".
+     * <p>
+     * IMPLEMENTATION NOTE: This is called while holding the batch open, so be fast and do not block.
+     * 
+     * @param existing
+     *            argument already in the batch (the result of earlier merges)
+     * @param update
+     *            argument that is equal to <code>existing</code>
+     * @return merged argument or null if not to merge
+     * @see HystrixWriteCoalescingCollapser
+     */
+    protected RequestArgumentType mergeRequestArguments(RequestArgumentType existing, RequestArgumentType update) {
+        return null;
+    }
+
+    /**
+     * Override to subject request arguments to the per-tenant batch quota of {@link HystrixCollapserProperties#tenantQuotaMaxShareOfBatchPercentage()}, so one tenant
+     * filling the batches of a GLOBAL or HYBRID scoped collapser does not push the requests of other tenants into later batches.
+     * <p>
+     * By default this returns null which means "no tenant quota".
+     * <p>
+     * IMPLEMENTATION NOTE: This is called while holding the batch open, so be fast and do not block.
+     * 
+     * @param requestArgument
+     *            argument offered to the batch
+     * @return tenant key (implementing equals and hashCode) or null if the argument is not subject to a tenant quota
+     */
+    protected Object getTenantKey(RequestArgumentType requestArgument) {
+        return null;
+    }
+
+    /**
+     * Override to give tenants a larger or smaller share of each batch. The quota of a tenant is {@link HystrixCollapserProperties#tenantQuotaMaxShareOfBatchPercentage()}
+     * multiplied by its weight.
+     * 
+     * @param tenantKey
+     *            tenant key returned by {@link #getTenantKey}
+     * @return weight of the tenant, 1 by default
+     */
+    protected int getTenantWeight(Object tenantKey) {
+        return 1;
+    }
+
     /**
      * Executed after the {@link HystrixCommand}{@code <BatchReturnType>} command created by {@link #createCommand} finishes processing (unless it fails) for mapping the {@code <BatchReturnType>} to
      * the list of {@code CollapsedRequest<ResponseType, RequestArgumentType>} objects.
@@ -339,34 +386,40 @@ public abstract class HystrixCollapser<BatchReturnType, ResponseType, RequestArg
      */
     public Observable<ResponseType> toObservable(Scheduler observeOn) {
         return Observable.defer(() -> {
-            final boolean isRequestCacheEnabled = getProperties().requestCacheEnabled().get();
-            final String cacheKey = getCacheKey();
+            final String cacheKey = getProperties().requestCacheEnabled().get() ? getCacheKey() : null;
 
             /* try from cache first */
-            if (isRequestCacheEnabled) {
-                HystrixCachedObservable<ResponseType> fromCache = requestCache.get(cacheKey);
-                if (fromCache != null) {
-                    return fromCache.toObservable();
-                }
+            Observable<ResponseType> fromCache = collapserSupport.fromCache(cacheKey);
+            if (fromCache != null) {
+                return fromCache;
             }
 
-            RequestCollapser<BatchReturnType, ResponseType, RequestArgumentType> requestCollapser = collapserFactory.getRequestCollapser(collapserInstanceWrapper);
-            Observable<ResponseType> response = requestCollapser.submitRequest(getRequestArgument());
-
-            if (isRequestCacheEnabled && cacheKey != null) {
-                HystrixCachedObservable<ResponseType> toCache = HystrixCachedObservable.from(response);
-                HystrixCachedObservable<ResponseType> fromCache = requestCache.putIfAbsent(cacheKey, toCache);
-                if (fromCache == null) {
-                    return toCache.toObservable();
-                } else {
-                    toCache.unsubscribe();
-                    return fromCache.toObservable();
-                }
-            }
-            return response;
+            RequestCollapser<BatchReturnType, ResponseType, RequestArgumentType> requestCollapser = collapserSupport.getRequestCollapser();
+            return collapserSupport.cacheIfNeeded(cacheKey, requestCollapser.submitRequest(getRequestArgument()));
         });
     }
 
+    /**
+     * Offer the request argument to the current batch right away, ahead of the execution that needs it.
+     * <p>
+     * A later {@link #execute()}, {@link #queue()}, {@link #observe()} or {@link #toObservable()} of a collapser with the same {@link #getCacheKey()} in the same request scope
+     * attaches to the prefetched request through the request cache, even if the batch was executed in the meantime. Prefetches that are never claimed are counted
+     * (see {@link HystrixCounters#getCollapserUnclaimedPrefetchCount}) so prefetching can be tuned.
+     * <p>
+     * Nothing is prefetched if the request is already in the request cache.
+     *
+     * @return {@code Observable<R>} of the prefetched response. Subscribing to it does not claim the prefetch.
+     * @throws IllegalStateException
+     *             if request caching is disabled or {@link #getCacheKey()} returns null, as nothing could attach to the prefetch
+     */
+    public Observable<ResponseType> prefetch() {
+        final String cacheKey = getCacheKey();
+        if (!getProperties().requestCacheEnabled().get() || cacheKey == null) {
+            throw new IllegalStateException("Prefetching requires request caching. Enable it and implement getCacheKey() for HystrixCollapser:" + getCollapserKey().name());
+        }
+        return collapserSupport.prefetch(cacheKey, getRequestArgument());
+    }
+
     /**
      * Used for synchronous execution.
      * <p>
@@ -409,9 +462,40 @@ public abstract class HystrixCollapser<BatchReturnType, ResponseType, RequestArg
      *             within an <code>ExecutionException.getCause()</code> (thrown by {@link Future#get}) if an error occurs
      */
     public Future<ResponseType> queue() {
-        return toObservable()
-                .toBlocking()
-                .toFuture();
+        return submitAsync();
+    }
+
+    /**
+     * Used for asynchronous execution without Rx.
+     * <p>
+     * This eagerly submits the request argument to the current batch, the same as {@link #queue()}, and returns a {@link CompletableFuture} that is completed directly
+     * when the batch response is mapped to the argument. Unless the response comes from the request cache no {@link Observable} is involved.
+     * <p>
+     * Cancelling the future before the batch executes removes the request argument from the batch (unless others are waiting for the same argument).
+     * 
+     * @return {@code CompletableFuture<ResponseType>} that completes with the result of {@link HystrixCommand}{@code <BatchReturnType>} execution after passing through
+     *         {@link #mapResponseToRequests} to transform the {@code <BatchReturnType>} into {@code <ResponseType>}
+     */
+    public CompletableFuture<ResponseType> submitAsync() {
+        final boolean isRequestCacheEnabled = getProperties().requestCacheEnabled().get();
+        if (isRequestCacheEnabled && getCacheKey() != null) {
+            // the request cache holds Observables, so let toObservable() deal with it
+            return toCompletableFuture(toObservable());
+        }
+
+        RequestCollapser<BatchReturnType, ResponseType, RequestArgumentType> requestCollapser = collapserSupport.getRequestCollapser();
+        return requestCollapser.submitRequestAsync(getRequestArgument());
+    }
+
+    private static <T> CompletableFuture<T> toCompletableFuture(Observable<T> observable) {
+        final CompletableFuture<T> future = new CompletableFuture<>();
+        final Subscription subscription = observable.single().subscribe(future::complete, future::completeExceptionally);
+        future.whenComplete((value, throwable) -> {
+            if (future.isCancelled()) {
+                subscription.unsubscribe();
+            }
+        });
+        return future;
     }
 
     /**
@@ -436,23 +520,6 @@ public abstract class HystrixCollapser<BatchReturnType, ResponseType, RequestArg
         RequestCollapserFactory.reset();
     }
 
-    private static String getDefaultNameFromClass(@SuppressWarnings("rawtypes") Class<? extends HystrixCollapser> cls) {
-        String fromCache = defaultNameCache.get(cls);
-        if (fromCache != null) {
-            return fromCache;
-        }
-        // generate the default
-        // default HystrixCommandKey to use if the method is not overridden
-        String name = cls.getSimpleName();
-        if (name.equals("")) {
-            // we don't have a SimpleName (anonymous inner class) so use the full class name
-            name = cls.getName();
-            name = name.substring(name.lastIndexOf('.') + 1, name.length());
-        }
-        defaultNameCache.put(cls, name);
-        return name;
-    }
-
     /**
      * A request argument RequestArgumentType that was collapsed for batch processing and needs a response ResponseType set on it by the <code>executeBatch</code> implementation.
      */
@@ -562,11 +629,18 @@ public abstract class HystrixCollapser<BatchReturnType, ResponseType, RequestArg
             return this;
         }
 
-    }
+        /* package */HystrixCollapserKey getCollapserKey() {
+            return collapserKey;
+        }
+
+        /* package */Scope getScope() {
+            return scope;
+        }
+
+        /* package */HystrixCollapserProperties.Setter getPropertiesSetter() {
+            return propertiesSetter;
+        }
 
-    // this is a micro-optimization but saves about 1-2microseconds (on 2011 MacBook Pro) 
-    // on the repetitive string processing that will occur on the same classes over and over again
-    @SuppressWarnings("rawtypes")
-    private static ConcurrentHashMap<Class<? extends HystrixCollapser>, String> defaultNameCache = new ConcurrentHashMap<>();
+    }
 
 }
@@ -0,0 +1,280 @@
+/*
+ * Copyright 2016 Netflix, Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.netflix.hystrix;
+
+import com.netflix.hystrix.HystrixCollapser.CollapsedRequest;
+import com.netflix.hystrix.HystrixCollapser.Scope;
+import com.netflix.hystrix.HystrixCollapser.Setter;
+import com.netflix.hystrix.collapser.CollapserTimer;
+import com.netflix.hystrix.collapser.RealCollapserTimer;
+import com.netflix.hystrix.collapser.RequestCollapser;
+import com.netflix.hystrix.collapser.RequestCollapserFactory;
+import rx.Observable;
+
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * Reusable definition of a {@link HystrixCollapser} for high-rate callers.
+ * <p>
+ * A {@link HystrixCollapser} is bound to a single request argument, so each collapsed call constructs a new instance (resolving properties, the request cache and the
+ * {@link RequestCollapserFactory} every time). A {@link HystrixCollapserDefinition} is constructed once per {@link HystrixCollapserKey} and arguments are passed to
+ * {@link #submit} and {@link #submitAll} instead.
+ * <p>
+ * Batching, sharding, request caching and scoping behave the same as for a {@link HystrixCollapser} with the same {@link Setter}.
+ *
+ * @param <BatchReturnType>
+ *            The type returned from the {@link HystrixCommand} that will be invoked on batch executions.
+ * @param <ResponseType>
+ *            The type returned from each submitted argument.
+ * @param <RequestArgumentType>
+ *            The type of the request argument.
+ *
+ * @ThreadSafe
+ */
+public abstract class HystrixCollapserDefinition<BatchReturnType, ResponseType, RequestArgumentType> {
+
+    private final HystrixCollapserSupport<BatchReturnType, ResponseType, RequestArgumentType> collapserSupport;
+
+    /**
+     * Construct a {@link HystrixCollapserDefinition} with defined {@link Setter} that allows
+     * injecting property and strategy overrides and other optional arguments.
+     * <p>
+     * Null values will result in the default being used.
+     *
+     * @param setter
+     *            Fluent interface for constructor arguments
+     */
+    protected HystrixCollapserDefinition(Setter setter) {
+        this(setter.getCollapserKey(), setter.getScope(), new RealCollapserTimer(), setter.getPropertiesSetter());
+    }
+
+    /* package for tests */ HystrixCollapserDefinition(HystrixCollapserKey collapserKey, Scope scope, CollapserTimer timer, HystrixCollapserProperties.Setter propertiesBuilder) {
+        final HystrixCollapserDefinition<BatchReturnType, ResponseType, RequestArgumentType> self = this;
+
+        /*
+         * Used to pass public method invocation to the underlying implementation in a separate package while leaving the methods 'protected' in this class.
+         */
+        collapserSupport = new HystrixCollapserSupport<BatchReturnType, ResponseType, RequestArgumentType>(getClass(), collapserKey, scope, timer, propertiesBuilder) {
+
+            @Override
+            protected HystrixCommand<BatchReturnType> createCommand(Collection<CollapsedRequest<ResponseType, RequestArgumentType>> requests) {
+                return self.createCommand(requests);
+            }
+
+            @Override
+            protected void mapBatchResponseToRequests(BatchReturnType batchResponse, Collection<CollapsedRequest<ResponseType, RequestArgumentType>> requests) {
+                self.mapResponseToRequests(batchResponse, requests);
+            }
+
+            @Override
+            public Collection<Collection<CollapsedRequest<ResponseType, RequestArgumentType>>> shardRequests(Collection<CollapsedRequest<ResponseType, RequestArgumentType>> requests) {
+                return self.shardRequests(requests);
+            }
+
+            @Override
+            public RequestArgumentType mergeRequestArguments(RequestArgumentType existing, RequestArgumentType update) {
+                return self.mergeRequestArguments(existing, update);
+            }
+
+            @Override
+            public Object getTenantKey(RequestArgumentType requestArgument) {
+                return self.getTenantKey(requestArgument);
+            }
+
+            @Override
+            public int getTenantWeight(Object tenantKey) {
+                return self.getTenantWeight(tenantKey);
+            }
+
+        };
+    }
+
+    /**
+     * Key of the {@link HystrixCollapserDefinition} used for properties, caches, reporting etc.
+     *
+     * @return {@link HystrixCollapserKey} identifying this {@link HystrixCollapserDefinition} instance
+     */
+    public HystrixCollapserKey getCollapserKey() {
+        return collapserSupport.getCollapserKey();
+    }
+
+    /**
+     * Scope of collapsing.
+     *
+     * @return {@link Scope} that collapsing should be performed within.
+     * @see HystrixCollapser#getScope()
+     */
+    public Scope getScope() {
+        return collapserSupport.getScope();
+    }
+
+    /**
+     * @see HystrixCollapser#createCommand(Collection)
+     */
+    protected abstract HystrixCommand<BatchReturnType> createCommand(Collection<CollapsedRequest<ResponseType, RequestArgumentType>> requests);
+
+    /**
+     * @see HystrixCollapser#shardRequests(Collection)
+     */
+    protected Collection<Collection<CollapsedRequest<ResponseType, RequestArgumentType>>> shardRequests(Collection<CollapsedRequest<ResponseType, RequestArgumentType>> requests) {
+        return Collections.singletonList(requests);
+    }
+
+    /**
+     * @see HystrixCollapser#mapResponseToRequests(Object, Collection)
+     */
+    protected abstract void mapResponseToRequests(BatchReturnType batchResponse, Collection<CollapsedRequest<ResponseType, RequestArgumentType>> requests);
+
+    /**
+     * @see HystrixCollapser#mergeRequestArguments(Object, Object)
+     */
+    protected RequestArgumentType mergeRequestArguments(RequestArgumentType existing, RequestArgumentType update) {
+        return null;
+    }
+
+    /**
+     * @see HystrixCollapser#getTenantKey(Object)
+     */
+    protected Object getTenantKey(RequestArgumentType requestArgument) {
+        return null;
+    }
+
+    /**
+     * @see HystrixCollapser#getTenantWeight(Object)
+     */
+    protected int getTenantWeight(Object tenantKey) {
+        return 1;
+    }
+
+    /**
+     * Key to be used for request caching of the given argument.
+     * <p>
+     * By default this returns null which means "do not cache".
+     *
+     * @param requestArgument
+     *            argument passed to {@link #submit} or {@link #submitAll}
+     * @return String cacheKey or null if not to cache
+     * @see HystrixCollapser#getCacheKey()
+     */
+    protected String getCacheKey(RequestArgumentType requestArgument) {
+        return null;
+    }
+
+    /**
+     * Submit an argument to the current batch.
+     * <p>
+     * The argument is submitted eagerly, the same as {@link HystrixCollapser#observe()}.
+     *
+     * @param requestArgument
+     *            argument to collapse
+     * @return {@code Observable<ResponseType>} that calls back with the response for the argument after passing through {@link #mapResponseToRequests}
+     */
+    public Observable<ResponseType> submit(RequestArgumentType requestArgument) {
+        final String cacheKey = collapserSupport.getProperties().requestCacheEnabled().get() ? getCacheKey(requestArgument) : null;
+
+        /* try from cache first */
+        Observable<ResponseType> fromCache = collapserSupport.fromCache(cacheKey);
+        if (fromCache != null) {
+            return fromCache;
+        }
+
+        RequestCollapser<BatchReturnType, ResponseType, RequestArgumentType> requestCollapser = collapserSupport.getRequestCollapser();
+        return collapserSupport.cacheIfNeeded(cacheKey, requestCollapser.submitRequest(requestArgument));
+    }
+
+    /**
+     * Offer an argument to the current batch right away, ahead of the {@link #submit} that needs it.
+     * <p>
+     * A later {@link #submit} or {@link #submitAll} of an argument with the same {@link #getCacheKey} in the same request scope attaches to the prefetched request
+     * through the request cache.
+     *
+     * @param requestArgument
+     *            argument to prefetch
+     * @return {@code Observable<ResponseType>} of the prefetched response. Subscribing to it does not claim the prefetch.
+     * @throws IllegalStateException
+     *             if request caching is disabled or {@link #getCacheKey} returns null
+     * @see HystrixCollapser#prefetch()
+     */
+    public Observable<ResponseType> prefetch(RequestArgumentType requestArgument) {
+        final String cacheKey = getCacheKey(requestArgument);
+        if (!collapserSupport.getProperties().requestCacheEnabled().get() || cacheKey == null) {
+            throw new IllegalStateException("Prefetching requires request caching. Enable it and implement getCacheKey() for HystrixCollapserDefinition:" + getCollapserKey().name());
+        }
+        return collapserSupport.prefetch(cacheKey, requestArgument);
+    }
+
+    /**
+     * Submit multiple arguments at once.
+     * <p>
+     * All arguments not served from the request cache are offered to the current batch in a single pass, only spilling over into the next batch when the current one is
+     * full.
+     *
+     * @param requestArguments
+     *            arguments to collapse
+     * @return {@code Observable<ResponseType>} per distinct argument, in iteration order. Equal arguments are folded with {@link #mergeRequestArguments} if it merges, otherwise
+     *         they share the response of the first one.
+     */
+    public Map<RequestArgumentType, Observable<ResponseType>> submitAll(Iterable<RequestArgumentType> requestArguments) {
+        final boolean isRequestCacheEnabled = collapserSupport.getProperties().requestCacheEnabled().get();
+        final Map<RequestArgumentType, Observable<ResponseType>> responses = new LinkedHashMap<>();
+        final List<RequestArgumentType> argumentsToSubmit = new ArrayList<>();
+        final List<String> cacheKeys = new ArrayList<>();
+        final Map<RequestArgumentType, Integer> submitIndexes = new HashMap<>();
+
+        for (RequestArgumentType requestArgument : requestArguments) {
+            if (responses.containsKey(requestArgument)) {
+                // fold duplicates the same way the batch would
+                Integer submitIndex = submitIndexes.get(requestArgument);
+                if (submitIndex != null) {
+                    RequestArgumentType merged = mergeRequestArguments(argumentsToSubmit.get(submitIndex), requestArgument);
+                    if (merged != null) {
+                        argumentsToSubmit.set(submitIndex, merged);
+                    }
+                }
+                continue;
+            }
+            final String cacheKey = isRequestCacheEnabled ? getCacheKey(requestArgument) : null;
+            /* try from cache first */
+            Observable<ResponseType> fromCache = collapserSupport.fromCache(cacheKey);
+            if (fromCache != null) {
+                responses.put(requestArgument, fromCache);
+                continue;
+            }
+            // reserve the position so the result keeps the iteration order
+            responses.put(requestArgument, null);
+            submitIndexes.put(requestArgument, argumentsToSubmit.size());
+            argumentsToSubmit.add(requestArgument);
+            cacheKeys.add(cacheKey);
+        }
+
+        if (!argumentsToSubmit.isEmpty()) {
+            RequestCollapser<BatchReturnType, ResponseType, RequestArgumentType> requestCollapser = collapserSupport.getRequestCollapser();
+            List<Observable<ResponseType>> submitted = requestCollapser.submitRequests(argumentsToSubmit);
+            for (int i = 0; i < argumentsToSubmit.size(); i++) {
+                // the keys are equal to the (possibly merged) submitted arguments so this keeps the original key and its position
+                responses.put(argumentsToSubmit.get(i), collapserSupport.cacheIfNeeded(cacheKeys.get(i), submitted.get(i)));
+            }
+        }
+        return responses;
+    }
+
+}
@@ -15,11 +15,17 @@
  */
 package com.netflix.hystrix;
 
+import com.netflix.hystrix.strategy.properties.HystrixDynamicProperty;
 import com.netflix.hystrix.strategy.properties.HystrixPropertiesStrategy;
 import com.netflix.hystrix.strategy.properties.HystrixProperty;
+import com.netflix.hystrix.util.HystrixHighResolutionTimer;
+import com.netflix.hystrix.util.HystrixTimer;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
 
 import static com.netflix.hystrix.strategy.properties.HystrixPropertiesChainedProperty.forBoolean;
 import static com.netflix.hystrix.strategy.properties.HystrixPropertiesChainedProperty.forInteger;
+import static com.netflix.hystrix.strategy.properties.HystrixPropertiesChainedProperty.forString;
 
 /**
  * Properties for instances of {@link HystrixCollapser}.
@@ -27,15 +33,44 @@ import static com.netflix.hystrix.strategy.properties.HystrixPropertiesChainedPr
  * Default implementation of methods uses Archaius (https://github.com/Netflix/archaius)
  */
 public abstract class HystrixCollapserProperties {
+    private static final Logger logger = LoggerFactory.getLogger(HystrixCollapserProperties.class);
 
     /* defaults */
     private static final Integer default_maxRequestsInBatch = Integer.MAX_VALUE;
     private static final Integer default_timerDelayInMilliseconds = 10;
+    private static final Integer default_timerDelayInMicroseconds = 0; // default => timerDelayInMilliseconds on the HystrixTimer
     private static final Boolean default_requestCacheEnabled = true;
+    private static final Integer default_streamMaxDurationInMilliseconds = 500;
+    private static final Integer default_minRequestsInBatch = 0; // default => no minimum, every non-empty batch is executed on the timer tick
+    private static final Integer default_maxWaitInMilliseconds = 0;
+    private static final Boolean default_adaptiveBatchSizeEnabled = false;
+    private static final Integer default_tenantQuotaMaxShareOfBatchPercentage = 100; // default => no quota
+    private static final TenantQuotaOverflowPolicy default_tenantQuotaOverflowPolicy = TenantQuotaOverflowPolicy.DEFER;
+    private static final Integer default_adaptiveBatchSizeLatencyTargetInMilliseconds = 100;
 
     private final HystrixProperty<Integer> maxRequestsInBatch;
     private final HystrixProperty<Integer> timerDelayInMilliseconds;
+    private final HystrixProperty<Integer> timerDelayInMicroseconds;
     private final HystrixProperty<Boolean> requestCacheEnabled;
+    private final HystrixProperty<Integer> streamMaxDurationInMilliseconds;
+    private final HystrixProperty<Integer> minRequestsInBatch;
+    private final HystrixProperty<Integer> maxWaitInMilliseconds;
+    private final HystrixProperty<Boolean> adaptiveBatchSizeEnabled;
+    private final HystrixProperty<Integer> adaptiveBatchSizeLatencyTargetInMilliseconds;
+    private final HystrixProperty<Integer> tenantQuotaMaxShareOfBatchPercentage;
+    private final HystrixProperty<TenantQuotaOverflowPolicy> tenantQuotaOverflowPolicy;
+
+    /**
+     * What happens to a request of a tenant that used up its quota of a batch.
+     * <p>
+     * <ul>
+     * <li>DEFER: the request goes into the next batch</li>
+     * <li>REJECT: the request fails with a {@link java.util.concurrent.RejectedExecutionException}</li>
+     * </ul>
+     */
+    public enum TenantQuotaOverflowPolicy {
+        DEFER, REJECT
+    }
 
     protected HystrixCollapserProperties(HystrixCollapserKey collapserKey) {
         this(collapserKey, new Setter(), "hystrix");
@@ -48,7 +83,15 @@ public abstract class HystrixCollapserProperties {
     protected HystrixCollapserProperties(HystrixCollapserKey key, Setter builder, String propertyPrefix) {
         this.maxRequestsInBatch = getProperty(propertyPrefix, key, "maxRequestsInBatch", builder.getMaxRequestsInBatch(), default_maxRequestsInBatch);
         this.timerDelayInMilliseconds = getProperty(propertyPrefix, key, "timerDelayInMilliseconds", builder.getTimerDelayInMilliseconds(), default_timerDelayInMilliseconds);
+        this.timerDelayInMicroseconds = getProperty(propertyPrefix, key, "timerDelayInMicroseconds", builder.getTimerDelayInMicroseconds(), default_timerDelayInMicroseconds);
         this.requestCacheEnabled = getProperty(propertyPrefix, key, "requestCache.enabled", builder.getRequestCacheEnabled(), default_requestCacheEnabled);
+        this.streamMaxDurationInMilliseconds = getProperty(propertyPrefix, key, "stream.maxDurationInMilliseconds", builder.getStreamMaxDurationInMilliseconds(), default_streamMaxDurationInMilliseconds);
+        this.minRequestsInBatch = getProperty(propertyPrefix, key, "minRequestsInBatch", builder.getMinRequestsInBatch(), default_minRequestsInBatch);
+        this.maxWaitInMilliseconds = getProperty(propertyPrefix, key, "maxWaitInMilliseconds", builder.getMaxWaitInMilliseconds(), default_maxWaitInMilliseconds);
+        this.adaptiveBatchSizeEnabled = getProperty(propertyPrefix, key, "adaptiveBatchSize.enabled", builder.getAdaptiveBatchSizeEnabled(), default_adaptiveBatchSizeEnabled);
+        this.adaptiveBatchSizeLatencyTargetInMilliseconds = getProperty(propertyPrefix, key, "adaptiveBatchSize.latencyTargetInMilliseconds", builder.getAdaptiveBatchSizeLatencyTargetInMilliseconds(), default_adaptiveBatchSizeLatencyTargetInMilliseconds);
+        this.tenantQuotaMaxShareOfBatchPercentage = getProperty(propertyPrefix, key, "tenantQuota.maxShareOfBatchPercentage", builder.getTenantQuotaMaxShareOfBatchPercentage(), default_tenantQuotaMaxShareOfBatchPercentage);
+        this.tenantQuotaOverflowPolicy = new TenantQuotaOverflowPolicyHystrixProperty(builder.getTenantQuotaOverflowPolicy(), key, propertyPrefix, default_tenantQuotaOverflowPolicy, "tenantQuota.overflowPolicy");
     }
 
     private static HystrixProperty<Integer> getProperty(String propertyPrefix, HystrixCollapserKey key, String instanceProperty, Integer builderOverrideValue, Integer defaultValue) {
@@ -67,6 +110,48 @@ public abstract class HystrixCollapserProperties {
                 .build();
     }
 
+    /**
+     * HystrixProperty that converts a String to TenantQuotaOverflowPolicy so we remain TypeSafe.
+     */
+    private static final class TenantQuotaOverflowPolicyHystrixProperty implements HystrixProperty<TenantQuotaOverflowPolicy> {
+        private final HystrixDynamicProperty<String> property;
+        private volatile TenantQuotaOverflowPolicy value;
+        private final TenantQuotaOverflowPolicy defaultValue;
+
+        private TenantQuotaOverflowPolicyHystrixProperty(TenantQuotaOverflowPolicy builderOverrideValue, HystrixCollapserKey key, String propertyPrefix, TenantQuotaOverflowPolicy defaultValue, String instanceProperty) {
+            this.defaultValue = defaultValue;
+            String overrideValue = null;
+            if (builderOverrideValue != null) {
+                overrideValue = builderOverrideValue.name();
+            }
+            property = forString()
+                    .add(propertyPrefix + ".collapser." + key.name() + "." + instanceProperty, overrideValue)
+                    .add(propertyPrefix + ".collapser.default." + instanceProperty, defaultValue.name())
+                    .build();
+
+            // initialize the enum value from the property
+            parseProperty();
+
+            // use a callback to handle changes so we only handle the parse cost on updates rather than every fetch
+            property.addCallback(this::parseProperty);
+        }
+
+        @Override
+        public TenantQuotaOverflowPolicy get() {
+            return value;
+        }
+
+        private void parseProperty() {
+            try {
+                value = TenantQuotaOverflowPolicy.valueOf(property.get());
+            } catch (Exception e) {
+                logger.error("Unable to derive TenantQuotaOverflowPolicy from property value: " + property.get(), e);
+                // use the default value
+                value = defaultValue;
+            }
+        }
+    }
+
     /**
      * Whether request caching is enabled for {@link HystrixCollapser#execute} and {@link HystrixCollapser#queue} invocations.
      *
@@ -85,6 +170,29 @@ public abstract class HystrixCollapserProperties {
         return maxRequestsInBatch;
     }
 
+    /**
+     * The number of requests at which a batch is executed immediately instead of on the next timer tick.
+     * <p>
+     * A batch with fewer requests is held on timer ticks until it reaches this number or until {@link #maxWaitInMilliseconds} passed. 0 disables the minimum.
+     *
+     * @return {@code HystrixProperty<Integer>}
+     */
+    public HystrixProperty<Integer> minRequestsInBatch() {
+        return minRequestsInBatch;
+    }
+
+    /**
+     * The maximum number of milliseconds a batch below {@link #minRequestsInBatch} is held before it is executed anyway.
+     * <p>
+     * This is measured from the first request in the batch and checked on timer ticks, so the wait is at most this number and at least this number minus
+     * {@link #timerDelayInMilliseconds}.
+     *
+     * @return {@code HystrixProperty<Integer>}
+     */
+    public HystrixProperty<Integer> maxWaitInMilliseconds() {
+        return maxWaitInMilliseconds;
+    }
+
     /**
      * The number of milliseconds between batch executions (unless {@link #maxRequestsInBatch} is hit which will cause a batch to execute early.
      * 
@@ -94,6 +202,68 @@ public abstract class HystrixCollapserProperties {
         return timerDelayInMilliseconds;
     }
 
+    /**
+     * The number of microseconds between batch executions, for windows shorter than a millisecond. 0 (the default) uses {@link #timerDelayInMilliseconds}.
+     * <p>
+     * When greater than 0 the batches are executed by the {@link HystrixHighResolutionTimer} instead of the {@link HystrixTimer}, and this replaces
+     * {@link #timerDelayInMilliseconds}. Its ticker thread spins for the last part of each window, so only use this for backends that respond in well under a millisecond.
+     * The change takes effect for collapsers that register on the timer after it.
+     *
+     * @return {@code HystrixProperty<Integer>}
+     */
+    public HystrixProperty<Integer> timerDelayInMicroseconds() {
+        return timerDelayInMicroseconds;
+    }
+
+    /**
+     * The maximum number of milliseconds a {@link HystrixStreamingCollapser} keeps a streaming command open before rotating to a new one.
+     *
+     * @return {@code HystrixProperty<Integer>}
+     */
+    public HystrixProperty<Integer> streamMaxDurationInMilliseconds() {
+        return streamMaxDurationInMilliseconds;
+    }
+
+    /**
+     * Whether the maximum batch size is tuned from the measured batch latency per batch size, within {@link #maxRequestsInBatch}.
+     * <p>
+     * The size with the highest throughput whose latency stays within {@link #adaptiveBatchSizeLatencyTargetInMilliseconds} is used for new batches.
+     *
+     * @return {@code HystrixProperty<Boolean>}
+     */
+    public HystrixProperty<Boolean> adaptiveBatchSizeEnabled() {
+        return adaptiveBatchSizeEnabled;
+    }
+
+    /**
+     * The batch latency the adaptive batch size must stay within when {@link #adaptiveBatchSizeEnabled} is true.
+     *
+     * @return {@code HystrixProperty<Integer>}
+     */
+    public HystrixProperty<Integer> adaptiveBatchSizeLatencyTargetInMilliseconds() {
+        return adaptiveBatchSizeLatencyTargetInMilliseconds;
+    }
+
+    /**
+     * The maximum percentage of the slots of a batch ({@link #maxRequestsInBatch}) that the requests of one tenant may take, multiplied by the weight of the tenant.
+     * <p>
+     * Only applies to collapsers that return a tenant key for their request arguments. 100 or more disables the quota.
+     *
+     * @return {@code HystrixProperty<Integer>}
+     */
+    public HystrixProperty<Integer> tenantQuotaMaxShareOfBatchPercentage() {
+        return tenantQuotaMaxShareOfBatchPercentage;
+    }
+
+    /**
+     * What happens to the requests of a tenant that used up its quota of a batch (see {@link #tenantQuotaMaxShareOfBatchPercentage}).
+     *
+     * @return {@code HystrixProperty<TenantQuotaOverflowPolicy>}
+     */
+    public HystrixProperty<TenantQuotaOverflowPolicy> tenantQuotaOverflowPolicy() {
+        return tenantQuotaOverflowPolicy;
+    }
+
     /**
      * Factory method to retrieve the default Setter.
      */
@@ -128,7 +298,15 @@ public abstract class HystrixCollapserProperties {
     public static class Setter {
         private Integer maxRequestsInBatch = null;
         private Integer timerDelayInMilliseconds = null;
+        private Integer timerDelayInMicroseconds = null;
         private Boolean requestCacheEnabled = null;
+        private Integer streamMaxDurationInMilliseconds = null;
+        private Integer minRequestsInBatch = null;
+        private Integer maxWaitInMilliseconds = null;
+        private Boolean adaptiveBatchSizeEnabled = null;
+        private Integer adaptiveBatchSizeLatencyTargetInMilliseconds = null;
+        private Integer tenantQuotaMaxShareOfBatchPercentage = null;
+        private TenantQuotaOverflowPolicy tenantQuotaOverflowPolicy = null;
 
         private Setter() {
         }
@@ -141,10 +319,34 @@ public abstract class HystrixCollapserProperties {
             return timerDelayInMilliseconds;
         }
 
+        public Integer getTimerDelayInMicroseconds() {
+            return timerDelayInMicroseconds;
+        }
+
         public Boolean getRequestCacheEnabled() {
             return requestCacheEnabled;
         }
 
+        public Integer getStreamMaxDurationInMilliseconds() {
+            return streamMaxDurationInMilliseconds;
+        }
+
+        public Integer getMinRequestsInBatch() {
+            return minRequestsInBatch;
+        }
+
+        public Integer getMaxWaitInMilliseconds() {
+            return maxWaitInMilliseconds;
+        }
+
+        public Boolean getAdaptiveBatchSizeEnabled() {
+            return adaptiveBatchSizeEnabled;
+        }
+
+        public Integer getAdaptiveBatchSizeLatencyTargetInMilliseconds() {
+            return adaptiveBatchSizeLatencyTargetInMilliseconds;
+        }
+
         public Setter withMaxRequestsInBatch(int value) {
             this.maxRequestsInBatch = value;
             return this;
@@ -155,9 +357,57 @@ public abstract class HystrixCollapserProperties {
             return this;
         }
 
+        public Setter withTimerDelayInMicroseconds(int value) {
+            this.timerDelayInMicroseconds = value;
+            return this;
+        }
+
         public Setter withRequestCacheEnabled(boolean value) {
             this.requestCacheEnabled = value;
             return this;
         }
+
+        public Setter withStreamMaxDurationInMilliseconds(int value) {
+            this.streamMaxDurationInMilliseconds = value;
+            return this;
+        }
+
+        public Integer getTenantQuotaMaxShareOfBatchPercentage() {
+            return tenantQuotaMaxShareOfBatchPercentage;
+        }
+
+        public TenantQuotaOverflowPolicy getTenantQuotaOverflowPolicy() {
+            return tenantQuotaOverflowPolicy;
+        }
+
+        public Setter withMinRequestsInBatch(int value) {
+            this.minRequestsInBatch = value;
+            return this;
+        }
+
+        public Setter withMaxWaitInMilliseconds(int value) {
+            this.maxWaitInMilliseconds = value;
+            return this;
+        }
+
+        public Setter withAdaptiveBatchSizeEnabled(boolean value) {
+            this.adaptiveBatchSizeEnabled = value;
+            return this;
+        }
+
+        public Setter withAdaptiveBatchSizeLatencyTargetInMilliseconds(int value) {
+            this.adaptiveBatchSizeLatencyTargetInMilliseconds = value;
+            return this;
+        }
+
+        public Setter withTenantQuotaMaxShareOfBatchPercentage(int value) {
+            this.tenantQuotaMaxShareOfBatchPercentage = value;
+            return this;
+        }
+
+        public Setter withTenantQuotaOverflowPolicy(TenantQuotaOverflowPolicy value) {
+            this.tenantQuotaOverflowPolicy = value;
+            return this;
+        }
     }
 }
@@ -15,6 +15,7 @@
  */
 package com.netflix.hystrix;
 
+import com.netflix.hystrix.HystrixCommandProperties.ExecutionIsolationStrategy;
 import com.netflix.hystrix.exception.HystrixBadRequestException;
 import com.netflix.hystrix.exception.HystrixRuntimeException;
 import com.netflix.hystrix.strategy.executionhook.HystrixCommandExecutionHook;
@@ -22,12 +23,14 @@ import com.netflix.hystrix.strategy.properties.HystrixPropertiesStrategy;
 import com.netflix.hystrix.util.Exceptions;
 import rx.Observable;
 
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.List;
+import java.util.concurrent.CompletableFuture;
 import java.util.concurrent.ExecutionException;
 import java.util.concurrent.Future;
 import java.util.concurrent.TimeUnit;
 import java.util.concurrent.TimeoutException;
-import java.util.concurrent.atomic.AtomicBoolean;
-import java.util.concurrent.atomic.AtomicReference;
 
 /**
  * Used to wrap code that will execute potentially risky functionality (typically meaning a service call over the network)
@@ -93,6 +96,17 @@ public abstract class HystrixCommand<R> extends AbstractCommand<R> implements Hy
         this(setter.groupKey, setter.commandKey, setter.threadPoolKey, null, setter.commandPropertiesDefaults, setter.threadPoolPropertiesDefaults, null, null, null);
     }
 
+    /**
+     * Construct a {@link HystrixCommand} from a {@link HystrixCommandPrototype} that resolved its keys, properties, thread-pool, plugins and
+     * request cache once for all commands of the same definition.
+     *
+     * @param prototype
+     *            resolved definition shared by the commands, see {@link HystrixCommandPrototype#from(Class, Setter)}
+     */
+    protected HystrixCommand(HystrixCommandPrototype prototype) {
+        super(prototype);
+    }
+
     /**
      * Allow constructing a {@link HystrixCommand} with injection of most aspects of its functionality.
      * <p>
@@ -221,8 +235,15 @@ public abstract class HystrixCommand<R> extends AbstractCommand<R> implements Hy
 
     }
 
-	private final AtomicReference<Thread> executionThread = new AtomicReference<>();
-	private final AtomicBoolean interruptOnFutureCancel = new AtomicBoolean(false);
+	private volatile Thread executionThread;
+	private volatile boolean interruptOnFutureCancel;
+
+    @Override
+    /* package */ void resetForReuse() {
+        super.resetForReuse();
+        executionThread = null;
+        interruptOnFutureCancel = false;
+    }
 
 	/**
      * Implement this method with code to be executed when {@link #execute()} or {@link #queue()} are invoked.
@@ -243,7 +264,42 @@ public abstract class HystrixCommand<R> extends AbstractCommand<R> implements Hy
             }
         }).doOnSubscribe(() -> {
             // Save thread on which we get subscribed so that we can interrupt it later if needed
-            executionThread.set(Thread.currentThread());
+            executionThread = Thread.currentThread();
+        });
+    }
+
+    @Override
+    /* package */ boolean isExecutedOnCallingThread() {
+        return properties.executionIsolationStrategy().get() == ExecutionIsolationStrategy.SEMAPHORE;
+    }
+
+    @Override
+    /* package */ Observable<R> getExecutionObservable(final UserCodePermit permit) {
+        return runWithPermit(permit).doOnSubscribe(() -> {
+            // Save thread on which we get subscribed so that we can interrupt it later if needed
+            executionThread = Thread.currentThread();
+        });
+    }
+
+    @Override
+    /* package */ Observable<R> getHedgeExecutionObservable(final UserCodePermit permit) {
+        // leaves the executionThread to the primary execution, which is the one interrupted on cancel
+        return runWithPermit(permit);
+    }
+
+    private Observable<R> runWithPermit(final UserCodePermit permit) {
+        // run() blocks its thread even if the execution timed out or was unsubscribed meanwhile, so the permit is held until it returns
+        return Observable.defer(() -> {
+            if (!permit.start()) {
+                return Observable.empty();
+            }
+            try {
+                return Observable.just(run());
+            } catch (Throwable ex) {
+                return Observable.error(ex);
+            } finally {
+                permit.end();
+            }
         });
     }
 
@@ -261,6 +317,13 @@ public abstract class HystrixCommand<R> extends AbstractCommand<R> implements Hy
      */
     public R execute() {
         try {
+            if (canExecuteInline()) {
+                // nothing runs on another thread, so skip the Observable chain, the Future and the latch of queue()
+                return executeInline(() -> {
+                    executionThread = Thread.currentThread();
+                    return run();
+                });
+            }
             return queue().get();
         } catch (Exception e) {
             throw Exceptions.sneakyThrow(decomposeException(e));
@@ -311,13 +374,15 @@ public abstract class HystrixCommand<R> extends AbstractCommand<R> implements Hy
                      * The most consistent way to deal with this scenario is to say that if *any* cancellation is invoked with interruption,
                      * than that interruption request cannot be taken back.
                      */
-                    interruptOnFutureCancel.compareAndSet(false, mayInterruptIfRunning);
+                    if (mayInterruptIfRunning) {
+                        interruptOnFutureCancel = true;
+                    }
         		}
 
-                final boolean res = delegate.cancel(interruptOnFutureCancel.get());
+                final boolean res = delegate.cancel(interruptOnFutureCancel);
 
-                if (!isExecutionComplete() && interruptOnFutureCancel.get()) {
-                    final Thread t = executionThread.get();
+                if (!isExecutionComplete() && interruptOnFutureCancel) {
+                    final Thread t = executionThread;
                     if (t != null && !t.equals(Thread.currentThread())) {
                         t.interrupt();
                     }
@@ -375,6 +440,95 @@ public abstract class HystrixCommand<R> extends AbstractCommand<R> implements Hy
         return f;
     }
 
+    /**
+     * Used for asynchronous execution of command without blocking a thread to get its result.
+     * <p>
+     * This will queue up the command on the thread pool and return a {@link CompletableFuture} completed by the thread that terminates the
+     * execution, so dependent stages that are not async run on that thread.
+     * <p>
+     * Unlike {@link #queue()}, a failure is never thrown from here but always completes the future exceptionally, including rejections.
+     * <p>
+     * Cancelling the future unsubscribes from the execution and, if {@link HystrixCommandProperties#executionIsolationThreadInterruptOnFutureCancel()}
+     * is enabled and {@code mayInterruptIfRunning} is true, interrupts the thread running {@link #run()}, as cancelling the {@link Future}
+     * of {@link #queue()} does.
+     * <p>
+     * NOTE: If configured to not run in a separate thread, the execution happens on the calling thread and the future is done when this returns.
+     *
+     * @return {@code CompletableFuture<R>} Result of {@link #run()} execution, or completed exceptionally with the
+     *         {@link HystrixRuntimeException} or {@link HystrixBadRequestException} {@link #queue()} would deliver
+     */
+    public CompletableFuture<R> toCompletableFuture() {
+        return completeFromExecution(new CommandFuture() {
+            @Override
+            public boolean cancel(boolean mayInterruptIfRunning) {
+                if (isDone()) {
+                    return false;
+                }
+
+                if (getProperties().executionIsolationThreadInterruptOnFutureCancel().get() && mayInterruptIfRunning) {
+                    // only false -> true, see queue()
+                    interruptOnFutureCancel = true;
+                }
+
+                final boolean res = super.cancel(interruptOnFutureCancel);
+
+                if (!isExecutionComplete() && interruptOnFutureCancel) {
+                    final Thread t = executionThread;
+                    if (t != null && !t.equals(Thread.currentThread())) {
+                        t.interrupt();
+                    }
+                }
+
+                return res;
+            }
+        });
+    }
+
+    /**
+     * Used for synchronous execution of many independent commands at once, such as the fan-out of a request.
+     * <p>
+     * All commands are started before waiting for any of them. The THREAD-isolated commands that share a thread-pool are handed to it
+     * together: instead of queueing one task per command, a few pool threads each run several of them back to back. The commands are
+     * still subject to the limits of their thread-pool and each one executes, falls back and fails as on its own.
+     *
+     * @param commands
+     *            commands that have not been executed yet
+     * @return the {@link #run()} result of each command, in the iteration order of the commands
+     * @throws HystrixRuntimeException
+     *             of the first command, in the iteration order, that failed as {@link #execute()} would throw it
+     * @throws HystrixBadRequestException
+     *             if invalid arguments or state were used representing a user failure, not a system failure
+     * @throws IllegalStateException
+     *             if one of the commands has already been executed
+     */
+    public static <R> List<R> executeAll(Collection<? extends HystrixCommand<R>> commands) {
+        List<Observable<R>> observables = observeAll(commands);
+        List<R> values = new ArrayList<>(observables.size());
+        int i = 0;
+        for (HystrixCommand<R> command : commands) {
+            try {
+                values.add(observables.get(i++).toBlocking().toFuture().get());
+            } catch (Exception e) {
+                throw Exceptions.sneakyThrow(command.decomposeException(e));
+            }
+        }
+        return values;
+    }
+
+    /**
+     * Used for asynchronous execution of many independent commands at once, such as the fan-out of a request.
+     * <p>
+     * Each command is started as by {@link #observe()}. The THREAD-isolated commands that share a thread-pool are handed to it together,
+     * see {@link #executeAll(Collection)}.
+     *
+     * @param commands
+     *            commands that have not been executed yet
+     * @return the {@link #observe()} {@link Observable} of each command, in the iteration order of the commands
+     */
+    public static <R> List<Observable<R>> observeAll(Collection<? extends HystrixCommand<R>> commands) {
+        return observeAllBatched(commands);
+    }
+
     @Override
     protected boolean commandIsScalar() {
         return true;
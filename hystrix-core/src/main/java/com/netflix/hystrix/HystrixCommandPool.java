@@ -0,0 +1,126 @@
+/*
+ * Copyright 2016 Netflix, Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.netflix.hystrix;
+
+import rx.functions.Func0;
+
+import java.util.concurrent.atomic.AtomicReferenceArray;
+
+/**
+ * Pool of reusable instances of a {@link HystrixCommand} for hot paths where allocating a command per execution matters.
+ * <p>
+ * Commands are single-use unless they come from a pool: {@link #acquire()} one, set its arguments, execute it, read what is needed from it and
+ * {@link #release} it. A released command is reset and handed out by a later {@link #acquire()}, so it must not be used after it was released;
+ * executing it fails as if it had been executed twice.
+ * <pre> {@code
+ *  GetUserCommand command = pool.acquire();
+ *  try {
+ *      command.setId(id);
+ *      return command.execute();
+ *  } finally {
+ *      pool.release(command);
+ *  }
+ * } </pre>
+ * <p>
+ * Only a command whose execution is over and left nothing behind is reused: one that was unsubscribed before it completed, timed out, is still
+ * running its user code, launched a hedge or shared its response through the request cache is dropped by {@link #release} instead.
+ * <p>
+ * The free instances are kept in a fixed number of slots that threads start probing at different positions, so acquiring and releasing on
+ * different threads rarely contend. A release that finds no free slot drops the instance.
+ *
+ * @param <C>
+ *            the command type
+ * @ThreadSafe
+ */
+public final class HystrixCommandPool<C extends HystrixCommand<?>> {
+    private static final int DEFAULT_SIZE = 64;
+
+    private final Func0<? extends C> factory;
+    private final AtomicReferenceArray<C> slots;
+    private final int mask;
+
+    /**
+     * @param factory
+     *            creates a new command when the pool is empty, for example from a {@link HystrixCommandPrototype}
+     */
+    public HystrixCommandPool(Func0<? extends C> factory) {
+        this(factory, DEFAULT_SIZE);
+    }
+
+    /**
+     * @param factory
+     *            creates a new command when the pool is empty, for example from a {@link HystrixCommandPrototype}
+     * @param size
+     *            maximum number of free instances kept, rounded up to a power of two
+     */
+    public HystrixCommandPool(Func0<? extends C> factory, int size) {
+        if (size <= 0) {
+            throw new IllegalArgumentException("Pool size must be positive: " + size);
+        }
+        this.factory = factory;
+        int capacity = Integer.highestOneBit(size);
+        if (capacity < size) {
+            capacity <<= 1;
+        }
+        this.slots = new AtomicReferenceArray<>(capacity);
+        this.mask = capacity - 1;
+    }
+
+    /**
+     * @return a command that has not been executed yet, either a released one or a new one from the factory
+     */
+    public C acquire() {
+        int start = probe();
+        for (int i = 0; i <= mask; i++) {
+            int index = (start + i) & mask;
+            C command = slots.get(index);
+            if (command != null && slots.compareAndSet(index, command, null)) {
+                command.reacquire();
+                return command;
+            }
+        }
+        return factory.call();
+    }
+
+    /**
+     * Returns a command to the pool. The command must not be used anymore by the caller.
+     *
+     * @param command
+     *            a command acquired from this pool, or any other command of its type
+     * @return false if the command could not be reused or the pool is full, it is dropped then
+     * @throws IllegalStateException
+     *             if the command has already been released
+     */
+    public boolean release(C command) {
+        if (!command.release()) {
+            return false;
+        }
+        int start = probe();
+        for (int i = 0; i <= mask; i++) {
+            int index = (start + i) & mask;
+            if (slots.get(index) == null && slots.compareAndSet(index, null, command)) {
+                return true;
+            }
+        }
+        // leave the command RELEASED so a stale reference still fails fast
+        return false;
+    }
+
+    private static int probe() {
+        // spread the thread ids so consecutive threads start far apart
+        return (int) (Thread.currentThread().getId() * 0x9E3779B9L >>> 16);
+    }
+}
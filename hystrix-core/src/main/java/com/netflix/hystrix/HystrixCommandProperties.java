@@ -36,15 +36,27 @@ public abstract class HystrixCommandProperties {
     /* defaults */
     private static final ExecutionIsolationStrategy default_executionIsolationStrategy = ExecutionIsolationStrategy.THREAD;
     private static final Boolean default_executionIsolationThreadInterruptOnFutureCancel = false;
+    private static final Boolean default_executionTimeoutEnabled = false;
+    private static final Integer default_executionTimeoutInMilliseconds = 1000; // default => executionTimeoutInMilliseconds: 1000 = 1 second
+    private static final Boolean default_executionIsolationThreadInterruptOnTimeout = true;
     private static final Boolean default_requestCacheEnabled = true;
     private static final Integer default_executionIsolationSemaphoreMaxConcurrentRequests = 10;
+    private static final Boolean default_executionHedgingEnabled = false;
+    private static final Integer default_executionHedgingPercentile = 95;
+    private static final Integer default_executionHedgingBudgetPercentage = 5;
 
     @SuppressWarnings("unused") private final HystrixCommandKey key;
     private final HystrixProperty<ExecutionIsolationStrategy> executionIsolationStrategy; // Whether a command should be executed in a separate thread or not.
     private final HystrixProperty<String> executionIsolationThreadPoolKeyOverride; // What thread-pool this command should run in (if running on a separate thread).
     private final HystrixProperty<Integer> executionIsolationSemaphoreMaxConcurrentRequests; // Number of permits for execution semaphore
     private final HystrixProperty<Boolean> executionIsolationThreadInterruptOnFutureCancel; // Whether canceling an underlying Future/Thread (when runInSeparateThread == true) should interrupt the execution thread
+    private final HystrixProperty<Boolean> executionTimeoutEnabled; // Whether an execution is timed out
+    private final HystrixProperty<Integer> executionTimeoutInMilliseconds; // Timeout value in milliseconds for a command
+    private final HystrixProperty<Boolean> executionIsolationThreadInterruptOnTimeout; // Whether a timeout should interrupt the execution thread
     private final HystrixProperty<Boolean> requestCacheEnabled; // Whether request caching is enabled.
+    private final HystrixProperty<Boolean> executionHedgingEnabled; // Whether a second execution is launched when the first one is slow
+    private final HystrixProperty<Integer> executionHedgingPercentile; // Percentile of recent latencies after which a hedge is launched
+    private final HystrixProperty<Integer> executionHedgingBudgetPercentage; // Maximum percentage of executions that may be hedged
 
     /**
      * Isolation strategy to use when executing a {@link HystrixCommand}.
@@ -71,8 +83,14 @@ public abstract class HystrixCommandProperties {
         this.key = key;
         this.executionIsolationStrategy = getProperty(propertyPrefix, key, "execution.isolation.strategy", builder.getExecutionIsolationStrategy(), default_executionIsolationStrategy);
         this.executionIsolationThreadInterruptOnFutureCancel = getProperty(propertyPrefix, key, "execution.isolation.thread.interruptOnFutureCancel", builder.getExecutionIsolationThreadInterruptOnFutureCancel(), default_executionIsolationThreadInterruptOnFutureCancel);
+        this.executionTimeoutEnabled = getProperty(propertyPrefix, key, "execution.timeout.enabled", builder.getExecutionTimeoutEnabled(), default_executionTimeoutEnabled);
+        this.executionTimeoutInMilliseconds = getProperty(propertyPrefix, key, "execution.isolation.thread.timeoutInMilliseconds", builder.getExecutionTimeoutInMilliseconds(), default_executionTimeoutInMilliseconds);
+        this.executionIsolationThreadInterruptOnTimeout = getProperty(propertyPrefix, key, "execution.isolation.thread.interruptOnTimeout", builder.getExecutionIsolationThreadInterruptOnTimeout(), default_executionIsolationThreadInterruptOnTimeout);
         this.executionIsolationSemaphoreMaxConcurrentRequests = getProperty(propertyPrefix, key, "execution.isolation.semaphore.maxConcurrentRequests", builder.getExecutionIsolationSemaphoreMaxConcurrentRequests(), default_executionIsolationSemaphoreMaxConcurrentRequests);
         this.requestCacheEnabled = getProperty(propertyPrefix, key, "requestCache.enabled", builder.getRequestCacheEnabled(), default_requestCacheEnabled);
+        this.executionHedgingEnabled = getProperty(propertyPrefix, key, "execution.hedging.enabled", builder.getExecutionHedgingEnabled(), default_executionHedgingEnabled);
+        this.executionHedgingPercentile = getProperty(propertyPrefix, key, "execution.hedging.percentile", builder.getExecutionHedgingPercentile(), default_executionHedgingPercentile);
+        this.executionHedgingBudgetPercentage = getProperty(propertyPrefix, key, "execution.hedging.budgetPercentage", builder.getExecutionHedgingBudgetPercentage(), default_executionHedgingBudgetPercentage);
 
         // thread pool doesn't have a global override, only instance level makes sense
         this.executionIsolationThreadPoolKeyOverride = forString().add(propertyPrefix + ".command." + key.name() + ".threadPoolKeyOverride", null).build();
@@ -113,6 +131,41 @@ public abstract class HystrixCommandProperties {
         return executionIsolationThreadInterruptOnFutureCancel;
     }
 
+    /**
+     * Whether the execution thread should be interrupted when the execution times out.
+     * <p>
+     * Applicable only when {@link #executionIsolationStrategy()} == THREAD and {@link #executionTimeoutEnabled()} is true.
+     * 
+     * @return {@code HystrixProperty<Boolean>}
+     */
+    public HystrixProperty<Boolean> executionIsolationThreadInterruptOnTimeout() {
+        return executionIsolationThreadInterruptOnTimeout;
+    }
+
+    /**
+     * Whether executions taking longer than {@link #executionTimeoutInMilliseconds()} are timed out: the caller receives a
+     * {@link com.netflix.hystrix.exception.HystrixRuntimeException} with {@code FailureType.TIMEOUT} and the execution is unsubscribed from.
+     * <p>
+     * With {@link ExecutionIsolationStrategy#SEMAPHORE} the execution runs on the calling thread, so a blocking {@link HystrixCommand#run()} only
+     * returns the timeout once it returns. Disabled by default, an execution then does not schedule anything on the {@link com.netflix.hystrix.util.HystrixTimer}.
+     * 
+     * @return {@code HystrixProperty<Boolean>}
+     */
+    public HystrixProperty<Boolean> executionTimeoutEnabled() {
+        return executionTimeoutEnabled;
+    }
+
+    /**
+     * Time in milliseconds after which an execution is timed out.
+     * <p>
+     * Applicable only when {@link #executionTimeoutEnabled()} is true.
+     * 
+     * @return {@code HystrixProperty<Integer>}
+     */
+    public HystrixProperty<Integer> executionTimeoutInMilliseconds() {
+        return executionTimeoutInMilliseconds;
+    }
+
     /**
      * Allow a dynamic override of the {@link HystrixThreadPoolKey} that will dynamically change which {@link HystrixThreadPool} a {@link HystrixCommand} executes on.
      * <p>
@@ -135,6 +188,44 @@ public abstract class HystrixCommandProperties {
         return requestCacheEnabled;
     }
 
+    /**
+     * Whether a second, identical execution is launched when the first one has not completed within the {@link #executionHedgingPercentile()} of the
+     * recent latencies of this {@link HystrixCommandKey}. The first execution to respond wins and the other one is unsubscribed.
+     * <p>
+     * Only enable this for idempotent commands. It applies to the batch commands of collapsers like to any other command.
+     * <p>
+     * A hedge only helps if the first execution runs off the calling thread. A {@link HystrixCommand} with {@link ExecutionIsolationStrategy#SEMAPHORE}
+     * runs {@link HystrixCommand#run()} on the calling thread, so it is never hedged. A {@link HystrixObservableCommand} is hedged, but the caller
+     * still waits for a {@link HystrixObservableCommand#construct()} that blocks or emits synchronously.
+     * 
+     * @return {@code HystrixProperty<Boolean>}
+     */
+    public HystrixProperty<Boolean> executionHedgingEnabled() {
+        return executionHedgingEnabled;
+    }
+
+    /**
+     * Percentile of the recent execution latencies after which a hedge is launched.
+     * <p>
+     * Applicable only when {@link #executionHedgingEnabled()} is true. No hedges are launched until enough latencies were observed.
+     * 
+     * @return {@code HystrixProperty<Integer>}
+     */
+    public HystrixProperty<Integer> executionHedgingPercentile() {
+        return executionHedgingPercentile;
+    }
+
+    /**
+     * Maximum percentage of executions that may launch a hedge, so hedging does not amplify an overload.
+     * <p>
+     * Applicable only when {@link #executionHedgingEnabled()} is true.
+     * 
+     * @return {@code HystrixProperty<Integer>}
+     */
+    public HystrixProperty<Integer> executionHedgingBudgetPercentage() {
+        return executionHedgingBudgetPercentage;
+    }
+
     private static HystrixProperty<Boolean> getProperty(String propertyPrefix, HystrixCommandKey key, String instanceProperty, Boolean builderOverrideValue, Boolean defaultValue) {
         return forBoolean()
                 .add(propertyPrefix + ".command." + key.name() + "." + instanceProperty, builderOverrideValue)
@@ -240,7 +331,13 @@ public abstract class HystrixCommandProperties {
         private Integer executionIsolationSemaphoreMaxConcurrentRequests = null;
         private ExecutionIsolationStrategy executionIsolationStrategy = null;
         private Boolean executionIsolationThreadInterruptOnFutureCancel = null;
+        private Boolean executionIsolationThreadInterruptOnTimeout = null;
+        private Boolean executionTimeoutEnabled = null;
+        private Integer executionTimeoutInMilliseconds = null;
         private Boolean requestCacheEnabled = null;
+        private Boolean executionHedgingEnabled = null;
+        private Integer executionHedgingPercentile = null;
+        private Integer executionHedgingBudgetPercentage = null;
 
         /* package */ Setter() {
         }
@@ -257,10 +354,34 @@ public abstract class HystrixCommandProperties {
 			return executionIsolationThreadInterruptOnFutureCancel;
 		}
 
+        public Boolean getExecutionIsolationThreadInterruptOnTimeout() {
+            return executionIsolationThreadInterruptOnTimeout;
+        }
+
+        public Boolean getExecutionTimeoutEnabled() {
+            return executionTimeoutEnabled;
+        }
+
+        public Integer getExecutionTimeoutInMilliseconds() {
+            return executionTimeoutInMilliseconds;
+        }
+
         public Boolean getRequestCacheEnabled() {
             return requestCacheEnabled;
         }
 
+        public Boolean getExecutionHedgingEnabled() {
+            return executionHedgingEnabled;
+        }
+
+        public Integer getExecutionHedgingPercentile() {
+            return executionHedgingPercentile;
+        }
+
+        public Integer getExecutionHedgingBudgetPercentage() {
+            return executionHedgingBudgetPercentage;
+        }
+
         public Setter withExecutionIsolationSemaphoreMaxConcurrentRequests(int value) {
             this.executionIsolationSemaphoreMaxConcurrentRequests = value;
             return this;
@@ -276,9 +397,39 @@ public abstract class HystrixCommandProperties {
             return this;
         }
 
+        public Setter withExecutionIsolationThreadInterruptOnTimeout(boolean value) {
+            this.executionIsolationThreadInterruptOnTimeout = value;
+            return this;
+        }
+
+        public Setter withExecutionTimeoutEnabled(boolean value) {
+            this.executionTimeoutEnabled = value;
+            return this;
+        }
+
+        public Setter withExecutionTimeoutInMilliseconds(int value) {
+            this.executionTimeoutInMilliseconds = value;
+            return this;
+        }
+
         public Setter withRequestCacheEnabled(boolean value) {
             this.requestCacheEnabled = value;
             return this;
         }
+
+        public Setter withExecutionHedgingEnabled(boolean value) {
+            this.executionHedgingEnabled = value;
+            return this;
+        }
+
+        public Setter withExecutionHedgingPercentile(int value) {
+            this.executionHedgingPercentile = value;
+            return this;
+        }
+
+        public Setter withExecutionHedgingBudgetPercentage(int value) {
+            this.executionHedgingBudgetPercentage = value;
+            return this;
+        }
     }
 }
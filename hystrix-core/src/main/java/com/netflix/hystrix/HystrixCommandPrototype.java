@@ -0,0 +1,125 @@
+/*
+ * Copyright 2016 Netflix, Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.netflix.hystrix;
+
+import com.netflix.hystrix.strategy.HystrixPlugins;
+import com.netflix.hystrix.strategy.concurrency.HystrixConcurrencyStrategy;
+import com.netflix.hystrix.strategy.executionhook.HystrixCommandExecutionHook;
+
+/**
+ * Definition of a command with its keys, properties, thread-pool, plugins and request cache resolved once, so constructing a command from it
+ * only copies references.
+ * <p>
+ * Create one per command definition and keep it, typically in a static field of the command class:
+ * <pre> {@code
+ *  private static final HystrixCommandPrototype PROTOTYPE = HystrixCommandPrototype.from(GetUserCommand.class,
+ *          HystrixCommand.Setter.withGroupKey(HystrixCommandGroupKey.Factory.asKey("Users")));
+ *
+ *  public GetUserCommand(long id) {
+ *      super(PROTOTYPE);
+ *      this.id = id;
+ *  }
+ * } </pre>
+ * <p>
+ * Everything is resolved when the prototype is created: the thread-pool key override property and the plugins registered at that time apply to
+ * all commands constructed from it. Dynamic properties still take effect as the {@link HystrixCommandProperties} are shared. After
+ * {@link Hystrix#reset()} or {@link HystrixPlugins#reset()} a new prototype must be created.
+ *
+ * @ThreadSafe
+ */
+public final class HystrixCommandPrototype {
+    /* package */ final HystrixCommandGroupKey commandGroup;
+    /* package */ final HystrixCommandKey commandKey;
+    /* package */ final HystrixCommandProperties properties;
+    /* package */ final HystrixThreadPoolKey threadPoolKey;
+    /* package */ final HystrixThreadPool threadPool;
+    /* package */ final HystrixConcurrencyStrategy concurrencyStrategy;
+    /* package */ final HystrixCommandExecutionHook executionHook;
+    /* package */ final HystrixRequestCache requestCache;
+
+    private HystrixCommandPrototype(Class<?> commandClass, HystrixCommandGroupKey group, HystrixCommandKey key, HystrixThreadPoolKey threadPoolKey,
+                                    HystrixCommandProperties.Setter commandPropertiesDefaults, HystrixThreadPoolProperties.Setter threadPoolPropertiesDefaults) {
+        this.commandGroup = AbstractCommand.initGroupKey(group);
+        this.commandKey = AbstractCommand.initCommandKey(key, commandClass);
+        this.properties = AbstractCommand.initCommandProperties(this.commandKey, null, commandPropertiesDefaults);
+        this.threadPoolKey = AbstractCommand.initThreadPoolKey(threadPoolKey, this.commandGroup, this.properties.executionIsolationThreadPoolKeyOverride().get());
+        this.threadPool = AbstractCommand.initThreadPool(null, this.threadPoolKey, threadPoolPropertiesDefaults);
+
+        HystrixPlugins plugins = HystrixPlugins.getInstance();
+        this.concurrencyStrategy = plugins.getConcurrencyStrategy();
+        this.executionHook = plugins.getCommandExecutionHook();
+
+        this.requestCache = HystrixRequestCache.getInstance(this.commandKey, this.concurrencyStrategy);
+    }
+
+    /**
+     * Resolves the definition of a {@link HystrixCommand}.
+     *
+     * @param commandClass
+     *            class of the commands, the {@link HystrixCommandKey} is derived from its name if the {@link HystrixCommand.Setter} has none
+     * @param setter
+     *            the arguments the command would otherwise pass to {@link HystrixCommand#HystrixCommand(HystrixCommand.Setter)}
+     * @return prototype to pass to {@link HystrixCommand#HystrixCommand(HystrixCommandPrototype)}
+     */
+    public static HystrixCommandPrototype from(Class<? extends HystrixCommand<?>> commandClass, HystrixCommand.Setter setter) {
+        return new HystrixCommandPrototype(commandClass, setter.groupKey, setter.commandKey, setter.threadPoolKey,
+                setter.commandPropertiesDefaults, setter.threadPoolPropertiesDefaults);
+    }
+
+    /**
+     * Resolves the definition of a {@link HystrixObservableCommand}.
+     *
+     * @param commandClass
+     *            class of the commands, the {@link HystrixCommandKey} is derived from its name if the {@link HystrixObservableCommand.Setter} has none
+     * @param setter
+     *            the arguments the command would otherwise pass to {@link HystrixObservableCommand#HystrixObservableCommand(HystrixObservableCommand.Setter)}
+     * @return prototype to pass to {@link HystrixObservableCommand#HystrixObservableCommand(HystrixCommandPrototype)}
+     */
+    public static HystrixCommandPrototype from(Class<? extends HystrixObservableCommand<?>> commandClass, HystrixObservableCommand.Setter setter) {
+        return new HystrixCommandPrototype(commandClass, setter.groupKey, setter.commandKey, setter.threadPoolKey,
+                setter.commandPropertiesDefaults, setter.threadPoolPropertiesDefaults);
+    }
+
+    /**
+     * Resolves the definition of a {@link HystrixAsyncCommand}.
+     *
+     * @param commandClass
+     *            class of the commands, the {@link HystrixCommandKey} is derived from its name if the {@link HystrixAsyncCommand.Setter} has none
+     * @param setter
+     *            the arguments the command would otherwise pass to {@link HystrixAsyncCommand#HystrixAsyncCommand(HystrixAsyncCommand.Setter)}
+     * @return prototype to pass to {@link HystrixAsyncCommand#HystrixAsyncCommand(HystrixCommandPrototype)}
+     */
+    public static HystrixCommandPrototype from(Class<? extends HystrixAsyncCommand<?>> commandClass, HystrixAsyncCommand.Setter setter) {
+        return new HystrixCommandPrototype(commandClass, setter.groupKey, setter.commandKey, setter.threadPoolKey,
+                setter.commandPropertiesDefaults, setter.threadPoolPropertiesDefaults);
+    }
+
+    public HystrixCommandGroupKey getCommandGroup() {
+        return commandGroup;
+    }
+
+    public HystrixCommandKey getCommandKey() {
+        return commandKey;
+    }
+
+    public HystrixThreadPoolKey getThreadPoolKey() {
+        return threadPoolKey;
+    }
+
+    public HystrixCommandProperties getProperties() {
+        return properties;
+    }
+}
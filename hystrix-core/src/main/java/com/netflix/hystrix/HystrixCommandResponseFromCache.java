@@ -34,11 +34,11 @@ public class HystrixCommandResponseFromCache<R> extends HystrixCachedObservable<
     }
 
     private void commandCompleted(final AbstractCommand<R> commandToCopyStateInto) {
-        commandToCopyStateInto.executionResult = originalCommand.executionResult;
+        commandToCopyStateInto.executionRecord.copyFrom(originalCommand.executionRecord.freeze());
     }
 
     private void commandUnsubscribed(final AbstractCommand<R> commandToCopyStateInto) {
-        commandToCopyStateInto.executionResult = commandToCopyStateInto.executionResult.addEvent(HystrixEventType.CANCELLED);
-        commandToCopyStateInto.executionResult = commandToCopyStateInto.executionResult.setExecutionLatency(-1);
+        commandToCopyStateInto.executionRecord.addEvent(HystrixEventType.CANCELLED);
+        commandToCopyStateInto.executionRecord.setExecutionLatency(-1);
     }
 }
@@ -15,13 +15,18 @@
  */
 package com.netflix.hystrix;
 
+import java.util.concurrent.ConcurrentHashMap;
 import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
 
 /**
  * All of the data available via this class is static and scoped at the JVM level
  */
 public class HystrixCounters {
     private static final AtomicInteger concurrentThreadsExecuting = new AtomicInteger(0);
+    // String is HystrixCollapserKey.name() (we can't use HystrixCollapserKey directly as we can't guarantee it implements hashcode/equals correctly)
+    private static final ConcurrentHashMap<String, AtomicLong> collapserPrefetches = new ConcurrentHashMap<>();
+    private static final ConcurrentHashMap<String, AtomicLong> collapserUnclaimedPrefetches = new ConcurrentHashMap<>();
 
     /* package-private */ static void incrementGlobalConcurrentThreads() {
         concurrentThreadsExecuting.incrementAndGet();
@@ -39,6 +44,46 @@ public class HystrixCounters {
         return concurrentThreadsExecuting.get();
     }
 
+    /* package-private */ static void incrementCollapserPrefetches(HystrixCollapserKey key) {
+        counterFor(collapserPrefetches, key).incrementAndGet();
+    }
+
+    /* package-private */ static void incrementCollapserUnclaimedPrefetches(HystrixCollapserKey key) {
+        counterFor(collapserUnclaimedPrefetches, key).incrementAndGet();
+    }
+
+    private static AtomicLong counterFor(ConcurrentHashMap<String, AtomicLong> counters, HystrixCollapserKey key) {
+        AtomicLong counter = counters.get(key.name());
+        if (counter == null) {
+            AtomicLong newCounter = new AtomicLong();
+            counter = counters.putIfAbsent(key.name(), newCounter);
+            if (counter == null) {
+                counter = newCounter;
+            }
+        }
+        return counter;
+    }
+
+    /**
+     * Return the number of requests that were prefetched into a batch of the given collapser
+     * @param key collapser key
+     * @return number of requests prefetched with {@link HystrixCollapser#prefetch()} or {@link HystrixCollapserDefinition#prefetch}
+     */
+    public static long getCollapserPrefetchCount(HystrixCollapserKey key) {
+        AtomicLong counter = collapserPrefetches.get(key.name());
+        return counter == null ? 0 : counter.get();
+    }
+
+    /**
+     * Return the number of prefetched requests of the given collapser that no execution claimed before their request scope ended
+     * @param key collapser key
+     * @return number of unclaimed prefetches, which together with {@link #getCollapserPrefetchCount} tells how accurate prefetching is
+     */
+    public static long getCollapserUnclaimedPrefetchCount(HystrixCollapserKey key) {
+        AtomicLong counter = collapserUnclaimedPrefetches.get(key.name());
+        return counter == null ? 0 : counter.get();
+    }
+
     /**
      * Return the number of unique {@link HystrixCommand}s that have been registered
      * @return number of unique {@link HystrixCommand}s that have been registered
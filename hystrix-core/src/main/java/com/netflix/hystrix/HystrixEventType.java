@@ -27,6 +27,7 @@ public enum HystrixEventType {
     EMIT(false),
     SUCCESS(true),
     FAILURE(false),
+    TIMEOUT(false),
     BAD_REQUEST(true),
     THREAD_POOL_REJECTED(false),
     SEMAPHORE_REJECTED(false),
@@ -34,7 +35,8 @@ public enum HystrixEventType {
     RESPONSE_FROM_CACHE(true),
     CANCELLED(true),
     COLLAPSED(false),
-    COMMAND_MAX_ACTIVE(false);
+    COMMAND_MAX_ACTIVE(false),
+    HEDGED(false);
 
     private final boolean isTerminal;
 
@@ -73,6 +75,7 @@ public enum HystrixEventType {
             switch (eventType) {
                 case SUCCESS: return EXECUTED;
                 case FAILURE: return EXECUTED;
+                case TIMEOUT: return EXECUTED;
                 case BAD_REQUEST: return EXECUTED;
                 case THREAD_POOL_REJECTED: return REJECTED;
                 default: return null;
@@ -43,6 +43,8 @@ public interface HystrixInvokableInfo {
 
     boolean isResponseFromCache();
 
+    boolean isResponseTimedOut();
+
     boolean isResponseRejected();
 
     boolean isResponseSemaphoreRejected();
@@ -71,10 +71,14 @@ public abstract class HystrixObservableCollapser<K, BatchReturnType, ResponseTyp
      * Typically this means that requests within a single user-request (ie. HTTP request) are collapsed. No interaction with other user requests. 1 queue per user request.
      * </li>
      * <li>GLOBAL: Requests from any thread (ie. all HTTP requests) within the JVM will be collapsed. 1 queue for entire app.</li>
+     * <li>HYBRID: Requests from any thread (ie. all HTTP requests) within the JVM will be collapsed. 1 queue for entire app.
+     * <p>
+     * Request caching and cleanup stay scoped to the {@link HystrixRequestContext}: when it is shut down, requests it submitted that are not executed yet are failed.
+     * </li>
      * </ul>
      */
     public enum Scope implements RequestCollapserFactory.Scope {
-        REQUEST, GLOBAL
+        REQUEST, GLOBAL, HYBRID
     }
 
     /**
@@ -199,6 +203,16 @@ public abstract class HystrixObservableCollapser<K, BatchReturnType, ResponseTyp
                 return self.getCollapserKey();
             }
 
+            @Override
+            public Object getTenantKey(RequestArgumentType requestArgument) {
+                return self.getTenantKey(requestArgument);
+            }
+
+            @Override
+            public int getTenantWeight(Object tenantKey) {
+                return self.getTenantWeight(tenantKey);
+            }
+
         };
     }
 
@@ -227,6 +241,20 @@ public abstract class HystrixObservableCollapser<K, BatchReturnType, ResponseTyp
         return collapserFactory.getCollapserKey();
     }
 
+    /**
+     * @see HystrixCollapser#getTenantKey(Object)
+     */
+    protected Object getTenantKey(RequestArgumentType requestArgument) {
+        return null;
+    }
+
+    /**
+     * @see HystrixCollapser#getTenantWeight(Object)
+     */
+    protected int getTenantWeight(Object tenantKey) {
+        return 1;
+    }
+
     /**
      * Scope of collapsing.
      * <p>
@@ -236,6 +264,10 @@ public abstract class HystrixObservableCollapser<K, BatchReturnType, ResponseTyp
      * Typically this means that requests within a single user-request (ie. HTTP request) are collapsed. No interaction with other user requests. 1 queue per user request.
      * </li>
      * <li>GLOBAL: Requests from any thread (ie. all HTTP requests) within the JVM will be collapsed. 1 queue for entire app.</li>
+     * <li>HYBRID: Requests from any thread (ie. all HTTP requests) within the JVM will be collapsed. 1 queue for entire app.
+     * <p>
+     * Request caching and cleanup stay scoped to the {@link HystrixRequestContext}: when it is shut down, requests it submitted that are not executed yet are failed.
+     * </li>
      * </ul>
      * <p>
      * Default: {@link Scope#REQUEST} (defined via constructor)
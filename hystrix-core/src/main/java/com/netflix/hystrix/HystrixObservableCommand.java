@@ -82,6 +82,17 @@ public abstract class HystrixObservableCommand<R> extends AbstractCommand<R> imp
         this(setter.groupKey, setter.commandKey, setter.threadPoolKey, null, setter.commandPropertiesDefaults, setter.threadPoolPropertiesDefaults, null, null, null);
     }
 
+    /**
+     * Construct a {@link HystrixObservableCommand} from a {@link HystrixCommandPrototype} that resolved its keys, properties, thread-pool, plugins
+     * and request cache once for all commands of the same definition.
+     *
+     * @param prototype
+     *            resolved definition shared by the commands, see {@link HystrixCommandPrototype#from(Class, Setter)}
+     */
+    protected HystrixObservableCommand(HystrixCommandPrototype prototype) {
+        super(prototype);
+    }
+
     /**
      * Allow constructing a {@link HystrixObservableCommand} with injection of most aspects of its functionality.
      * <p>
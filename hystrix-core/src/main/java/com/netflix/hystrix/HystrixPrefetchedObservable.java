@@ -0,0 +1,54 @@
+/*
+ * Copyright 2016 Netflix, Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.netflix.hystrix;
+
+import rx.Observable;
+
+import java.util.concurrent.atomic.AtomicBoolean;
+
+/**
+ * Response of a prefetched collapser request as stored in the {@link HystrixRequestCache}. The first regular execution for the same cache key claims it.
+ * <p>
+ * When the request scope ends without a claim the prefetch is counted as unclaimed, see {@link HystrixCounters#getCollapserUnclaimedPrefetchCount}.
+ */
+/* package */class HystrixPrefetchedObservable<R> extends HystrixCachedObservable<R> {
+    private final HystrixCollapserKey collapserKey;
+    private final AtomicBoolean claimed = new AtomicBoolean();
+
+    /* package */HystrixPrefetchedObservable(Observable<R> originalObservable, HystrixCollapserKey collapserKey) {
+        super(originalObservable);
+        this.collapserKey = collapserKey;
+    }
+
+    /**
+     * @return the response of the cached observable, if it is a prefetch it is claimed by this
+     */
+    /* package */static <R> Observable<R> claim(HystrixCachedObservable<R> fromCache) {
+        if (fromCache instanceof HystrixPrefetchedObservable) {
+            ((HystrixPrefetchedObservable<R>) fromCache).claimed.set(true);
+        }
+        return fromCache.toObservable();
+    }
+
+    /**
+     * Called when the request cache of the request scope this prefetch belongs to is shut down.
+     */
+    /* package */void onRequestEnd() {
+        if (!claimed.get()) {
+            HystrixCounters.incrementCollapserUnclaimedPrefetches(collapserKey);
+        }
+    }
+}
@@ -53,7 +53,14 @@ public class HystrixRequestCache {
 
         @Override
         public void shutdown(ConcurrentHashMap<ValueCacheKey, HystrixCachedObservable<?>> value) {
-            // nothing to shutdown
+            // nothing to shutdown, but count the prefetches nobody claimed
+            if (value != null) {
+                for (HystrixCachedObservable<?> cached : value.values()) {
+                    if (cached instanceof HystrixPrefetchedObservable) {
+                        ((HystrixPrefetchedObservable<?>) cached).onRequestEnd();
+                    }
+                }
+            }
         }
 
     });
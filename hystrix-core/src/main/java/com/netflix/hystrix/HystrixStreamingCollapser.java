@@ -0,0 +1,283 @@
+/*
+ * Copyright 2016 Netflix, Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.netflix.hystrix;
+
+import com.netflix.hystrix.HystrixCollapser.CollapsedRequest;
+import com.netflix.hystrix.collapser.CollapserTimer;
+import com.netflix.hystrix.collapser.HystrixStreamingCollapserBridge;
+import com.netflix.hystrix.collapser.RealCollapserTimer;
+import com.netflix.hystrix.collapser.RequestCollapserFactory;
+import com.netflix.hystrix.collapser.StreamingRequestCollapser;
+import com.netflix.hystrix.strategy.properties.HystrixPropertiesFactory;
+import com.netflix.hystrix.strategy.properties.HystrixPropertiesStrategy;
+import rx.Observable;
+import rx.Scheduler;
+import rx.Subscription;
+import rx.functions.Func1;
+import rx.schedulers.Schedulers;
+import rx.subjects.ReplaySubject;
+
+/**
+ * Collapse requests into a continuously open {@link HystrixObservableCommand} for backends that accept a bidirectional stream.
+ * <p>
+ * Instead of collecting requests for a batching window, the request argument is pushed into the input {@link Observable} of the open streaming command
+ * as soon as it is submitted, and the response is matched to it by key as soon as it streams back. This removes the batching delay while calls to the
+ * backend stay amortized.
+ * <p>
+ * The stream is rotated after {@link HystrixCollapserProperties#maxRequestsInBatch()} requests, after {@link HystrixCollapserProperties#streamMaxDurationInMilliseconds()}
+ * or when the streaming command fails or completes. Requests in flight on a failed stream receive its exception. Rotation completes the input {@link Observable}
+ * and the command is expected to complete after responding to all requests it received.
+ * <p>
+ * Streams are shared by all threads of the application (there is no request scope) and request caching is not supported.
+ *
+ * @param <K>
+ *            The key used to match BatchReturnType and RequestArgumentType
+ * @param <BatchReturnType>
+ *            The type emitted by the {@link HystrixObservableCommand} that is kept open for the stream.
+ * @param <ResponseType>
+ *            The type returned from this command.
+ * @param <RequestArgumentType>
+ *            The type of the request argument. If multiple arguments are needed, wrap them in another object or a Tuple.
+ */
+public abstract class HystrixStreamingCollapser<K, BatchReturnType, ResponseType, RequestArgumentType> implements HystrixObservable<ResponseType> {
+
+    private final HystrixCollapserKey collapserKey;
+    private final HystrixCollapserProperties properties;
+    private final CollapserTimer timer;
+    private final HystrixStreamingCollapserBridge<K, BatchReturnType, ResponseType, RequestArgumentType> collapserInstanceWrapper;
+
+    /**
+     * Construct a {@link HystrixStreamingCollapser} with defined {@link Setter} that allows
+     * injecting property and strategy overrides and other optional arguments.
+     * <p>
+     * Null values will result in the default being used.
+     *
+     * @param setter
+     *            Fluent interface for constructor arguments
+     */
+    protected HystrixStreamingCollapser(Setter setter) {
+        this(setter.collapserKey, new RealCollapserTimer(), setter.propertiesSetter);
+    }
+
+    /* package for tests */ HystrixStreamingCollapser(HystrixCollapserKey collapserKey, CollapserTimer timer, HystrixCollapserProperties.Setter propertiesBuilder) {
+        if (collapserKey == null || collapserKey.name().trim().equals("")) {
+            String defaultKeyName = getClass().getSimpleName();
+            if (defaultKeyName.equals("")) {
+                // we don't have a SimpleName (anonymous inner class) so use the full class name
+                defaultKeyName = getClass().getName();
+                defaultKeyName = defaultKeyName.substring(defaultKeyName.lastIndexOf('.') + 1);
+            }
+            collapserKey = HystrixCollapserKey.Factory.asKey(defaultKeyName);
+        }
+
+        this.collapserKey = collapserKey;
+        this.properties = HystrixPropertiesFactory.getCollapserProperties(collapserKey, propertiesBuilder);
+        this.timer = timer;
+
+        final HystrixStreamingCollapser<K, BatchReturnType, ResponseType, RequestArgumentType> self = this;
+
+        /*
+         * Used to pass public method invocation to the underlying implementation in a separate package while leaving the methods 'protected' in this class.
+         */
+        collapserInstanceWrapper = new HystrixStreamingCollapserBridge<K, BatchReturnType, ResponseType, RequestArgumentType>() {
+
+            @Override
+            public Observable<BatchReturnType> createObservableCommand(Observable<RequestArgumentType> requestArguments) {
+                return self.createCommand(requestArguments).toObservable();
+            }
+
+            @Override
+            public K getRequestArgumentKey(RequestArgumentType requestArgument) {
+                return self.getRequestArgumentKeySelector().call(requestArgument);
+            }
+
+            @Override
+            public K getBatchReturnTypeKey(BatchReturnType batchReturn) {
+                return self.getBatchReturnTypeKeySelector().call(batchReturn);
+            }
+
+            @Override
+            public ResponseType mapBatchReturnTypeToResponseType(BatchReturnType batchReturn) {
+                return self.getBatchReturnTypeToResponseTypeMapper().call(batchReturn);
+            }
+
+            @Override
+            public void onMissingResponse(CollapsedRequest<ResponseType, RequestArgumentType> request) {
+                self.onMissingResponse(request);
+            }
+
+            @Override
+            public HystrixCollapserKey getCollapserKey() {
+                return self.getCollapserKey();
+            }
+
+        };
+    }
+
+    /**
+     * Key of the {@link HystrixStreamingCollapser} used for properties, reporting etc.
+     *
+     * @return {@link HystrixCollapserKey} identifying this {@link HystrixStreamingCollapser} instance
+     */
+    public HystrixCollapserKey getCollapserKey() {
+        return collapserKey;
+    }
+
+    /**
+     * The request argument to be pushed into the stream.
+     *
+     * @return RequestArgumentType
+     */
+    public abstract RequestArgumentType getRequestArgument();
+
+    /**
+     * Factory method to create a new {@link HystrixObservableCommand}{@code <BatchReturnType>} each time a stream is opened.
+     * <p>
+     * The command must subscribe to <code>requestArguments</code> and emit the responses as they become available. <code>requestArguments</code> completes
+     * when the stream is rotated, after which the command should complete once it responded to the arguments it received.
+     *
+     * @param requestArguments
+     *            the request arguments pushed into this stream
+     * @return {@link HystrixObservableCommand}{@code <BatchReturnType>} which streams the responses for the request arguments
+     */
+    protected abstract HystrixObservableCommand<BatchReturnType> createCommand(Observable<RequestArgumentType> requestArguments);
+
+    /**
+     * Function that returns the key used for matching returned objects against request argument types.
+     * <p>
+     * The key returned from this function should match up with the key returned from {@link #getRequestArgumentKeySelector()};
+     *
+     * @return key selector function
+     */
+    protected abstract Func1<BatchReturnType, K> getBatchReturnTypeKeySelector();
+
+    /**
+     * Function that returns the key used for matching request arguments against returned objects.
+     * <p>
+     * The key returned from this function should match up with the key returned from {@link #getBatchReturnTypeKeySelector()};
+     *
+     * @return key selector function
+     */
+    protected abstract Func1<RequestArgumentType, K> getRequestArgumentKeySelector();
+
+    /**
+     * Invoked if the streaming command completes without a response for a {@link CollapsedRequest}.
+     * <p>
+     * This allows setting an exception (via {@link CollapsedRequest#setException(Exception)}) or a fallback response (via {@link CollapsedRequest#setResponse(Object)}).
+     *
+     * @param r {@link CollapsedRequest}
+     *            that needs a response or exception set on it.
+     */
+    protected abstract void onMissingResponse(CollapsedRequest<ResponseType, RequestArgumentType> r);
+
+    /**
+     * Function for mapping from BatchReturnType to ResponseType.
+     * <p>
+     * Often these two types are exactly the same so it's just a pass-thru.
+     *
+     * @return function for mapping from BatchReturnType to ResponseType
+     */
+    protected abstract Func1<BatchReturnType, ResponseType> getBatchReturnTypeToResponseTypeMapper();
+
+    /**
+     * Used for asynchronous execution with a callback by subscribing to the {@link Observable}.
+     * <p>
+     * This eagerly pushes the request argument into the stream. A lazy {@link Observable} can be obtained from {@link #toObservable()}.
+     *
+     * @return {@code Observable<R>} that calls back with the response matched to the request argument
+     */
+    public Observable<ResponseType> observe() {
+        // use a ReplaySubject to buffer the eagerly subscribed-to Observable
+        ReplaySubject<ResponseType> subject = ReplaySubject.create();
+        // eagerly kick off subscription
+        final Subscription underlyingSubscription = toObservable().subscribe(subject);
+        // return the subject that can be subscribed to later while the execution has already started
+        return subject.doOnUnsubscribe(underlyingSubscription::unsubscribe);
+    }
+
+    /**
+     * A lazy {@link Observable} that will push the request argument into the stream when subscribed to.
+     *
+     * @return {@code Observable<R>} that lazily calls back with the response matched to the request argument
+     */
+    public Observable<ResponseType> toObservable() {
+        return toObservable(Schedulers.computation());
+    }
+
+    /**
+     * A lazy {@link Observable} that will push the request argument into the stream when subscribed to.
+     *
+     * @param observeOn
+     *            The {@link Scheduler} to execute callbacks on.
+     * @return {@code Observable<R>} that lazily calls back with the response matched to the request argument
+     */
+    public Observable<ResponseType> toObservable(Scheduler observeOn) {
+        return Observable.defer(() -> {
+            StreamingRequestCollapser<K, BatchReturnType, ResponseType, RequestArgumentType> requestCollapser = RequestCollapserFactory.getStreamingRequestCollapser(collapserInstanceWrapper, properties, timer);
+            return requestCollapser.submitRequest(getRequestArgument());
+        });
+    }
+
+    /**
+     * Fluent interface for arguments to the {@link HystrixStreamingCollapser} constructor.
+     * <p>
+     * The required arguments are set via the 'with' factory method and optional arguments via the 'and' chained methods.
+     * <p>
+     * Example:
+     * <pre> {@code
+     *  Setter.withCollapserKey(HystrixCollapserKey.Factory.asKey("CollapserName"))
+                .andCollapserPropertiesDefaults(HystrixCollapserProperties.Setter().withStreamMaxDurationInMilliseconds(100));
+     * } </pre>
+     *
+     * @NotThreadSafe
+     */
+    public static class Setter {
+        private final HystrixCollapserKey collapserKey;
+        private HystrixCollapserProperties.Setter propertiesSetter;
+
+        private Setter(HystrixCollapserKey collapserKey) {
+            this.collapserKey = collapserKey;
+        }
+
+        /**
+         * Setter factory method containing required values.
+         * <p>
+         * All optional arguments can be set via the chained methods.
+         *
+         * @param collapserKey
+         *            {@link HystrixCollapserKey} that identifies this collapser and provides the key used for retrieving properties etc.
+         * @return Setter for fluent interface via method chaining
+         */
+        public static Setter withCollapserKey(HystrixCollapserKey collapserKey) {
+            return new Setter(collapserKey);
+        }
+
+        /**
+         * @param propertiesSetter
+         *            {@link HystrixCollapserProperties.Setter} that allows instance specific property overrides (which can then be overridden by dynamic properties, see
+         *            {@link HystrixPropertiesStrategy} for
+         *            information on order of precedence).
+         *            <p>
+         *            Will use defaults if left NULL.
+         * @return Setter for fluent interface via method chaining
+         */
+        public Setter andCollapserPropertiesDefaults(HystrixCollapserProperties.Setter propertiesSetter) {
+            this.propertiesSetter = propertiesSetter;
+            return this;
+        }
+
+    }
+}
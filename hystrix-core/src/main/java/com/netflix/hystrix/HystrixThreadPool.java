@@ -266,6 +266,17 @@ public interface HystrixThreadPool {
             }
         }
 
+        /**
+         * Number of tasks the queue accepts before {@link #isQueueSpaceAvailable()} turns false, 0 if a SynchronousQueue is used.
+         */
+        /* package */ int getQueueSpaceAvailable() {
+            if (queueSize <= 0) {
+                return 0;
+            }
+            int threshold = Math.min(queueSize, properties.queueSizeRejectionThreshold().get());
+            return Math.max(0, threshold - threadPool.getQueue().size());
+        }
+
     }
 
 }
@@ -0,0 +1,131 @@
+/*
+ * Copyright 2016 Netflix, Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.netflix.hystrix;
+
+import com.netflix.hystrix.collapser.CollapserTimer;
+
+/**
+ * Collapser for writes where several updates of the same entity can be folded into one.
+ * <p>
+ * Each instance submits a {@link Write} of a value for a key. While the batch is open, writes for a key that is already in the batch are merged into
+ * the pending write using {@link #mergeValues} (for example a sum for counters or last-write-wins for timestamps), so the batch command receives at most
+ * one write per key. All callers that contributed to a merged write receive the response set for it.
+ * <p>
+ * Merging takes precedence over request caching and duplicate detection, so {@link HystrixCollapserProperties#requestCacheEnabled()} does not influence
+ * how writes for the same key are handled.
+ *
+ * @param <BatchReturnType>
+ *            The type returned from the {@link HystrixCommand} that will be invoked on batch executions.
+ * @param <ResponseType>
+ *            The type returned from this command.
+ * @param <K>
+ *            The type of the key identifying the entity that is written.
+ * @param <V>
+ *            The type of the written value.
+ */
+public abstract class HystrixWriteCoalescingCollapser<BatchReturnType, ResponseType, K, V> extends HystrixCollapser<BatchReturnType, ResponseType, HystrixWriteCoalescingCollapser.Write<K, V>> {
+
+    private final Write<K, V> write;
+
+    /**
+     * Construct a {@link HystrixWriteCoalescingCollapser} with defined {@link Setter} that allows
+     * injecting property and strategy overrides and other optional arguments.
+     * <p>
+     * Null values will result in the default being used.
+     *
+     * @param setter
+     *            Fluent interface for constructor arguments
+     * @param key
+     *            key of the entity to write, must implement hashCode/equals
+     * @param value
+     *            value to write
+     */
+    protected HystrixWriteCoalescingCollapser(Setter setter, K key, V value) {
+        super(setter);
+        this.write = new Write<>(key, value);
+    }
+
+    /* package for tests */ HystrixWriteCoalescingCollapser(HystrixCollapserKey collapserKey, Scope scope, CollapserTimer timer, HystrixCollapserProperties.Setter propertiesBuilder, K key, V value) {
+        super(collapserKey, scope, timer, propertiesBuilder);
+        this.write = new Write<>(key, value);
+    }
+
+    @Override
+    public Write<K, V> getRequestArgument() {
+        return write;
+    }
+
+    /**
+     * Fold a value written for a key into the value already pending for that key in the open batch.
+     * <p>
+     * IMPLEMENTATION NOTE: This is called while holding the batch open, so be fast and do not block.
+     *
+     * @param pending
+     *            value pending for the key (the result of earlier merges)
+     * @param update
+     *            value written afterwards
+     * @return value to write instead of both
+     */
+    protected abstract V mergeValues(V pending, V update);
+
+    @Override
+    protected final Write<K, V> mergeRequestArguments(Write<K, V> existing, Write<K, V> update) {
+        return new Write<>(existing.getKey(), mergeValues(existing.getValue(), update.getValue()));
+    }
+
+    /**
+     * A value written for a key. Two writes are equal if their keys are equal, regardless of the value.
+     */
+    public static final class Write<K, V> {
+        private final K key;
+        private final V value;
+
+        public Write(K key, V value) {
+            this.key = key;
+            this.value = value;
+        }
+
+        public K getKey() {
+            return key;
+        }
+
+        public V getValue() {
+            return value;
+        }
+
+        @Override
+        public boolean equals(Object o) {
+            if (this == o) {
+                return true;
+            }
+            if (o == null || getClass() != o.getClass()) {
+                return false;
+            }
+            Write<?, ?> other = (Write<?, ?>) o;
+            return key != null ? key.equals(other.key) : other.key == null;
+        }
+
+        @Override
+        public int hashCode() {
+            return key != null ? key.hashCode() : 0;
+        }
+
+        @Override
+        public String toString() {
+            return "Write[" + key + "=" + value + "]";
+        }
+    }
+}
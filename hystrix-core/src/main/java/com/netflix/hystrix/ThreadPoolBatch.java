@@ -0,0 +1,357 @@
+/*
+ * Copyright 2016 Netflix, Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.netflix.hystrix;
+
+import com.netflix.hystrix.strategy.concurrency.HystrixConcurrencyStrategy;
+import com.netflix.hystrix.strategy.concurrency.HystrixContextSchedulerAction;
+import com.netflix.hystrix.util.HystrixTimer;
+import com.netflix.hystrix.util.HystrixTimer.TimerListener;
+import rx.Scheduler;
+import rx.Subscription;
+import rx.functions.Action0;
+import rx.functions.Func0;
+import rx.plugins.RxJavaHooks;
+import rx.subscriptions.Subscriptions;
+
+import java.lang.ref.Reference;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.locks.LockSupport;
+
+/**
+ * Schedules a group of commands submitted together to the same {@link HystrixThreadPool} by
+ * {@link HystrixCommand#observeAll(java.util.Collection)}.
+ * <p>
+ * Instead of one task on the thread-pool queue per command, the commands are spread over a few lanes. A lane is handed to the thread-pool
+ * once and its worker then runs the commands of the lane back to back, waiting for more of them until the batch is {@link #close() closed}.
+ * There are as many lanes as there were idle threads when the batch was created, so the commands still run in parallel as far as the pool
+ * allows.
+ * <p>
+ * A command that runs for longer than {@link #HAND_OFF_AFTER_MILLISECONDS} would hold up the commands waiting behind it in its lane, so these
+ * are handed back to the thread-pool one by one and each of them again waits on its own only for a thread.
+ * <p>
+ * The bulkhead is the one of the thread-pool: the batch admits only as many commands as there were idle threads and free queue slots, the
+ * others are rejected when scheduled just as {@link com.netflix.hystrix.strategy.concurrency.HystrixContextScheduler} rejects them.
+ * <p>
+ * Commands are scheduled only by the thread submitting the batch, lanes are drained by the thread-pool.
+ */
+/* package */ final class ThreadPoolBatch implements TimerListener {
+    /* package */ static final int HAND_OFF_AFTER_MILLISECONDS = 50;
+
+    private final HystrixThreadPool threadPool;
+    private final ThreadPoolExecutor executor;
+    private final HystrixConcurrencyStrategy concurrencyStrategy;
+    private final Lane[] lanes;
+    // only touched by the thread scheduling the commands
+    private int admissions;
+    private volatile Reference<TimerListener> timer;
+
+    private ThreadPoolBatch(HystrixThreadPool threadPool, ThreadPoolExecutor executor, HystrixConcurrencyStrategy concurrencyStrategy, int size) {
+        this.threadPool = threadPool;
+        this.executor = executor;
+        this.concurrencyStrategy = concurrencyStrategy;
+
+        int idleThreads = Math.max(0, executor.getMaximumPoolSize() - executor.getActiveCount());
+        int queueSpace = threadPool instanceof HystrixThreadPool.HystrixThreadPoolDefault
+                ? ((HystrixThreadPool.HystrixThreadPoolDefault) threadPool).getQueueSpaceAvailable()
+                : executor.getQueue().remainingCapacity();
+        this.admissions = idleThreads + queueSpace;
+        this.lanes = new Lane[Math.max(1, Math.min(size, idleThreads))];
+        for (int i = 0; i < lanes.length; i++) {
+            lanes[i] = new Lane();
+        }
+    }
+
+    private ThreadPoolBatch start() {
+        timer = HystrixTimer.getInstance().addTimerListener(this);
+        return this;
+    }
+
+    /**
+     * @param size
+     *            number of commands the batch will schedule
+     * @return null if the executor of the thread-pool is not a {@link ThreadPoolExecutor} and the commands must be scheduled one by one
+     */
+    /* package */ static ThreadPoolBatch create(HystrixThreadPool threadPool, HystrixConcurrencyStrategy concurrencyStrategy, int size) {
+        ExecutorService executor = threadPool.getExecutor();
+        if (!(executor instanceof ThreadPoolExecutor)) {
+            return null;
+        }
+        return new ThreadPoolBatch(threadPool, (ThreadPoolExecutor) executor, concurrencyStrategy, size).start();
+    }
+
+    /**
+     * @param shouldInterruptThread
+     *            whether unsubscribing from a running command interrupts its thread, like {@link HystrixThreadPool#getScheduler(Func0)}
+     * @return scheduler for the commands of the batch
+     */
+    /* package */ Scheduler getScheduler(final Func0<Boolean> shouldInterruptThread) {
+        return new Scheduler() {
+            @Override
+            public Worker createWorker() {
+                return new BatchWorker(shouldInterruptThread);
+            }
+        };
+    }
+
+    /**
+     * Lets the lanes return their threads once they ran their tasks, must be called once all commands of the batch have been scheduled.
+     */
+    /* package */ void close() {
+        for (Lane lane : lanes) {
+            lane.close();
+        }
+    }
+
+    /**
+     * Hands the waiting tasks of the lanes running a task for too long back to the thread-pool, and stops ticking once all lanes are done.
+     */
+    @Override
+    public void tick() {
+        long now = System.currentTimeMillis();
+        boolean done = true;
+        for (Lane lane : lanes) {
+            if (lane.wip.get() != 0) {
+                done = false;
+                lane.handOffIfStalled(now);
+            }
+        }
+        if (done) {
+            Reference<TimerListener> t = timer;
+            if (t != null) {
+                t.clear();
+            }
+        }
+    }
+
+    @Override
+    public int getIntervalTimeInMilliseconds() {
+        return HAND_OFF_AFTER_MILLISECONDS;
+    }
+
+    private void schedule(Task task) {
+        if (!threadPool.isQueueSpaceAvailable()) {
+            throw new RejectedExecutionException("Rejected command because thread-pool queueSize is at rejection threshold.");
+        }
+        if (admissions <= 0) {
+            throw new RejectedExecutionException("Rejected command because thread-pool has no idle thread or queue space left for the batch.");
+        }
+        admissions--;
+
+        Lane lane = lanes[0];
+        // pick the lane with the fewest pending tasks, an idle lane only counts the open batch
+        for (int i = 1; i < lanes.length && lane.wip.get() > 1; i++) {
+            if (lanes[i].wip.get() < lane.wip.get()) {
+                lane = lanes[i];
+            }
+        }
+        lane.schedule(task);
+    }
+
+    /**
+     * Runs its tasks one after the other on a single thread of the pool. It is handed to the pool when its first task is scheduled and waits
+     * for more until the batch is closed, then returns the thread once its tasks are done.
+     */
+    private final class Lane implements Runnable {
+        private final ConcurrentLinkedQueue<Task> queue = new ConcurrentLinkedQueue<>();
+        // number of tasks scheduled and not run yet, plus one while the batch is open; the lane returns its thread when it drops to 0
+        private final AtomicInteger wip = new AtomicInteger(1);
+        private volatile Thread waiter;
+        // when the task running on the lane started, 0 while none is running
+        private volatile long taskStartedAt;
+        // only touched by the thread scheduling the commands
+        private boolean started;
+
+        private void schedule(Task task) {
+            queue.offer(task);
+            wip.getAndIncrement();
+            if (!started) {
+                try {
+                    executor.execute(this);
+                } catch (RejectedExecutionException e) {
+                    // the lane was not started, so its only task is the one just offered
+                    queue.clear();
+                    wip.decrementAndGet();
+                    throw e;
+                }
+                started = true;
+            } else {
+                LockSupport.unpark(waiter);
+            }
+        }
+
+        private void close() {
+            if (wip.decrementAndGet() == 0) {
+                LockSupport.unpark(waiter);
+            }
+        }
+
+        @Override
+        public void run() {
+            for (;;) {
+                Task task = queue.poll();
+                if (task != null) {
+                    taskStartedAt = System.currentTimeMillis();
+                    task.runOnPoolThread();
+                    taskStartedAt = 0;
+                    if (wip.decrementAndGet() == 0) {
+                        return;
+                    }
+                } else if (wip.get() == 0) {
+                    return;
+                } else {
+                    // the batch is still being scheduled, wait for the next task or the end of the batch
+                    waiter = Thread.currentThread();
+                    if (queue.isEmpty() && wip.get() != 0) {
+                        LockSupport.park(this);
+                    }
+                    waiter = null;
+                }
+            }
+        }
+
+        /**
+         * Called by the timer thread, the lane keeps running its current task while the tasks behind it are executed by the thread-pool.
+         */
+        private void handOffIfStalled(long now) {
+            long startedAt = taskStartedAt;
+            if (startedAt == 0 || now - startedAt < HAND_OFF_AFTER_MILLISECONDS) {
+                return;
+            }
+            Task task;
+            while ((task = queue.poll()) != null) {
+                try {
+                    executor.execute(task::runOnPoolThread);
+                } catch (RejectedExecutionException e) {
+                    // the pool is full, the lane runs the task itself once its current one is done
+                    queue.offer(task);
+                    return;
+                }
+                if (wip.decrementAndGet() == 0) {
+                    // the lane finished its task meanwhile and may be waiting for this one
+                    LockSupport.unpark(waiter);
+                }
+            }
+        }
+    }
+
+    private static final class Task implements Subscription {
+        private final AtomicBoolean unsubscribed = new AtomicBoolean();
+        private final Action0 action;
+        // thread running the action, guarded by this so it is never interrupted once the action returned
+        private Thread runner;
+
+        private Task(Action0 action) {
+            this.action = action;
+        }
+
+        private void runOnPoolThread() {
+            try {
+                run();
+            } catch (Throwable t) {
+                // the other tasks of the lane must still run
+                RxJavaHooks.onError(t);
+            }
+            // an interrupt aimed at the task must not reach the next one
+            Thread.interrupted();
+        }
+
+        private void run() {
+            // skipped if unsubscribed while waiting in its lane
+            if (unsubscribed.compareAndSet(false, true)) {
+                synchronized (this) {
+                    runner = Thread.currentThread();
+                }
+                try {
+                    action.call();
+                } finally {
+                    synchronized (this) {
+                        runner = null;
+                    }
+                }
+            }
+        }
+
+        private synchronized void interrupt() {
+            if (runner != null) {
+                runner.interrupt();
+            }
+        }
+
+        @Override
+        public void unsubscribe() {
+            unsubscribed.set(true);
+        }
+
+        @Override
+        public boolean isUnsubscribed() {
+            return unsubscribed.get();
+        }
+    }
+
+    /**
+     * Each command subscribes on its own worker and schedules a single action, like the workers of
+     * {@link com.netflix.hystrix.strategy.concurrency.HystrixContextScheduler}.
+     */
+    private final class BatchWorker extends Scheduler.Worker {
+        private final Func0<Boolean> shouldInterruptThread;
+        private volatile boolean unsubscribed;
+        private volatile Task task;
+
+        private BatchWorker(Func0<Boolean> shouldInterruptThread) {
+            this.shouldInterruptThread = shouldInterruptThread;
+        }
+
+        @Override
+        public Subscription schedule(Action0 action) {
+            if (unsubscribed) {
+                // don't schedule, we are unsubscribed
+                return Subscriptions.unsubscribed();
+            }
+            Task t = new Task(new HystrixContextSchedulerAction(concurrencyStrategy, action));
+            ThreadPoolBatch.this.schedule(t);
+            task = t;
+            return t;
+        }
+
+        @Override
+        public Subscription schedule(Action0 action, long delayTime, TimeUnit unit) {
+            throw new IllegalStateException("Hystrix does not support delayed scheduling");
+        }
+
+        @Override
+        public void unsubscribe() {
+            unsubscribed = true;
+            Task t = task;
+            if (t != null) {
+                t.unsubscribe();
+                if (shouldInterruptThread.call()) {
+                    t.interrupt();
+                }
+            }
+        }
+
+        @Override
+        public boolean isUnsubscribed() {
+            return unsubscribed;
+        }
+    }
+}
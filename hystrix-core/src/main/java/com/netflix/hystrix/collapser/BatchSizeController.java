@@ -0,0 +1,152 @@
+/*
+ * Copyright 2016 Netflix, Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.netflix.hystrix.collapser;
+
+import com.netflix.hystrix.HystrixCollapserProperties;
+
+import java.util.concurrent.atomic.AtomicBoolean;
+
+/**
+ * Chooses the maximum batch size of a collapser from the measured batch latency per batch size.
+ * <p>
+ * Batch sizes are grouped in power-of-2 buckets and the latency of each bucket is tracked as an exponentially weighted moving average.
+ * Every {@link #TUNE_INTERVAL} recorded batches the bucket with the highest throughput (size / latency) whose latency stays within
+ * {@link HystrixCollapserProperties#adaptiveBatchSizeLatencyTargetInMilliseconds()} is chosen:
+ * <ul>
+ * <li>if it is the largest bucket measured so far, the next bucket up is probed</li>
+ * <li>if no bucket is within the target, the size is halved</li>
+ * </ul>
+ * Buckets that were not measured for {@link #FORGET_AFTER_TUNES} tuning intervals are forgotten so sizes that were too slow are probed
+ * again when the backend load changes.
+ * <p>
+ * The chosen size never exceeds {@link HystrixCollapserProperties#maxRequestsInBatch()}.
+ * <p>
+ * There is one instance per collapser key, shared by all its RequestCollapsers. Recording does not block: a latency recorded while
+ * another thread is recording is dropped, the moving averages do not need every batch.
+ *
+ * @ThreadSafe
+ */
+/* package */class BatchSizeController {
+    /* package for tests */static final int TUNE_INTERVAL = 10;
+    /* package for tests */static final int FORGET_AFTER_TUNES = 10;
+    private static final int BUCKETS = 32;
+    private static final double WEIGHT = 0.3;
+
+    private final HystrixCollapserProperties properties;
+    // per bucket: bucket i holds the batch sizes in (2^(i-1), 2^i]
+    private final double[] latency = new double[BUCKETS];
+    private final boolean[] measured = new boolean[BUCKETS];
+    private final long[] lastMeasuredTune = new long[BUCKETS];
+    // guards the measurements, only one thread records at a time
+    private final AtomicBoolean recording = new AtomicBoolean();
+    private int recordedSinceTune = 0;
+    private long tunes = 0;
+    // Integer.MAX_VALUE until the first tuning so the initial batch sizes are only limited by maxRequestsInBatch
+    private volatile int maxBatchSize = Integer.MAX_VALUE;
+
+    /* package */BatchSizeController(HystrixCollapserProperties properties) {
+        this.properties = properties;
+    }
+
+    /**
+     * @return the maximum batch size for new batches
+     */
+    /* package */int getMaxBatchSize() {
+        return Math.min(maxBatchSize, properties.maxRequestsInBatch().get());
+    }
+
+    /**
+     * Record the latency of a dispatched batch (from creating its command until its responses are mapped).
+     * <p>
+     * It is dropped if another thread is recording at the same time.
+     *
+     * @param batchSize number of requests in the batch
+     * @param latencyInMilliseconds latency of the batch command
+     */
+    /* package */void record(int batchSize, long latencyInMilliseconds) {
+        if (batchSize <= 0 || !recording.compareAndSet(false, true)) {
+            return;
+        }
+        try {
+            recordWhileGuarded(batchSize, latencyInMilliseconds);
+        } finally {
+            recording.set(false);
+        }
+    }
+
+    private void recordWhileGuarded(int batchSize, long latencyInMilliseconds) {
+        int bucket = bucketOf(batchSize);
+        if (measured[bucket]) {
+            latency[bucket] = latency[bucket] * (1 - WEIGHT) + latencyInMilliseconds * WEIGHT;
+        } else {
+            latency[bucket] = latencyInMilliseconds;
+            measured[bucket] = true;
+        }
+        lastMeasuredTune[bucket] = tunes;
+
+        if (++recordedSinceTune >= TUNE_INTERVAL) {
+            tune();
+        }
+    }
+
+    private void tune() {
+        recordedSinceTune = 0;
+        tunes++;
+
+        int latencyTarget = properties.adaptiveBatchSizeLatencyTargetInMilliseconds().get();
+        int best = -1;
+        int largest = -1;
+        double bestThroughput = 0;
+        for (int bucket = 0; bucket < BUCKETS; bucket++) {
+            if (measured[bucket] && tunes - lastMeasuredTune[bucket] > FORGET_AFTER_TUNES) {
+                measured[bucket] = false;
+            }
+            if (!measured[bucket]) {
+                continue;
+            }
+            largest = bucket;
+            if (latency[bucket] <= latencyTarget) {
+                double throughput = sizeOf(bucket) / Math.max(latency[bucket], 1);
+                if (throughput > bestThroughput) {
+                    bestThroughput = throughput;
+                    best = bucket;
+                }
+            }
+        }
+
+        if (largest == -1) {
+            // nothing measured recently
+            return;
+        }
+        if (best == -1) {
+            // every measured size is too slow so back off
+            maxBatchSize = Math.max(1, Math.min(maxBatchSize, sizeOf(largest)) / 2);
+        } else if (best == largest && best < BUCKETS - 1) {
+            // the largest size is still within the target so probe the next size up
+            maxBatchSize = sizeOf(best + 1);
+        } else {
+            maxBatchSize = sizeOf(best);
+        }
+    }
+
+    private static int bucketOf(int batchSize) {
+        return 32 - Integer.numberOfLeadingZeros(batchSize - 1);
+    }
+
+    private static int sizeOf(int bucket) {
+        return bucket >= 31 ? Integer.MAX_VALUE : 1 << bucket;
+    }
+}
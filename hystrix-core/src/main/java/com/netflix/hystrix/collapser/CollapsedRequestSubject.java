@@ -19,6 +19,8 @@ import com.netflix.hystrix.HystrixCollapser.CollapsedRequest;
 import rx.Observable;
 import rx.subjects.ReplaySubject;
 
+import java.util.NoSuchElementException;
+import java.util.concurrent.CompletableFuture;
 import java.util.concurrent.atomic.AtomicBoolean;
 import java.util.concurrent.atomic.AtomicInteger;
 
@@ -37,19 +39,29 @@ import java.util.concurrent.atomic.AtomicInteger;
  * This is an internal implementation of CollapsedRequest<T, R> functionality.  Instead of directly extending {@link rx.Observable},
  * it provides a {@link #toObservable()} method
  * <p>
+ * Callers that do not use Rx can use {@link #toCompletableFuture()} instead. Those futures are completed directly when the response is set,
+ * without subscribing to the Observable.
+ * <p>
  *
  * @param <T>
  * 
  * @param <R>
  */
 /* package */class CollapsedRequestSubject<T, R> implements CollapsedRequest<T, R> {
-    private final R argument;
+    // only replaced by mergeArgument while the batch accepts offers
+    private volatile R argument;
 
     private AtomicBoolean valueSet = new AtomicBoolean(false);
     private final ReplaySubject<T> subject = ReplaySubject.create();
     private final Observable<T> subjectWithAccounting;
 
+    // only created when a caller asks for a CompletableFuture
+    private volatile CompletableFuture<T> responseFuture;
+
     private AtomicInteger outstandingSubscriptions = new AtomicInteger();
+    private final Runnable releaseSubscription;
+    // null if it is not part of a batch
+    private final RequestBatch<?, T, R> containingBatch;
 
     public CollapsedRequestSubject(final R arg, final RequestBatch<?, T, R> containingBatch) {
         if (arg == RequestCollapser.NULL_SENTINEL) {
@@ -57,18 +69,30 @@ import java.util.concurrent.atomic.AtomicInteger;
         } else {
             this.argument = arg;
         }
+        this.containingBatch = containingBatch;
+        this.releaseSubscription = () -> {
+            if (outstandingSubscriptions.decrementAndGet() == 0) {
+                containingBatch.remove(arg);
+            }
+        };
         this.subjectWithAccounting = subject
                 .doOnSubscribe(() -> outstandingSubscriptions.getAndIncrement())
-                .doOnUnsubscribe(() -> {
-                    if (outstandingSubscriptions.decrementAndGet() == 0) {
-                        containingBatch.remove(arg);
-                    }
-                });
+                .doOnUnsubscribe(releaseSubscription::run);
     }
 
     public CollapsedRequestSubject(final R arg) {
         this.subjectWithAccounting = subject;
         this.argument = arg;
+        this.containingBatch = null;
+        this.releaseSubscription = () -> {
+        };
+    }
+
+    /**
+     * @return the batch this request is part of, null if it only carries an error back to the caller
+     */
+    /* package */RequestBatch<?, T, R> getContainingBatch() {
+        return containingBatch;
     }
 
     /**
@@ -81,6 +105,22 @@ import java.util.concurrent.atomic.AtomicInteger;
         return argument;
     }
 
+    /**
+     * Fold an update into the argument, for collapsers that coalesce writes.
+     *
+     * @param update argument equal to this one that was offered to the same batch
+     * @param commandCollapser collapser that does the merging
+     * @return true if merged, false if the collapser does not merge arguments
+     */
+    /* package */synchronized boolean mergeArgument(R update, HystrixCollapserBridge<?, T, R> commandCollapser) {
+        R merged = commandCollapser.mergeRequestArguments(argument, update);
+        if (merged == null) {
+            return false;
+        }
+        argument = merged;
+        return true;
+    }
+
     /**
      * When set any client thread blocking on get() will immediately be unblocked and receive the single-valued response.
      * 
@@ -94,6 +134,7 @@ import java.util.concurrent.atomic.AtomicInteger;
             subject.onNext(response);
             valueSet.set(true);
             subject.onCompleted();
+            completeResponseFutureIfCreated();
         } else {
             throw new IllegalStateException("Response has already terminated so response can not be set : " + response);
         }
@@ -117,6 +158,7 @@ import java.util.concurrent.atomic.AtomicInteger;
     public void setComplete() {
         if (isNotTerminated()) {
             subject.onCompleted();
+            completeResponseFutureIfCreated();
         }
     }
 
@@ -128,6 +170,7 @@ import java.util.concurrent.atomic.AtomicInteger;
     public void setExceptionIfResponseNotReceived(Exception e) {
         if (!valueSet.get() && isNotTerminated()) {
             subject.onError(e);
+            completeResponseFutureIfCreated();
         }
     }
 
@@ -161,6 +204,7 @@ import java.util.concurrent.atomic.AtomicInteger;
     public void setException(Exception e) {
         if (isNotTerminated()) {
             subject.onError(e);
+            completeResponseFutureIfCreated();
         } else {
             throw new IllegalStateException("Response has already terminated so exception can not be set", e);
         }
@@ -173,4 +217,67 @@ import java.util.concurrent.atomic.AtomicInteger;
     public Observable<T> toObservable() {
         return subjectWithAccounting;
     }
+
+    /**
+     * A future for the single-valued response, completed directly when the response is set.
+     * <p>
+     * Each call returns a new future that counts as a subscription: when all subscriptions and futures are cancelled before the batch is executed,
+     * the argument is removed from the batch.
+     *
+     * @return CompletableFuture of the response
+     */
+    public CompletableFuture<T> toCompletableFuture() {
+        final CompletableFuture<T> response = getOrCreateResponseFuture();
+        final CompletableFuture<T> future = new CompletableFuture<>();
+        outstandingSubscriptions.getAndIncrement();
+        future.whenComplete((value, throwable) -> releaseSubscription.run());
+        response.whenComplete((value, throwable) -> {
+            if (throwable != null) {
+                future.completeExceptionally(throwable);
+            } else {
+                future.complete(value);
+            }
+        });
+        return future;
+    }
+
+    private CompletableFuture<T> getOrCreateResponseFuture() {
+        CompletableFuture<T> response = responseFuture;
+        if (response == null) {
+            synchronized (this) {
+                response = responseFuture;
+                if (response == null) {
+                    response = new CompletableFuture<>();
+                    responseFuture = response;
+                }
+            }
+            // the response may have been set before the future was published
+            completeResponseFuture(response);
+        }
+        return response;
+    }
+
+    private void completeResponseFutureIfCreated() {
+        CompletableFuture<T> response = responseFuture;
+        if (response != null) {
+            completeResponseFuture(response);
+        }
+    }
+
+    /*
+     * Same outcome as Observable.single() on the subject, so futures behave like toObservable().toBlocking().toFuture().
+     */
+    private void completeResponseFuture(CompletableFuture<T> response) {
+        if (subject.hasThrowable()) {
+            response.completeExceptionally(subject.getThrowable());
+        } else if (subject.hasCompleted()) {
+            if (!subject.hasValue()) {
+                response.completeExceptionally(new NoSuchElementException("Sequence contains no elements"));
+            } else if (subject.size() > 1) {
+                response.completeExceptionally(new IllegalArgumentException("Sequence contains too many elements"));
+            } else {
+                response.complete(subject.getValue());
+            }
+        }
+    }
 }
@@ -38,4 +38,27 @@ public interface HystrixCollapserBridge<BatchReturnType, ResponseType, RequestAr
 
     HystrixCollapserKey getCollapserKey();
 
+    /**
+     * Fold an argument into an equal argument that is already in the open batch.
+     * 
+     * @return merged argument, or null if duplicate arguments are not merged (the default)
+     */
+    default RequestArgumentType mergeRequestArguments(RequestArgumentType existing, RequestArgumentType update) {
+        return null;
+    }
+
+    /**
+     * @return tenant the argument is submitted for, or null if the argument is not subject to tenant quotas (the default)
+     */
+    default Object getTenantKey(RequestArgumentType requestArgument) {
+        return null;
+    }
+
+    /**
+     * @return multiplier of the batch share of the tenant, 1 by default
+     */
+    default int getTenantWeight(Object tenantKey) {
+        return 1;
+    }
+
 }
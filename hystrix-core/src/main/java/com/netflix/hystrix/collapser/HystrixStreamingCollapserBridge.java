@@ -0,0 +1,44 @@
+/*
+ * Copyright 2016 Netflix, Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.netflix.hystrix.collapser;
+
+import com.netflix.hystrix.HystrixCollapser.CollapsedRequest;
+import com.netflix.hystrix.HystrixCollapserKey;
+import rx.Observable;
+
+/**
+ * Bridge between HystrixStreamingCollapser and StreamingRequestCollapser to expose 'protected' and 'private' functionality across packages.
+ *
+ * @param <K>
+ * @param <BatchReturnType>
+ * @param <ResponseType>
+ * @param <RequestArgumentType>
+ */
+public interface HystrixStreamingCollapserBridge<K, BatchReturnType, ResponseType, RequestArgumentType> {
+
+    Observable<BatchReturnType> createObservableCommand(Observable<RequestArgumentType> requestArguments);
+
+    K getRequestArgumentKey(RequestArgumentType requestArgument);
+
+    K getBatchReturnTypeKey(BatchReturnType batchReturn);
+
+    ResponseType mapBatchReturnTypeToResponseType(BatchReturnType batchReturn);
+
+    void onMissingResponse(CollapsedRequest<ResponseType, RequestArgumentType> request);
+
+    HystrixCollapserKey getCollapserKey();
+
+}
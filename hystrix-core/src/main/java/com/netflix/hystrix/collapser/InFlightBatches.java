@@ -0,0 +1,51 @@
+/*
+ * Copyright 2016 Netflix, Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.netflix.hystrix.collapser;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+
+/**
+ * The batch commands of a RequestCollapser that were dispatched and did not terminate yet, for {@link RequestCollapserSnapshot}.
+ *
+ * @ThreadSafe
+ */
+/* package */final class InFlightBatches {
+    // keyed by a token per dispatched command, Object uses identity for equals/hashCode
+    private final ConcurrentMap<Object, Long> startTimes = new ConcurrentHashMap<>();
+
+    /* package */void begin(Object token, long startTime) {
+        startTimes.put(token, startTime);
+    }
+
+    /* package */void end(Object token) {
+        startTimes.remove(token);
+    }
+
+    /**
+     * @param now current time in milliseconds
+     * @return how long each in-flight batch command has been running
+     */
+    /* package */List<Long> getDurationsInMilliseconds(long now) {
+        List<Long> durations = new ArrayList<>(startTimes.size());
+        for (Long startTime : startTimes.values()) {
+            durations.add(now - startTime);
+        }
+        return durations;
+    }
+}
@@ -15,20 +15,27 @@
  */
 package com.netflix.hystrix.collapser;
 
+import com.netflix.hystrix.util.HystrixHighResolutionTimer;
+import com.netflix.hystrix.util.HystrixHighResolutionTimer.HighResolutionTimerListener;
 import com.netflix.hystrix.util.HystrixTimer;
 import com.netflix.hystrix.util.HystrixTimer.TimerListener;
 
 import java.lang.ref.Reference;
 
 /**
- * Actual CollapserTimer implementation for triggering batch execution that uses HystrixTimer.
+ * Actual CollapserTimer implementation for triggering batch execution that uses HystrixTimer, or HystrixHighResolutionTimer for sub-millisecond intervals.
  */
 public class RealCollapserTimer implements CollapserTimer {
     /* single global timer that all collapsers will schedule their tasks on */
     private final static HystrixTimer timer = HystrixTimer.getInstance();
+    /* single global timer for the collapsers that opted in to sub-millisecond intervals */
+    private final static HystrixHighResolutionTimer highResolutionTimer = HystrixHighResolutionTimer.getInstance();
 
     @Override
     public Reference<TimerListener> addListener(TimerListener collapseTask) {
+        if (collapseTask instanceof HighResolutionTimerListener && ((HighResolutionTimerListener) collapseTask).getIntervalTimeInMicroseconds() > 0) {
+            return highResolutionTimer.addTimerListener((HighResolutionTimerListener) collapseTask);
+        }
         return timer.addTimerListener(collapseTask);
     }
 
@@ -17,16 +17,28 @@ package com.netflix.hystrix.collapser;
 
 import com.netflix.hystrix.HystrixCollapser.CollapsedRequest;
 import com.netflix.hystrix.HystrixCollapserProperties;
+import com.netflix.hystrix.HystrixCollapserProperties.TenantQuotaOverflowPolicy;
+import com.netflix.hystrix.strategy.HystrixPlugins;
+import com.netflix.hystrix.strategy.executionhook.HystrixCollapserExecutionHook;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
+import rx.Notification;
 import rx.Observable;
 import rx.functions.Action0;
 import rx.functions.Action1;
+import rx.functions.Func0;
 
+import java.util.ArrayList;
 import java.util.Collection;
+import java.util.List;
+import java.util.concurrent.CompletableFuture;
 import java.util.concurrent.ConcurrentHashMap;
 import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.RejectedExecutionException;
 import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicReference;
 import java.util.concurrent.locks.ReentrantReadWriteLock;
 
 /**
@@ -40,31 +52,120 @@ public class RequestBatch<BatchReturnType, ResponseType, RequestArgumentType> {
 
     private static final Logger logger = LoggerFactory.getLogger(RequestBatch.class);
 
+    // returned while locked for a request of a tenant over its quota, which is then added to the successor outside of the lock
+    private static final CollapsedRequestSubject<?, ?> DEFERRED = new CollapsedRequestSubject<>(null);
+
     private final HystrixCollapserBridge<BatchReturnType, ResponseType, RequestArgumentType> commandCollapser;
     private final int maxBatchSize;
+    private final boolean shareDuplicateArguments;
+    // null unless the maximum batch size is adaptive
+    private final BatchSizeController batchSizeController;
+    // null if requests of tenants over their quota can not be deferred to a next batch
+    private final Func0<RequestBatch<BatchReturnType, ResponseType, RequestArgumentType>> successorFactory;
+    // the next batch, created when the first request is deferred to it or when this batch is replaced in the RequestCollapser
+    private final AtomicReference<RequestBatch<BatchReturnType, ResponseType, RequestArgumentType>> successor = new AtomicReference<>();
+    private final ConcurrentMap<Object, AtomicInteger> tenantRequestCounts = new ConcurrentHashMap<>();
     private final AtomicBoolean batchStarted = new AtomicBoolean();
+    // null if the dispatched commands are not tracked
+    private final InFlightBatches inFlightBatches;
+    // 0 until the first request is added
+    private final AtomicLong firstRequestTime = new AtomicLong();
 
     private final ConcurrentMap<RequestArgumentType, CollapsedRequest<ResponseType, RequestArgumentType>> argumentMap =
             new ConcurrentHashMap<>();
     private final HystrixCollapserProperties properties;
+    private final HystrixCollapserExecutionHook executionHook;
 
     private ReentrantReadWriteLock batchLock = new ReentrantReadWriteLock();
 
     public RequestBatch(HystrixCollapserProperties properties, HystrixCollapserBridge<BatchReturnType, ResponseType, RequestArgumentType> commandCollapser, int maxBatchSize) {
+        this(properties, commandCollapser, maxBatchSize, false);
+    }
+
+    /**
+     * @param shareDuplicateArguments if true and request caching is off, a duplicate argument shares the response of the argument already in the batch instead of getting an error
+     */
+    /* package */RequestBatch(HystrixCollapserProperties properties, HystrixCollapserBridge<BatchReturnType, ResponseType, RequestArgumentType> commandCollapser, int maxBatchSize, boolean shareDuplicateArguments) {
+        this(properties, commandCollapser, maxBatchSize, shareDuplicateArguments, null, null, null);
+    }
+
+    /**
+     * @param shareDuplicateArguments if true and request caching is off, a duplicate argument shares the response of the argument already in the batch instead of getting an error
+     * @param batchSizeController if not null, the latency of each dispatched shard is recorded to it
+     * @param successorFactory if not null, creates the next batch that requests of tenants over their quota are deferred to
+     * @param inFlightBatches if not null, each dispatched shard command is tracked in it until it terminates
+     */
+    /* package */RequestBatch(HystrixCollapserProperties properties, HystrixCollapserBridge<BatchReturnType, ResponseType, RequestArgumentType> commandCollapser, int maxBatchSize, boolean shareDuplicateArguments, BatchSizeController batchSizeController,
+            Func0<RequestBatch<BatchReturnType, ResponseType, RequestArgumentType>> successorFactory, InFlightBatches inFlightBatches) {
         this.properties = properties;
         this.commandCollapser = commandCollapser;
         this.maxBatchSize = maxBatchSize;
+        this.shareDuplicateArguments = shareDuplicateArguments;
+        this.batchSizeController = batchSizeController;
+        this.successorFactory = successorFactory;
+        this.inFlightBatches = inFlightBatches;
+        this.executionHook = HystrixPlugins.getInstance().getCollapserExecutionHook();
+    }
+
+    /**
+     * Called by the RequestCollapser once this batch is installed as its current batch, so batches that are discarded or only hold deferred requests
+     * until then are not reported.
+     */
+    /* package */void onInstalled() {
+        try {
+            executionHook.onBatchCreated(commandCollapser.getCollapserKey());
+        } catch (Throwable hookEx) {
+            logger.warn("Error calling HystrixCollapserExecutionHook.onBatchCreated", hookEx);
+        }
+    }
+
+    /**
+     * The batch that follows this one, which may already hold requests deferred because their tenant was over its quota.
+     *
+     * @return the successor of this batch, created if needed
+     */
+    /* package */RequestBatch<BatchReturnType, ResponseType, RequestArgumentType> getOrCreateSuccessor() {
+        RequestBatch<BatchReturnType, ResponseType, RequestArgumentType> next = successor.get();
+        if (next == null) {
+            RequestBatch<BatchReturnType, ResponseType, RequestArgumentType> newBatch = successorFactory.call();
+            if (successor.compareAndSet(null, newBatch)) {
+                return newBatch;
+            }
+            next = successor.get();
+        }
+        return next;
     }
 
     /**
      * @return Observable if offer accepted, null if batch is full, already started or completed
      */
     public Observable<ResponseType> offer(RequestArgumentType arg) {
+        CollapsedRequestSubject<ResponseType, RequestArgumentType> collapsedRequest = add(arg);
+        return collapsedRequest != null ? collapsedRequest.toObservable() : null;
+    }
+
+    /**
+     * Same as {@link #offer} but the response is delivered through a {@link CompletableFuture} that is completed directly when the response is set.
+     *
+     * @return CompletableFuture if offer accepted, null if batch is full, already started or completed
+     */
+    public CompletableFuture<ResponseType> offerAsync(RequestArgumentType arg) {
+        CollapsedRequestSubject<ResponseType, RequestArgumentType> collapsedRequest = add(arg);
+        return collapsedRequest != null ? collapsedRequest.toCompletableFuture() : null;
+    }
+
+    /**
+     * @return the request if accepted, null if batch is full, already started or completed. A request of a tenant over its quota may be accepted by
+     *         the successor of this batch instead, see {@link CollapsedRequestSubject#getContainingBatch()}.
+     */
+    /* package */CollapsedRequestSubject<ResponseType, RequestArgumentType> add(RequestArgumentType arg) {
         /* short-cut - if the batch is started we reject the offer */
         if (batchStarted.get()) {
             return null;
         }
 
+        final CollapsedRequestSubject<ResponseType, RequestArgumentType> collapsedRequest;
+        final RequestBatch<BatchReturnType, ResponseType, RequestArgumentType> next;
         /*
          * The 'read' just means non-exclusive even though we are writing.
          */
@@ -75,42 +176,222 @@ public class RequestBatch<BatchReturnType, ResponseType, RequestArgumentType> {
                     return null;
                 }
 
-                if (argumentMap.size() >= maxBatchSize) {
-                    return null;
-                } else {
-                    CollapsedRequestSubject<ResponseType, RequestArgumentType> collapsedRequest =
-                            new CollapsedRequestSubject<>(arg, this);
-                    final CollapsedRequestSubject<ResponseType, RequestArgumentType> existing = (CollapsedRequestSubject<ResponseType, RequestArgumentType>) argumentMap.putIfAbsent(arg, collapsedRequest);
-                    /*
-                     * If the argument already exists in the batch, then there are 2 options:
-                     * A) If request caching is ON (the default): only keep 1 argument in the batch and let all responses
-                     * be hooked up to that argument
-                     * B) If request caching is OFF: return an error to all duplicate argument requests
-                     *
-                     * This maintains the invariant that each batch has no duplicate arguments.  This prevents the impossible
-                     * logic (in a user-provided mapResponseToRequests for HystrixCollapser and the internals of HystrixObservableCollapser)
-                     * of trying to figure out which argument of a set of duplicates should get attached to a response.
-                     *
-                     * See https://github.com/Netflix/Hystrix/pull/1176 for further discussion.
-                     */
-                    if (existing != null) {
-                        boolean requestCachingEnabled = properties.requestCacheEnabled().get();
-                        if (requestCachingEnabled) {
-                            return existing.toObservable();
-                        } else {
-                            return Observable.error(new IllegalArgumentException("Duplicate argument in collapser batch : [" + arg + "]  This is not supported.  Please turn request-caching on for HystrixCollapser:" + commandCollapser.getCollapserKey().name() + " or prevent duplicates from making it into the batch!"));
+                collapsedRequest = addWhileLocked(arg, true);
+                if (collapsedRequest != DEFERRED) {
+                    return collapsedRequest;
+                }
+                // taken while locked as this batch drops its successor once it is dispatched
+                next = getOrCreateSuccessor();
+            } finally {
+                batchLock.readLock().unlock();
+            }
+        } else {
+            return null;
+        }
+        return deferTo(next, arg);
+    }
+
+    /*
+     * The successor does not defer any further: a tenant over its quota there as well is rejected, so at most one quota per tenant is deferred.
+     */
+    private CollapsedRequestSubject<ResponseType, RequestArgumentType> deferTo(RequestBatch<BatchReturnType, ResponseType, RequestArgumentType> next, RequestArgumentType arg) {
+        CollapsedRequestSubject<ResponseType, RequestArgumentType> collapsedRequest = null;
+        if (!next.batchStarted.get() && next.batchLock.readLock().tryLock()) {
+            try {
+                if (!next.batchStarted.get()) {
+                    collapsedRequest = next.addWhileLocked(arg, false);
+                }
+            } finally {
+                next.batchLock.readLock().unlock();
+            }
+        }
+        if (collapsedRequest == null) {
+            // the successor is full or already started
+            return rejected(arg, "Tenant [" + commandCollapser.getTenantKey(arg) + "] exceeded its quota and the next batch can not take the request either in HystrixCollapser:" + commandCollapser.getCollapserKey().name());
+        }
+        return collapsedRequest;
+    }
+
+    /**
+     * Offer all arguments from <code>fromIndex</code> on, taking the lock only once for the whole bulk offer.
+     *
+     * @param args arguments to offer
+     * @param fromIndex index of the first argument to offer
+     * @param accepted each accepted request is added to this in the order of the arguments, requests of tenants over their quota may be accepted by
+     *            the successor of this batch instead
+     * @return index of the first argument that was not accepted, or <code>args.size()</code> if all were accepted
+     */
+    /* package */int offerAll(List<RequestArgumentType> args, int fromIndex, List<CollapsedRequestSubject<ResponseType, RequestArgumentType>> accepted) {
+        /* short-cut - if the batch is started we reject the offer */
+        if (batchStarted.get()) {
+            return fromIndex;
+        }
+
+        int index = fromIndex;
+        List<Integer> deferredIndexes = null;
+        RequestBatch<BatchReturnType, ResponseType, RequestArgumentType> next = null;
+        if (batchLock.readLock().tryLock()) {
+            try {
+                /* double-check now that we have the lock - if the batch is started we reject the offer */
+                if (batchStarted.get()) {
+                    return fromIndex;
+                }
+
+                while (index < args.size()) {
+                    CollapsedRequestSubject<ResponseType, RequestArgumentType> collapsedRequest = addWhileLocked(args.get(index), true);
+                    if (collapsedRequest == null) {
+                        break;
+                    }
+                    if (collapsedRequest == DEFERRED) {
+                        if (deferredIndexes == null) {
+                            deferredIndexes = new ArrayList<>();
+                            // taken while locked as this batch drops its successor once it is dispatched
+                            next = getOrCreateSuccessor();
                         }
-                    } else {
-                        return collapsedRequest.toObservable();
+                        deferredIndexes.add(index);
+                        // the position is filled in once the lock is released
+                        collapsedRequest = null;
                     }
-
+                    accepted.add(collapsedRequest);
+                    index++;
                 }
             } finally {
                 batchLock.readLock().unlock();
             }
+        }
+        if (deferredIndexes != null) {
+            for (int deferredIndex : deferredIndexes) {
+                accepted.set(deferredIndex, deferTo(next, args.get(deferredIndex)));
+            }
+        }
+        return index;
+    }
+
+    /*
+     * Returns DEFERRED if the request is over its tenant quota and deferrable, it must then be added to the successor once the lock is released.
+     */
+    private CollapsedRequestSubject<ResponseType, RequestArgumentType> addWhileLocked(RequestArgumentType arg, boolean deferrable) {
+        if (argumentMap.size() >= maxBatchSize) {
+            return null;
         } else {
+            CollapsedRequestSubject<ResponseType, RequestArgumentType> existing = (CollapsedRequestSubject<ResponseType, RequestArgumentType>) argumentMap.get(arg);
+            if (existing == null) {
+                /*
+                 * The tenant quota is checked before the request can be found in the batch: a request taken out of the batch again would leave
+                 * the duplicates attached to it meanwhile without a response.
+                 */
+                CollapsedRequestSubject<ResponseType, RequestArgumentType> overQuota = admitTenant(arg, deferrable);
+                if (overQuota != null) {
+                    return overQuota;
+                }
+                CollapsedRequestSubject<ResponseType, RequestArgumentType> collapsedRequest = new CollapsedRequestSubject<>(arg, this);
+                existing = (CollapsedRequestSubject<ResponseType, RequestArgumentType>) argumentMap.putIfAbsent(arg, collapsedRequest);
+                if (existing == null) {
+                    if (firstRequestTime.get() == 0) {
+                        firstRequestTime.compareAndSet(0, System.currentTimeMillis());
+                    }
+                    return collapsedRequest;
+                }
+                // an equal argument was added meanwhile and holds the slot of the tenant
+                releaseTenantSlot(arg);
+            }
+            /*
+             * If the argument already exists in the batch, then there are 4 options:
+             * 0) If the collapser merges arguments (write coalescing): fold the argument into the existing one
+             * and let all responses be hooked up to the merged argument
+             * A) If request caching is ON (the default): only keep 1 argument in the batch and let all responses
+             * be hooked up to that argument
+             * B) If request caching is OFF: return an error to all duplicate argument requests
+             * C) If request caching is OFF and duplicates are shared (HYBRID scope, where the duplicates usually
+             * come from different user requests): hook the duplicate up to the argument already in the batch, the batch
+             * only shares the backend call while the request cache stays per user request
+             *
+             * This maintains the invariant that each batch has no duplicate arguments.  This prevents the impossible
+             * logic (in a user-provided mapResponseToRequests for HystrixCollapser and the internals of HystrixObservableCollapser)
+             * of trying to figure out which argument of a set of duplicates should get attached to a response.
+             *
+             * See https://github.com/Netflix/Hystrix/pull/1176 for further discussion.
+             */
+            if (arg != RequestCollapser.NULL_SENTINEL && existing.mergeArgument(arg, commandCollapser)) {
+                return existing;
+            }
+            boolean requestCachingEnabled = properties.requestCacheEnabled().get();
+            if (requestCachingEnabled || shareDuplicateArguments) {
+                return existing;
+            } else {
+                // not part of the batch, it only carries the error back to the caller
+                CollapsedRequestSubject<ResponseType, RequestArgumentType> duplicate = new CollapsedRequestSubject<>(arg);
+                duplicate.setException(new IllegalArgumentException("Duplicate argument in collapser batch : [" + arg + "]  This is not supported.  Please turn request-caching on for HystrixCollapser:" + commandCollapser.getCollapserKey().name() + " or prevent duplicates from making it into the batch!"));
+                return duplicate;
+            }
+        }
+    }
+
+    /*
+     * Weighted tenant quota: a tenant may take maxShareOfBatchPercentage * weight percent of the batch. A request of a tenant over its quota is
+     * deferred to the next batch or rejected, so one tenant flooding the collapser does not push the requests of the others into later batches.
+     *
+     * Returns null once the request took a slot of its tenant, or the deferred or rejected request if the tenant is over its quota.
+     */
+    private CollapsedRequestSubject<ResponseType, RequestArgumentType> admitTenant(RequestArgumentType arg, boolean deferrable) {
+        int maxShareOfBatchPercentage = properties.tenantQuotaMaxShareOfBatchPercentage().get();
+        if (maxShareOfBatchPercentage >= 100 || arg == RequestCollapser.NULL_SENTINEL) {
             return null;
         }
+        Object tenantKey = commandCollapser.getTenantKey(arg);
+        if (tenantKey == null) {
+            return null;
+        }
+
+        long quota = Math.max(1, (long) maxBatchSize * maxShareOfBatchPercentage * commandCollapser.getTenantWeight(tenantKey) / 100);
+        AtomicInteger tenantRequestCount = tenantRequestCounts.get(tenantKey);
+        if (tenantRequestCount == null) {
+            AtomicInteger newCount = new AtomicInteger();
+            tenantRequestCount = tenantRequestCounts.putIfAbsent(tenantKey, newCount);
+            if (tenantRequestCount == null) {
+                tenantRequestCount = newCount;
+            }
+        }
+        if (tenantRequestCount.incrementAndGet() <= quota) {
+            return null;
+        }
+
+        // over quota so it is not part of this batch
+        tenantRequestCount.decrementAndGet();
+        if (deferrable && properties.tenantQuotaOverflowPolicy().get() == TenantQuotaOverflowPolicy.DEFER && successorFactory != null) {
+            return deferred();
+        } else {
+            return rejected(arg, "Tenant [" + tenantKey + "] exceeded its quota of " + quota + " requests in a batch of HystrixCollapser:" + commandCollapser.getCollapserKey().name());
+        }
+    }
+
+    private void releaseTenantSlot(RequestArgumentType arg) {
+        if (!tenantRequestCounts.isEmpty() && arg != RequestCollapser.NULL_SENTINEL) {
+            Object tenantKey = commandCollapser.getTenantKey(arg);
+            AtomicInteger tenantRequestCount = tenantKey == null ? null : tenantRequestCounts.get(tenantKey);
+            if (tenantRequestCount != null) {
+                tenantRequestCount.decrementAndGet();
+            }
+        }
+    }
+
+    private CollapsedRequestSubject<ResponseType, RequestArgumentType> rejected(RequestArgumentType arg, String message) {
+        // not part of the batch, it only carries the error back to the caller
+        CollapsedRequestSubject<ResponseType, RequestArgumentType> rejected = new CollapsedRequestSubject<>(arg);
+        rejected.setException(new RejectedExecutionException(message));
+        return rejected;
+    }
+
+    @SuppressWarnings("unchecked")
+    private static <ResponseType, RequestArgumentType> CollapsedRequestSubject<ResponseType, RequestArgumentType> deferred() {
+        return (CollapsedRequestSubject<ResponseType, RequestArgumentType>) DEFERRED;
+    }
+
+    /**
+     * @return true once the batch has been dispatched (or shut down) and no longer accepts or removes arguments
+     */
+    /* package */boolean isStarted() {
+        return batchStarted.get();
     }
 
     /**
@@ -132,7 +413,9 @@ public class RequestBatch<BatchReturnType, ResponseType, RequestArgumentType> {
                     return;
                 }
 
-                argumentMap.remove(arg);
+                if (argumentMap.remove(arg) != null) {
+                    releaseTenantSlot(arg);
+                }
             } finally {
                 batchLock.readLock().unlock();
             }
@@ -159,15 +442,36 @@ public class RequestBatch<BatchReturnType, ResponseType, RequestArgumentType> {
         if (batchStarted.compareAndSet(false, true)) {
             /* wait for 'offer'/'remove' threads to finish before executing the batch so 'requests' is complete */
             batchLock.writeLock().lock();
+            // the successor is the current batch of the RequestCollapser by now, so don't keep the chain of later batches reachable from the responses of this one
+            successor.set(null);
 
             try {
                 // shard batches
                 Collection<Collection<CollapsedRequest<ResponseType, RequestArgumentType>>> shards = commandCollapser.shardRequests(argumentMap.values());
+                try {
+                    long firstRequest = firstRequestTime.get();
+                    executionHook.onBatchDispatched(commandCollapser.getCollapserKey(), argumentMap.size(), shards.size(), firstRequest > 0 ? System.currentTimeMillis() - firstRequest : 0);
+                } catch (Throwable hookEx) {
+                    logger.warn("Error calling HystrixCollapserExecutionHook.onBatchDispatched", hookEx);
+                }
                 // for each shard execute its requests 
                 for (final Collection<CollapsedRequest<ResponseType, RequestArgumentType>> shardRequests : shards) {
                     try {
+                        final long shardStartTime = System.currentTimeMillis();
+                        final Object inFlightToken = new Object();
+                        // 0 until the batch command responds (or terminates without a response)
+                        final AtomicLong firstResponseTime = new AtomicLong();
                         // create a new command to handle this batch of requests
-                        Observable<BatchReturnType> o = commandCollapser.createObservableCommand(shardRequests);
+                        Observable<BatchReturnType> o = commandCollapser.createObservableCommand(shardRequests).doOnEach(new Action1<Notification<? super BatchReturnType>>() {
+
+                            @Override
+                            public void call(Notification<? super BatchReturnType> notification) {
+                                if (firstResponseTime.get() == 0) {
+                                    firstResponseTime.compareAndSet(0, System.currentTimeMillis());
+                                }
+                            }
+
+                        });
 
                         commandCollapser.mapResponseToRequests(o, shardRequests).doOnError(new Action1<Throwable>() {
 
@@ -215,6 +519,37 @@ public class RequestBatch<BatchReturnType, ResponseType, RequestArgumentType> {
                                 }
                             }
 
+                        }).doOnSubscribe(new Action0() {
+
+                            @Override
+                            public void call() {
+                                if (inFlightBatches != null) {
+                                    inFlightBatches.begin(inFlightToken, shardStartTime);
+                                }
+                            }
+
+                        }).doOnTerminate(new Action0() {
+
+                            /**
+                             * This feeds the adaptive batch size, the snapshots of in-flight batches and the execution hook
+                             */
+                            @Override
+                            public void call() {
+                                long now = System.currentTimeMillis();
+                                if (inFlightBatches != null) {
+                                    inFlightBatches.end(inFlightToken);
+                                }
+                                if (batchSizeController != null) {
+                                    batchSizeController.record(shardRequests.size(), now - shardStartTime);
+                                }
+                                try {
+                                    long firstResponse = firstResponseTime.get();
+                                    executionHook.onBatchCompleted(commandCollapser.getCollapserKey(), shardRequests.size(), now - shardStartTime, firstResponse > 0 ? now - firstResponse : 0);
+                                } catch (Throwable hookEx) {
+                                    logger.warn("Error calling HystrixCollapserExecutionHook.onBatchCompleted", hookEx);
+                                }
+                            }
+
                         }).subscribe();
                         
                     } catch (Exception e) {
@@ -279,9 +614,21 @@ public class RequestBatch<BatchReturnType, ResponseType, RequestArgumentType> {
                 batchLock.writeLock().unlock();
             }
         }
+        // requests deferred to the successor would never be executed as it does not become the current batch anymore
+        RequestBatch<BatchReturnType, ResponseType, RequestArgumentType> next = successor.get();
+        if (next != null) {
+            next.shutdown();
+        }
     }
 
     public int getSize() {
         return argumentMap.size();
     }
+
+    /**
+     * @return time in milliseconds the first request was added to this batch, 0 if none was added yet
+     */
+    /* package */long getFirstRequestTime() {
+        return firstRequestTime.get();
+    }
 }
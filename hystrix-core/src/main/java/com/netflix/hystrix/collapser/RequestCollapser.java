@@ -18,18 +18,25 @@ package com.netflix.hystrix.collapser;
 import com.netflix.hystrix.HystrixCollapserProperties;
 import com.netflix.hystrix.strategy.concurrency.HystrixConcurrencyStrategy;
 import com.netflix.hystrix.strategy.concurrency.HystrixContextCallable;
+import com.netflix.hystrix.strategy.concurrency.HystrixRequestVariableHolder;
+import com.netflix.hystrix.util.HystrixHighResolutionTimer.HighResolutionTimerListener;
 import com.netflix.hystrix.util.HystrixTimer.TimerListener;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 import rx.Observable;
+import rx.functions.Func0;
 
 import java.lang.ref.Reference;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.List;
+import java.util.concurrent.CompletableFuture;
 import java.util.concurrent.Callable;
 import java.util.concurrent.atomic.AtomicBoolean;
 import java.util.concurrent.atomic.AtomicReference;
 
 /**
- * Requests are submitted to this and batches executed based on size or time. Scoped to either a request or the global application.
+ * Requests are submitted to this and batches executed based on size or time. Scoped to either a request, the global application or the global application with request-scoped cleanup (hybrid).
  * <p>
  * Instances of this are retrieved from the RequestCollapserFactory.
  * 
@@ -49,6 +56,11 @@ public class RequestCollapser<BatchReturnType, ResponseType, RequestArgumentType
     private final CollapserTimer timer;
     private final HystrixCollapserProperties properties;
     private final HystrixConcurrencyStrategy concurrencyStrategy;
+    // only set for HYBRID scope, where batches are shared but submissions are tracked per user request
+    private final HystrixRequestVariableHolder<RequestScopedSubmissions> requestScopedSubmissions;
+    // looks up the BatchSizeController shared by all RequestCollapsers of the collapser key, only called when the batch size is adaptive
+    private final Func0<BatchSizeController> batchSizeController;
+    private final InFlightBatches inFlightBatches = new InFlightBatches();
 
     /**
      * @param commandCollapser collapser which will create the batched requests and demultiplex the results
@@ -57,11 +69,36 @@ public class RequestCollapser<BatchReturnType, ResponseType, RequestArgumentType
      * @param concurrencyStrategy strategy for managing the {@link Callable}s generated by {@link RequestCollapser}
      */
     RequestCollapser(HystrixCollapserBridge<BatchReturnType, ResponseType, RequestArgumentType> commandCollapser, HystrixCollapserProperties properties, CollapserTimer timer, HystrixConcurrencyStrategy concurrencyStrategy) {
+        this(commandCollapser, properties, timer, concurrencyStrategy, null, null);
+    }
+
+    /**
+     * @param commandCollapser collapser which will create the batched requests and demultiplex the results
+     * @param properties collapser properties that define how collapsing occurs
+     * @param timer {@link CollapserTimer} which performs the collapsing
+     * @param concurrencyStrategy strategy for managing the {@link Callable}s generated by {@link RequestCollapser}
+     * @param requestScopedSubmissions if not null, the submissions of each user request are tracked so they can be cleaned up when the user request ends
+     * @param batchSizeController if not null, it looks up the {@link BatchSizeController} that chooses the maximum size of new batches when
+     *            {@link HystrixCollapserProperties#adaptiveBatchSizeEnabled()} is true
+     */
+    RequestCollapser(HystrixCollapserBridge<BatchReturnType, ResponseType, RequestArgumentType> commandCollapser, HystrixCollapserProperties properties, CollapserTimer timer, HystrixConcurrencyStrategy concurrencyStrategy, HystrixRequestVariableHolder<RequestScopedSubmissions> requestScopedSubmissions, Func0<BatchSizeController> batchSizeController) {
         this.commandCollapser = commandCollapser; // the command with implementation of abstract methods we need 
         this.concurrencyStrategy = concurrencyStrategy;
         this.properties = properties;
         this.timer = timer;
-        batch.set(new RequestBatch<>(properties, commandCollapser, properties.maxRequestsInBatch().get()));
+        this.requestScopedSubmissions = requestScopedSubmissions;
+        this.batchSizeController = batchSizeController;
+        RequestBatch<BatchReturnType, ResponseType, RequestArgumentType> firstBatch = newBatch();
+        batch.set(firstBatch);
+        firstBatch.onInstalled();
+    }
+
+    private RequestBatch<BatchReturnType, ResponseType, RequestArgumentType> newBatch() {
+        if (batchSizeController != null && properties.adaptiveBatchSizeEnabled().get()) {
+            BatchSizeController controller = batchSizeController.call();
+            return new RequestBatch<>(properties, commandCollapser, controller.getMaxBatchSize(), requestScopedSubmissions != null, controller, this::newBatch, inFlightBatches);
+        }
+        return new RequestBatch<>(properties, commandCollapser, properties.maxRequestsInBatch().get(), requestScopedSubmissions != null, null, this::newBatch, inFlightBatches);
     }
 
     /**
@@ -73,13 +110,7 @@ public class RequestCollapser<BatchReturnType, ResponseType, RequestArgumentType
      *             if submitting after shutdown
      */
     public Observable<ResponseType> submitRequest(final RequestArgumentType arg) {
-        /*
-         * We only want the timer ticking if there are actually things to do so we register it the first time something is added.
-         */
-        if (!timerListenerRegistered.get() && timerListenerRegistered.compareAndSet(false, true)) {
-            /* schedule the collapsing task to be executed every x milliseconds (x defined inside CollapsedTask) */
-            timerListenerReference.set(timer.addListener(new CollapsedTask()));
-        }
+        registerTimerListenerIfNeeded();
 
         // loop until succeed (compare-and-set spin-loop)
         while (true) {
@@ -88,15 +119,16 @@ public class RequestCollapser<BatchReturnType, ResponseType, RequestArgumentType
                 return Observable.error(new IllegalStateException("Submitting requests after collapser is shutdown"));
             }
 
-            final Observable<ResponseType> response;
+            final CollapsedRequestSubject<ResponseType, RequestArgumentType> collapsedRequest;
             if (arg != null) {
-                response = b.offer(arg);
+                collapsedRequest = b.add(arg);
             } else {
-                response = b.offer( (RequestArgumentType) NULL_SENTINEL);
+                collapsedRequest = b.add(RequestCollapser.<RequestArgumentType> nullSentinel());
             }
-            // it will always get an Observable unless we hit the max batch size
-            if (response != null) {
-                return response;
+            // it will always get a request unless we hit the max batch size
+            if (collapsedRequest != null) {
+                executeIfMinimumReached(b);
+                return trackIfNeeded(collapsedRequest, collapsedRequest.toObservable());
             } else {
                 // this batch can't accept requests so create a new one and set it if another thread doesn't beat us
                 createNewBatchAndExecutePreviousIfNeeded(b);
@@ -104,16 +136,177 @@ public class RequestCollapser<BatchReturnType, ResponseType, RequestArgumentType
         }
     }
 
+    /**
+     * Submit a request to a batch without going through an Observable. If the batch maxSize is hit trigger the batch immediately.
+     * 
+     * @param arg argument to a {@link RequestCollapser}
+     * @return CompletableFuture<ResponseType> completed directly when the batch response is mapped to the argument
+     */
+    public CompletableFuture<ResponseType> submitRequestAsync(final RequestArgumentType arg) {
+        registerTimerListenerIfNeeded();
+
+        // loop until succeed (compare-and-set spin-loop)
+        while (true) {
+            final RequestBatch<BatchReturnType, ResponseType, RequestArgumentType> b = batch.get();
+            if (b == null) {
+                CompletableFuture<ResponseType> error = new CompletableFuture<>();
+                error.completeExceptionally(new IllegalStateException("Submitting requests after collapser is shutdown"));
+                return error;
+            }
+
+            final CollapsedRequestSubject<ResponseType, RequestArgumentType> collapsedRequest;
+            if (arg != null) {
+                collapsedRequest = b.add(arg);
+            } else {
+                collapsedRequest = b.add(RequestCollapser.<RequestArgumentType> nullSentinel());
+            }
+            // it will always get a request unless we hit the max batch size
+            if (collapsedRequest != null) {
+                executeIfMinimumReached(b);
+                return trackIfNeeded(collapsedRequest, collapsedRequest.toCompletableFuture());
+            } else {
+                // this batch can't accept requests so create a new one and set it if another thread doesn't beat us
+                createNewBatchAndExecutePreviousIfNeeded(b);
+            }
+        }
+    }
+
+    /**
+     * Submit multiple requests at once. The arguments are offered in bulk so each batch they end up in is locked only once.
+     * 
+     * @param args arguments to a {@link RequestCollapser}
+     * @return Observable<ResponseType> for each argument, in the order of the arguments
+     * @throws IllegalStateException
+     *             if submitting after shutdown
+     */
+    public List<Observable<ResponseType>> submitRequests(final Collection<RequestArgumentType> args) {
+        registerTimerListenerIfNeeded();
+
+        final List<RequestArgumentType> argsToOffer = new ArrayList<>(args.size());
+        for (RequestArgumentType arg : args) {
+            argsToOffer.add(arg != null ? arg : RequestCollapser.<RequestArgumentType> nullSentinel());
+        }
+        final List<CollapsedRequestSubject<ResponseType, RequestArgumentType>> collapsedRequests = new ArrayList<>(argsToOffer.size());
+        final List<Observable<ResponseType>> responses = new ArrayList<>(argsToOffer.size());
+
+        // loop until all are accepted (compare-and-set spin-loop)
+        int index = 0;
+        while (index < argsToOffer.size()) {
+            final RequestBatch<BatchReturnType, ResponseType, RequestArgumentType> b = batch.get();
+            if (b == null) {
+                Observable<ResponseType> error = Observable.error(new IllegalStateException("Submitting requests after collapser is shutdown"));
+                while (responses.size() < argsToOffer.size()) {
+                    responses.add(error);
+                }
+                return responses;
+            }
+
+            final int accepted = b.offerAll(argsToOffer, index, collapsedRequests);
+            for (int i = index; i < accepted; i++) {
+                responses.add(trackIfNeeded(collapsedRequests.get(i), collapsedRequests.get(i).toObservable()));
+            }
+            index = accepted;
+            executeIfMinimumReached(b);
+            if (index < argsToOffer.size()) {
+                // this batch can't accept more requests so create a new one and set it if another thread doesn't beat us
+                createNewBatchAndExecutePreviousIfNeeded(b);
+            }
+        }
+        return responses;
+    }
+
+    /*
+     * We only want the timer ticking if there are actually things to do so we register it the first time something is added.
+     */
+    private void registerTimerListenerIfNeeded() {
+        if (!timerListenerRegistered.get() && timerListenerRegistered.compareAndSet(false, true)) {
+            /* schedule the collapsing task to be executed every x milliseconds (x defined inside CollapsedTask) */
+            timerListenerReference.set(timer.addListener(new CollapsedTask()));
+        }
+    }
+
+    @SuppressWarnings("unchecked")
+    private static <RequestArgumentType> RequestArgumentType nullSentinel() {
+        return (RequestArgumentType) NULL_SENTINEL;
+    }
+
+    /*
+     * The request is tracked against the batch that accepted it, which is the successor of the offered batch if its tenant was over its quota.
+     * Requests that only carry an error back to the caller are not part of any batch.
+     */
+    private Observable<ResponseType> trackIfNeeded(CollapsedRequestSubject<ResponseType, RequestArgumentType> collapsedRequest, Observable<ResponseType> response) {
+        if (requestScopedSubmissions != null && collapsedRequest.getContainingBatch() != null) {
+            return requestScopedSubmissions.get(concurrencyStrategy).track(collapsedRequest.getContainingBatch(), response);
+        }
+        return response;
+    }
+
+    private CompletableFuture<ResponseType> trackIfNeeded(CollapsedRequestSubject<ResponseType, RequestArgumentType> collapsedRequest, CompletableFuture<ResponseType> response) {
+        if (requestScopedSubmissions != null && collapsedRequest.getContainingBatch() != null) {
+            return requestScopedSubmissions.get(concurrencyStrategy).track(collapsedRequest.getContainingBatch(), response);
+        }
+        return response;
+    }
+
+    /*
+     * A batch that reached minRequestsInBatch does not wait for the timer tick.
+     */
+    private void executeIfMinimumReached(RequestBatch<BatchReturnType, ResponseType, RequestArgumentType> b) {
+        int minRequestsInBatch = properties.minRequestsInBatch().get();
+        if (minRequestsInBatch > 0 && b.getSize() >= minRequestsInBatch) {
+            createNewBatchAndExecutePreviousIfNeeded(b);
+        }
+    }
+
+    /*
+     * A batch below minRequestsInBatch is held on timer ticks as long as the next tick is still within maxWaitInMilliseconds of its first request.
+     */
+    private boolean holdBelowMinimum(RequestBatch<BatchReturnType, ResponseType, RequestArgumentType> b) {
+        if (b.getSize() >= properties.minRequestsInBatch().get()) {
+            return false;
+        }
+        long waitedInMilliseconds = System.currentTimeMillis() - b.getFirstRequestTime();
+        int timerDelayInMicroseconds = properties.timerDelayInMicroseconds().get();
+        if (timerDelayInMicroseconds > 0) {
+            return waitedInMilliseconds * 1000L + timerDelayInMicroseconds <= properties.maxWaitInMilliseconds().get() * 1000L;
+        }
+        return waitedInMilliseconds + properties.timerDelayInMilliseconds().get() <= properties.maxWaitInMilliseconds().get();
+    }
+
     private void createNewBatchAndExecutePreviousIfNeeded(RequestBatch<BatchReturnType, ResponseType, RequestArgumentType> previousBatch) {
         if (previousBatch == null) {
             throw new IllegalStateException("Trying to start null batch which means it was shutdown already.");
         }
-        if (batch.compareAndSet(previousBatch, new RequestBatch<>(properties, commandCollapser, properties.maxRequestsInBatch().get()))) {
+        // the successor may already hold requests deferred because their tenant was over its quota in the previous batch
+        RequestBatch<BatchReturnType, ResponseType, RequestArgumentType> nextBatch = previousBatch.getOrCreateSuccessor();
+        if (batch.compareAndSet(previousBatch, nextBatch)) {
+            nextBatch.onInstalled();
             // this thread won so trigger the previous batch
             previousBatch.executeBatchIfNotAlreadyStarted();
         }
     }
 
+    /**
+     * Read the current state without locking, for {@link RequestCollapserFactory#getSnapshots()}.
+     *
+     * @param scope name of the scope this collapser was retrieved from
+     * @return snapshot of this collapser
+     */
+    /* package */RequestCollapserSnapshot getSnapshot(String scope) {
+        long now = System.currentTimeMillis();
+        RequestBatch<BatchReturnType, ResponseType, RequestArgumentType> currentBatch = batch.get();
+        int currentBatchSize = 0;
+        long oldestPendingRequestAge = -1;
+        if (currentBatch != null) {
+            currentBatchSize = currentBatch.getSize();
+            long firstRequestTime = currentBatch.getFirstRequestTime();
+            if (currentBatchSize > 0 && firstRequestTime > 0) {
+                oldestPendingRequestAge = now - firstRequestTime;
+            }
+        }
+        return new RequestCollapserSnapshot(commandCollapser.getCollapserKey().name(), scope, currentBatchSize, oldestPendingRequestAge, inFlightBatches.getDurationsInMilliseconds(now), timerListenerRegistered.get());
+    }
+
     /**
      * Called from RequestVariable.shutdown() to unschedule the task.
      */
@@ -132,7 +325,7 @@ public class RequestCollapser<BatchReturnType, ResponseType, RequestArgumentType
     /**
      * Executed on each Timer interval execute the current batch if it has requests in it.
      */
-    private class CollapsedTask implements TimerListener {
+    private class CollapsedTask implements HighResolutionTimerListener {
         final Callable<Void> callableWithContextOfParent;
 
         CollapsedTask() {
@@ -146,7 +339,8 @@ public class RequestCollapser<BatchReturnType, ResponseType, RequestArgumentType
                     RequestBatch<BatchReturnType, ResponseType, RequestArgumentType> currentBatch = batch.get();
                     // 1) it can be null if it got shutdown
                     // 2) we don't execute this batch if it has no requests and let it wait until next tick to be executed
-                    if (currentBatch != null && currentBatch.getSize() > 0) {
+                    // 3) we don't execute this batch if it is below the minimum size and has not waited long enough
+                    if (currentBatch != null && currentBatch.getSize() > 0 && !holdBelowMinimum(currentBatch)) {
                         // do execution within context of wrapped Callable
                         createNewBatchAndExecutePreviousIfNeeded(currentBatch);
                     }
@@ -172,6 +366,11 @@ public class RequestCollapser<BatchReturnType, ResponseType, RequestArgumentType
             return properties.timerDelayInMilliseconds().get();
         }
 
+        @Override
+        public int getIntervalTimeInMicroseconds() {
+            return properties.timerDelayInMicroseconds().get();
+        }
+
     }
 
 }
@@ -19,13 +19,17 @@ import com.netflix.hystrix.HystrixCollapserKey;
 import com.netflix.hystrix.HystrixCollapserProperties;
 import com.netflix.hystrix.strategy.HystrixPlugins;
 import com.netflix.hystrix.strategy.concurrency.HystrixConcurrencyStrategy;
+import com.netflix.hystrix.strategy.concurrency.HystrixRequestContext;
 import com.netflix.hystrix.strategy.concurrency.HystrixRequestVariableHolder;
 import com.netflix.hystrix.strategy.concurrency.HystrixRequestVariableLifecycle;
 import com.netflix.hystrix.strategy.properties.HystrixPropertiesFactory;
+import com.netflix.hystrix.util.HystrixHighResolutionTimer;
 import com.netflix.hystrix.util.HystrixTimer;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 
+import java.util.ArrayList;
+import java.util.List;
 import java.util.concurrent.ConcurrentHashMap;
 
 /**
@@ -51,7 +55,7 @@ public class RequestCollapserFactory<BatchReturnType, ResponseType, RequestArgum
     
     // internally expected scopes, dealing with the not-so-fun inheritance issues of enum when shared between classes
     private enum Scopes implements Scope {
-        REQUEST, GLOBAL
+        REQUEST, GLOBAL, HYBRID
     }
     
     public RequestCollapserFactory(HystrixCollapserKey collapserKey, Scope scope, CollapserTimer timer, HystrixCollapserProperties.Setter propertiesBuilder) {
@@ -85,6 +89,8 @@ public class RequestCollapserFactory<BatchReturnType, ResponseType, RequestArgum
             return getCollapserForUserRequest(commandCollapser);
         } else if (Scopes.GLOBAL == Scopes.valueOf(getScope().name())) {
             return getCollapserForGlobalScope(commandCollapser);
+        } else if (Scopes.HYBRID == Scopes.valueOf(getScope().name())) {
+            return getCollapserForHybridScope(commandCollapser);
         } else {
             logger.warn("Invalid Scope: {}  Defaulting to REQUEST scope.", getScope());
             return getCollapserForUserRequest(commandCollapser);
@@ -104,7 +110,7 @@ public class RequestCollapserFactory<BatchReturnType, ResponseType, RequestArgum
             return (RequestCollapser<BatchReturnType, ResponseType, RequestArgumentType>) collapser;
         }
         // create new collapser using 'this' first instance as the one that will get cached for future executions ('this' is stateless so we can do that)
-        RequestCollapser<BatchReturnType, ResponseType, RequestArgumentType> newCollapser = new RequestCollapser<>(commandCollapser, properties, timer, concurrencyStrategy);
+        RequestCollapser<BatchReturnType, ResponseType, RequestArgumentType> newCollapser = new RequestCollapser<>(commandCollapser, properties, timer, concurrencyStrategy, null, this::getBatchSizeController);
         RequestCollapser<?, ?, ?> existing = globalScopedCollapsers.putIfAbsent(collapserKey.name(), newCollapser);
         if (existing == null) {
             // we won
@@ -118,6 +124,101 @@ public class RequestCollapserFactory<BatchReturnType, ResponseType, RequestArgum
         }
     }
 
+    /**
+     * Static global cache of RequestCollapsers for Scope.HYBRID
+     */
+    // String is CollapserKey.name() (we can't use CollapserKey directly as we can't guarantee it implements hashcode/equals correctly)
+    private static ConcurrentHashMap<String, RequestCollapser<?, ?, ?>> hybridScopedCollapsers = new ConcurrentHashMap<>();
+
+    /**
+     * RequestVariable with the submissions each user request made to Scope.HYBRID collapsers, shared by all of them
+     */
+    private static final HystrixRequestVariableHolder<RequestScopedSubmissions> requestScopedSubmissions = new HystrixRequestVariableHolder<>(new HystrixRequestVariableLifecycle<RequestScopedSubmissions>() {
+        @Override
+        public RequestScopedSubmissions initialValue() {
+            return new RequestScopedSubmissions();
+        }
+
+        @Override
+        public void shutdown(RequestScopedSubmissions value) {
+            // fail the submissions of this user request that did not make it into a dispatched batch
+            if (value != null) {
+                value.shutdown();
+            }
+        }
+    });
+
+    @SuppressWarnings("unchecked")
+    private RequestCollapser<BatchReturnType, ResponseType, RequestArgumentType> getCollapserForHybridScope(HystrixCollapserBridge<BatchReturnType, ResponseType, RequestArgumentType> commandCollapser) {
+        RequestCollapser<?, ?, ?> collapser = hybridScopedCollapsers.get(collapserKey.name());
+        if (collapser != null) {
+            return (RequestCollapser<BatchReturnType, ResponseType, RequestArgumentType>) collapser;
+        }
+        // create new collapser using 'this' first instance as the one that will get cached for future executions ('this' is stateless so we can do that)
+        RequestCollapser<BatchReturnType, ResponseType, RequestArgumentType> newCollapser = new RequestCollapser<>(commandCollapser, properties, timer, concurrencyStrategy, requestScopedSubmissions, this::getBatchSizeController);
+        RequestCollapser<?, ?, ?> existing = hybridScopedCollapsers.putIfAbsent(collapserKey.name(), newCollapser);
+        if (existing == null) {
+            // we won
+            return newCollapser;
+        } else {
+            // we lost ... another thread beat us
+            // shutdown the one we created but didn't get stored
+            newCollapser.shutdown();
+            // return the existing one
+            return (RequestCollapser<BatchReturnType, ResponseType, RequestArgumentType>) existing;
+        }
+    }
+
+    /**
+     * Static global cache of StreamingRequestCollapsers (streams are always shared by the whole application)
+     */
+    // String is CollapserKey.name() (we can't use CollapserKey directly as we can't guarantee it implements hashcode/equals correctly)
+    private static ConcurrentHashMap<String, StreamingRequestCollapser<?, ?, ?, ?>> streamingCollapsers = new ConcurrentHashMap<>();
+
+    /**
+     * Lookup (or create and store) the StreamingRequestCollapser for a given HystrixCollapserKey.
+     */
+    @SuppressWarnings("unchecked")
+    public static <K, BatchReturnType, ResponseType, RequestArgumentType> StreamingRequestCollapser<K, BatchReturnType, ResponseType, RequestArgumentType> getStreamingRequestCollapser(HystrixStreamingCollapserBridge<K, BatchReturnType, ResponseType, RequestArgumentType> commandCollapser, HystrixCollapserProperties properties, CollapserTimer timer) {
+        StreamingRequestCollapser<?, ?, ?, ?> collapser = streamingCollapsers.get(commandCollapser.getCollapserKey().name());
+        if (collapser != null) {
+            return (StreamingRequestCollapser<K, BatchReturnType, ResponseType, RequestArgumentType>) collapser;
+        }
+        // create new collapser using the first bridge as the one that will get cached for future executions (bridges are stateless so we can do that)
+        StreamingRequestCollapser<K, BatchReturnType, ResponseType, RequestArgumentType> newCollapser = new StreamingRequestCollapser<>(commandCollapser, properties, timer, HystrixPlugins.getInstance().getConcurrencyStrategy());
+        StreamingRequestCollapser<?, ?, ?, ?> existing = streamingCollapsers.putIfAbsent(commandCollapser.getCollapserKey().name(), newCollapser);
+        if (existing == null) {
+            // we won
+            return newCollapser;
+        } else {
+            // we lost ... another thread beat us
+            // shutdown the one we created but didn't get stored
+            newCollapser.shutdown();
+            // return the existing one
+            return (StreamingRequestCollapser<K, BatchReturnType, ResponseType, RequestArgumentType>) existing;
+        }
+    }
+
+    /**
+     * Static global cache of BatchSizeControllers, shared by all RequestCollapsers of a collapser key so the measurements of all scopes add up
+     */
+    // String is HystrixCollapserKey.name() (we can't use HystrixCollapserKey directly as we can't guarantee it implements hashcode/equals correctly)
+    private static ConcurrentHashMap<String, BatchSizeController> batchSizeControllers = new ConcurrentHashMap<>();
+
+    /*
+     * Only called by the RequestCollapsers when the batch size is adaptive, so nothing is looked up or created while it is disabled.
+     */
+    private BatchSizeController getBatchSizeController() {
+        BatchSizeController controller = batchSizeControllers.get(collapserKey.name());
+        if (controller != null) {
+            return controller;
+        }
+        BatchSizeController newController = new BatchSizeController(properties);
+        BatchSizeController existing = batchSizeControllers.putIfAbsent(collapserKey.name(), newController);
+        // if another thread beat us, use its controller so all measurements end up in one place
+        return existing != null ? existing : newController;
+    }
+
     /**
      * Static global cache of RequestVariables with RequestCollapsers for Scope.REQUEST
      */
@@ -161,13 +262,49 @@ public class RequestCollapserFactory<BatchReturnType, ResponseType, RequestArgum
         return requestVariable;
     }
 
+    /**
+     * Read-only view of the GLOBAL and HYBRID scoped collapsers and, if a {@link HystrixRequestContext} is initialized on the calling thread, of the REQUEST scoped
+     * collapsers of that user request.
+     * <p>
+     * No locks are taken and no batch is touched, so this is cheap enough to call while investigating latency in production.
+     *
+     * @return snapshot of each collapser
+     */
+    public static List<RequestCollapserSnapshot> getSnapshots() {
+        List<RequestCollapserSnapshot> snapshots = new ArrayList<>();
+        for (RequestCollapser<?, ?, ?> collapser : globalScopedCollapsers.values()) {
+            snapshots.add(collapser.getSnapshot(Scopes.GLOBAL.name()));
+        }
+        for (RequestCollapser<?, ?, ?> collapser : hybridScopedCollapsers.values()) {
+            snapshots.add(collapser.getSnapshot(Scopes.HYBRID.name()));
+        }
+        if (HystrixRequestContext.isCurrentThreadInitialized()) {
+            HystrixConcurrencyStrategy concurrencyStrategy = HystrixPlugins.getInstance().getConcurrencyStrategy();
+            for (HystrixRequestVariableHolder<RequestCollapser<?, ?, ?>> requestVariable : requestScopedCollapsers.values()) {
+                RequestCollapser<?, ?, ?> collapser = requestVariable.peek(concurrencyStrategy);
+                if (collapser != null) {
+                    snapshots.add(collapser.getSnapshot(Scopes.REQUEST.name()));
+                }
+            }
+        }
+        return snapshots;
+    }
+
     /**
      * Clears all state. If new requests come in instances will be recreated.
      */
     public static void reset() {
         globalScopedCollapsers.clear();
+        hybridScopedCollapsers.clear();
         requestScopedCollapsers.clear();
+        // streams hold open commands so close them
+        for (StreamingRequestCollapser<?, ?, ?, ?> streamingCollapser : streamingCollapsers.values()) {
+            streamingCollapser.shutdown();
+        }
+        streamingCollapsers.clear();
+        batchSizeControllers.clear();
         HystrixTimer.reset();
+        HystrixHighResolutionTimer.reset();
     }
 
     /**
@@ -202,7 +339,7 @@ public class RequestCollapserFactory<BatchReturnType, ResponseType, RequestArgum
                 @Override
                 public RequestCollapser<BatchReturnType, ResponseType, RequestArgumentType> initialValue() {
                     // this gets calls once per request per HystrixCollapser instance
-                    return new RequestCollapser<>(commandCollapser, properties, timer, concurrencyStrategy);
+                    return new RequestCollapser<>(commandCollapser, properties, timer, concurrencyStrategy, null, RequestCollapserFactory.this::getBatchSizeController);
                 }
 
                 @Override
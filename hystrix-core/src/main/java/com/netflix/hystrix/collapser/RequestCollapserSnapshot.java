@@ -0,0 +1,99 @@
+/*
+ * Copyright 2016 Netflix, Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.netflix.hystrix.collapser;
+
+import java.util.Collections;
+import java.util.List;
+
+/**
+ * Point-in-time view of a RequestCollapser, retrieved from {@link RequestCollapserFactory#getSnapshots()}.
+ * <p>
+ * The values are read without locking so they may be slightly inconsistent with each other while requests are being submitted.
+ *
+ * @ThreadSafe
+ */
+public class RequestCollapserSnapshot {
+    private final String collapserKey;
+    private final String scope;
+    private final int currentBatchSize;
+    private final long oldestPendingRequestAgeInMilliseconds;
+    private final List<Long> inFlightBatchDurationsInMilliseconds;
+    private final boolean timerListenerRegistered;
+
+    /* package */RequestCollapserSnapshot(String collapserKey, String scope, int currentBatchSize, long oldestPendingRequestAgeInMilliseconds, List<Long> inFlightBatchDurationsInMilliseconds, boolean timerListenerRegistered) {
+        this.collapserKey = collapserKey;
+        this.scope = scope;
+        this.currentBatchSize = currentBatchSize;
+        this.oldestPendingRequestAgeInMilliseconds = oldestPendingRequestAgeInMilliseconds;
+        this.inFlightBatchDurationsInMilliseconds = Collections.unmodifiableList(inFlightBatchDurationsInMilliseconds);
+        this.timerListenerRegistered = timerListenerRegistered;
+    }
+
+    /**
+     * @return name of the HystrixCollapserKey
+     */
+    public String getCollapserKey() {
+        return collapserKey;
+    }
+
+    /**
+     * @return name of the scope the collapser was retrieved from: REQUEST, GLOBAL or HYBRID
+     */
+    public String getScope() {
+        return scope;
+    }
+
+    /**
+     * @return number of requests in the batch that is waiting to be dispatched
+     */
+    public int getCurrentBatchSize() {
+        return currentBatchSize;
+    }
+
+    /**
+     * @return milliseconds since the first request was added to the batch that is waiting to be dispatched, -1 if it is empty
+     */
+    public long getOldestPendingRequestAgeInMilliseconds() {
+        return oldestPendingRequestAgeInMilliseconds;
+    }
+
+    /**
+     * @return number of dispatched batch commands that did not terminate yet
+     */
+    public int getInFlightBatchCount() {
+        return inFlightBatchDurationsInMilliseconds.size();
+    }
+
+    /**
+     * @return milliseconds each dispatched batch command has been running
+     */
+    public List<Long> getInFlightBatchDurationsInMilliseconds() {
+        return inFlightBatchDurationsInMilliseconds;
+    }
+
+    /**
+     * @return true once the collapser registered its listener on the timer, which happens on the first submitted request
+     */
+    public boolean isTimerListenerRegistered() {
+        return timerListenerRegistered;
+    }
+
+    @Override
+    public String toString() {
+        return "RequestCollapserSnapshot[" + collapserKey + ", scope=" + scope + ", currentBatchSize=" + currentBatchSize + ", oldestPendingRequestAgeInMilliseconds=" + oldestPendingRequestAgeInMilliseconds
+                + ", inFlightBatchDurationsInMilliseconds=" + inFlightBatchDurationsInMilliseconds + ", timerListenerRegistered=" + timerListenerRegistered + "]";
+    }
+}
@@ -0,0 +1,109 @@
+/*
+ * Copyright 2015 Netflix, Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.netflix.hystrix.collapser;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import rx.Observable;
+import rx.Subscriber;
+import rx.functions.Action1;
+import rx.observers.SerializedSubscriber;
+import rx.subscriptions.Subscriptions;
+
+import java.util.Collections;
+import java.util.Set;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ConcurrentHashMap;
+
+/**
+ * The submissions a single user request made to HYBRID scoped collapsers.
+ * <p>
+ * HYBRID scoped collapsers share their batches with all concurrent user requests, so the batches can not be shut down when one user request ends. Instead each user request tracks
+ * the submissions it made and, when its {@link com.netflix.hystrix.strategy.concurrency.HystrixRequestContext} is shut down, fails the ones whose batch has not been dispatched yet.
+ * This matches what happens to the pending requests of a REQUEST scoped collapser when it is shut down.
+ * <p>
+ * Instances of this live inside a RequestVariable and can be accessed from multiple threads of the same user request.
+ *
+ * @ThreadSafe
+ */
+/* package */class RequestScopedSubmissions {
+    private static final Logger logger = LoggerFactory.getLogger(RequestScopedSubmissions.class);
+
+    private final Set<Submission> submissions = Collections.newSetFromMap(new ConcurrentHashMap<>());
+
+    /**
+     * Track the subscribers of a response for the lifetime of the current user request.
+     *
+     * @param batch batch the argument was offered to
+     * @param response the response as returned by {@link RequestBatch#offer}
+     * @return Observable that behaves like <code>response</code> until the user request is shut down
+     */
+    /* package */<T> Observable<T> track(final RequestBatch<?, ?, ?> batch, final Observable<T> response) {
+        return Observable.unsafeCreate((Subscriber<? super T> subscriber) -> {
+            // serialize so the shutdown can safely emit an error while the batch may be emitting the response
+            final SerializedSubscriber<T> serializedSubscriber = new SerializedSubscriber<>(subscriber);
+            final Submission submission = new Submission(batch, e -> {
+                try {
+                    serializedSubscriber.onError(e);
+                } catch (Exception ex) {
+                    logger.debug("Failed to set exception on request submitted to HYBRID scoped collapser.", ex);
+                }
+                // this removes the argument from the batch if no other user request is waiting for it
+                serializedSubscriber.unsubscribe();
+            });
+            submissions.add(submission);
+            serializedSubscriber.add(Subscriptions.create(() -> submissions.remove(submission)));
+            response.doOnTerminate(() -> submissions.remove(submission)).unsafeSubscribe(serializedSubscriber);
+        });
+    }
+
+    /**
+     * Track a response future for the lifetime of the current user request.
+     *
+     * @param batch batch the argument was offered to
+     * @param response the response as returned by {@link RequestBatch#offerAsync}, not shared with other callers
+     * @return <code>response</code>
+     */
+    /* package */<T> CompletableFuture<T> track(final RequestBatch<?, ?, ?> batch, final CompletableFuture<T> response) {
+        // completing the future exceptionally also removes the argument from the batch if no other user request is waiting for it
+        final Submission submission = new Submission(batch, response::completeExceptionally);
+        submissions.add(submission);
+        response.whenComplete((value, throwable) -> submissions.remove(submission));
+        return response;
+    }
+
+    /**
+     * Called from RequestVariable.shutdown() to fail the submissions that have not been dispatched in a batch yet.
+     */
+    /* package */void shutdown() {
+        for (Submission submission : submissions) {
+            if (!submission.batch.isStarted()) {
+                submission.onShutdown.call(new IllegalStateException("Requests not executed before shutdown."));
+            }
+        }
+        submissions.clear();
+    }
+
+    private static final class Submission {
+        private final RequestBatch<?, ?, ?> batch;
+        private final Action1<Exception> onShutdown;
+
+        private Submission(RequestBatch<?, ?, ?> batch, Action1<Exception> onShutdown) {
+            this.batch = batch;
+            this.onShutdown = onShutdown;
+        }
+    }
+}
@@ -0,0 +1,311 @@
+/*
+ * Copyright 2016 Netflix, Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.netflix.hystrix.collapser;
+
+import com.netflix.hystrix.HystrixCollapserProperties;
+import com.netflix.hystrix.strategy.concurrency.HystrixConcurrencyStrategy;
+import com.netflix.hystrix.strategy.concurrency.HystrixContextCallable;
+import com.netflix.hystrix.util.HystrixTimer.TimerListener;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import rx.Observable;
+import rx.subjects.SerializedSubject;
+import rx.subjects.UnicastSubject;
+
+import java.lang.ref.Reference;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicReference;
+
+/**
+ * Requests are pushed into a continuously open streaming command as they are submitted, and responses are matched to them by key as they stream back.
+ * <p>
+ * There is no batching delay. The stream is rotated (its input is completed and a new command is started for further requests) when it reached
+ * {@link HystrixCollapserProperties#maxRequestsInBatch()} requests, when it is open for {@link HystrixCollapserProperties#streamMaxDurationInMilliseconds()}
+ * or when the command fails or completes.
+ * <p>
+ * Instances of this are retrieved from the RequestCollapserFactory.
+ *
+ * @ThreadSafe
+ */
+public class StreamingRequestCollapser<K, BatchReturnType, ResponseType, RequestArgumentType> {
+    static final Logger logger = LoggerFactory.getLogger(StreamingRequestCollapser.class);
+
+    private final HystrixStreamingCollapserBridge<K, BatchReturnType, ResponseType, RequestArgumentType> commandCollapser;
+    // null when no stream is open
+    private final AtomicReference<RequestStream> stream = new AtomicReference<>();
+    private final AtomicBoolean shutdown = new AtomicBoolean();
+    private final CollapserTimer timer;
+    private final HystrixCollapserProperties properties;
+    private final HystrixConcurrencyStrategy concurrencyStrategy;
+
+    /**
+     * @param commandCollapser collapser which will create the streaming commands and match the responses
+     * @param properties collapser properties that define when streams are rotated
+     * @param timer {@link CollapserTimer} which rotates each stream once it is open for its maximum duration
+     * @param concurrencyStrategy strategy for managing the {@link Callable}s generated by {@link StreamingRequestCollapser}
+     */
+    StreamingRequestCollapser(HystrixStreamingCollapserBridge<K, BatchReturnType, ResponseType, RequestArgumentType> commandCollapser, HystrixCollapserProperties properties, CollapserTimer timer, HystrixConcurrencyStrategy concurrencyStrategy) {
+        this.commandCollapser = commandCollapser;
+        this.concurrencyStrategy = concurrencyStrategy;
+        this.properties = properties;
+        this.timer = timer;
+    }
+
+    /**
+     * Submit a request to the open stream, opening one if needed.
+     *
+     * @param arg argument to a {@link StreamingRequestCollapser}
+     * @return Observable<ResponseType>
+     * @throws IllegalStateException
+     *             if submitting after shutdown
+     */
+    public Observable<ResponseType> submitRequest(final RequestArgumentType arg) {
+        final K key = commandCollapser.getRequestArgumentKey(arg);
+        if (key == null) {
+            return Observable.error(new IllegalArgumentException("Request argument [" + arg + "] has no key so its response can not be matched for HystrixStreamingCollapser:" + commandCollapser.getCollapserKey().name()));
+        }
+
+        // loop until succeed (compare-and-set spin-loop)
+        while (true) {
+            if (shutdown.get()) {
+                return Observable.error(new IllegalStateException("Submitting requests after collapser is shutdown"));
+            }
+
+            RequestStream s = stream.get();
+            if (s == null) {
+                RequestStream newStream = new RequestStream();
+                if (!stream.compareAndSet(null, newStream)) {
+                    // another thread opened a stream, use that one
+                    continue;
+                }
+                try {
+                    newStream.start();
+                } catch (Exception e) {
+                    logger.error("Exception while creating streaming command.", e);
+                    rotate(newStream);
+                    return Observable.error(e);
+                }
+                s = newStream;
+            }
+
+            final Observable<ResponseType> response = s.offer(key, arg);
+            // it will always get an Observable unless the stream is full or closed
+            if (response != null) {
+                return response;
+            } else {
+                rotate(s);
+            }
+        }
+    }
+
+    /*
+     * Close the given stream if it is still the open one so the next submission opens a new stream.
+     */
+    private void rotate(RequestStream s) {
+        stream.compareAndSet(s, null);
+        s.close();
+    }
+
+    /**
+     * Called from RequestCollapserFactory.reset() to close the open stream and unschedule its rotation.
+     */
+    public void shutdown() {
+        shutdown.set(true);
+        RequestStream s = stream.getAndSet(null);
+        if (s != null) {
+            // requests already pushed into the stream still get their responses
+            s.close();
+        }
+    }
+
+    /**
+     * One streaming command with the requests pushed into it that did not get a response yet.
+     */
+    private final class RequestStream {
+        private final SerializedSubject<RequestArgumentType, RequestArgumentType> input = UnicastSubject.<RequestArgumentType> create().toSerialized();
+        private final ConcurrentMap<K, CollapsedRequestSubject<ResponseType, RequestArgumentType>> pending = new ConcurrentHashMap<>();
+        private final AtomicInteger count = new AtomicInteger();
+        private final int maxCount = properties.maxRequestsInBatch().get();
+        private final AtomicBoolean closed = new AtomicBoolean();
+        // number of 'offer' threads pushing into the input, the input is only completed when this drops to zero after closing
+        private final AtomicInteger offering = new AtomicInteger();
+        private final AtomicBoolean inputCompleted = new AtomicBoolean();
+        // set by the command's terminal handlers before they walk the pending requests
+        private final AtomicBoolean terminated = new AtomicBoolean();
+        private final AtomicReference<Reference<TimerListener>> rotationReference = new AtomicReference<>();
+
+        private void start() {
+            /* schedule the rotation of this stream once it is open for its maximum duration */
+            rotationReference.set(timer.addListener(new RotationTask(this)));
+            if (closed.get()) {
+                // closed before the rotation was scheduled
+                cancelRotation();
+            }
+
+            commandCollapser.createObservableCommand(input).subscribe(batchReturn -> {
+                K key = commandCollapser.getBatchReturnTypeKey(batchReturn);
+                CollapsedRequestSubject<ResponseType, RequestArgumentType> request = key != null ? pending.remove(key) : null;
+                if (request != null) {
+                    try {
+                        request.setResponse(commandCollapser.mapBatchReturnTypeToResponseType(batchReturn));
+                    } catch (Exception e) {
+                        request.setExceptionIfResponseNotReceived(e);
+                    }
+                } else {
+                    logger.debug("No pending request for streamed response with key [{}] of HystrixStreamingCollapser:{}", key, commandCollapser.getCollapserKey().name());
+                }
+            }, e -> {
+                terminated.set(true);
+                rotate(this);
+                Exception exception = e instanceof Exception ? (Exception) e : new RuntimeException(e);
+                for (K key : pending.keySet()) {
+                    CollapsedRequestSubject<ResponseType, RequestArgumentType> request = pending.remove(key);
+                    if (request != null) {
+                        request.setExceptionIfResponseNotReceived(exception);
+                    }
+                }
+            }, () -> {
+                terminated.set(true);
+                rotate(this);
+                for (K key : pending.keySet()) {
+                    CollapsedRequestSubject<ResponseType, RequestArgumentType> request = pending.remove(key);
+                    if (request != null) {
+                        try {
+                            commandCollapser.onMissingResponse(request);
+                        } catch (Throwable t) {
+                            request.setExceptionIfResponseNotReceived(new RuntimeException("Error in HystrixStreamingCollapser.onMissingResponse handler", t));
+                        }
+                        request.setExceptionIfResponseNotReceived(null, "No response set by " + commandCollapser.getCollapserKey().name() + " 'onMissingResponse' implementation.");
+                    }
+                }
+            });
+        }
+
+        /**
+         * @return Observable if offer accepted, null if the stream is full or closed
+         */
+        private Observable<ResponseType> offer(K key, RequestArgumentType arg) {
+            /* short-cut - if the stream is closed we reject the offer */
+            if (closed.get()) {
+                return null;
+            }
+
+            /*
+             * A lock can not be used here as the command may emit (and fail or complete, which closes the stream) synchronously while pushing into the input.
+             */
+            offering.incrementAndGet();
+            try {
+                /* double-check now that we are counted - if the stream is closed we reject the offer */
+                if (closed.get()) {
+                    return null;
+                }
+
+                CollapsedRequestSubject<ResponseType, RequestArgumentType> collapsedRequest = new CollapsedRequestSubject<>(arg);
+                CollapsedRequestSubject<ResponseType, RequestArgumentType> existing = pending.putIfAbsent(key, collapsedRequest);
+                if (existing != null) {
+                    // the same key is already in flight on this stream so share its response
+                    return existing.toObservable();
+                }
+                if (count.incrementAndGet() > maxCount) {
+                    pending.remove(key, collapsedRequest);
+                    return null;
+                }
+                /*
+                 * The command may have terminated after the 'closed' checks and walked the pending requests before this one was added.
+                 * If it is still ours to remove then nothing else will ever complete it, so fail anything that shares it and retry on the next stream.
+                 */
+                if (terminated.get() && pending.remove(key, collapsedRequest)) {
+                    collapsedRequest.setExceptionIfResponseNotReceived(new IllegalStateException("Streaming command terminated before the request was pushed into it for HystrixStreamingCollapser:" + commandCollapser.getCollapserKey().name()));
+                    return null;
+                }
+                input.onNext(arg);
+                return collapsedRequest.toObservable();
+            } finally {
+                if (offering.decrementAndGet() == 0 && closed.get()) {
+                    completeInput();
+                }
+            }
+        }
+
+        private void close() {
+            if (closed.compareAndSet(false, true)) {
+                cancelRotation();
+                if (offering.get() == 0) {
+                    // otherwise the last 'offer' thread completes the input so nothing is pushed after completing it
+                    completeInput();
+                }
+            }
+        }
+
+        private void cancelRotation() {
+            Reference<TimerListener> rotation = rotationReference.get();
+            if (rotation != null) {
+                // clear it so the timer stops ticking for this stream
+                rotation.clear();
+            }
+        }
+
+        private void completeInput() {
+            if (inputCompleted.compareAndSet(false, true)) {
+                input.onCompleted();
+            }
+        }
+    }
+
+    /**
+     * Executed when a stream is open for {@link HystrixCollapserProperties#streamMaxDurationInMilliseconds()} to rotate it if it has requests in it.
+     */
+    private class RotationTask implements TimerListener {
+        final Callable<Void> callableWithContextOfParent;
+
+        RotationTask(final RequestStream s) {
+            // this gets executed from the context of a HystrixCommand parent thread (such as a Tomcat thread)
+            // so we create the callable now where we can capture the thread context
+            // the wrapCallable call allows a strategy to capture thread-context if desired
+            callableWithContextOfParent = new HystrixContextCallable<>(concurrencyStrategy, () -> {
+                try {
+                    // we don't rotate a stream that has no requests and let it wait until next tick
+                    if (s.count.get() > 0) {
+                        rotate(s);
+                    }
+                } catch (Throwable t) {
+                    logger.error("Error occurred trying to rotate the stream.", t);
+                    // ignore error so we don't kill the Timer mainLoop and prevent further items from being scheduled
+                }
+                return null;
+            });
+        }
+
+        @Override
+        public void tick() {
+            try {
+                callableWithContextOfParent.call();
+            } catch (Exception e) {
+                logger.error("Error occurred trying to execute callable inside RotationTask from Timer.", e);
+            }
+        }
+
+        @Override
+        public int getIntervalTimeInMilliseconds() {
+            return properties.streamMaxDurationInMilliseconds().get();
+        }
+
+    }
+}
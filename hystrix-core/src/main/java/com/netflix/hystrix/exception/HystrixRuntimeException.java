@@ -30,7 +30,7 @@ public class HystrixRuntimeException extends RuntimeException {
     private final FailureType failureCause;
 
     public enum FailureType {
-        BAD_REQUEST_EXCEPTION, COMMAND_EXCEPTION, REJECTED_THREAD_EXECUTION, REJECTED_SEMAPHORE_EXECUTION
+        BAD_REQUEST_EXCEPTION, COMMAND_EXCEPTION, TIMEOUT, REJECTED_THREAD_EXECUTION, REJECTED_SEMAPHORE_EXECUTION
     }
 
     public HystrixRuntimeException(FailureType failureCause, Class<? extends HystrixInvokable> commandClass, String message, Exception cause) {
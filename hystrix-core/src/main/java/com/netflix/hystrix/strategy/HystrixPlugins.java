@@ -17,6 +17,8 @@ package com.netflix.hystrix.strategy;
 
 import com.netflix.hystrix.strategy.concurrency.HystrixConcurrencyStrategy;
 import com.netflix.hystrix.strategy.concurrency.HystrixConcurrencyStrategyDefault;
+import com.netflix.hystrix.strategy.executionhook.HystrixCollapserExecutionHook;
+import com.netflix.hystrix.strategy.executionhook.HystrixCollapserExecutionHookDefault;
 import com.netflix.hystrix.strategy.executionhook.HystrixCommandExecutionHook;
 import com.netflix.hystrix.strategy.executionhook.HystrixCommandExecutionHookDefault;
 import com.netflix.hystrix.strategy.properties.HystrixDynamicProperties;
@@ -53,6 +55,7 @@ public class HystrixPlugins {
     /* package */ final AtomicReference<HystrixConcurrencyStrategy> concurrencyStrategy = new AtomicReference<>();
     /* package */ final AtomicReference<HystrixPropertiesStrategy> propertiesFactory = new AtomicReference<>();
     /* package */ final AtomicReference<HystrixCommandExecutionHook> commandExecutionHook = new AtomicReference<>();
+    /* package */ final AtomicReference<HystrixCollapserExecutionHook> collapserExecutionHook = new AtomicReference<>();
     private final HystrixDynamicProperties dynamicProperties;
 
     
@@ -97,6 +100,7 @@ public class HystrixPlugins {
         getInstance().concurrencyStrategy.set(null);
         getInstance().propertiesFactory.set(null);
         getInstance().commandExecutionHook.set(null);
+        getInstance().collapserExecutionHook.set(null);
     }
 
     /**
@@ -237,6 +241,44 @@ public class HystrixPlugins {
         }
     }
 
+    /**
+     * Retrieve instance of {@link HystrixCollapserExecutionHook} to use based on order of precedence as defined in {@link HystrixPlugins} class header.
+     * <p>
+     * Override default by using {@link #registerCollapserExecutionHook(HystrixCollapserExecutionHook)} or setting property (via Archaius): <code>hystrix.plugin.HystrixCollapserExecutionHook.implementation</code> with the
+     * full classname to load.
+     * 
+     * @return {@link HystrixCollapserExecutionHook} implementation to use
+     */
+    public HystrixCollapserExecutionHook getCollapserExecutionHook() {
+        if (collapserExecutionHook.get() == null) {
+            // check for an implementation from Archaius first
+            Object impl = getPluginImplementation(HystrixCollapserExecutionHook.class);
+            if (impl == null) {
+                // nothing set via Archaius so initialize with default
+                collapserExecutionHook.compareAndSet(null, HystrixCollapserExecutionHookDefault.getInstance());
+                // we don't return from here but call get() again in case of thread-race so the winner will always get returned
+            } else {
+                // we received an implementation from Archaius so use it
+                collapserExecutionHook.compareAndSet(null, (HystrixCollapserExecutionHook) impl);
+            }
+        }
+        return collapserExecutionHook.get();
+    }
+
+    /**
+     * Register a {@link HystrixCollapserExecutionHook} implementation as a global override of any injected or default implementations.
+     * 
+     * @param impl
+     *            {@link HystrixCollapserExecutionHook} implementation
+     * @throws IllegalStateException
+     *             if called more than once or after the default was initialized (if usage occurs before trying to register)
+     */
+    public void registerCollapserExecutionHook(HystrixCollapserExecutionHook impl) {
+        if (!collapserExecutionHook.compareAndSet(null, impl)) {
+            throw new IllegalStateException("Another strategy was already registered.");
+        }
+    }
+
     
     private <T> T getPluginImplementation(Class<T> pluginClass) {
         T p = getPluginImplementationViaProperties(pluginClass, dynamicProperties);
@@ -108,6 +108,22 @@ public class HystrixRequestVariableDefault<T> implements HystrixRequestVariable<
         }
     }
 
+    /**
+     * Get the current value for this variable for the current request context without initializing it.
+     *
+     * @return the value of the variable for the current request, or null if there is no request context or the value has not been set or
+     *         initialized yet
+     */
+    @SuppressWarnings("unchecked")
+    public T peek() {
+        HystrixRequestContext context = HystrixRequestContext.getContextForCurrentThread();
+        if (context == null || context.state == null) {
+            return null;
+        }
+        LazyInitializer<?> v = context.state.get(this);
+        return v == null ? null : (T) v.peek();
+    }
+
     /**
      * Computes the initial value of the HystrixRequestVariable in a request.
      * <p>
@@ -214,5 +230,9 @@ public class HystrixRequestVariableDefault<T> implements HystrixRequestVariable<
             }
             return value;
         }
+
+        /* package */synchronized T peek() {
+            return initialized ? value : null;
+        }
     }
 }
@@ -68,6 +68,21 @@ public class HystrixRequestVariableHolder<T> {
         return (T) requestVariableInstance.get(key).get();
     }
 
+    /**
+     * The value of the current request if it is initialized already, unlike {@link #get} this never calls <code>initialValue()</code>.
+     *
+     * @return null if the value is not initialized in the current request, or if the {@link HystrixRequestVariable} of the concurrency strategy is
+     *         not a {@link HystrixRequestVariableDefault} and can not tell without initializing it
+     */
+    @SuppressWarnings("unchecked")
+    public T peek(HystrixConcurrencyStrategy concurrencyStrategy) {
+        HystrixRequestVariable<?> rvInstance = requestVariableInstance.get(new RVCacheKey(this, concurrencyStrategy));
+        if (rvInstance instanceof HystrixRequestVariableDefault) {
+            return (T) ((HystrixRequestVariableDefault<?>) rvInstance).peek();
+        }
+        return null;
+    }
+
     private static class RVCacheKey {
 
         private final HystrixRequestVariableHolder<?> rvHolder;
@@ -0,0 +1,74 @@
+/*
+ * Copyright 2016 Netflix, Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.netflix.hystrix.strategy.executionhook;
+
+import com.netflix.hystrix.HystrixCollapser;
+import com.netflix.hystrix.HystrixCollapserKey;
+import com.netflix.hystrix.HystrixObservableCollapser;
+import com.netflix.hystrix.strategy.HystrixPlugins;
+
+/**
+ * Abstract ExecutionHook with invocations at the lifecycle points of the batches of {@link HystrixCollapser} and {@link HystrixObservableCollapser}
+ * with default no-op implementations.
+ * <p>
+ * The batch commands themselves are seen by {@link HystrixCommandExecutionHook} like any other command.
+ * <p>
+ * See {@link HystrixPlugins} or the Hystrix GitHub Wiki for information on configuring plugins: <a
+ * href="https://github.com/Netflix/Hystrix/wiki/Plugins">https://github.com/Netflix/Hystrix/wiki/Plugins</a>.
+ * <p>
+ * <b>Note on thread-safety and performance</b>
+ * <p>
+ * A single implementation of this class will be used globally so methods on this class will be invoked concurrently from multiple threads so all functionality must be thread-safe.
+ * <p>
+ * Methods are invoked synchronously from the threads submitting requests, the collapser timer and the batch commands so all behavior should be fast.
+ * Exceptions thrown from this hook are logged and ignored.
+ */
+public abstract class HystrixCollapserExecutionHook {
+
+    /**
+     * Invoked when a new batch is opened for requests to be added to.
+     *
+     * @param collapserKey key of the collapser the batch belongs to
+     */
+    public void onBatchCreated(HystrixCollapserKey collapserKey) {
+        //do nothing by default
+    }
+
+    /**
+     * Invoked when a batch is closed for further requests and its shards are dispatched, before the batch commands execute.
+     *
+     * @param collapserKey key of the collapser the batch belongs to
+     * @param batchSize number of requests in the batch
+     * @param shardCount number of batch commands the requests were sharded into
+     * @param windowAgeInMilliseconds time from the first request added to the batch until it was dispatched
+     */
+    public void onBatchDispatched(HystrixCollapserKey collapserKey, int batchSize, int shardCount, long windowAgeInMilliseconds) {
+        //do nothing by default
+    }
+
+    /**
+     * Invoked when the batch command of a shard terminated and its responses were mapped to the requests, successfully or not.
+     *
+     * @param collapserKey key of the collapser the batch belongs to
+     * @param shardSize number of requests in the shard
+     * @param executionTimeInMilliseconds time from creating the batch command until its responses were mapped
+     * @param demuxTimeInMilliseconds time from the first response of the batch command until its responses were mapped,
+     *            which for a command responding at once is the time spent mapping the responses to the requests
+     */
+    public void onBatchCompleted(HystrixCollapserKey collapserKey, int shardSize, long executionTimeInMilliseconds, long demuxTimeInMilliseconds) {
+        //do nothing by default
+    }
+}
@@ -0,0 +1,253 @@
+/*
+ * Copyright 2016 Netflix, Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.netflix.hystrix.util;
+
+import com.netflix.hystrix.HystrixCollapser;
+import com.netflix.hystrix.util.HystrixTimer.TimerListener;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.lang.ref.Reference;
+import java.lang.ref.SoftReference;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicReference;
+import java.util.concurrent.locks.LockSupport;
+
+/**
+ * Timer used by {@link HystrixCollapser} for batching windows shorter than a millisecond.
+ * <p>
+ * A single dedicated ticker thread parks until shortly before the next tick is due and then spins until it is due, as parking alone
+ * typically oversleeps by tens of microseconds. The lateness of each tick is measured and exposed through {@link #getMeanTickJitterInMicroseconds()}
+ * and {@link #getMaxTickJitterInMicroseconds()}.
+ * <p>
+ * Like the {@link HystrixTimer}, ticks must not block as all listeners share the ticker thread.
+ */
+public class HystrixHighResolutionTimer {
+
+    private static final Logger logger = LoggerFactory.getLogger(HystrixHighResolutionTimer.class);
+
+    /* package for tests */static final long SPIN_THRESHOLD_NANOS = TimeUnit.MICROSECONDS.toNanos(50);
+    // weight of the latest tick in the mean jitter
+    private static final double JITTER_WEIGHT = 0.01;
+
+    private static HystrixHighResolutionTimer INSTANCE = new HystrixHighResolutionTimer();
+
+    private HystrixHighResolutionTimer() {
+        // private to prevent public instantiation
+    }
+
+    /**
+     * Retrieve the global instance.
+     */
+    public static HystrixHighResolutionTimer getInstance() {
+        return INSTANCE;
+    }
+
+    /**
+     * Clears all listeners and stops the ticker thread.
+     * <p>
+     * NOTE: This will result in race conditions if {@link #addTimerListener(HighResolutionTimerListener)} is being concurrently called.
+     * </p>
+     */
+    public static void reset() {
+        Ticker ticker = INSTANCE.ticker.getAndSet(null);
+        if (ticker != null) {
+            ticker.stop();
+        }
+    }
+
+    private final AtomicReference<Ticker> ticker = new AtomicReference<>();
+
+    /**
+     * Add a {@link HighResolutionTimerListener} that will be ticked every {@link HighResolutionTimerListener#getIntervalTimeInMicroseconds()} until it is removed by
+     * clearing the returned {@link Reference}.
+     * <p>
+     * NOTE: It is the responsibility of code that adds a listener via this method to clear this listener when completed.
+     *
+     * @param listener
+     *            HighResolutionTimerListener implementation that will be triggered according to its <code>getIntervalTimeInMicroseconds()</code> method implementation.
+     * @return reference to the TimerListener that allows cleanup via the <code>clear()</code> method
+     */
+    public Reference<TimerListener> addTimerListener(HighResolutionTimerListener listener) {
+        long intervalNanos = TimeUnit.MICROSECONDS.toNanos(listener.getIntervalTimeInMicroseconds());
+        if (intervalNanos <= 0) {
+            throw new IllegalArgumentException("Interval must be at least 1 microsecond: " + listener.getIntervalTimeInMicroseconds());
+        }
+        Ticker t = startThreadIfNeeded();
+        ScheduledListener scheduled = new ScheduledListener(listener, intervalNanos, System.nanoTime() + intervalNanos);
+        t.add(scheduled);
+        return new TimerReference(listener, t, scheduled);
+    }
+
+    /**
+     * @return exponentially weighted mean of how many microseconds the ticks were late
+     */
+    public long getMeanTickJitterInMicroseconds() {
+        Ticker t = ticker.get();
+        return t == null ? 0 : TimeUnit.NANOSECONDS.toMicros((long) t.meanJitterNanos);
+    }
+
+    /**
+     * @return the most microseconds a tick was late since the ticker thread was started
+     */
+    public long getMaxTickJitterInMicroseconds() {
+        Ticker t = ticker.get();
+        return t == null ? 0 : TimeUnit.NANOSECONDS.toMicros(t.maxJitterNanos);
+    }
+
+    /*
+     * Since we allow resetting the timer (stopping the thread) we need to lazily re-start it if it starts being used again.
+     */
+    private Ticker startThreadIfNeeded() {
+        Ticker t = ticker.get();
+        while (t == null) {
+            Ticker newTicker = new Ticker();
+            if (ticker.compareAndSet(null, newTicker)) {
+                newTicker.start();
+            }
+            t = ticker.get();
+        }
+        return t;
+    }
+
+    private static class TimerReference extends SoftReference<TimerListener> {
+
+        private final Ticker ticker;
+        private final ScheduledListener scheduled;
+
+        TimerReference(TimerListener referent, Ticker ticker, ScheduledListener scheduled) {
+            super(referent);
+            this.ticker = ticker;
+            this.scheduled = scheduled;
+        }
+
+        @Override
+        public void clear() {
+            super.clear();
+            // stop this listener from any further ticks
+            ticker.remove(scheduled);
+        }
+
+    }
+
+    private static final class ScheduledListener {
+        private final HighResolutionTimerListener listener;
+        private final long intervalNanos;
+        // only accessed by the ticker thread after it was added
+        private long nextTickNanos;
+
+        private ScheduledListener(HighResolutionTimerListener listener, long intervalNanos, long nextTickNanos) {
+            this.listener = listener;
+            this.intervalNanos = intervalNanos;
+            this.nextTickNanos = nextTickNanos;
+        }
+    }
+
+    private static final class Ticker implements Runnable {
+        private final CopyOnWriteArrayList<ScheduledListener> listeners = new CopyOnWriteArrayList<>();
+        private final Thread thread;
+        private volatile boolean stopped;
+        // only written by the ticker thread
+        private volatile double meanJitterNanos;
+        private volatile long maxJitterNanos;
+
+        private Ticker() {
+            if (!PlatformSpecific.isAppEngineStandardEnvironment()) {
+                thread = new Thread(this, "HystrixHighResolutionTimer");
+                thread.setDaemon(true);
+            } else {
+                thread = PlatformSpecific.getAppEngineThreadFactory().newThread(this);
+            }
+        }
+
+        private void start() {
+            thread.start();
+        }
+
+        private void stop() {
+            stopped = true;
+            LockSupport.unpark(thread);
+        }
+
+        private void add(ScheduledListener scheduled) {
+            listeners.add(scheduled);
+            // the new listener may be due before the tick the thread is parked for
+            LockSupport.unpark(thread);
+        }
+
+        private void remove(ScheduledListener scheduled) {
+            listeners.remove(scheduled);
+        }
+
+        @Override
+        public void run() {
+            while (!stopped) {
+                long now = System.nanoTime();
+                long nextDue = Long.MAX_VALUE;
+                for (ScheduledListener scheduled : listeners) {
+                    if (scheduled.nextTickNanos - now <= 0) {
+                        tick(scheduled, now);
+                    }
+                    nextDue = Math.min(nextDue, scheduled.nextTickNanos);
+                }
+
+                if (nextDue == Long.MAX_VALUE) {
+                    // nothing to do until a listener is added
+                    LockSupport.park(this);
+                    continue;
+                }
+                long remaining = nextDue - System.nanoTime();
+                if (remaining > SPIN_THRESHOLD_NANOS) {
+                    // park until shortly before the tick is due, an added listener or stop() wakes us up early
+                    LockSupport.parkNanos(this, remaining - SPIN_THRESHOLD_NANOS);
+                }
+                // else spin: loop around and check again
+            }
+        }
+
+        private void tick(ScheduledListener scheduled, long now) {
+            long jitter = now - scheduled.nextTickNanos;
+            meanJitterNanos = meanJitterNanos * (1 - JITTER_WEIGHT) + jitter * JITTER_WEIGHT;
+            if (jitter > maxJitterNanos) {
+                maxJitterNanos = jitter;
+            }
+            try {
+                scheduled.listener.tick();
+            } catch (Exception e) {
+                logger.error("Failed while ticking TimerListener", e);
+            }
+            // fixed rate, unless we fell behind by more than a whole interval in which case the missed ticks are skipped
+            scheduled.nextTickNanos += scheduled.intervalNanos;
+            if (scheduled.nextTickNanos - now <= 0) {
+                scheduled.nextTickNanos = now + scheduled.intervalNanos;
+            }
+        }
+    }
+
+    /**
+     * A {@link TimerListener} that can tick in intervals shorter than a millisecond on the {@link HystrixHighResolutionTimer}.
+     */
+    public interface HighResolutionTimerListener extends TimerListener {
+
+        /**
+         * How often this TimerListener should 'tick' defined in microseconds when added to the {@link HystrixHighResolutionTimer}.
+         * <p>
+         * 0 or less if it should tick every {@link #getIntervalTimeInMilliseconds()} on the {@link HystrixTimer} instead.
+         */
+        int getIntervalTimeInMicroseconds();
+    }
+}
@@ -16,6 +16,7 @@
 package com.netflix.hystrix.util;
 
 import com.netflix.hystrix.HystrixCollapser;
+import com.netflix.hystrix.HystrixCommand;
 import com.netflix.hystrix.strategy.HystrixPlugins;
 import com.netflix.hystrix.strategy.properties.HystrixPropertiesStrategy;
 import org.slf4j.Logger;
@@ -31,7 +32,7 @@ import java.util.concurrent.atomic.AtomicInteger;
 import java.util.concurrent.atomic.AtomicReference;
 
 /**
- * Timer used by {@link HystrixCollapser} to trigger batch executions.
+ * Timer used by {@link HystrixCollapser} to trigger batch executions and by {@link HystrixCommand} to time out executions.
  */
 public class HystrixTimer {
 
@@ -164,7 +165,10 @@ public class HystrixTimer {
                 threadFactory = PlatformSpecific.getAppEngineThreadFactory();
             }
 
-            executor = new ScheduledThreadPoolExecutor(coreSize, threadFactory);
+            ScheduledThreadPoolExecutor scheduledExecutor = new ScheduledThreadPoolExecutor(coreSize, threadFactory);
+            // execution timeouts are cleared long before they are due, don't keep them in the queue until then
+            scheduledExecutor.setRemoveOnCancelPolicy(true);
+            executor = scheduledExecutor;
             initialized = true;
         }
 
@@ -0,0 +1,200 @@
+/*
+ * Copyright 2016 Netflix, Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.netflix.hystrix;
+
+import com.hystrix.junit.HystrixRequestContextRule;
+import com.netflix.hystrix.exception.HystrixBadRequestException;
+import com.netflix.hystrix.exception.HystrixRuntimeException;
+import org.junit.Rule;
+import org.junit.Test;
+
+import java.lang.reflect.Proxy;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionStage;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import static org.junit.Assert.*;
+
+public class HystrixAsyncCommandTest {
+    @Rule
+    public HystrixRequestContextRule ctx = new HystrixRequestContextRule();
+
+    @Test
+    public void testSuccessCompletedByAnotherThread() throws Exception {
+        CompletableFuture<Integer> call = new CompletableFuture<>();
+        AsyncCommand command = new AsyncCommand("AsyncSuccess", 10, call);
+
+        CompletableFuture<Integer> f = command.toCompletableFuture();
+        assertFalse(f.isDone());
+        new Thread(() -> call.complete(42)).start();
+
+        assertEquals(Integer.valueOf(42), f.get(1000, TimeUnit.MILLISECONDS));
+        assertTrue(command.isSuccessfulExecution());
+        assertFalse(command.isExecutedInThread());
+        assertEquals(HystrixCommandProperties.ExecutionIsolationStrategy.SEMAPHORE, command.getProperties().executionIsolationStrategy().get());
+    }
+
+    @Test
+    public void testPermitIsHeldUntilTheStageCompletes() throws Exception {
+        CompletableFuture<Integer> call = new CompletableFuture<>();
+        AsyncCommand first = new AsyncCommand("AsyncPermit", 1, call);
+        CompletableFuture<Integer> f = first.toCompletableFuture();
+
+        AsyncCommand rejected = new AsyncCommand("AsyncPermit", 1, CompletableFuture.completedFuture(2));
+        try {
+            rejected.toCompletableFuture().get(1000, TimeUnit.MILLISECONDS);
+            fail("the permit of the first command is still held");
+        } catch (ExecutionException e) {
+            assertEquals(HystrixRuntimeException.FailureType.REJECTED_SEMAPHORE_EXECUTION, ((HystrixRuntimeException) e.getCause()).getFailureType());
+        }
+        assertTrue(rejected.isResponseSemaphoreRejected());
+        assertEquals(0, rejected.calls.get());
+
+        call.complete(1);
+        assertEquals(Integer.valueOf(1), f.get(1000, TimeUnit.MILLISECONDS));
+        assertEquals(Integer.valueOf(3), new AsyncCommand("AsyncPermit", 1, CompletableFuture.completedFuture(3)).toCompletableFuture().get());
+    }
+
+    @Test
+    public void testFailureOfTheStage() throws Exception {
+        CompletableFuture<Integer> call = new CompletableFuture<>();
+        AsyncCommand command = new AsyncCommand("AsyncFailure", 10, call.thenApply(v -> v));
+        CompletableFuture<Integer> f = command.toCompletableFuture();
+        call.completeExceptionally(new RuntimeException("simulated"));
+
+        try {
+            f.get(1000, TimeUnit.MILLISECONDS);
+            fail("we shouldn't get here");
+        } catch (ExecutionException e) {
+            HystrixRuntimeException hre = (HystrixRuntimeException) e.getCause();
+            assertEquals(HystrixRuntimeException.FailureType.COMMAND_EXCEPTION, hre.getFailureType());
+            // the CompletionException of the dependent stage is unwrapped
+            assertEquals("simulated", hre.getCause().getMessage());
+        }
+        assertTrue(command.isFailedExecution());
+
+        CompletableFuture<Integer> badRequest = new CompletableFuture<>();
+        badRequest.completeExceptionally(new HystrixBadRequestException("invalid"));
+        try {
+            new AsyncCommand("AsyncFailure", 10, badRequest).toCompletableFuture().get();
+            fail("we shouldn't get here");
+        } catch (ExecutionException e) {
+            assertTrue(e.getCause() instanceof HystrixBadRequestException);
+        }
+    }
+
+    @Test
+    public void testResponseFromCache() throws Exception {
+        AsyncCommand first = new AsyncCommand("AsyncCache", 10, CompletableFuture.completedFuture(5));
+        first.cacheKey = "A";
+        AsyncCommand second = new AsyncCommand("AsyncCache", 10, CompletableFuture.completedFuture(6));
+        second.cacheKey = "A";
+
+        assertEquals(Integer.valueOf(5), first.toCompletableFuture().get());
+        assertEquals(Integer.valueOf(5), second.toCompletableFuture().get());
+        assertTrue(second.isResponseFromCache());
+        assertEquals(0, second.calls.get());
+    }
+
+    @Test
+    public void testCancelCancelsTheStageAndReleasesThePermit() throws Exception {
+        CompletableFuture<Integer> call = new CompletableFuture<>();
+        AsyncCommand command = new AsyncCommand("AsyncCancel", 1, call);
+        CompletableFuture<Integer> f = command.toCompletableFuture();
+
+        assertTrue(f.cancel(false));
+        assertTrue(call.isCancelled());
+        assertEquals(Integer.valueOf(7), new AsyncCommand("AsyncCancel", 1, CompletableFuture.completedFuture(7)).toCompletableFuture().get());
+    }
+
+    @Test
+    public void testTimeoutCancelsTheStageAndReleasesThePermit() throws Exception {
+        CompletableFuture<Integer> call = new CompletableFuture<>();
+        AsyncCommand command = new AsyncCommand("AsyncTimeout", 1, call, HystrixCommandProperties.Setter()
+                .withExecutionTimeoutEnabled(true)
+                .withExecutionTimeoutInMilliseconds(50));
+
+        try {
+            command.toCompletableFuture().get(1000, TimeUnit.MILLISECONDS);
+            fail("we shouldn't get here");
+        } catch (ExecutionException e) {
+            assertEquals(HystrixRuntimeException.FailureType.TIMEOUT, ((HystrixRuntimeException) e.getCause()).getFailureType());
+        }
+        assertTrue(command.isResponseTimedOut());
+        assertTrue(call.isCancelled());
+        assertEquals(Integer.valueOf(8), new AsyncCommand("AsyncTimeout", 1, CompletableFuture.completedFuture(8)).toCompletableFuture().get());
+    }
+
+    @Test
+    public void testTimeoutKeepsThePermitOfAnUncancellableStage() throws Exception {
+        CompletableFuture<Integer> call = new CompletableFuture<>();
+        // a CompletionStage that is not a Future can not be cancelled
+        @SuppressWarnings("unchecked")
+        CompletionStage<Integer> stage = (CompletionStage<Integer>) Proxy.newProxyInstance(CompletionStage.class.getClassLoader(),
+                new Class<?>[] { CompletionStage.class }, (proxy, method, args) -> method.invoke(call, args));
+        AsyncCommand command = new AsyncCommand("AsyncTimeoutUncancellable", 1, stage, HystrixCommandProperties.Setter()
+                .withExecutionTimeoutEnabled(true)
+                .withExecutionTimeoutInMilliseconds(50));
+
+        try {
+            command.toCompletableFuture().get(1000, TimeUnit.MILLISECONDS);
+            fail("we shouldn't get here");
+        } catch (ExecutionException e) {
+            assertEquals(HystrixRuntimeException.FailureType.TIMEOUT, ((HystrixRuntimeException) e.getCause()).getFailureType());
+        }
+
+        AsyncCommand rejected = new AsyncCommand("AsyncTimeoutUncancellable", 1, CompletableFuture.completedFuture(2));
+        try {
+            rejected.toCompletableFuture().get(1000, TimeUnit.MILLISECONDS);
+            fail("the stage that timed out still holds the permit");
+        } catch (ExecutionException e) {
+            assertEquals(HystrixRuntimeException.FailureType.REJECTED_SEMAPHORE_EXECUTION, ((HystrixRuntimeException) e.getCause()).getFailureType());
+        }
+
+        call.complete(1);
+        assertEquals(Integer.valueOf(3), new AsyncCommand("AsyncTimeoutUncancellable", 1, CompletableFuture.completedFuture(3)).toCompletableFuture().get());
+    }
+
+    private static class AsyncCommand extends HystrixAsyncCommand<Integer> {
+        private final CompletionStage<Integer> stage;
+        final AtomicInteger calls = new AtomicInteger();
+        volatile String cacheKey;
+
+        AsyncCommand(String key, int maxConcurrentRequests, CompletionStage<Integer> stage) {
+            this(key, maxConcurrentRequests, stage, HystrixCommandProperties.Setter());
+        }
+
+        AsyncCommand(String key, int maxConcurrentRequests, CompletionStage<Integer> stage, HystrixCommandProperties.Setter properties) {
+            super(Setter.withGroupKey(HystrixCommandGroupKey.Factory.asKey("Async"))
+                    .andCommandKey(HystrixCommandKey.Factory.asKey(key))
+                    .andCommandPropertiesDefaults(properties.withExecutionIsolationSemaphoreMaxConcurrentRequests(maxConcurrentRequests)));
+            this.stage = stage;
+        }
+
+        @Override
+        protected CompletionStage<Integer> runAsync() {
+            calls.incrementAndGet();
+            return stage;
+        }
+
+        @Override
+        protected String getCacheKey() {
+            return cacheKey;
+        }
+    }
+}
@@ -0,0 +1,186 @@
+/*
+ * Copyright 2016 Netflix, Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.netflix.hystrix;
+
+import com.hystrix.junit.HystrixRequestContextRule;
+import com.netflix.hystrix.HystrixCollapser.CollapsedRequest;
+import com.netflix.hystrix.HystrixCollapserTest.TestCollapserTimer;
+import com.netflix.hystrix.strategy.properties.HystrixPropertiesFactory;
+import org.junit.Before;
+import org.junit.Rule;
+import org.junit.Test;
+import rx.Observable;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collection;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.TimeUnit;
+
+import static org.junit.Assert.*;
+
+public class HystrixCollapserDefinitionTest {
+    @Rule
+    public HystrixRequestContextRule context = new HystrixRequestContextRule();
+
+    @Before
+    public void init() {
+        HystrixPropertiesFactory.reset();
+    }
+
+    @Test
+    public void testSubmitReusesDefinition() throws Exception {
+        TestCollapserTimer timer = new TestCollapserTimer();
+        ConcurrentLinkedQueue<Collection<CollapsedRequest<String, String>>> batches = new ConcurrentLinkedQueue<>();
+        TestCollapserDefinition definition = new TestCollapserDefinition(timer, 10000, batches, false);
+
+        Observable<String> response1 = definition.submit("1");
+        Observable<String> response2 = definition.submit("2");
+
+        timer.incrementTime(10); // let time pass that equals the default delay/period
+
+        assertEquals("1", response1.toBlocking().toFuture().get(1000, TimeUnit.MILLISECONDS));
+        assertEquals("2", response2.toBlocking().toFuture().get(1000, TimeUnit.MILLISECONDS));
+        assertEquals(1, batches.size());
+        assertEquals(2, batches.peek().size());
+    }
+
+    @Test
+    public void testSubmitAllIntoSingleBatch() throws Exception {
+        TestCollapserTimer timer = new TestCollapserTimer();
+        ConcurrentLinkedQueue<Collection<CollapsedRequest<String, String>>> batches = new ConcurrentLinkedQueue<>();
+        TestCollapserDefinition definition = new TestCollapserDefinition(timer, 10000, batches, false);
+
+        Map<String, Observable<String>> responses = definition.submitAll(Arrays.asList("1", "2", "3", "2"));
+
+        timer.incrementTime(10); // let time pass that equals the default delay/period
+
+        // duplicates share a response and the iteration order is retained
+        assertEquals(Arrays.asList("1", "2", "3"), new ArrayList<>(responses.keySet()));
+        for (Map.Entry<String, Observable<String>> response : responses.entrySet()) {
+            assertEquals(response.getKey(), response.getValue().toBlocking().toFuture().get(1000, TimeUnit.MILLISECONDS));
+        }
+        assertEquals(1, batches.size());
+        assertEquals(3, batches.peek().size());
+    }
+
+    @Test
+    public void testSubmitAllSpillsOverIntoNextBatch() throws Exception {
+        TestCollapserTimer timer = new TestCollapserTimer();
+        ConcurrentLinkedQueue<Collection<CollapsedRequest<String, String>>> batches = new ConcurrentLinkedQueue<>();
+        TestCollapserDefinition definition = new TestCollapserDefinition(timer, 2, batches, false);
+
+        Map<String, Observable<String>> responses = definition.submitAll(Arrays.asList("1", "2", "3", "4", "5"));
+
+        timer.incrementTime(10); // let time pass that equals the default delay/period
+
+        for (Map.Entry<String, Observable<String>> response : responses.entrySet()) {
+            assertEquals(response.getKey(), response.getValue().toBlocking().toFuture().get(1000, TimeUnit.MILLISECONDS));
+        }
+        assertEquals(3, batches.size());
+        Iterator<Collection<CollapsedRequest<String, String>>> batchIterator = batches.iterator();
+        assertEquals(2, batchIterator.next().size());
+        assertEquals(2, batchIterator.next().size());
+        assertEquals(1, batchIterator.next().size());
+    }
+
+    @Test
+    public void testSubmitAllUsesRequestCache() throws Exception {
+        TestCollapserTimer timer = new TestCollapserTimer();
+        ConcurrentLinkedQueue<Collection<CollapsedRequest<String, String>>> batches = new ConcurrentLinkedQueue<>();
+        TestCollapserDefinition definition = new TestCollapserDefinition(timer, 10000, batches, true);
+
+        Observable<String> response1 = definition.submit("1");
+        timer.incrementTime(10); // let time pass that equals the default delay/period
+        assertEquals("1", response1.toBlocking().toFuture().get(1000, TimeUnit.MILLISECONDS));
+
+        Map<String, Observable<String>> responses = definition.submitAll(Arrays.asList("1", "2"));
+        timer.incrementTime(10); // let time pass that equals the default delay/period
+
+        assertEquals("1", responses.get("1").toBlocking().toFuture().get(1000, TimeUnit.MILLISECONDS));
+        assertEquals("2", responses.get("2").toBlocking().toFuture().get(1000, TimeUnit.MILLISECONDS));
+        // "1" came from the request cache so the second batch only contains "2"
+        assertEquals(2, batches.size());
+        Iterator<Collection<CollapsedRequest<String, String>>> batchIterator = batches.iterator();
+        assertEquals(1, batchIterator.next().size());
+        assertEquals("2", batchIterator.next().iterator().next().getArgument());
+    }
+
+    @Test
+    public void testSubmitClaimsPrefetch() throws Exception {
+        TestCollapserTimer timer = new TestCollapserTimer();
+        ConcurrentLinkedQueue<Collection<CollapsedRequest<String, String>>> batches = new ConcurrentLinkedQueue<>();
+        TestCollapserDefinition definition = new TestCollapserDefinition(timer, 10000, batches, true);
+
+        definition.prefetch("1");
+        timer.incrementTime(10); // let time pass that equals the default delay/period
+
+        Observable<String> response = definition.submit("1");
+        timer.incrementTime(10); // let time pass that equals the default delay/period
+        assertEquals("1", response.toBlocking().toFuture().get(1000, TimeUnit.MILLISECONDS));
+        // the submit attached to the prefetch
+        assertEquals(1, batches.size());
+
+        context.reset();
+        assertEquals(1, HystrixCounters.getCollapserPrefetchCount(definition.getCollapserKey()));
+        assertEquals(0, HystrixCounters.getCollapserUnclaimedPrefetchCount(definition.getCollapserKey()));
+    }
+
+    private static class TestCollapserDefinition extends HystrixCollapserDefinition<List<String>, String, String> {
+
+        private final ConcurrentLinkedQueue<Collection<CollapsedRequest<String, String>>> batches;
+        private final boolean cacheResponses;
+
+        TestCollapserDefinition(TestCollapserTimer timer, int maxRequestsInBatch, ConcurrentLinkedQueue<Collection<CollapsedRequest<String, String>>> batches, boolean cacheResponses) {
+            // use a CollapserKey based on the CollapserTimer object reference so it's unique for each timer as we don't want caching
+            // of properties to occur and we're using the default HystrixProperty which typically does caching
+            super(() -> String.valueOf(timer), HystrixCollapser.Scope.REQUEST, timer, HystrixCollapserProperties.Setter().withMaxRequestsInBatch(maxRequestsInBatch).withTimerDelayInMilliseconds(10));
+            this.batches = batches;
+            this.cacheResponses = cacheResponses;
+        }
+
+        @Override
+        protected HystrixCommand<List<String>> createCommand(final Collection<CollapsedRequest<String, String>> requests) {
+            batches.add(requests);
+            return new TestHystrixCommand<List<String>>(TestHystrixCommand.testPropsBuilder().setCommandPropertiesDefaults(HystrixCommandPropertiesTest.getUnitTestPropertiesSetter())) {
+                @Override
+                protected List<String> run() {
+                    List<String> response = new ArrayList<>();
+                    for (CollapsedRequest<String, String> request : requests) {
+                        response.add(request.getArgument());
+                    }
+                    return response;
+                }
+            };
+        }
+
+        @Override
+        protected void mapResponseToRequests(List<String> batchResponse, Collection<CollapsedRequest<String, String>> requests) {
+            int i = 0;
+            for (CollapsedRequest<String, String> request : requests) {
+                request.setResponse(batchResponse.get(i++));
+            }
+        }
+
+        @Override
+        protected String getCacheKey(String requestArgument) {
+            return cacheResponses ? requestArgument : null;
+        }
+    }
+}
@@ -21,8 +21,11 @@ import com.netflix.hystrix.collapser.CollapserTimer;
 import com.netflix.hystrix.collapser.RealCollapserTimer;
 import com.netflix.hystrix.collapser.RequestCollapser;
 import com.netflix.hystrix.collapser.RequestCollapserFactory;
+import com.netflix.hystrix.collapser.RequestCollapserSnapshot;
+import com.netflix.hystrix.exception.HystrixRuntimeException;
 import com.netflix.hystrix.strategy.HystrixPlugins;
 import com.netflix.hystrix.strategy.concurrency.HystrixContextRunnable;
+import com.netflix.hystrix.strategy.executionhook.HystrixCollapserExecutionHook;
 import com.netflix.hystrix.strategy.concurrency.HystrixRequestContext;
 import com.netflix.hystrix.strategy.concurrency.HystrixRequestVariableHolder;
 import com.netflix.hystrix.strategy.properties.HystrixPropertiesFactory;
@@ -38,6 +41,7 @@ import rx.observers.TestSubscriber;
 import java.lang.ref.Reference;
 import java.lang.ref.SoftReference;
 import java.util.ArrayList;
+import java.util.Arrays;
 import java.util.Collection;
 import java.util.List;
 import java.util.concurrent.*;
@@ -106,6 +110,200 @@ public class HystrixCollapserTest {
         assertEquals("3", response3.get(1000, TimeUnit.MILLISECONDS));
     }
 
+    @Test
+    public void testMinRequestsInBatchExecutesWithoutWaitingForTick() throws Exception {
+        TestCollapserTimer timer = new TestCollapserTimer();
+        ConcurrentLinkedQueue<HystrixCommand<List<String>>> executionLog = new ConcurrentLinkedQueue<>();
+        HystrixCollapserProperties.Setter properties = HystrixCollapserProperties.Setter().withMinRequestsInBatch(2).withMaxWaitInMilliseconds(100);
+        Future<String> response1 = new TestRequestCollapser(timer, "1", properties, executionLog).queue();
+        Future<String> response2 = new TestRequestCollapser(timer, "2", properties, executionLog).queue();
+
+        // no time passes on the timer
+        assertEquals("1", response1.get(1000, TimeUnit.MILLISECONDS));
+        assertEquals("2", response2.get(1000, TimeUnit.MILLISECONDS));
+        assertEquals(1, executionLog.size());
+    }
+
+    @Test
+    public void testBatchBelowMinRequestsIsHeldUntilMaxWait() throws Exception {
+        TestCollapserTimer timer = new TestCollapserTimer();
+        ConcurrentLinkedQueue<HystrixCommand<List<String>>> executionLog = new ConcurrentLinkedQueue<>();
+        HystrixCollapserProperties.Setter properties = HystrixCollapserProperties.Setter().withMinRequestsInBatch(3).withMaxWaitInMilliseconds(200);
+        Future<String> response1 = new TestRequestCollapser(timer, "1", properties, executionLog).queue();
+
+        timer.incrementTime(10); // let time pass that equals the default delay/period
+        Future<String> response2 = new TestRequestCollapser(timer, "2", properties, executionLog).queue();
+        timer.incrementTime(10);
+        // still below the minimum and the max wait has not passed
+        assertTrue(executionLog.isEmpty());
+
+        // the wait is measured from the first request, not in timer ticks
+        Thread.sleep(200);
+        timer.incrementTime(10);
+        assertEquals("1", response1.get(1000, TimeUnit.MILLISECONDS));
+        assertEquals("2", response2.get(1000, TimeUnit.MILLISECONDS));
+        assertEquals(1, executionLog.size());
+    }
+
+    @Test
+    public void testTenantOverQuotaIsDeferredToNextBatch() throws Exception {
+        TestCollapserTimer timer = new TestCollapserTimer();
+        ConcurrentLinkedQueue<HystrixCommand<List<String>>> executionLog = new ConcurrentLinkedQueue<>();
+        // each tenant may take 2 of the 4 slots
+        HystrixCollapserProperties.Setter properties = HystrixCollapserProperties.Setter().withMaxRequestsInBatch(4).withTenantQuotaMaxShareOfBatchPercentage(50);
+        Future<String> response1 = new TestTenantCollapser(timer, "a:1", properties, executionLog).queue();
+        Future<String> response2 = new TestTenantCollapser(timer, "a:2", properties, executionLog).queue();
+        Future<String> response3 = new TestTenantCollapser(timer, "a:3", properties, executionLog).queue();
+        Future<String> response4 = new TestTenantCollapser(timer, "b:1", properties, executionLog).queue();
+
+        timer.incrementTime(10); // let time pass that equals the default delay/period
+        assertEquals("a:1", response1.get(1000, TimeUnit.MILLISECONDS));
+        assertEquals("a:2", response2.get(1000, TimeUnit.MILLISECONDS));
+        assertEquals("b:1", response4.get(1000, TimeUnit.MILLISECONDS));
+        assertEquals(1, executionLog.size());
+        assertEquals(3, ((TestCollapserCommand) executionLog.peek()).requests.size());
+        assertFalse(response3.isDone());
+
+        timer.incrementTime(10); // the next batch holds the deferred request
+        assertEquals("a:3", response3.get(1000, TimeUnit.MILLISECONDS));
+        assertEquals(2, executionLog.size());
+    }
+
+    @Test
+    public void testTenantOverQuotaIsDeferredOnlyToTheNextBatch() throws Exception {
+        TestCollapserTimer timer = new TestCollapserTimer();
+        ConcurrentLinkedQueue<HystrixCommand<List<String>>> executionLog = new ConcurrentLinkedQueue<>();
+        // each tenant may take 2 of the 4 slots
+        HystrixCollapserProperties.Setter properties = HystrixCollapserProperties.Setter().withMaxRequestsInBatch(4).withTenantQuotaMaxShareOfBatchPercentage(50);
+        List<Future<String>> responses = new ArrayList<>();
+        for (int i = 1; i <= 5; i++) {
+            responses.add(new TestTenantCollapser(timer, "a:" + i, properties, executionLog).queue());
+        }
+
+        // the next batch already holds the quota of the tenant, so it does not defer any further
+        try {
+            responses.get(4).get(1000, TimeUnit.MILLISECONDS);
+            fail("expected the request over the quota of the next batch as well to be rejected");
+        } catch (ExecutionException e) {
+            assertTrue(e.getCause() instanceof RejectedExecutionException);
+        }
+
+        timer.incrementTime(10); // let time pass that equals the default delay/period
+        assertEquals("a:1", responses.get(0).get(1000, TimeUnit.MILLISECONDS));
+        assertEquals("a:2", responses.get(1).get(1000, TimeUnit.MILLISECONDS));
+
+        timer.incrementTime(10); // the next batch holds the deferred requests
+        assertEquals("a:3", responses.get(2).get(1000, TimeUnit.MILLISECONDS));
+        assertEquals("a:4", responses.get(3).get(1000, TimeUnit.MILLISECONDS));
+        assertEquals(2, executionLog.size());
+    }
+
+    @Test
+    public void testHybridScopeTracksDeferredRequestAgainstTheNextBatch() throws Exception {
+        TestCollapserTimer timer = new TestCollapserTimer();
+        ConcurrentLinkedQueue<HystrixCommand<List<String>>> executionLog = new ConcurrentLinkedQueue<>();
+        // each tenant may take 2 of the 4 slots
+        HystrixCollapserProperties.Setter properties = HystrixCollapserProperties.Setter().withMaxRequestsInBatch(4).withTenantQuotaMaxShareOfBatchPercentage(50);
+        Future<String> response1 = new TestTenantCollapser(HystrixCollapser.Scope.HYBRID, timer, "a:1", properties, executionLog).queue();
+        Future<String> response2 = new TestTenantCollapser(HystrixCollapser.Scope.HYBRID, timer, "a:2", properties, executionLog).queue();
+
+        // simulate a new request whose request is deferred and that ends before the next batch is executed
+        HystrixRequestContext otherRequest = HystrixRequestContext.initializeContext();
+        Future<String> response3 = new TestTenantCollapser(HystrixCollapser.Scope.HYBRID, timer, "a:3", properties, executionLog).queue();
+
+        timer.incrementTime(10); // let time pass that equals the default delay/period
+        assertEquals("a:1", response1.get(1000, TimeUnit.MILLISECONDS));
+        assertEquals("a:2", response2.get(1000, TimeUnit.MILLISECONDS));
+
+        otherRequest.shutdown();
+        HystrixRequestContext.setContextOnCurrentThread(context.context());
+        try {
+            response3.get(1000, TimeUnit.MILLISECONDS);
+            fail("expected the deferred request of the shut down user request to fail");
+        } catch (ExecutionException e) {
+            assertTrue(e.getCause() instanceof IllegalStateException);
+        }
+    }
+
+    @Test
+    public void testDuplicatesOfARequestOverTheTenantQuotaAreCompleted() throws Exception {
+        // each tenant may take 2 of the 4 slots
+        HystrixCollapserProperties.Setter properties = HystrixCollapserProperties.Setter().withMaxRequestsInBatch(4).withTenantQuotaMaxShareOfBatchPercentage(50);
+        ExecutorService executor = Executors.newFixedThreadPool(8);
+        try {
+            for (int round = 0; round < 10; round++) {
+                TestCollapserTimer timer = new TestCollapserTimer();
+                new SlowTenantCollapser(timer, "a:1", properties).queue();
+                new SlowTenantCollapser(timer, "a:2", properties).queue();
+
+                // equal arguments of a tenant over its quota arrive at the same time, each of them is deferred, rejected or shares a request
+                CyclicBarrier barrier = new CyclicBarrier(8);
+                List<Future<Future<String>>> submissions = new ArrayList<>();
+                for (int i = 0; i < 8; i++) {
+                    submissions.add(executor.submit(() -> {
+                        HystrixRequestContext requestContext = HystrixRequestContext.initializeContext();
+                        try {
+                            barrier.await();
+                            return new SlowTenantCollapser(timer, "a:3", properties).queue();
+                        } finally {
+                            requestContext.shutdown();
+                        }
+                    }));
+                }
+                List<Future<String>> responses = new ArrayList<>();
+                for (Future<Future<String>> submission : submissions) {
+                    responses.add(submission.get(1000, TimeUnit.MILLISECONDS));
+                }
+
+                timer.incrementTime(10); // let time pass that equals the default delay/period
+                timer.incrementTime(10); // the next batch holds the deferred request
+                for (Future<String> response : responses) {
+                    try {
+                        assertEquals("a:3", response.get(1000, TimeUnit.MILLISECONDS));
+                    } catch (ExecutionException e) {
+                        assertTrue(e.getCause() instanceof RejectedExecutionException);
+                    }
+                }
+            }
+        } finally {
+            executor.shutdownNow();
+        }
+    }
+
+    @Test
+    public void testTenantOverQuotaIsRejected() throws Exception {
+        TestCollapserTimer timer = new TestCollapserTimer();
+        HystrixCollapserProperties.Setter properties = HystrixCollapserProperties.Setter().withMaxRequestsInBatch(4).withTenantQuotaMaxShareOfBatchPercentage(50)
+                .withTenantQuotaOverflowPolicy(HystrixCollapserProperties.TenantQuotaOverflowPolicy.REJECT);
+        Future<String> response1 = new TestTenantCollapser(timer, "a:1", properties, null).queue();
+        Future<String> response2 = new TestTenantCollapser(timer, "a:2", properties, null).queue();
+        Future<String> response3 = new TestTenantCollapser(timer, "a:3", properties, null).queue();
+
+        timer.incrementTime(10); // let time pass that equals the default delay/period
+        assertEquals("a:1", response1.get(1000, TimeUnit.MILLISECONDS));
+        assertEquals("a:2", response2.get(1000, TimeUnit.MILLISECONDS));
+        try {
+            response3.get(1000, TimeUnit.MILLISECONDS);
+            fail("expected the request over the tenant quota to be rejected");
+        } catch (ExecutionException e) {
+            assertTrue(e.getCause() instanceof RejectedExecutionException);
+        }
+    }
+
+    @Test
+    public void testTenantWeightMultipliesQuota() throws Exception {
+        TestCollapserTimer timer = new TestCollapserTimer();
+        ConcurrentLinkedQueue<HystrixCommand<List<String>>> executionLog = new ConcurrentLinkedQueue<>();
+        HystrixCollapserProperties.Setter properties = HystrixCollapserProperties.Setter().withMaxRequestsInBatch(4).withTenantQuotaMaxShareOfBatchPercentage(25);
+        Future<String> response1 = new TestTenantCollapser(timer, "heavy:1", properties, executionLog).queue();
+        Future<String> response2 = new TestTenantCollapser(timer, "heavy:2", properties, executionLog).queue();
+
+        timer.incrementTime(10); // let time pass that equals the default delay/period
+        assertEquals("heavy:1", response1.get(1000, TimeUnit.MILLISECONDS));
+        assertEquals("heavy:2", response2.get(1000, TimeUnit.MILLISECONDS));
+        assertEquals(1, executionLog.size());
+    }
+
     @Test
     public void testRequestsOverTime() throws Exception {
         TestCollapserTimer timer = new TestCollapserTimer();
@@ -405,6 +603,140 @@ public class HystrixCollapserTest {
         assertEquals("4", response4.get(1000, TimeUnit.MILLISECONDS));
     }
 
+    @Test
+    public void testHybridScope() throws Exception {
+        TestCollapserTimer timer = new TestCollapserTimer();
+        ConcurrentLinkedQueue<HystrixCommand<List<String>>> commands = new ConcurrentLinkedQueue<>();
+        Future<String> response1 = new TestRequestCollapser(HystrixCollapser.Scope.HYBRID, timer, "1", 10000, 10, commands).queue();
+        Future<String> response2 = new TestRequestCollapser(HystrixCollapser.Scope.HYBRID, timer, "2", 10000, 10, commands).queue();
+
+        // simulate a new request
+        HystrixRequestContext otherRequest = HystrixRequestContext.initializeContext();
+        try {
+            Future<String> response3 = new TestRequestCollapser(HystrixCollapser.Scope.HYBRID, timer, "3", 10000, 10, commands).queue();
+            Future<String> response4 = new TestRequestCollapser(HystrixCollapser.Scope.HYBRID, timer, "4", 10000, 10, commands).queue();
+
+            timer.incrementTime(10); // let time pass that equals the default delay/period
+
+            assertEquals("1", response1.get(1000, TimeUnit.MILLISECONDS));
+            assertEquals("2", response2.get(1000, TimeUnit.MILLISECONDS));
+            assertEquals("3", response3.get(1000, TimeUnit.MILLISECONDS));
+            assertEquals("4", response4.get(1000, TimeUnit.MILLISECONDS));
+        } finally {
+            otherRequest.shutdown();
+            HystrixRequestContext.setContextOnCurrentThread(context.context());
+        }
+
+        // both user requests were collapsed into a single batch
+        assertEquals(1, commands.size());
+    }
+
+    @Test
+    public void testHybridScopeSharesDuplicateArgumentsWithRequestCachingOff() throws Exception {
+        TestCollapserTimer timer = new TestCollapserTimer();
+        ConcurrentLinkedQueue<HystrixCommand<List<String>>> commands = new ConcurrentLinkedQueue<>();
+        HystrixCollapserProperties.Setter properties = HystrixCollapserProperties.Setter().withMaxRequestsInBatch(10000).withTimerDelayInMilliseconds(10).withRequestCacheEnabled(false);
+        Future<String> response1 = new TestRequestCollapser(HystrixCollapser.Scope.HYBRID, timer, "1", properties, commands).queue();
+
+        // simulate a new request asking for the same argument
+        HystrixRequestContext otherRequest = HystrixRequestContext.initializeContext();
+        try {
+            Future<String> response2 = new TestRequestCollapser(HystrixCollapser.Scope.HYBRID, timer, "1", properties, commands).queue();
+
+            // the duplicate did not dispatch the batch early
+            assertEquals(0, commands.size());
+            timer.incrementTime(10); // let time pass that equals the default delay/period
+
+            assertEquals("1", response1.get(1000, TimeUnit.MILLISECONDS));
+            assertEquals("1", response2.get(1000, TimeUnit.MILLISECONDS));
+        } finally {
+            otherRequest.shutdown();
+            HystrixRequestContext.setContextOnCurrentThread(context.context());
+        }
+
+        assertEquals(1, commands.size());
+        assertEquals(1, ((TestCollapserCommand) commands.peek()).requests.size());
+    }
+
+    @Test
+    public void testHybridScopeShutdownOfOneRequestOnlyFailsItsOwnRequests() throws Exception {
+        TestCollapserTimer timer = new TestCollapserTimer();
+        ConcurrentLinkedQueue<HystrixCommand<List<String>>> commands = new ConcurrentLinkedQueue<>();
+        Future<String> response1 = new TestRequestCollapser(HystrixCollapser.Scope.HYBRID, timer, "1", 10000, 10, commands).queue();
+
+        // simulate a new request that ends before the batch is executed
+        HystrixRequestContext otherRequest = HystrixRequestContext.initializeContext();
+        Future<String> response2 = new TestRequestCollapser(HystrixCollapser.Scope.HYBRID, timer, "2", 10000, 10, commands).queue();
+        otherRequest.shutdown();
+        HystrixRequestContext.setContextOnCurrentThread(context.context());
+
+        try {
+            response2.get(1000, TimeUnit.MILLISECONDS);
+            fail("expected the request of the shut down user request to fail");
+        } catch (ExecutionException e) {
+            assertTrue(e.getCause() instanceof IllegalStateException);
+        }
+
+        timer.incrementTime(10); // let time pass that equals the default delay/period
+
+        assertEquals("1", response1.get(1000, TimeUnit.MILLISECONDS));
+        assertEquals(1, commands.size());
+        // the argument of the shut down user request was removed from the batch
+        assertEquals(1, ((TestCollapserCommand) commands.peek()).requests.size());
+    }
+
+    @Test
+    public void testSubmitAsync() throws Exception {
+        TestCollapserTimer timer = new TestCollapserTimer();
+        ConcurrentLinkedQueue<HystrixCommand<List<String>>> commands = new ConcurrentLinkedQueue<>();
+        CompletableFuture<String> response1 = new TestRequestCollapser(timer, "1", commands).submitAsync();
+        CompletableFuture<String> response2 = new TestRequestCollapser(timer, "2", commands).submitAsync();
+        assertFalse(response1.isDone());
+
+        timer.incrementTime(10); // let time pass that equals the default delay/period
+
+        assertEquals("1", response1.get(1000, TimeUnit.MILLISECONDS));
+        assertEquals("2", response2.get(1000, TimeUnit.MILLISECONDS));
+        assertEquals(1, commands.size());
+    }
+
+    @Test
+    public void testSubmitAsyncCancelRemovesFromBatch() throws Exception {
+        TestCollapserTimer timer = new TestCollapserTimer();
+        ConcurrentLinkedQueue<HystrixCommand<List<String>>> commands = new ConcurrentLinkedQueue<>();
+        CompletableFuture<String> response1 = new TestRequestCollapser(timer, "1", commands).submitAsync();
+        CompletableFuture<String> response2 = new TestRequestCollapser(timer, "2", commands).submitAsync();
+        assertTrue(response2.cancel(true));
+
+        timer.incrementTime(10); // let time pass that equals the default delay/period
+
+        assertEquals("1", response1.get(1000, TimeUnit.MILLISECONDS));
+        assertEquals(1, commands.size());
+        assertEquals(1, ((TestCollapserCommand) commands.peek()).requests.size());
+    }
+
+    @Test
+    public void testSubmitAsyncWithException() throws Exception {
+        TestCollapserTimer timer = new TestCollapserTimer();
+        CompletableFuture<String> response1 = new TestRequestCollapser(timer, "1").submitAsync();
+        CompletableFuture<String> response2 = new TestRequestCollapser(timer, "FAILURE").submitAsync();
+
+        timer.incrementTime(10); // let time pass that equals the default delay/period
+
+        try {
+            response1.get(1000, TimeUnit.MILLISECONDS);
+            fail("expected the batch failure to fail all requests in it");
+        } catch (ExecutionException e) {
+            assertTrue(e.getCause() instanceof HystrixRuntimeException);
+        }
+        try {
+            response2.get(1000, TimeUnit.MILLISECONDS);
+            fail("expected the batch failure to fail all requests in it");
+        } catch (ExecutionException e) {
+            assertTrue(e.getCause() instanceof HystrixRuntimeException);
+        }
+    }
+
     @Test
     public void testErrorHandlingViaFutureException() throws Exception {
         TestCollapserTimer timer = new TestCollapserTimer();
@@ -720,6 +1052,171 @@ public class HystrixCollapserTest {
         }
     }
 
+    /**
+     * Test that an execution after the batch window attaches to the prefetched request instead of going into a new batch
+     */
+    @Test
+    public void testPrefetchIsClaimedByLaterExecution() throws Exception {
+        final TestCollapserTimer timer = new TestCollapserTimer();
+        ConcurrentLinkedQueue<HystrixCommand<List<String>>> executionLog = new ConcurrentLinkedQueue<HystrixCommand<List<String>>>();
+        SuccessfulCacheableCollapsedCommand prefetcher = new SuccessfulCacheableCollapsedCommand(timer, "A", true, executionLog);
+        SuccessfulCacheableCollapsedCommand other = new SuccessfulCacheableCollapsedCommand(timer, "B", true, executionLog);
+
+        prefetcher.prefetch();
+        Future<String> f1 = other.queue();
+
+        // increment past batch time so it executes
+        timer.incrementTime(10);
+        assertEquals("B", f1.get(1000, TimeUnit.MILLISECONDS));
+
+        Future<String> f2 = new SuccessfulCacheableCollapsedCommand(timer, "A", true, executionLog).queue();
+        timer.incrementTime(10);
+        assertEquals("A", f2.get(1000, TimeUnit.MILLISECONDS));
+
+        // the prefetch went into the first batch and nothing else was executed
+        assertEquals(1, executionLog.size());
+        assertEquals(2, ((TestCollapserCommand) executionLog.peek()).requests.size());
+
+        HystrixCollapserKey key = prefetcher.getCollapserKey();
+        context.reset();
+        assertEquals(1, HystrixCounters.getCollapserPrefetchCount(key));
+        assertEquals(0, HystrixCounters.getCollapserUnclaimedPrefetchCount(key));
+    }
+
+    @Test
+    public void testUnclaimedPrefetchIsCountedAtRequestEnd() throws Exception {
+        final TestCollapserTimer timer = new TestCollapserTimer();
+        SuccessfulCacheableCollapsedCommand prefetcher = new SuccessfulCacheableCollapsedCommand(timer, "A", true);
+
+        Observable<String> prefetched = prefetcher.prefetch();
+        // a second prefetch of the same request is served from the cache
+        new SuccessfulCacheableCollapsedCommand(timer, "A", true).prefetch();
+        timer.incrementTime(10);
+        assertEquals("A", prefetched.toBlocking().toFuture().get(1000, TimeUnit.MILLISECONDS));
+
+        HystrixCollapserKey key = prefetcher.getCollapserKey();
+        assertEquals(0, HystrixCounters.getCollapserUnclaimedPrefetchCount(key));
+        context.reset();
+        assertEquals(1, HystrixCounters.getCollapserPrefetchCount(key));
+        assertEquals(1, HystrixCounters.getCollapserUnclaimedPrefetchCount(key));
+    }
+
+    @Test(expected = IllegalStateException.class)
+    public void testPrefetchRequiresCacheKey() {
+        new SuccessfulCacheableCollapsedCommand(new TestCollapserTimer(), "A", false).prefetch();
+    }
+
+    @Test
+    public void testSnapshotOfRequestScopedCollapser() throws Exception {
+        final TestCollapserTimer timer = new TestCollapserTimer();
+        TestRequestCollapser collapser1 = new TestRequestCollapser(timer, 1);
+        Future<String> response1 = collapser1.queue();
+        Future<String> response2 = new TestRequestCollapser(timer, 2).queue();
+
+        RequestCollapserSnapshot snapshot = getSnapshot(collapser1.getCollapserKey());
+        assertEquals("REQUEST", snapshot.getScope());
+        assertEquals(2, snapshot.getCurrentBatchSize());
+        assertTrue(snapshot.getOldestPendingRequestAgeInMilliseconds() >= 0);
+        assertEquals(0, snapshot.getInFlightBatchCount());
+        assertTrue(snapshot.isTimerListenerRegistered());
+
+        timer.incrementTime(10); // let time pass that equals the default delay/period
+        assertEquals("1", response1.get(1000, TimeUnit.MILLISECONDS));
+        assertEquals("2", response2.get(1000, TimeUnit.MILLISECONDS));
+
+        snapshot = getSnapshot(collapser1.getCollapserKey());
+        assertEquals(0, snapshot.getCurrentBatchSize());
+        assertEquals(-1, snapshot.getOldestPendingRequestAgeInMilliseconds());
+        // the batch command terminates right after the responses are delivered
+        for (int i = 0; i < 100 && snapshot.getInFlightBatchCount() > 0; i++) {
+            Thread.sleep(10);
+            snapshot = getSnapshot(collapser1.getCollapserKey());
+        }
+        assertEquals(0, snapshot.getInFlightBatchCount());
+    }
+
+    @Test
+    public void testSnapshotDoesNotCreateRequestScopedCollapsers() throws Exception {
+        final AtomicInteger batchesCreated = new AtomicInteger();
+        HystrixPlugins.getInstance().registerCollapserExecutionHook(new HystrixCollapserExecutionHook() {
+            @Override
+            public void onBatchCreated(HystrixCollapserKey collapserKey) {
+                batchesCreated.incrementAndGet();
+            }
+        });
+        try {
+            final TestCollapserTimer timer = new TestCollapserTimer();
+            TestRequestCollapser collapser = new TestRequestCollapser(timer, 1);
+            Future<String> response = collapser.queue();
+            assertEquals(1, batchesCreated.get());
+
+            // another user request that has not used the collapser
+            HystrixRequestContext otherRequest = HystrixRequestContext.initializeContext();
+            try {
+                for (RequestCollapserSnapshot snapshot : RequestCollapserFactory.getSnapshots()) {
+                    assertFalse(snapshot.getCollapserKey().equals(collapser.getCollapserKey().name()));
+                }
+                assertEquals(1, batchesCreated.get());
+            } finally {
+                otherRequest.shutdown();
+                HystrixRequestContext.setContextOnCurrentThread(context.context());
+            }
+
+            assertEquals(1, getSnapshot(collapser.getCollapserKey()).getCurrentBatchSize());
+            timer.incrementTime(10); // let time pass that equals the default delay/period
+            assertEquals("1", response.get(1000, TimeUnit.MILLISECONDS));
+        } finally {
+            HystrixPlugins.reset();
+        }
+    }
+
+    @Test
+    public void testCollapserExecutionHook() throws Exception {
+        final ConcurrentLinkedQueue<String> events = new ConcurrentLinkedQueue<String>();
+        HystrixPlugins.getInstance().registerCollapserExecutionHook(new HystrixCollapserExecutionHook() {
+            @Override
+            public void onBatchCreated(HystrixCollapserKey collapserKey) {
+                events.add("created");
+            }
+
+            @Override
+            public void onBatchDispatched(HystrixCollapserKey collapserKey, int batchSize, int shardCount, long windowAgeInMilliseconds) {
+                events.add("dispatched:" + batchSize + ":" + shardCount);
+            }
+
+            @Override
+            public void onBatchCompleted(HystrixCollapserKey collapserKey, int shardSize, long executionTimeInMilliseconds, long demuxTimeInMilliseconds) {
+                events.add("completed:" + shardSize + ":" + (demuxTimeInMilliseconds <= executionTimeInMilliseconds));
+            }
+        });
+        try {
+            final TestCollapserTimer timer = new TestCollapserTimer();
+            Future<String> response1 = new TestRequestCollapser(timer, 1).queue();
+            Future<String> response2 = new TestRequestCollapser(timer, 2).queue();
+            timer.incrementTime(10); // let time pass that equals the default delay/period
+
+            assertEquals("1", response1.get(1000, TimeUnit.MILLISECONDS));
+            assertEquals("2", response2.get(1000, TimeUnit.MILLISECONDS));
+            // the batch command terminates right after the responses are delivered
+            for (int i = 0; i < 100 && !events.contains("completed:2:true"); i++) {
+                Thread.sleep(10);
+            }
+            // the second 'created' is the batch that replaced the dispatched one
+            assertEquals(Arrays.asList("created", "created", "dispatched:2:1", "completed:2:true"), new ArrayList<String>(events));
+        } finally {
+            HystrixPlugins.reset();
+        }
+    }
+
+    private static RequestCollapserSnapshot getSnapshot(HystrixCollapserKey key) {
+        for (RequestCollapserSnapshot snapshot : RequestCollapserFactory.getSnapshots()) {
+            if (snapshot.getCollapserKey().equals(key.name())) {
+                return snapshot;
+            }
+        }
+        throw new AssertionError("No snapshot for " + key.name());
+    }
+
     /**
      * Test command that uses a null request argument
      */
@@ -877,6 +1374,20 @@ public class HystrixCollapserTest {
         assertNull(collapser1.execute());
     }
 
+    @Test
+    public void testSubMillisecondWindowOnHighResolutionTimer() throws Exception {
+        // the millisecond window is far longer than the test, so only the high resolution timer can execute the batch
+        HystrixCollapserProperties.Setter properties = HystrixCollapserProperties.Setter().withTimerDelayInMilliseconds(60000).withTimerDelayInMicroseconds(500);
+        ConcurrentLinkedQueue<List<String>> batches = new ConcurrentLinkedQueue<>();
+        Future<Integer> response1 = new MicrosecondWindowCollapser("1", properties, batches).queue();
+        Future<Integer> response2 = new MicrosecondWindowCollapser("2", properties, batches).queue();
+
+        assertEquals(1, response1.get(1000, TimeUnit.MILLISECONDS).intValue());
+        assertEquals(2, response2.get(1000, TimeUnit.MILLISECONDS).intValue());
+        assertEquals(1, batches.size());
+        assertEquals(Arrays.asList("1", "2"), batches.peek());
+    }
+
     @Test
     public void testEarlyUnsubscribeExecutedViaToObservable() throws Exception {
         TestCollapserTimer timer = new TestCollapserTimer();
@@ -1508,9 +2019,17 @@ public class HystrixCollapserTest {
         }
 
         public TestRequestCollapser(Scope scope, TestCollapserTimer timer, String value, int defaultMaxRequestsInBatch, int defaultTimerDelayInMilliseconds, ConcurrentLinkedQueue<HystrixCommand<List<String>>> executionLog) {
+            this(scope, timer, value, HystrixCollapserProperties.Setter().withMaxRequestsInBatch(defaultMaxRequestsInBatch).withTimerDelayInMilliseconds(defaultTimerDelayInMilliseconds), executionLog);
+        }
+
+        public TestRequestCollapser(TestCollapserTimer timer, String value, HystrixCollapserProperties.Setter properties, ConcurrentLinkedQueue<HystrixCommand<List<String>>> executionLog) {
+            this(Scope.REQUEST, timer, value, properties, executionLog);
+        }
+
+        public TestRequestCollapser(Scope scope, TestCollapserTimer timer, String value, HystrixCollapserProperties.Setter properties, ConcurrentLinkedQueue<HystrixCommand<List<String>>> executionLog) {
             // use a CollapserKey based on the CollapserTimer object reference so it's unique for each timer as we don't want caching
             // of properties to occur and we're using the default HystrixProperty which typically does caching
-            super(collapserKeyFromString(timer), scope, timer, HystrixCollapserProperties.Setter().withMaxRequestsInBatch(defaultMaxRequestsInBatch).withTimerDelayInMilliseconds(defaultTimerDelayInMilliseconds));
+            super(collapserKeyFromString(timer), scope, timer, properties);
             this.value = value;
             this.commandsExecuted = executionLog;
         }
@@ -1576,6 +2095,53 @@ public class HystrixCollapserTest {
 
     }
 
+    /**
+     * The tenant is the prefix of the argument up to ':'. Tenant 'heavy' has weight 2.
+     */
+    private static class TestTenantCollapser extends TestRequestCollapser {
+
+        public TestTenantCollapser(TestCollapserTimer timer, String value, HystrixCollapserProperties.Setter properties, ConcurrentLinkedQueue<HystrixCommand<List<String>>> executionLog) {
+            this(Scope.GLOBAL, timer, value, properties, executionLog);
+        }
+
+        public TestTenantCollapser(Scope scope, TestCollapserTimer timer, String value, HystrixCollapserProperties.Setter properties, ConcurrentLinkedQueue<HystrixCommand<List<String>>> executionLog) {
+            super(scope, timer, value, properties, executionLog);
+        }
+
+        @Override
+        protected Object getTenantKey(String requestArgument) {
+            return requestArgument.substring(0, requestArgument.indexOf(':'));
+        }
+
+        @Override
+        protected int getTenantWeight(Object tenantKey) {
+            return tenantKey.equals("heavy") ? 2 : 1;
+        }
+
+    }
+
+    /**
+     * A {@link TestTenantCollapser} in GLOBAL scope whose tenant weight takes a moment to look up, which widens the window between finding the
+     * argument missing from the batch and admitting it.
+     */
+    private static class SlowTenantCollapser extends TestTenantCollapser {
+
+        public SlowTenantCollapser(TestCollapserTimer timer, String value, HystrixCollapserProperties.Setter properties) {
+            super(Scope.GLOBAL, timer, value, properties, null);
+        }
+
+        @Override
+        protected int getTenantWeight(Object tenantKey) {
+            try {
+                Thread.sleep(1);
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+            }
+            return super.getTenantWeight(tenantKey);
+        }
+
+    }
+
     /**
      * Test the global scope
      */
@@ -1846,6 +2412,44 @@ public class HystrixCollapserTest {
         return () -> String.valueOf(o);
     }
 
+    private class MicrosecondWindowCollapser extends HystrixCollapser<List<Pair<String, Integer>>, Integer, String> {
+
+        private final String arg;
+        private final ConcurrentLinkedQueue<List<String>> batches;
+
+        MicrosecondWindowCollapser(String arg, HystrixCollapserProperties.Setter properties, ConcurrentLinkedQueue<List<String>> batches) {
+            super(HystrixCollapserKey.Factory.asKey("MicrosecondWindow"), Scope.REQUEST, new RealCollapserTimer(), properties);
+            this.arg = arg;
+            this.batches = batches;
+        }
+
+        @Override
+        public String getRequestArgument() {
+            return arg;
+        }
+
+        @Override
+        protected HystrixCommand<List<Pair<String, Integer>>> createCommand(Collection<CollapsedRequest<Integer, String>> collapsedRequests) {
+            List<String> args = new ArrayList<>(collapsedRequests.size());
+            for (CollapsedRequest<Integer, String> req : collapsedRequests) {
+                args.add(req.getArgument());
+            }
+            batches.add(args);
+            return new MyCommand(args);
+        }
+
+        @Override
+        protected void mapResponseToRequests(List<Pair<String, Integer>> batchResponse, Collection<CollapsedRequest<Integer, String>> collapsedRequests) {
+            for (Pair<String, Integer> pair : batchResponse) {
+                for (CollapsedRequest<Integer, String> collapsedReq : collapsedRequests) {
+                    if (collapsedReq.getArgument().equals(pair.a)) {
+                        collapsedReq.setResponse(pair.b);
+                    }
+                }
+            }
+        }
+    }
+
     private static class TestCollapserWithVoidResponseType extends HystrixCollapser<Void, Void, Integer> {
 
         private final Integer value;
@@ -0,0 +1,189 @@
+/*
+ * Copyright 2016 Netflix, Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.netflix.hystrix;
+
+import com.hystrix.junit.HystrixRequestContextRule;
+import com.netflix.hystrix.exception.HystrixRuntimeException;
+import org.junit.Rule;
+import org.junit.Test;
+import rx.observers.TestSubscriber;
+
+import java.util.concurrent.TimeUnit;
+
+import static org.junit.Assert.*;
+
+public class HystrixCommandPoolTest {
+    @Rule
+    public HystrixRequestContextRule ctx = new HystrixRequestContextRule();
+
+    @Test
+    public void testReleasedCommandIsResetAndReused() {
+        HystrixCommandPool<EchoCommand> pool = new HystrixCommandPool<>(() -> new EchoCommand(HystrixCommandProperties.ExecutionIsolationStrategy.SEMAPHORE));
+
+        EchoCommand first = pool.acquire();
+        first.value = 1;
+        assertEquals(Integer.valueOf(1), first.execute());
+        assertTrue(first.isExecutionComplete());
+        assertTrue(pool.release(first));
+
+        EchoCommand second = pool.acquire();
+        assertSame(first, second);
+        assertFalse(second.isExecutionComplete());
+        assertTrue(second.getExecutionEvents().isEmpty());
+        assertEquals(-1, second.getExecutionTimeInMilliseconds());
+
+        second.value = 2;
+        assertEquals(Integer.valueOf(2), second.execute());
+        assertEquals(1, second.getExecutionEvents().size());
+        assertTrue(second.isSuccessfulExecution());
+    }
+
+    @Test
+    public void testThreadIsolatedCommandIsReused() {
+        HystrixCommandPool<EchoCommand> pool = new HystrixCommandPool<>(() -> new EchoCommand(HystrixCommandProperties.ExecutionIsolationStrategy.THREAD));
+        EchoCommand first = pool.acquire();
+        for (int i = 0; i < 10; i++) {
+            EchoCommand command = i == 0 ? first : pool.acquire();
+            assertSame(first, command);
+            command.value = i;
+            TestSubscriber<Integer> ts = new TestSubscriber<>();
+            command.toObservable().subscribe(ts);
+            ts.awaitTerminalEvent(1000, TimeUnit.MILLISECONDS);
+            ts.assertValue(i);
+            assertTrue(command.isExecutedInThread());
+            assertTrue(pool.release(command));
+        }
+    }
+
+    @Test
+    public void testUseAfterReleaseFails() {
+        HystrixCommandPool<EchoCommand> pool = new HystrixCommandPool<>(() -> new EchoCommand(HystrixCommandProperties.ExecutionIsolationStrategy.SEMAPHORE));
+        EchoCommand command = pool.acquire();
+        command.execute();
+        assertTrue(pool.release(command));
+
+        try {
+            command.execute();
+            fail("a released command must not execute");
+        } catch (HystrixRuntimeException e) {
+            assertTrue(e.getCause() instanceof IllegalStateException);
+            assertTrue(e.getCause().getMessage().contains("released"));
+        }
+
+        try {
+            pool.release(command);
+            fail("a command must not be released twice");
+        } catch (IllegalStateException e) {
+            // expected
+        }
+    }
+
+    @Test
+    public void testCommandStillRunningIsNotReused() throws Exception {
+        HystrixCommandPool<EchoCommand> pool = new HystrixCommandPool<>(() -> new EchoCommand(HystrixCommandProperties.ExecutionIsolationStrategy.THREAD));
+        EchoCommand command = pool.acquire();
+        command.latency = 200;
+        command.queue();
+        Thread.sleep(50);
+        assertFalse(pool.release(command));
+        assertNotSame(command, pool.acquire());
+    }
+
+    @Test
+    public void testTimedOutCommandIsNotReusedWhileRunStillRuns() {
+        HystrixCommandPool<EchoCommand> pool = new HystrixCommandPool<>(() -> new EchoCommand(HystrixCommandKey.Factory.asKey("PoolTimeout"), HystrixCommandProperties.Setter()
+                .withExecutionIsolationStrategy(HystrixCommandProperties.ExecutionIsolationStrategy.THREAD)
+                .withExecutionTimeoutEnabled(true)
+                .withExecutionTimeoutInMilliseconds(50)
+                .withExecutionIsolationThreadInterruptOnTimeout(false)));
+        EchoCommand command = pool.acquire();
+        command.busy = true;
+        try {
+            try {
+                command.execute();
+                fail("expected the execution to time out");
+            } catch (HystrixRuntimeException e) {
+                assertTrue(command.isResponseTimedOut());
+            }
+            // run() ignores the timeout and keeps running on the thread-pool
+            assertTrue(command.running);
+            assertFalse(pool.release(command));
+            assertNotSame(command, pool.acquire());
+            assertTrue(command.running);
+        } finally {
+            command.busy = false;
+        }
+    }
+
+    @Test
+    public void testCommandSharingItsResponseIsNotReused() {
+        HystrixCommandPool<EchoCommand> pool = new HystrixCommandPool<>(() -> new EchoCommand(HystrixCommandProperties.ExecutionIsolationStrategy.SEMAPHORE));
+        EchoCommand command = pool.acquire();
+        command.cacheKey = "cached";
+        command.execute();
+        assertFalse(pool.release(command));
+    }
+
+    @Test
+    public void testFullPoolDropsCommand() {
+        HystrixCommandPool<EchoCommand> pool = new HystrixCommandPool<>(() -> new EchoCommand(HystrixCommandProperties.ExecutionIsolationStrategy.SEMAPHORE), 1);
+        EchoCommand first = new EchoCommand(HystrixCommandProperties.ExecutionIsolationStrategy.SEMAPHORE);
+        EchoCommand second = new EchoCommand(HystrixCommandProperties.ExecutionIsolationStrategy.SEMAPHORE);
+        assertTrue(pool.release(first));
+        assertFalse(pool.release(second));
+        assertSame(first, pool.acquire());
+        assertNotSame(first, pool.acquire());
+    }
+
+    private static class EchoCommand extends HystrixCommand<Integer> {
+        volatile int value;
+        volatile int latency;
+        volatile String cacheKey;
+        // spins in run() until cleared, ignoring interrupts
+        volatile boolean busy;
+        volatile boolean running;
+
+        EchoCommand(HystrixCommandProperties.ExecutionIsolationStrategy isolationStrategy) {
+            super(Setter.withGroupKey(HystrixCommandGroupKey.Factory.asKey("Pool"))
+                    .andCommandPropertiesDefaults(HystrixCommandProperties.Setter().withExecutionIsolationStrategy(isolationStrategy)));
+        }
+
+        EchoCommand(HystrixCommandKey key, HystrixCommandProperties.Setter properties) {
+            super(Setter.withGroupKey(HystrixCommandGroupKey.Factory.asKey("Pool")).andCommandKey(key).andCommandPropertiesDefaults(properties));
+        }
+
+        @Override
+        protected Integer run() throws Exception {
+            running = true;
+            try {
+                if (latency > 0) {
+                    Thread.sleep(latency);
+                }
+                while (busy) {
+                    Thread.yield();
+                }
+                return value;
+            } finally {
+                running = false;
+            }
+        }
+
+        @Override
+        protected String getCacheKey() {
+            return cacheKey;
+        }
+    }
+}
@@ -34,8 +34,14 @@ public class HystrixCommandPropertiesTest {
         return new HystrixCommandProperties.Setter()
                 .withExecutionIsolationStrategy(ExecutionIsolationStrategy.THREAD) // we want thread execution by default in tests
                 .withExecutionIsolationThreadInterruptOnFutureCancel(true)
+                .withExecutionIsolationThreadInterruptOnTimeout(true)
+                .withExecutionTimeoutEnabled(false)
+                .withExecutionTimeoutInMilliseconds(1000)
                 .withExecutionIsolationSemaphoreMaxConcurrentRequests(20)
-                .withRequestCacheEnabled(true);
+                .withRequestCacheEnabled(true)
+                .withExecutionHedgingEnabled(false)
+                .withExecutionHedgingPercentile(95)
+                .withExecutionHedgingBudgetPercentage(5);
     }
 
     /**
@@ -63,6 +69,21 @@ public class HystrixCommandPropertiesTest {
                 return HystrixProperty.Factory.asProperty(builder.getExecutionIsolationThreadInterruptOnFutureCancel());
             }
 
+            @Override
+            public HystrixProperty<Boolean> executionIsolationThreadInterruptOnTimeout() {
+                return HystrixProperty.Factory.asProperty(builder.getExecutionIsolationThreadInterruptOnTimeout());
+            }
+
+            @Override
+            public HystrixProperty<Boolean> executionTimeoutEnabled() {
+                return HystrixProperty.Factory.asProperty(builder.getExecutionTimeoutEnabled());
+            }
+
+            @Override
+            public HystrixProperty<Integer> executionTimeoutInMilliseconds() {
+                return HystrixProperty.Factory.asProperty(builder.getExecutionTimeoutInMilliseconds());
+            }
+
             @Override
             public HystrixProperty<String> executionIsolationThreadPoolKeyOverride() {
                 return HystrixProperty.Factory.nullProperty();
@@ -73,6 +94,21 @@ public class HystrixCommandPropertiesTest {
                 return HystrixProperty.Factory.asProperty(builder.getRequestCacheEnabled());
             }
 
+            @Override
+            public HystrixProperty<Boolean> executionHedgingEnabled() {
+                return HystrixProperty.Factory.asProperty(builder.getExecutionHedgingEnabled());
+            }
+
+            @Override
+            public HystrixProperty<Integer> executionHedgingPercentile() {
+                return HystrixProperty.Factory.asProperty(builder.getExecutionHedgingPercentile());
+            }
+
+            @Override
+            public HystrixProperty<Integer> executionHedgingBudgetPercentage() {
+                return HystrixProperty.Factory.asProperty(builder.getExecutionHedgingBudgetPercentage());
+            }
+
         };
     }
 
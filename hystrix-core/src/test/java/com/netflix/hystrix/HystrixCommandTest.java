@@ -36,6 +36,9 @@ import rx.functions.*;
 import rx.schedulers.Schedulers;
 
 import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
 import java.util.concurrent.*;
 import java.util.concurrent.atomic.AtomicBoolean;
 import java.util.concurrent.atomic.AtomicInteger;
@@ -102,6 +105,126 @@ public class HystrixCommandTest extends CommonHystrixCommandTests<TestHystrixCom
         assertCommandExecutionEvents(command, HystrixEventType.SUCCESS);
     }
 
+    /**
+     * Test that the inline execute() of a semaphore-isolated command behaves like queue().get() through the Observable chain.
+     */
+    @Test
+    public void testSemaphoreExecuteInlineMatchesQueue() throws Exception {
+        for (AbstractTestHystrixCommand.ExecutionResult result : Arrays.asList(AbstractTestHystrixCommand.ExecutionResult.SUCCESS,
+                AbstractTestHystrixCommand.ExecutionResult.FAILURE, AbstractTestHystrixCommand.ExecutionResult.HYSTRIX_FAILURE,
+                AbstractTestHystrixCommand.ExecutionResult.BAD_REQUEST, AbstractTestHystrixCommand.ExecutionResult.NOT_WRAPPED_FAILURE)) {
+            TryableSemaphoreActual semaphore = new TryableSemaphoreActual(HystrixProperty.Factory.asProperty(1));
+            TestHystrixCommand<Integer> inline = getCommand(ExecutionIsolationStrategy.SEMAPHORE, result, 0, null, AbstractTestHystrixCommand.CacheEnabled.NO, 1, semaphore);
+            TestHystrixCommand<Integer> queued = getCommand(ExecutionIsolationStrategy.SEMAPHORE, result, 0, null, AbstractTestHystrixCommand.CacheEnabled.NO, 1, semaphore);
+
+            Object inlineOutcome;
+            try {
+                inlineOutcome = inline.execute();
+            } catch (Exception e) {
+                inlineOutcome = e.getClass();
+            }
+            Object queuedOutcome;
+            try {
+                queuedOutcome = queued.queue().get();
+            } catch (ExecutionException e) {
+                queuedOutcome = queued.decomposeException(e).getClass();
+            } catch (Exception e) {
+                // queue() throws errors other than execution failures right away
+                queuedOutcome = e.getClass();
+            }
+
+            assertEquals(result.name(), queuedOutcome, inlineOutcome);
+            assertEquals(result.name(), queued.getBuilder().executionHook.executionSequence.toString(), inline.getBuilder().executionHook.executionSequence.toString());
+            assertEquals(result.name(), queued.getExecutionEvents(), inline.getExecutionEvents());
+            assertEquals(result.name(), queued.isExecutionComplete(), inline.isExecutionComplete());
+            assertFalse(inline.isExecutedInThread());
+            assertEquals(0, semaphore.getNumberOfPermitsUsed());
+        }
+    }
+
+    /**
+     * Test that commands constructed from a prototype share its resolved definition.
+     */
+    @Test
+    public void testCommandsFromPrototypeShareResolvedDefinition() {
+        HystrixCommandPrototype prototype = HystrixCommandPrototype.from(PrototypeCommand.class,
+                HystrixCommand.Setter.withGroupKey(HystrixCommandGroupKey.Factory.asKey("Prototype")));
+        assertEquals("PrototypeCommand", prototype.getCommandKey().name());
+        assertEquals("Prototype", prototype.getThreadPoolKey().name());
+
+        PrototypeCommand first = new PrototypeCommand(prototype, 7);
+        PrototypeCommand second = new PrototypeCommand(prototype, 7);
+        assertSame(prototype.getCommandKey(), first.getCommandKey());
+        assertSame(first.getProperties(), second.getProperties());
+        assertSame(first.threadPool, second.threadPool);
+        assertSame(first.requestCache, second.requestCache);
+
+        assertEquals(Integer.valueOf(7), first.execute());
+        assertTrue(first.isExecutedInThread());
+        // the shared request cache serves the second command
+        assertEquals(Integer.valueOf(7), second.execute());
+        assertTrue(second.isResponseFromCache());
+    }
+
+    @Test
+    public void testExecuteAllRunsCommandsSharingAThreadPoolTogether() {
+        List<FanOutCommand> commands = new ArrayList<>();
+        for (int i = 0; i < 20; i++) {
+            commands.add(new FanOutCommand("FanOut", 4, 20, i, 0));
+        }
+        List<Integer> values = HystrixCommand.executeAll(commands);
+
+        for (int i = 0; i < 20; i++) {
+            assertEquals(Integer.valueOf(i), values.get(i));
+            assertTrue(commands.get(i).isExecutedInThread());
+            assertTrue(commands.get(i).isSuccessfulExecution());
+        }
+        // one task per idle thread instead of one per command
+        assertTrue(((ThreadPoolExecutor) commands.get(0).threadPool.getExecutor()).getTaskCount() <= 4);
+    }
+
+    @Test
+    public void testExecuteAllHandsCommandsBehindASlowOneBackToThePool() {
+        List<FanOutCommand> commands = new ArrayList<>();
+        commands.add(new FanOutCommand("FanOutSlow", 2, 20, 0, 800));
+        for (int i = 1; i < 10; i++) {
+            commands.add(new FanOutCommand("FanOutSlow", 2, 20, i, 0));
+        }
+
+        List<Observable<Integer>> observables = HystrixCommand.observeAll(commands);
+
+        long start = System.currentTimeMillis();
+        for (int i = 1; i < 10; i++) {
+            assertEquals(Integer.valueOf(i), observables.get(i).toBlocking().single());
+        }
+        // the commands sharing a lane with the slow one must not wait for it
+        assertTrue(System.currentTimeMillis() - start < 500);
+        assertEquals(Integer.valueOf(0), observables.get(0).toBlocking().single());
+    }
+
+    @Test
+    public void testObserveAllRejectsCommandsBeyondThreadPoolCapacity() {
+        List<FanOutCommand> commands = new ArrayList<>();
+        for (int i = 0; i < 5; i++) {
+            commands.add(new FanOutCommand("FanOutRejected", 2, -1, i, 200));
+        }
+
+        List<Observable<Integer>> observables = HystrixCommand.observeAll(commands);
+
+        int rejected = 0;
+        for (int i = 0; i < 5; i++) {
+            try {
+                assertEquals(Integer.valueOf(i), observables.get(i).toBlocking().single());
+            } catch (HystrixRuntimeException e) {
+                assertEquals(HystrixRuntimeException.FailureType.REJECTED_THREAD_EXECUTION, e.getFailureType());
+                assertTrue(commands.get(i).isResponseThreadPoolRejected());
+                rejected++;
+            }
+        }
+        // the pool has 2 threads and no queue, just as if the commands were queued one by one
+        assertEquals(3, rejected);
+    }
+
     /**
      * Test a command execution that throws an HystrixException.
      */
@@ -1496,6 +1619,58 @@ public class HystrixCommandTest extends CommonHystrixCommandTests<TestHystrixCom
         }
     }
 
+    @Test
+    public void testToCompletableFutureComposesWithoutBlocking() throws Exception {
+        FanOutCommand command = new FanOutCommand("CompletableFuture", 2, -1, 21, 50);
+        CompletableFuture<Integer> doubled = command.toCompletableFuture().thenApply(v -> v * 2);
+        assertFalse(doubled.isDone());
+        assertEquals(Integer.valueOf(42), doubled.get(1000, TimeUnit.MILLISECONDS));
+        assertTrue(command.isExecutedInThread());
+        assertTrue(command.isSuccessfulExecution());
+
+        TestHystrixCommand<Integer> failing = getCommand(ExecutionIsolationStrategy.THREAD, AbstractTestHystrixCommand.ExecutionResult.HYSTRIX_FAILURE);
+        try {
+            failing.toCompletableFuture().get(1000, TimeUnit.MILLISECONDS);
+            fail("we shouldn't get here");
+        } catch (ExecutionException e) {
+            assertTrue(e.getCause() instanceof HystrixRuntimeException);
+        }
+        assertTrue(failing.isFailedExecution());
+    }
+
+    @Test
+    public void testToCompletableFutureCancelInterruptsExecution() throws Exception {
+        final CountDownLatch started = new CountDownLatch(1);
+        final CountDownLatch interrupted = new CountDownLatch(1);
+        HystrixCommand<Boolean> command = new HystrixCommand<Boolean>(HystrixCommand.Setter.withGroupKey(HystrixCommandGroupKey.Factory.asKey("CompletableFuture"))
+                .andCommandPropertiesDefaults(HystrixCommandProperties.Setter().withExecutionIsolationThreadInterruptOnFutureCancel(true))) {
+            @Override
+            protected Boolean run() {
+                started.countDown();
+                try {
+                    Thread.sleep(2000);
+                } catch (InterruptedException e) {
+                    interrupted.countDown();
+                }
+                return true;
+            }
+        };
+
+        CompletableFuture<Boolean> f = command.toCompletableFuture();
+        assertTrue(started.await(1000, TimeUnit.MILLISECONDS));
+        assertTrue(f.cancel(true));
+
+        assertTrue(f.isCancelled());
+        assertTrue(interrupted.await(1000, TimeUnit.MILLISECONDS));
+        try {
+            f.join();
+            fail("Should have thrown a CancellationException");
+        } catch (CancellationException e) {
+            // No action needed. This is the expected case.
+        }
+        assertFalse(f.cancel(true));
+    }
+
     @Test
     public void testSemaphoreThreadSafety() {
         final int NUM_PERMITS = 1;
@@ -2555,6 +2730,157 @@ public class HystrixCommandTest extends CommonHystrixCommandTests<TestHystrixCom
      *********************** END THREAD-ISOLATED Execution Hook Tests **************************************
      */
 
+    @Test
+    public void testHedgeWinsWhenPrimaryExecutionIsSlow() throws Exception {
+        HystrixCommandKey key = HystrixCommandKey.Factory.asKey("Hedge-Slow");
+        warmUpHedging(key, 100);
+
+        AtomicInteger runs = new AtomicInteger();
+        HedgedCommand command = new HedgedCommand(key, 100, runs, 1000);
+        long start = System.currentTimeMillis();
+        assertEquals(2, command.execute().intValue());
+        assertTrue("hedge should not wait for the slow primary", System.currentTimeMillis() - start < 500);
+        assertEquals(2, runs.get());
+        assertTrue(command.getExecutionEvents().contains(HystrixEventType.HEDGED));
+        assertTrue(command.isSuccessfulExecution());
+    }
+
+    @Test
+    public void testHedgeBudgetLimitsHedges() throws Exception {
+        HystrixCommandKey key = HystrixCommandKey.Factory.asKey("Hedge-NoBudget");
+        warmUpHedging(key, 0);
+
+        AtomicInteger runs = new AtomicInteger();
+        HedgedCommand command = new HedgedCommand(key, 0, runs, 200);
+        assertEquals(1, command.execute().intValue());
+        assertEquals(1, runs.get());
+        assertFalse(command.getExecutionEvents().contains(HystrixEventType.HEDGED));
+    }
+
+    @Test
+    public void testNoHedgeBeforeEnoughLatenciesAreObserved() throws Exception {
+        HystrixCommandKey key = HystrixCommandKey.Factory.asKey("Hedge-Cold");
+
+        AtomicInteger runs = new AtomicInteger();
+        HedgedCommand command = new HedgedCommand(key, 100, runs, 200);
+        assertEquals(1, command.execute().intValue());
+        assertEquals(1, runs.get());
+        assertFalse(command.getExecutionEvents().contains(HystrixEventType.HEDGED));
+    }
+
+    @Test
+    public void testNoHedgeWithoutSemaphorePermit() throws Exception {
+        HystrixCommandKey key = HystrixCommandKey.Factory.asKey("Hedge-Semaphore");
+        for (int i = 0; i < HedgeController.MINIMUM_SAMPLES; i++) {
+            new HedgedCommand(key, 100, new AtomicInteger(1), 0, ExecutionIsolationStrategy.SEMAPHORE, 1).execute();
+        }
+
+        // the primary execution holds the only permit, so the hedge must not run next to it
+        AtomicInteger runs = new AtomicInteger();
+        HedgedCommand command = new HedgedCommand(key, 100, runs, 300, ExecutionIsolationStrategy.SEMAPHORE, 1);
+        assertEquals(1, command.execute().intValue());
+        assertEquals(1, runs.get());
+        assertFalse(command.getExecutionEvents().contains(HystrixEventType.HEDGED));
+        assertEquals(0, command.getExecutionSemaphore().getNumberOfPermitsUsed());
+    }
+
+    @Test
+    public void testNoHedgeForSemaphoreIsolatedRun() throws Exception {
+        HystrixCommandKey key = HystrixCommandKey.Factory.asKey("Hedge-CallingThread");
+        for (int i = 0; i < HedgeController.MINIMUM_SAMPLES; i++) {
+            new HedgedCommand(key, 100, new AtomicInteger(1), 0, ExecutionIsolationStrategy.SEMAPHORE, 10).execute();
+        }
+
+        // run() blocks the calling thread, which would wait for it even if a hedge won meanwhile
+        AtomicInteger runs = new AtomicInteger();
+        HedgedCommand command = new HedgedCommand(key, 100, runs, 300, ExecutionIsolationStrategy.SEMAPHORE, 10);
+        assertEquals(1, command.execute().intValue());
+        assertEquals(1, runs.get());
+        assertFalse(command.getExecutionEvents().contains(HystrixEventType.HEDGED));
+    }
+
+    private static void warmUpHedging(HystrixCommandKey key, int budgetPercentage) {
+        for (int i = 0; i < HedgeController.MINIMUM_SAMPLES; i++) {
+            // every execution responds at once
+            new HedgedCommand(key, budgetPercentage, new AtomicInteger(1), 0).execute();
+        }
+    }
+
+    @Test
+    public void testExecutionTimeoutInterruptsThread() throws Exception {
+        TimeoutCommand command = new TimeoutCommand("Timeout-Interrupt", ExecutionIsolationStrategy.THREAD, true, 100, 5000);
+        long start = System.currentTimeMillis();
+        try {
+            command.execute();
+            fail("we shouldn't get here");
+        } catch (HystrixRuntimeException e) {
+            assertEquals(HystrixRuntimeException.FailureType.TIMEOUT, e.getFailureType());
+            assertTrue(e.getCause() instanceof TimeoutException);
+        }
+        assertTrue("the caller should not wait for the execution", System.currentTimeMillis() - start < 2000);
+        assertTrue(command.interrupted.await(1000, TimeUnit.MILLISECONDS));
+        assertTrue(command.isResponseTimedOut());
+        assertTrue(command.isExecutedInThread());
+        assertCommandExecutionEvents(command, HystrixEventType.TIMEOUT);
+    }
+
+    @Test
+    public void testExecutionTimeoutWithoutInterrupt() throws Exception {
+        TimeoutCommand command = new TimeoutCommand("Timeout-NoInterrupt", ExecutionIsolationStrategy.THREAD, false, 50, 300);
+        try {
+            command.execute();
+            fail("we shouldn't get here");
+        } catch (HystrixRuntimeException e) {
+            assertEquals(HystrixRuntimeException.FailureType.TIMEOUT, e.getFailureType());
+        }
+        assertEquals(1, command.completed.getCount());
+        // the execution runs to its end, its value is dropped
+        assertTrue(command.completed.await(1000, TimeUnit.MILLISECONDS));
+        assertEquals(1, command.interrupted.getCount());
+        assertCommandExecutionEvents(command, HystrixEventType.TIMEOUT);
+    }
+
+    @Test
+    public void testSemaphoreExecutionTimeout() throws Exception {
+        TimeoutCommand command = new TimeoutCommand("Timeout-Semaphore", ExecutionIsolationStrategy.SEMAPHORE, true, 50, 300);
+        try {
+            // run() blocks the calling thread, so the timeout is only returned once it returns
+            command.execute();
+            fail("we shouldn't get here");
+        } catch (HystrixRuntimeException e) {
+            assertEquals(HystrixRuntimeException.FailureType.TIMEOUT, e.getFailureType());
+        }
+        assertEquals(0, command.completed.getCount());
+        assertTrue(command.isResponseTimedOut());
+        assertFalse(command.isExecutedInThread());
+        assertCommandExecutionEvents(command, HystrixEventType.TIMEOUT);
+    }
+
+    @Test
+    public void testSemaphoreExecutionTimeoutKeepsThePermitUntilRunReturns() throws Exception {
+        TimeoutCommand command = new TimeoutCommand("Timeout-SemaphorePermit", ExecutionIsolationStrategy.SEMAPHORE, true, 50, 300);
+        CountDownLatch timedOut = new CountDownLatch(1);
+        // run() blocks the subscribing thread, the timeout is emitted by the timer thread meanwhile
+        Thread caller = new Thread(() -> command.toObservable().subscribe(v -> {}, e -> timedOut.countDown()));
+        caller.start();
+
+        assertTrue(timedOut.await(1000, TimeUnit.MILLISECONDS));
+        assertEquals(1, command.completed.getCount());
+        assertEquals(1, command.getExecutionSemaphore().getNumberOfPermitsUsed());
+
+        assertTrue(command.completed.await(1000, TimeUnit.MILLISECONDS));
+        caller.join(1000);
+        assertEquals(0, command.getExecutionSemaphore().getNumberOfPermitsUsed());
+    }
+
+    @Test
+    public void testExecutionCompletingBeforeTimeout() throws Exception {
+        TimeoutCommand command = new TimeoutCommand("Timeout-Fast", ExecutionIsolationStrategy.THREAD, true, 1000, 0);
+        assertEquals(1, command.execute().intValue());
+        assertFalse(command.isResponseTimedOut());
+        assertCommandExecutionEvents(command, HystrixEventType.SUCCESS);
+    }
+
 
     /* ******************************************************************************** */
     /* ******************************************************************************** */
@@ -3052,6 +3378,40 @@ public class HystrixCommandTest extends CommonHystrixCommandTests<TestHystrixCom
         }
     }
 
+    /**
+     * The first run of an instance sleeps, later runs (the hedges) respond at once with the number of the run.
+     */
+    private static class HedgedCommand extends TestHystrixCommand<Integer> {
+        private final AtomicInteger runs;
+        private final int firstRunLatency;
+
+        HedgedCommand(HystrixCommandKey key, int budgetPercentage, AtomicInteger runs, int firstRunLatency) {
+            this(key, budgetPercentage, runs, firstRunLatency, ExecutionIsolationStrategy.THREAD, 20);
+        }
+
+        HedgedCommand(HystrixCommandKey key, int budgetPercentage, AtomicInteger runs, int firstRunLatency, ExecutionIsolationStrategy isolationStrategy, int maxConcurrentRequests) {
+            super(testPropsBuilder()
+                    .setCommandKey(key)
+                    .setCommandPropertiesDefaults(HystrixCommandPropertiesTest.getUnitTestPropertiesSetter()
+                            .withExecutionIsolationStrategy(isolationStrategy)
+                            .withExecutionIsolationSemaphoreMaxConcurrentRequests(maxConcurrentRequests)
+                            .withExecutionHedgingEnabled(true)
+                            .withExecutionHedgingPercentile(50)
+                            .withExecutionHedgingBudgetPercentage(budgetPercentage)));
+            this.runs = runs;
+            this.firstRunLatency = firstRunLatency;
+        }
+
+        @Override
+        protected Integer run() throws Exception {
+            int run = runs.incrementAndGet();
+            if (run == 1) {
+                Thread.sleep(firstRunLatency);
+            }
+            return run;
+        }
+    }
+
     private static class CommandWithCheckedException extends TestHystrixCommand<Boolean> {
 
         public CommandWithCheckedException() {
@@ -3099,4 +3459,74 @@ public class HystrixCommandTest extends CommonHystrixCommandTests<TestHystrixCom
             return false;
         }
     }
+
+    private static class PrototypeCommand extends HystrixCommand<Integer> {
+        private final int value;
+
+        PrototypeCommand(HystrixCommandPrototype prototype, int value) {
+            super(prototype);
+            this.value = value;
+        }
+
+        @Override
+        protected Integer run() {
+            return value;
+        }
+
+        @Override
+        protected String getCacheKey() {
+            return String.valueOf(value);
+        }
+    }
+
+    private static class FanOutCommand extends HystrixCommand<Integer> {
+        private final int value;
+        private final int latency;
+
+        FanOutCommand(String threadPoolKey, int coreSize, int maxQueueSize, int value, int latency) {
+            super(Setter.withGroupKey(HystrixCommandGroupKey.Factory.asKey("FanOut"))
+                    .andThreadPoolKey(HystrixThreadPoolKey.Factory.asKey(threadPoolKey))
+                    .andThreadPoolPropertiesDefaults(HystrixThreadPoolProperties.Setter().withCoreSize(coreSize).withMaxQueueSize(maxQueueSize)
+                            .withQueueSizeRejectionThreshold(Math.max(maxQueueSize, 1))));
+            this.value = value;
+            this.latency = latency;
+        }
+
+        @Override
+        protected Integer run() throws Exception {
+            if (latency > 0) {
+                Thread.sleep(latency);
+            }
+            return value;
+        }
+    }
+
+    private static class TimeoutCommand extends HystrixCommand<Integer> {
+        private final int latency;
+        final CountDownLatch interrupted = new CountDownLatch(1);
+        final CountDownLatch completed = new CountDownLatch(1);
+
+        TimeoutCommand(String commandKey, ExecutionIsolationStrategy isolationStrategy, boolean interruptOnTimeout, int timeout, int latency) {
+            super(Setter.withGroupKey(HystrixCommandGroupKey.Factory.asKey("Timeout"))
+                    .andCommandKey(HystrixCommandKey.Factory.asKey(commandKey))
+                    .andCommandPropertiesDefaults(HystrixCommandProperties.Setter()
+                            .withExecutionIsolationStrategy(isolationStrategy)
+                            .withExecutionTimeoutEnabled(true)
+                            .withExecutionTimeoutInMilliseconds(timeout)
+                            .withExecutionIsolationThreadInterruptOnTimeout(interruptOnTimeout)));
+            this.latency = latency;
+        }
+
+        @Override
+        protected Integer run() throws Exception {
+            try {
+                Thread.sleep(latency);
+            } catch (InterruptedException e) {
+                interrupted.countDown();
+                throw e;
+            }
+            completed.countDown();
+            return 1;
+        }
+    }
 }
@@ -143,6 +143,28 @@ public class HystrixObservableCommandTest extends CommonHystrixCommandTests<Test
         assertNull(command.getExecutionException());
     }
 
+    @Test
+    public void testEmissionsOfLongStreamAreCounted() {
+        HystrixObservableCommand<Integer> command = new HystrixObservableCommand<Integer>(HystrixObservableCommand.Setter.withGroupKey(HystrixCommandGroupKey.Factory.asKey("LONG_STREAM"))) {
+            @Override
+            protected Observable<Integer> construct() {
+                return Observable.range(0, 10000);
+            }
+        };
+
+        TestSubscriber<Integer> ts = new TestSubscriber<>();
+        command.toObservable().subscribe(ts);
+        ts.awaitTerminalEvent(1000, TimeUnit.MILLISECONDS);
+        ts.assertNoErrors();
+        ts.assertValueCount(10000);
+
+        assertEquals(10000, command.getNumberEmissions());
+        assertTrue(command.isSuccessfulExecution());
+        assertEquals(Arrays.asList(HystrixEventType.EMIT, HystrixEventType.SUCCESS), command.getExecutionEvents());
+        // reading again without an execution in between sees the same frozen state
+        assertSame(command.getEventCounts(), command.getEventCounts());
+    }
+
     /**
      * Test a successful semaphore-isolated command execution.
      */
@@ -1948,6 +1970,42 @@ public class HystrixObservableCommandTest extends CommonHystrixCommandTests<Test
         }
     }
 
+    @Test
+    public void testHedgeWinsWhenAsynchronousConstructIsSlow() {
+        HystrixCommandKey key = HystrixCommandKey.Factory.asKey("ObservableHedge-Slow");
+        warmUpHedging(key, 10);
+
+        // a SEMAPHORE-isolated construct() that emits asynchronously does not block the caller, so the hedge helps
+        AtomicInteger runs = new AtomicInteger();
+        HedgedObservableCommand command = new HedgedObservableCommand(key, runs, 1000, 10);
+        long start = System.currentTimeMillis();
+        assertEquals(2, command.observe().toBlocking().single().intValue());
+        assertTrue("hedge should not wait for the slow primary", System.currentTimeMillis() - start < 500);
+        assertEquals(2, runs.get());
+        assertTrue(command.getExecutionEvents().contains(HystrixEventType.HEDGED));
+        assertTrue(command.isSuccessfulExecution());
+    }
+
+    @Test
+    public void testNoHedgeWithoutSemaphorePermit() {
+        HystrixCommandKey key = HystrixCommandKey.Factory.asKey("ObservableHedge-Semaphore");
+        warmUpHedging(key, 1);
+
+        // the primary execution holds the only permit, so the hedge must not run next to it
+        AtomicInteger runs = new AtomicInteger();
+        HedgedObservableCommand command = new HedgedObservableCommand(key, runs, 300, 1);
+        assertEquals(1, command.observe().toBlocking().single().intValue());
+        assertEquals(1, runs.get());
+        assertFalse(command.getExecutionEvents().contains(HystrixEventType.HEDGED));
+        assertEquals(0, command.getExecutionSemaphore().getNumberOfPermitsUsed());
+    }
+
+    private static void warmUpHedging(HystrixCommandKey key, int maxConcurrentRequests) {
+        for (int i = 0; i < HedgeController.MINIMUM_SAMPLES; i++) {
+            // every execution responds at once
+            new HedgedObservableCommand(key, new AtomicInteger(1), 0, maxConcurrentRequests).observe().toBlocking().single();
+        }
+    }
 
     /* ******************************************************************************** */
     /* ******************************************************************************** */
@@ -2343,6 +2401,33 @@ public class HystrixObservableCommandTest extends CommonHystrixCommandTests<Test
     /**
      * Successful execution.
      */
+    /**
+     * The first construct() of an instance emits after a delay, later ones (the hedges) emit at once with the number of the run.
+     */
+    private static class HedgedObservableCommand extends TestHystrixObservableCommand<Integer> {
+        private final AtomicInteger runs;
+        private final int firstRunLatency;
+
+        HedgedObservableCommand(HystrixCommandKey key, AtomicInteger runs, int firstRunLatency, int maxConcurrentRequests) {
+            super(testPropsBuilder()
+                    .setCommandKey(key)
+                    .setCommandPropertiesDefaults(HystrixCommandPropertiesTest.getUnitTestPropertiesSetter()
+                            .withExecutionIsolationStrategy(ExecutionIsolationStrategy.SEMAPHORE)
+                            .withExecutionIsolationSemaphoreMaxConcurrentRequests(maxConcurrentRequests)
+                            .withExecutionHedgingEnabled(true)
+                            .withExecutionHedgingPercentile(50)
+                            .withExecutionHedgingBudgetPercentage(100)));
+            this.runs = runs;
+            this.firstRunLatency = firstRunLatency;
+        }
+
+        @Override
+        protected Observable<Integer> construct() {
+            int run = runs.incrementAndGet();
+            return run == 1 ? Observable.just(run).delay(firstRunLatency, TimeUnit.MILLISECONDS) : Observable.just(run);
+        }
+    }
+
     private static class TestCommand extends TestHystrixObservableCommand<Boolean> {
 
         private TestCommand() {
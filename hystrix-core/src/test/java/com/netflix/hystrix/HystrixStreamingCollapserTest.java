@@ -0,0 +1,233 @@
+/*
+ * Copyright 2016 Netflix, Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.netflix.hystrix;
+
+import com.hystrix.junit.HystrixRequestContextRule;
+import com.netflix.hystrix.HystrixCollapser.CollapsedRequest;
+import com.netflix.hystrix.HystrixCollapserTest.TestCollapserTimer;
+import com.netflix.hystrix.exception.HystrixRuntimeException;
+import com.netflix.hystrix.strategy.properties.HystrixPropertiesFactory;
+import org.junit.Before;
+import org.junit.Rule;
+import org.junit.Test;
+import rx.Observable;
+import rx.functions.Func1;
+
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
+
+import static org.junit.Assert.*;
+
+public class HystrixStreamingCollapserTest {
+    @Rule
+    public HystrixRequestContextRule context = new HystrixRequestContextRule();
+
+    @Before
+    public void init() {
+        HystrixPropertiesFactory.reset();
+    }
+
+    @Test
+    public void testResponsesStreamWithoutBatchingDelay() throws Exception {
+        TestCollapserTimer timer = new TestCollapserTimer();
+        ConcurrentLinkedQueue<TestStreamingCommand> commands = new ConcurrentLinkedQueue<>();
+
+        // no time passes on the timer
+        assertEquals("1:response", queue(new TestStreamingCollapser(timer, commands, 100, "1")).get(1000, TimeUnit.MILLISECONDS));
+        assertEquals("2:response", queue(new TestStreamingCollapser(timer, commands, 100, "2")).get(1000, TimeUnit.MILLISECONDS));
+
+        // both went through the same open stream
+        assertEquals(1, commands.size());
+        assertEquals(2, commands.peek().received.size());
+    }
+
+    @Test
+    public void testRotateAfterMaxItems() throws Exception {
+        TestCollapserTimer timer = new TestCollapserTimer();
+        ConcurrentLinkedQueue<TestStreamingCommand> commands = new ConcurrentLinkedQueue<>();
+
+        Future<String> response1 = queue(new TestStreamingCollapser(timer, commands, 2, "1"));
+        Future<String> response2 = queue(new TestStreamingCollapser(timer, commands, 2, "2"));
+        Future<String> response3 = queue(new TestStreamingCollapser(timer, commands, 2, "3"));
+
+        assertEquals("1:response", response1.get(1000, TimeUnit.MILLISECONDS));
+        assertEquals("2:response", response2.get(1000, TimeUnit.MILLISECONDS));
+        assertEquals("3:response", response3.get(1000, TimeUnit.MILLISECONDS));
+        assertEquals(2, commands.size());
+        // the input of the first stream was completed on rotation
+        assertTrue(commands.peek().inputCompleted);
+    }
+
+    @Test
+    public void testRotateAfterMaxDuration() throws Exception {
+        TestCollapserTimer timer = new TestCollapserTimer();
+        ConcurrentLinkedQueue<TestStreamingCommand> commands = new ConcurrentLinkedQueue<>();
+
+        assertEquals("1:response", queue(new TestStreamingCollapser(timer, commands, 100, "1")).get(1000, TimeUnit.MILLISECONDS));
+
+        timer.incrementTime(100); // let time pass that equals the stream duration
+
+        assertEquals("2:response", queue(new TestStreamingCollapser(timer, commands, 100, "2")).get(1000, TimeUnit.MILLISECONDS));
+        assertEquals(2, commands.size());
+        assertTrue(commands.peek().inputCompleted);
+    }
+
+    @Test
+    public void testRotateOnError() throws Exception {
+        TestCollapserTimer timer = new TestCollapserTimer();
+        ConcurrentLinkedQueue<TestStreamingCommand> commands = new ConcurrentLinkedQueue<>();
+
+        try {
+            queue(new TestStreamingCollapser(timer, commands, 100, "FAILURE")).get(1000, TimeUnit.MILLISECONDS);
+            fail("expected the stream failure to fail the request");
+        } catch (ExecutionException e) {
+            assertTrue(e.getCause() instanceof HystrixRuntimeException);
+        }
+
+        assertEquals("1:response", queue(new TestStreamingCollapser(timer, commands, 100, "1")).get(1000, TimeUnit.MILLISECONDS));
+        assertEquals(2, commands.size());
+    }
+
+    @Test
+    public void testMissingResponseWhenStreamCompletes() throws Exception {
+        TestCollapserTimer timer = new TestCollapserTimer();
+        ConcurrentLinkedQueue<TestStreamingCommand> commands = new ConcurrentLinkedQueue<>();
+
+        Future<String> response = queue(new TestStreamingCollapser(timer, commands, 100, "IGNORED"));
+        assertFalse(response.isDone());
+
+        timer.incrementTime(100); // let time pass that equals the stream duration
+
+        try {
+            response.get(1000, TimeUnit.MILLISECONDS);
+            fail("expected onMissingResponse to fail the request");
+        } catch (ExecutionException e) {
+            assertEquals("missing", e.getCause().getMessage());
+        }
+    }
+
+    @Test
+    public void testStreamEndsWhileOffering() throws Exception {
+        final TestCollapserTimer timer = new TestCollapserTimer();
+        final ConcurrentLinkedQueue<TestStreamingCommand> commands = new ConcurrentLinkedQueue<>();
+        final ConcurrentLinkedQueue<Future<String>> responses = new ConcurrentLinkedQueue<>();
+
+        // every 10th request ends the stream it is pushed into while the other threads keep offering to it
+        Thread[] threads = new Thread[8];
+        for (int t = 0; t < threads.length; t++) {
+            final int thread = t;
+            threads[t] = new Thread(() -> {
+                for (int i = 0; i < 200; i++) {
+                    String value = (i % 10 == 0 ? "LAST-" : "") + thread + "-" + i;
+                    responses.add(queue(new TestStreamingCollapser(timer, commands, 10000, value)));
+                }
+            });
+            threads[t].start();
+        }
+        for (Thread thread : threads) {
+            thread.join();
+        }
+
+        assertEquals(1600, responses.size());
+        for (Future<String> response : responses) {
+            try {
+                // either it got a response or its stream ended without one, but it must not hang
+                assertTrue(response.get(5000, TimeUnit.MILLISECONDS).endsWith(":response"));
+            } catch (ExecutionException e) {
+                // expected for requests of a stream that ended before they got a response
+            }
+        }
+    }
+
+    private static Future<String> queue(TestStreamingCollapser collapser) {
+        return collapser.toObservable().toBlocking().toFuture();
+    }
+
+    private static class TestStreamingCollapser extends HystrixStreamingCollapser<String, String, String, String> {
+
+        private final ConcurrentLinkedQueue<TestStreamingCommand> commands;
+        private final String value;
+
+        TestStreamingCollapser(TestCollapserTimer timer, ConcurrentLinkedQueue<TestStreamingCommand> commands, int maxRequestsInStream, String value) {
+            // use a CollapserKey based on the CollapserTimer object reference so it's unique for each timer as we don't want caching
+            // of properties to occur and we're using the default HystrixProperty which typically does caching
+            super(() -> String.valueOf(timer), timer, HystrixCollapserProperties.Setter().withMaxRequestsInBatch(maxRequestsInStream).withStreamMaxDurationInMilliseconds(100));
+            this.commands = commands;
+            this.value = value;
+        }
+
+        @Override
+        public String getRequestArgument() {
+            return value;
+        }
+
+        @Override
+        protected HystrixObservableCommand<String> createCommand(Observable<String> requestArguments) {
+            TestStreamingCommand command = new TestStreamingCommand(requestArguments);
+            commands.add(command);
+            return command;
+        }
+
+        @Override
+        protected Func1<String, String> getBatchReturnTypeKeySelector() {
+            return response -> response.substring(0, response.indexOf(':'));
+        }
+
+        @Override
+        protected Func1<String, String> getRequestArgumentKeySelector() {
+            return argument -> argument;
+        }
+
+        @Override
+        protected void onMissingResponse(CollapsedRequest<String, String> r) {
+            r.setException(new IllegalStateException("missing"));
+        }
+
+        @Override
+        protected Func1<String, String> getBatchReturnTypeToResponseTypeMapper() {
+            return response -> response;
+        }
+    }
+
+    private static class TestStreamingCommand extends HystrixObservableCommand<String> {
+
+        private final Observable<String> requestArguments;
+        private final ConcurrentLinkedQueue<String> received = new ConcurrentLinkedQueue<>();
+        private volatile boolean inputCompleted;
+
+        TestStreamingCommand(Observable<String> requestArguments) {
+            super(Setter.withGroupKey(HystrixCommandGroupKey.Factory.asKey("STREAMING")));
+            this.requestArguments = requestArguments;
+        }
+
+        @Override
+        protected Observable<String> construct() {
+            return requestArguments
+                    .doOnNext(received::add)
+                    .doOnCompleted(() -> inputCompleted = true)
+                    .takeUntil(argument -> argument.startsWith("LAST"))
+                    .filter(argument -> !argument.equals("IGNORED"))
+                    .map(argument -> {
+                        if (argument.equals("FAILURE")) {
+                            throw new RuntimeException("Simulated Error");
+                        }
+                        return argument + ":response";
+                    });
+        }
+    }
+}
@@ -0,0 +1,136 @@
+/*
+ * Copyright 2016 Netflix, Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.netflix.hystrix;
+
+import com.hystrix.junit.HystrixRequestContextRule;
+import com.netflix.hystrix.HystrixCollapser.CollapsedRequest;
+import com.netflix.hystrix.HystrixCollapserTest.TestCollapserTimer;
+import com.netflix.hystrix.HystrixWriteCoalescingCollapser.Write;
+import com.netflix.hystrix.strategy.properties.HystrixPropertiesFactory;
+import org.junit.Before;
+import org.junit.Rule;
+import org.junit.Test;
+
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.List;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
+import java.util.function.BinaryOperator;
+
+import static org.junit.Assert.*;
+
+public class HystrixWriteCoalescingCollapserTest {
+    @Rule
+    public HystrixRequestContextRule context = new HystrixRequestContextRule();
+
+    @Before
+    public void init() {
+        HystrixPropertiesFactory.reset();
+    }
+
+    @Test
+    public void testWritesForSameKeyAreMerged() throws Exception {
+        TestCollapserTimer timer = new TestCollapserTimer();
+        ConcurrentLinkedQueue<List<String>> batches = new ConcurrentLinkedQueue<>();
+        Future<String> response1 = new TestCounterCollapser(timer, batches, "a", 1, Integer::sum).queue();
+        Future<String> response2 = new TestCounterCollapser(timer, batches, "b", 10, Integer::sum).queue();
+        Future<String> response3 = new TestCounterCollapser(timer, batches, "a", 2, Integer::sum).queue();
+        Future<String> response4 = new TestCounterCollapser(timer, batches, "a", 3, Integer::sum).queue();
+
+        timer.incrementTime(10); // let time pass that equals the default delay/period
+
+        // every contributing caller gets the result of the merged write
+        assertEquals("a=6", response1.get(1000, TimeUnit.MILLISECONDS));
+        assertEquals("b=10", response2.get(1000, TimeUnit.MILLISECONDS));
+        assertEquals("a=6", response3.get(1000, TimeUnit.MILLISECONDS));
+        assertEquals("a=6", response4.get(1000, TimeUnit.MILLISECONDS));
+        assertEquals(1, batches.size());
+        assertEquals(2, batches.peek().size());
+    }
+
+    @Test
+    public void testLastWriteWins() throws Exception {
+        TestCollapserTimer timer = new TestCollapserTimer();
+        ConcurrentLinkedQueue<List<String>> batches = new ConcurrentLinkedQueue<>();
+        Future<String> response1 = new TestCounterCollapser(timer, batches, "a", 1, (pending, update) -> update).queue();
+        Future<String> response2 = new TestCounterCollapser(timer, batches, "a", 5, (pending, update) -> update).queue();
+
+        timer.incrementTime(10); // let time pass that equals the default delay/period
+
+        assertEquals("a=5", response1.get(1000, TimeUnit.MILLISECONDS));
+        assertEquals("a=5", response2.get(1000, TimeUnit.MILLISECONDS));
+        assertEquals(1, batches.size());
+    }
+
+    @Test
+    public void testWritesAreOnlyMergedWithinOpenBatch() throws Exception {
+        TestCollapserTimer timer = new TestCollapserTimer();
+        ConcurrentLinkedQueue<List<String>> batches = new ConcurrentLinkedQueue<>();
+        Future<String> response1 = new TestCounterCollapser(timer, batches, "a", 1, Integer::sum).queue();
+        timer.incrementTime(10); // let time pass that equals the default delay/period
+        assertEquals("a=1", response1.get(1000, TimeUnit.MILLISECONDS));
+
+        Future<String> response2 = new TestCounterCollapser(timer, batches, "a", 2, Integer::sum).queue();
+        timer.incrementTime(10); // let time pass that equals the default delay/period
+        assertEquals("a=2", response2.get(1000, TimeUnit.MILLISECONDS));
+
+        assertEquals(2, batches.size());
+    }
+
+    private static class TestCounterCollapser extends HystrixWriteCoalescingCollapser<List<String>, String, String, Integer> {
+
+        private final ConcurrentLinkedQueue<List<String>> batches;
+        private final BinaryOperator<Integer> merge;
+
+        TestCounterCollapser(TestCollapserTimer timer, ConcurrentLinkedQueue<List<String>> batches, String key, int value, BinaryOperator<Integer> merge) {
+            // use a CollapserKey based on the CollapserTimer object reference so it's unique for each timer as we don't want caching
+            // of properties to occur and we're using the default HystrixProperty which typically does caching
+            super(() -> String.valueOf(timer), Scope.REQUEST, timer, HystrixCollapserProperties.Setter().withTimerDelayInMilliseconds(10), key, value);
+            this.batches = batches;
+            this.merge = merge;
+        }
+
+        @Override
+        protected Integer mergeValues(Integer pending, Integer update) {
+            return merge.apply(pending, update);
+        }
+
+        @Override
+        protected HystrixCommand<List<String>> createCommand(Collection<CollapsedRequest<String, Write<String, Integer>>> requests) {
+            final List<String> writes = new ArrayList<>();
+            for (CollapsedRequest<String, Write<String, Integer>> request : requests) {
+                writes.add(request.getArgument().getKey() + "=" + request.getArgument().getValue());
+            }
+            batches.add(writes);
+            return new TestHystrixCommand<List<String>>(TestHystrixCommand.testPropsBuilder().setCommandPropertiesDefaults(HystrixCommandPropertiesTest.getUnitTestPropertiesSetter())) {
+                @Override
+                protected List<String> run() {
+                    return writes;
+                }
+            };
+        }
+
+        @Override
+        protected void mapResponseToRequests(List<String> batchResponse, Collection<CollapsedRequest<String, Write<String, Integer>>> requests) {
+            int i = 0;
+            for (CollapsedRequest<String, Write<String, Integer>> request : requests) {
+                request.setResponse(batchResponse.get(i++));
+            }
+        }
+    }
+}
@@ -0,0 +1,116 @@
+/*
+ * Copyright 2016 Netflix, Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.netflix.hystrix.collapser;
+
+import com.netflix.hystrix.HystrixCollapserKey;
+import com.netflix.hystrix.HystrixCollapserProperties;
+import com.netflix.hystrix.strategy.properties.HystrixPropertiesFactory;
+import org.junit.Before;
+import org.junit.Test;
+
+import java.util.concurrent.atomic.AtomicInteger;
+
+import static org.junit.Assert.*;
+
+public class BatchSizeControllerTest {
+    private static final AtomicInteger keys = new AtomicInteger();
+
+    @Before
+    public void init() {
+        HystrixPropertiesFactory.reset();
+    }
+
+    @Test
+    public void testUnlimitedBeforeFirstTuning() {
+        BatchSizeController controller = newController(500, 100);
+        assertEquals(500, controller.getMaxBatchSize());
+
+        controller.record(8, 1000);
+        assertEquals(500, controller.getMaxBatchSize());
+    }
+
+    @Test
+    public void testChoosesHighestThroughputWithinLatencyTarget() {
+        BatchSizeController controller = newController(Integer.MAX_VALUE, 100);
+        for (int i = 0; i < 3; i++) {
+            controller.record(8, 20);
+            controller.record(16, 40);
+            controller.record(32, 60);
+        }
+        // too slow so it is not chosen although it has the highest throughput
+        controller.record(64, 300);
+
+        assertEquals(32, controller.getMaxBatchSize());
+    }
+
+    @Test
+    public void testProbesNextSizeWhenLargestIsWithinLatencyTarget() {
+        BatchSizeController controller = newController(Integer.MAX_VALUE, 100);
+        recordTuneInterval(controller, 8, 10);
+        assertEquals(16, controller.getMaxBatchSize());
+
+        recordTuneInterval(controller, 16, 15);
+        assertEquals(32, controller.getMaxBatchSize());
+    }
+
+    @Test
+    public void testBacksOffWhenAllSizesAreTooSlow() {
+        BatchSizeController controller = newController(Integer.MAX_VALUE, 100);
+        recordTuneInterval(controller, 64, 500);
+        assertEquals(32, controller.getMaxBatchSize());
+
+        recordTuneInterval(controller, 32, 500);
+        assertEquals(16, controller.getMaxBatchSize());
+    }
+
+    @Test
+    public void testNeverExceedsMaxRequestsInBatch() {
+        BatchSizeController controller = newController(10, 100);
+        recordTuneInterval(controller, 8, 10);
+        assertEquals(10, controller.getMaxBatchSize());
+    }
+
+    @Test
+    public void testForgetsSizesThatWereNotMeasuredRecently() {
+        BatchSizeController controller = newController(Integer.MAX_VALUE, 100);
+        for (int i = 0; i < BatchSizeController.TUNE_INTERVAL / 2; i++) {
+            controller.record(8, 10);
+            controller.record(16, 500);
+        }
+        assertEquals(8, controller.getMaxBatchSize());
+
+        for (int i = 0; i < BatchSizeController.FORGET_AFTER_TUNES; i++) {
+            recordTuneInterval(controller, 8, 10);
+        }
+        // the slow measurement of 16 was forgotten so it is probed again
+        assertEquals(16, controller.getMaxBatchSize());
+    }
+
+    private static void recordTuneInterval(BatchSizeController controller, int batchSize, long latency) {
+        for (int i = 0; i < BatchSizeController.TUNE_INTERVAL; i++) {
+            controller.record(batchSize, latency);
+        }
+    }
+
+    private static BatchSizeController newController(int maxRequestsInBatch, int latencyTarget) {
+        // use a unique key for each controller as we don't want caching of properties between tests
+        HystrixCollapserKey key = HystrixCollapserKey.Factory.asKey("BatchSizeControllerTest-" + keys.incrementAndGet());
+        return new BatchSizeController(HystrixPropertiesFactory.getCollapserProperties(key, HystrixCollapserProperties.Setter()
+                .withMaxRequestsInBatch(maxRequestsInBatch)
+                .withAdaptiveBatchSizeEnabled(true)
+                .withAdaptiveBatchSizeLatencyTargetInMilliseconds(latencyTarget)));
+    }
+}
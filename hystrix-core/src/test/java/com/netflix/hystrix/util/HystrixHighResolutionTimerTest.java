@@ -0,0 +1,120 @@
+/*
+ * Copyright 2016 Netflix, Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.netflix.hystrix.util;
+
+import com.netflix.hystrix.util.HystrixHighResolutionTimer.HighResolutionTimerListener;
+import com.netflix.hystrix.util.HystrixTimer.TimerListener;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import java.lang.ref.Reference;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import static org.junit.Assert.*;
+
+public class HystrixHighResolutionTimerTest {
+
+    @Before
+    public void setUp() {
+        HystrixHighResolutionTimer.reset();
+    }
+
+    @After
+    public void tearDown() {
+        HystrixHighResolutionTimer.reset();
+    }
+
+    @Test
+    public void testSubMillisecondInterval() throws InterruptedException {
+        HystrixHighResolutionTimer timer = HystrixHighResolutionTimer.getInstance();
+        TestListener l1 = new TestListener(200);
+        timer.addTimerListener(l1);
+
+        Thread.sleep(100);
+
+        // a 1ms timer would tick at most 100 times, 200us ticks should give us well over that even on a loaded machine
+        System.out.println("l1 ticks: " + l1.tickCount.get() + ", mean jitter: " + timer.getMeanTickJitterInMicroseconds() + "us, max jitter: " + timer.getMaxTickJitterInMicroseconds() + "us");
+        assertTrue(l1.tickCount.get() > 100);
+        assertTrue(timer.getMeanTickJitterInMicroseconds() >= 0);
+        assertTrue(timer.getMaxTickJitterInMicroseconds() >= timer.getMeanTickJitterInMicroseconds());
+    }
+
+    @Test
+    public void testClearStopsTicks() throws InterruptedException {
+        HystrixHighResolutionTimer timer = HystrixHighResolutionTimer.getInstance();
+        TestListener l1 = new TestListener(500);
+        Reference<TimerListener> ref = timer.addTimerListener(l1);
+
+        Thread.sleep(20);
+        assertTrue(l1.tickCount.get() > 0);
+
+        ref.clear();
+        // allow a tick in progress to finish
+        Thread.sleep(5);
+        int ticksAfterClear = l1.tickCount.get();
+        Thread.sleep(20);
+        assertEquals(ticksAfterClear, l1.tickCount.get());
+    }
+
+    @Test
+    public void testResetRestartsOnNextListener() throws InterruptedException {
+        HystrixHighResolutionTimer timer = HystrixHighResolutionTimer.getInstance();
+        TestListener l1 = new TestListener(500);
+        timer.addTimerListener(l1);
+        Thread.sleep(20);
+        HystrixHighResolutionTimer.reset();
+        Thread.sleep(5);
+        int ticksAfterReset = l1.tickCount.get();
+        assertEquals(0, timer.getMaxTickJitterInMicroseconds());
+
+        TestListener l2 = new TestListener(500);
+        timer.addTimerListener(l2);
+        Thread.sleep(20);
+        assertEquals(ticksAfterReset, l1.tickCount.get());
+        assertTrue(l2.tickCount.get() > 0);
+    }
+
+    @Test(expected = IllegalArgumentException.class)
+    public void testRejectsIntervalWithoutMicroseconds() {
+        HystrixHighResolutionTimer.getInstance().addTimerListener(new TestListener(0));
+    }
+
+    private static class TestListener implements HighResolutionTimerListener {
+
+        private final int interval;
+        AtomicInteger tickCount = new AtomicInteger();
+
+        TestListener(int intervalInMicroseconds) {
+            this.interval = intervalInMicroseconds;
+        }
+
+        @Override
+        public void tick() {
+            tickCount.incrementAndGet();
+        }
+
+        @Override
+        public int getIntervalTimeInMilliseconds() {
+            return 1;
+        }
+
+        @Override
+        public int getIntervalTimeInMicroseconds() {
+            return interval;
+        }
+    }
+}